@@ -43,7 +43,7 @@ public class AllStoriesItemsList extends ItemsList implements MarkAllReadDialogL
 
 		setTitle(getResources().getString(R.string.all_stories));
 
-		apiManager = new APIManager(this);
+		apiManager = APIManager.getInstance(this);
 		resolver = getContentResolver();
 
         if (bundle != null) {
@@ -56,7 +56,7 @@ public class AllStoriesItemsList extends ItemsList implements MarkAllReadDialogL
             // if we're in Focus mode, only query for feeds with a nonzero focus count
             if (this.currentState == AppConstants.STATE_BEST) {
                 Cursor cursor = resolver.query(FeedProvider.FEEDS_URI, null, DatabaseConstants.FEED_FILTER_FOCUS, null, null);
-                while (cursor.moveToNext() && (feedIds.size() <= AppConstants.MAX_FEED_LIST_SIZE)) {
+                while (cursor.moveToNext()) {
                     feedIds.add(cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_ID)));
                 }
                 cursor.close();
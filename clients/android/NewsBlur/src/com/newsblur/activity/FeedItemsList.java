@@ -40,7 +40,7 @@ public class FeedItemsList extends ItemsList {
 	protected void onCreate(Bundle bundle) {
 		super.onCreate(bundle);
 
-		apiManager = new APIManager(this);
+		apiManager = APIManager.getInstance(this);
 		feedId = getIntent().getStringExtra(EXTRA_FEED);
         feedTitle = getIntent().getStringExtra(EXTRA_FEED_TITLE);
         folderName = getIntent().getStringExtra(EXTRA_FOLDER_NAME);
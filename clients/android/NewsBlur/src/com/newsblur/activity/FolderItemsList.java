@@ -22,7 +22,6 @@ import com.newsblur.fragment.MarkAllReadDialogFragment;
 import com.newsblur.fragment.MarkAllReadDialogFragment.MarkAllReadDialogListener;
 import com.newsblur.network.APIManager;
 import com.newsblur.network.MarkFolderAsReadTask;
-import com.newsblur.util.AppConstants;
 import com.newsblur.util.DefaultFeedView;
 import com.newsblur.util.FeedSet;
 import com.newsblur.util.FeedUtils;
@@ -49,13 +48,13 @@ public class FolderItemsList extends ItemsList implements MarkAllReadDialogListe
             feedIds = new ArrayList<String>();
             final Uri feedsUri = FeedProvider.FEED_FOLDER_MAP_URI.buildUpon().appendPath(folderName).build();
             Cursor cursor = getContentResolver().query(feedsUri, new String[] { DatabaseConstants.FEED_ID }, DatabaseConstants.getStorySelectionFromState(currentState), null, null);
-            while (cursor.moveToNext() && (feedIds.size() <= AppConstants.MAX_FEED_LIST_SIZE)) {
+            while (cursor.moveToNext()) {
                 feedIds.add(cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_ID)));
             }
             cursor.close();
         }
 
-		apiManager = new APIManager(this);
+		apiManager = APIManager.getInstance(this);
 
 		super.onCreate(bundle);
 		setTitle(folderName);
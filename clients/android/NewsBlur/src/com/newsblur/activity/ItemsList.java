@@ -15,6 +15,7 @@ import com.newsblur.fragment.ReadFilterDialogFragment;
 import com.newsblur.fragment.StoryOrderDialogFragment;
 import com.newsblur.service.NBSyncService;
 import com.newsblur.util.AppConstants;
+import com.newsblur.util.ChangeSet;
 import com.newsblur.util.DefaultFeedView;
 import com.newsblur.util.DefaultFeedViewChangedListener;
 import com.newsblur.util.FeedSet;
@@ -147,11 +148,13 @@ public abstract class ItemsList extends NbActivity implements StateChangedListen
     protected abstract DefaultFeedView getDefaultFeedView();
 	
     @Override
-	public void handleUpdate() {
+	public void handleUpdate(ChangeSet changes) {
         setProgressBarIndeterminateVisibility(NBSyncService.isFeedSetSyncing(this.fs));
 		if (itemListFragment != null) {
             itemListFragment.syncDone();
-			itemListFragment.hasUpdated();
+            if (changes.affectsStories(this.fs)) {
+			    itemListFragment.hasUpdated();
+            }
         }
     }
 
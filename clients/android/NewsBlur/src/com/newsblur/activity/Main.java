@@ -20,6 +20,7 @@ import com.newsblur.fragment.FolderListFragment;
 import com.newsblur.fragment.LogoutDialogFragment;
 import com.newsblur.service.BootReceiver;
 import com.newsblur.service.NBSyncService;
+import com.newsblur.util.ChangeSet;
 import com.newsblur.util.PrefsUtils;
 import com.newsblur.util.UIUtils;
 import com.newsblur.view.StateToggleButton.StateChangedListener;
@@ -126,8 +127,10 @@ public class Main extends NbActivity implements StateChangedListener, SwipeRefre
 	}
 
     @Override
-	public void handleUpdate() {
-		folderFeedList.hasUpdated();
+	public void handleUpdate(ChangeSet changes) {
+        if (changes.affectsFeedsFolders()) {
+		    folderFeedList.hasUpdated();
+        }
         updateStatusIndicators();
 	}
 
@@ -3,10 +3,14 @@ package com.newsblur.activity;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.newsblur.service.NBSyncService;
 import com.newsblur.util.AppConstants;
+import com.newsblur.util.ChangeSet;
 import com.newsblur.util.PrefsUtils;
 
 import java.util.ArrayList;
@@ -26,6 +30,36 @@ public class NbActivity extends Activity {
      * local, unfiltered broadcast manager.
      */
     private static ArrayList<NbActivity> AllActivities = new ArrayList<NbActivity>();
+
+    /**
+     * Updates are not delivered immediately, but collected into a single pending change set that
+     * is dispatched on the UI thread after a short delay, and no more often than a set rate. This
+     * keeps a burst of sync activity from making every activity re-query for each step.
+     */
+    private static final Handler UpdateHandler = new Handler(Looper.getMainLooper());
+    private static final Object UPDATE_MUTEX = new Object();
+    private static ChangeSet PendingChanges = null;
+    private static long LastUpdateDispatch = 0L;
+
+    private static final Runnable DispatchUpdates = new Runnable() {
+        public void run() {
+            ChangeSet changes;
+            synchronized (UPDATE_MUTEX) {
+                changes = PendingChanges;
+                PendingChanges = null;
+                LastUpdateDispatch = SystemClock.uptimeMillis();
+            }
+            if (changes == null) return;
+            if (AppConstants.VERBOSE_LOG) Log.d(NbActivity.class.getName(), "dispatching UI update: " + changes);
+            ArrayList<NbActivity> activities;
+            synchronized (AllActivities) {
+                activities = new ArrayList<NbActivity>(AllActivities);
+            }
+            for (NbActivity activity : activities) {
+                activity.handleUpdate(changes);
+            }
+        }
+    };
 	
 	@Override
 	protected void onCreate(Bundle bundle) {
@@ -89,30 +123,39 @@ public class NbActivity extends Activity {
 	}
 
     /**
-     * Called on each NB activity after the DB has been updated by the sync service. This method
-     * should return as quickly as possible.
+     * Called on the UI thread of each NB activity after the DB or sync status has been updated.
+     * Implementations should use the change set to skip re-querying data that cannot have changed.
+     * This method should return as quickly as possible.
      */
-    protected void handleUpdate() {
+    protected void handleUpdate(ChangeSet changes) {
         Log.w(this.getClass().getName(), "activity doesn't implement handleUpdate");
     }
 
-    private void _handleUpdate() {
-        runOnUiThread(new Runnable() {
-            public void run() {
-                handleUpdate();
-            }
-        });
+    /**
+     * Notify all activities in the app that something could have changed, when the caller can't be
+     * more specific.
+     */
+    public static void updateAllActivities() {
+        updateAllActivities(ChangeSet.everything());
     }
 
     /**
-     * Notify all activities in the app that the DB has been updated. Should only be called
-     * by the sync service, which owns updating the DB.
+     * Notify all activities in the app that the DB or sync status has been updated. May be called
+     * from any thread. Updates are coalesced, so activities will see the merged change set of all
+     * calls made since they were last updated.
      */
-    public static void updateAllActivities() {
-        synchronized (AllActivities) {
-            for (NbActivity activity : AllActivities) {
-                activity._handleUpdate();
+    public static void updateAllActivities(ChangeSet changes) {
+        synchronized (UPDATE_MUTEX) {
+            if (PendingChanges != null) {
+                // a dispatch is already scheduled and will carry this change with it
+                PendingChanges.merge(changes);
+                return;
             }
+            PendingChanges = ChangeSet.status();
+            PendingChanges.merge(changes);
+            long sinceLast = SystemClock.uptimeMillis() - LastUpdateDispatch;
+            long delay = Math.max(AppConstants.UI_UPDATE_DEBOUNCE_MILLIS, AppConstants.UI_UPDATE_MIN_INTERVAL_MILLIS - sinceLast);
+            UpdateHandler.postDelayed(DispatchUpdates, delay);
         }
     }
 
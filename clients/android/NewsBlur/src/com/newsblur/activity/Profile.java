@@ -34,7 +34,7 @@ public class Profile extends NbActivity {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_profile);
 		getActionBar().setDisplayHomeAsUpEnabled(true);
-		apiManager = new APIManager(this);
+		apiManager = APIManager.getInstance(this);
 		userId = getIntent().getStringExtra(USER_ID);
 		
 		fragmentManager = getFragmentManager();
@@ -35,9 +35,9 @@ import com.newsblur.domain.Story;
 import com.newsblur.fragment.ReadingItemFragment;
 import com.newsblur.fragment.ShareDialogFragment;
 import com.newsblur.fragment.TextSizeDialogFragment;
-import com.newsblur.network.APIManager;
 import com.newsblur.service.NBSyncService;
 import com.newsblur.util.AppConstants;
+import com.newsblur.util.ChangeSet;
 import com.newsblur.util.DefaultFeedView;
 import com.newsblur.util.FeedSet;
 import com.newsblur.util.FeedUtils;
@@ -87,7 +87,6 @@ public abstract class Reading extends NbActivity implements OnPageChangeListener
 	protected ReadingAdapter readingAdapter;
     protected ContentResolver contentResolver;
     protected BlurDatabaseHelper dbHelper;
-    private APIManager apiManager;
     private boolean stopLoading;
     protected FeedSet fs;
 
@@ -135,8 +134,6 @@ public abstract class Reading extends NbActivity implements OnPageChangeListener
         contentResolver = getContentResolver();
         dbHelper = new BlurDatabaseHelper(this);
 
-        this.apiManager = new APIManager(this);
-
         // this value is expensive to compute but doesn't change during a single runtime
         this.overlayRangeTopPx = (float) UIUtils.convertDPsToPixels(this, OVERLAY_RANGE_TOP_DP);
         this.overlayRangeBotPx = (float) UIUtils.convertDPsToPixels(this, OVERLAY_RANGE_BOT_DP);
@@ -148,12 +145,6 @@ public abstract class Reading extends NbActivity implements OnPageChangeListener
         enableProgressCircle(overlayProgressRight, false);
 	}
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (dbHelper != null) dbHelper.close();
-    }
-
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         if (pager != null) {
@@ -300,9 +291,9 @@ public abstract class Reading extends NbActivity implements OnPageChangeListener
 			return true;
 		} else if (item.getItemId() == R.id.menu_reading_save) {
             if (story.starred) {
-			    FeedUtils.unsaveStory(story, Reading.this, apiManager);
+			    FeedUtils.unsaveStory(story, Reading.this);
             } else {
-                FeedUtils.saveStory(story, Reading.this, apiManager);
+                FeedUtils.saveStory(story, Reading.this);
             }
 			return true;
         } else if (item.getItemId() == R.id.menu_reading_markunread) {
@@ -317,9 +308,11 @@ public abstract class Reading extends NbActivity implements OnPageChangeListener
 	}
 
     @Override
-	protected void handleUpdate() {
+	protected void handleUpdate(ChangeSet changes) {
         enableMainProgress(NBSyncService.isFeedSetSyncing(this.fs));
-        updateCursor();
+        if (changes.affectsStories(this.fs)) {
+            updateCursor();
+        }
     }
 
     private void updateCursor() {
@@ -1,13 +1,17 @@
 package com.newsblur.activity;
 
 import com.newsblur.R;
+import com.newsblur.service.SyncMetrics;
 import com.newsblur.util.PrefConstants;
 import com.newsblur.util.PrefsUtils;
 import com.newsblur.util.UIUtils;
 
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
+import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceCategory;
 import android.preference.PreferenceManager;
@@ -33,6 +37,27 @@ public class Settings extends PreferenceActivity implements SharedPreferences.On
             PreferenceCategory readingCategory = (PreferenceCategory)findPreference("reading");
             getPreferenceScreen().removePreference(readingCategory);
         }
+
+        findPreference(PrefConstants.SYNC_METRICS).setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            public boolean onPreferenceClick(Preference preference) {
+                showSyncMetrics();
+                return true;
+            }
+        });
+    }
+
+    private void showSyncMetrics() {
+        String report = SyncMetrics.getReport();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.settings_sync_metrics);
+        builder.setMessage((report != null) ? report : getString(R.string.sync_metrics_none));
+        builder.setPositiveButton(R.string.sync_metrics_dump, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                SyncMetrics.dumpToLog();
+            }
+        });
+        builder.setNegativeButton(R.string.alert_dialog_close, null);
+        builder.show();
     }
 
     @Override
@@ -30,7 +30,7 @@ public class SocialFeedItemsList extends ItemsList {
 	protected void onCreate(Bundle bundle) {
 		super.onCreate(bundle);
 
-		apiManager = new APIManager(this);
+		apiManager = APIManager.getInstance(this);
 		
 		username = getIntent().getStringExtra(EXTRA_BLURBLOG_USERNAME);
 		userIcon = getIntent().getStringExtra(EXTRA_BLURBLOG_USER_ICON );
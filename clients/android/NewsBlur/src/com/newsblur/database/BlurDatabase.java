@@ -3,13 +3,27 @@ package com.newsblur.database;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 public class BlurDatabase extends SQLiteOpenHelper {
 
 	private final String TEXT = " text";
 	private final String INTEGER = " integer";
 	public final static String DB_NAME = "blur.db";
-	private final static int VERSION = 2;
+	private final static int VERSION = 7;
+
+	private static BlurDatabase Instance;
+
+	/**
+	 * Gets the one helper for the app's DB that everything in the process should share, so
+	 * that all reads and writes go through the same connection pool.
+	 */
+	public static synchronized BlurDatabase getInstance(Context context) {
+		if (Instance == null) {
+			Instance = new BlurDatabase(context.getApplicationContext());
+		}
+		return Instance;
+	}
 
 	public BlurDatabase(Context context) {
 		super(context, DB_NAME, null, VERSION);
@@ -130,6 +144,158 @@ public class BlurDatabase extends SQLiteOpenHelper {
         DatabaseConstants.STARRED_STORY_COUNT_COUNT + INTEGER + " NOT NULL" +
         ")";
 
+    private final String ACTION_SQL = "CREATE TABLE IF NOT EXISTS " + DatabaseConstants.ACTION_TABLE + " (" +
+        DatabaseConstants.ACTION_ID + INTEGER + " PRIMARY KEY AUTOINCREMENT, " +
+        DatabaseConstants.ACTION_TIME + INTEGER + " NOT NULL, " +
+        DatabaseConstants.ACTION_TRIES + INTEGER + " NOT NULL DEFAULT 0, " +
+        DatabaseConstants.ACTION_FAILURES + INTEGER + " NOT NULL DEFAULT 0, " +
+        DatabaseConstants.ACTION_TYPE + TEXT + " NOT NULL, " +
+        DatabaseConstants.ACTION_STORY_HASH + TEXT + " NOT NULL, " +
+        DatabaseConstants.ACTION_FEED_ID + TEXT +
+        ")";
+
+    private final String SYNC_CHECKPOINT_SQL = "CREATE TABLE IF NOT EXISTS " + DatabaseConstants.SYNC_CHECKPOINT_TABLE + " (" +
+        DatabaseConstants.SYNC_CHECKPOINT_TYPE + TEXT + " NOT NULL, " +
+        DatabaseConstants.SYNC_CHECKPOINT_KEY + TEXT + " NOT NULL, " +
+        DatabaseConstants.SYNC_CHECKPOINT_PAGES + INTEGER + ", " +
+        DatabaseConstants.SYNC_CHECKPOINT_STORIES + INTEGER + ", " +
+        DatabaseConstants.SYNC_CHECKPOINT_EXHAUSTED + INTEGER + ", " +
+        "PRIMARY KEY (" + DatabaseConstants.SYNC_CHECKPOINT_TYPE + ", " + DatabaseConstants.SYNC_CHECKPOINT_KEY + ") " +
+        ")";
+
+    private final String HTTP_VALIDATOR_SQL = "CREATE TABLE IF NOT EXISTS " + DatabaseConstants.HTTP_VALIDATOR_TABLE + " (" +
+        DatabaseConstants.HTTP_VALIDATOR_URL + TEXT + " PRIMARY KEY, " +
+        DatabaseConstants.HTTP_VALIDATOR_ETAG + TEXT + ", " +
+        DatabaseConstants.HTTP_VALIDATOR_LAST_MODIFIED + TEXT + ", " +
+        DatabaseConstants.HTTP_VALIDATOR_SUMMARY + TEXT + ", " +
+        DatabaseConstants.HTTP_VALIDATOR_IS_STORIES + INTEGER + " NOT NULL DEFAULT 0" +
+        ")";
+
+    private final String UNREAD_COUNT_SQL = "CREATE TABLE IF NOT EXISTS " + DatabaseConstants.UNREAD_COUNT_TABLE + " (" +
+        DatabaseConstants.UNREAD_COUNT_TYPE + TEXT + " NOT NULL, " +
+        DatabaseConstants.UNREAD_COUNT_KEY + TEXT + " NOT NULL, " +
+        DatabaseConstants.UNREAD_COUNT_POSITIVE + INTEGER + " NOT NULL DEFAULT 0, " +
+        DatabaseConstants.UNREAD_COUNT_NEUTRAL + INTEGER + " NOT NULL DEFAULT 0, " +
+        DatabaseConstants.UNREAD_COUNT_NEGATIVE + INTEGER + " NOT NULL DEFAULT 0, " +
+        "PRIMARY KEY (" + DatabaseConstants.UNREAD_COUNT_TYPE + ", " + DatabaseConstants.UNREAD_COUNT_KEY + ") " +
+        ")";
+
+    private final String UNREAD_COUNT_PAUSE_SQL = "CREATE TABLE IF NOT EXISTS " + DatabaseConstants.UNREAD_COUNT_PAUSE_TABLE + " (" +
+        DatabaseConstants.UNREAD_COUNT_PAUSE_REASON + TEXT + " PRIMARY KEY" +
+        ")";
+
+    // the indices below are chosen to suit the queries the app actually runs.  each extra index on
+    // the story table slows down story inserts, so don't add one without a query that needs it.
+
+    // stories for a feed by read state, in time order: feed story lists, per-feed hashes and unread
+    // counts, and cleanup of old read stories
+    private final String STORY_FEED_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.STORY_TABLE + "_feed_read_timestamp" +
+        " ON " + DatabaseConstants.STORY_TABLE + " (" + DatabaseConstants.STORY_FEED_ID + ", " + DatabaseConstants.STORY_READ + ", " + DatabaseConstants.STORY_TIMESTAMP + ")";
+
+    // stories by hash: marking read and reconciling against the API's unread hashes
+    private final String STORY_HASH_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.STORY_TABLE + "_hash" +
+        " ON " + DatabaseConstants.STORY_TABLE + " (" + DatabaseConstants.STORY_HASH + ")";
+
+    // unread stories, in time order: unread hashes and the all-stories river
+    private final String STORY_READ_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.STORY_TABLE + "_read_timestamp" +
+        " ON " + DatabaseConstants.STORY_TABLE + " (" + DatabaseConstants.STORY_READ + ", " + DatabaseConstants.STORY_TIMESTAMP + ")";
+
+    // saved stories, in the order they were saved
+    private final String STORY_STARRED_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.STORY_TABLE + "_starred_date" +
+        " ON " + DatabaseConstants.STORY_TABLE + " (" + DatabaseConstants.STORY_STARRED + ", " + DatabaseConstants.STORY_STARRED_DATE + ")";
+
+    private final String COMMENT_STORY_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.COMMENT_TABLE + "_storyid" +
+        " ON " + DatabaseConstants.COMMENT_TABLE + " (" + DatabaseConstants.COMMENT_STORYID + ")";
+
+    private final String REPLY_COMMENT_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.REPLY_TABLE + "_commentid" +
+        " ON " + DatabaseConstants.REPLY_TABLE + " (" + DatabaseConstants.REPLY_COMMENTID + ")";
+
+    // the primary key leads with the story, but stories are looked up by the sharing user
+    private final String SOCIALFEED_STORY_USER_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE + "_user_id" +
+        " ON " + DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE + " (" + DatabaseConstants.SOCIALFEED_STORY_USER_ID + ")";
+
+    private final String CLASSIFIER_ID_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.CLASSIFIER_TABLE + "_id" +
+        " ON " + DatabaseConstants.CLASSIFIER_TABLE + " (" + DatabaseConstants.CLASSIFIER_ID + ")";
+
+    // feeds by folder are found via the primary key, but the unread count triggers go the other way
+    private final String FEED_FOLDER_FEED_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.FEED_FOLDER_MAP_TABLE + "_feed_id" +
+        " ON " + DatabaseConstants.FEED_FOLDER_MAP_TABLE + " (" + DatabaseConstants.FEED_FOLDER_FEED_ID + ")";
+
+    private final String ACTION_HASH_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + DatabaseConstants.ACTION_TABLE + "_hash" +
+        " ON " + DatabaseConstants.ACTION_TABLE + " (" + DatabaseConstants.ACTION_STORY_HASH + ")";
+
+
+    // Unread counts are kept materialized, so that reading any of them is a single row lookup.
+    // The counts for each feed and social feed live on their own rows and are seeded from the
+    // API.  As stories are marked read or unread, or re-scored, the triggers below adjust those
+    // rows, which in turn adjust the rolled up counts for each folder and for all feeds and all
+    // social feeds.  Each count is split into positive, neutral, and negative stories, by the
+    // same rule as Story.getIntelligenceTotal().
+    //
+    // Story changes that the API's counts already reflect, such as stories found to have been
+    // read elsewhere, are made with a row in the pause table so that they aren't counted twice.
+
+    private final String STORY_UNREAD_COUNT_TRIGGER_SQL = "CREATE TRIGGER IF NOT EXISTS " + DatabaseConstants.STORY_TABLE + "_unread_counts" +
+        " AFTER UPDATE OF " + DatabaseConstants.STORY_READ + ", " + DatabaseConstants.STORY_INTELLIGENCE_AUTHORS + ", " + DatabaseConstants.STORY_INTELLIGENCE_FEED + ", " +
+        DatabaseConstants.STORY_INTELLIGENCE_TAGS + ", " + DatabaseConstants.STORY_INTELLIGENCE_TITLE + " ON " + DatabaseConstants.STORY_TABLE +
+        " WHEN NOT EXISTS (SELECT 1 FROM " + DatabaseConstants.UNREAD_COUNT_PAUSE_TABLE + ")" +
+        " BEGIN" +
+        " UPDATE " + DatabaseConstants.FEED_TABLE + " SET " + storyCountAdjustments() +
+        " WHERE " + DatabaseConstants.FEED_ID + " = NEW." + DatabaseConstants.STORY_FEED_ID + ";" +
+        " UPDATE " + DatabaseConstants.SOCIALFEED_TABLE + " SET " + storyCountAdjustments() +
+        " WHERE " + DatabaseConstants.SOCIAL_FEED_ID + " = NEW." + DatabaseConstants.STORY_SOCIAL_USER_ID +
+        " OR " + DatabaseConstants.SOCIAL_FEED_ID + " IN (SELECT " + DatabaseConstants.SOCIALFEED_STORY_USER_ID + " FROM " + DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE +
+        " WHERE " + DatabaseConstants.SOCIALFEED_STORY_STORYID + " = NEW." + DatabaseConstants.STORY_ID + ");" +
+        " END";
+
+    // the folders a feed is in, plus the all-feeds total
+    private final String FEED_COUNT_TARGETS = "(" + DatabaseConstants.UNREAD_COUNT_TYPE + " = '" + DatabaseConstants.UNREAD_COUNT_TYPE_ALL_FEEDS + "')" +
+        " OR (" + DatabaseConstants.UNREAD_COUNT_TYPE + " = '" + DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER + "' AND " + DatabaseConstants.UNREAD_COUNT_KEY + " IN" +
+        " (SELECT " + DatabaseConstants.FEED_FOLDER_FOLDER_NAME + " FROM " + DatabaseConstants.FEED_FOLDER_MAP_TABLE +
+        " WHERE " + DatabaseConstants.FEED_FOLDER_FEED_ID + " = %s." + DatabaseConstants.FEED_ID + "))";
+
+    private final String SOCIAL_FEED_COUNT_TARGETS = DatabaseConstants.UNREAD_COUNT_TYPE + " = '" + DatabaseConstants.UNREAD_COUNT_TYPE_ALL_SOCIAL + "'";
+
+    private final String FOLDER_COUNT_TARGET = DatabaseConstants.UNREAD_COUNT_TYPE + " = '" + DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER + "'" +
+        " AND " + DatabaseConstants.UNREAD_COUNT_KEY + " = %s." + DatabaseConstants.FEED_FOLDER_FOLDER_NAME;
+
+    // the counts of the feed in a folder mapping
+    private final String MAPPED_FEED_COUNTS = "(SELECT %s FROM " + DatabaseConstants.FEED_TABLE +
+        " WHERE " + DatabaseConstants.FEED_ID + " = %s." + DatabaseConstants.FEED_FOLDER_FEED_ID + ")";
+
+    // a folder has a count row for as long as it has any feeds in it.  A statement in a trigger
+    // takes on the conflict policy of the statement that fired it, so the mapping rows written
+    // with INSERT OR REPLACE would turn an INSERT OR IGNORE of the count row into a replace
+    // that zeroes it.  Checking for the row first leaves no conflict to resolve.
+    private final String FOLDER_UNREAD_COUNT_INSERT_TRIGGER_SQL = "CREATE TRIGGER IF NOT EXISTS " + DatabaseConstants.FEED_FOLDER_MAP_TABLE + "_unread_counts_insert" +
+        " AFTER INSERT ON " + DatabaseConstants.FEED_FOLDER_MAP_TABLE +
+        " BEGIN" +
+        " INSERT INTO " + DatabaseConstants.UNREAD_COUNT_TABLE + " (" + DatabaseConstants.UNREAD_COUNT_TYPE + ", " + DatabaseConstants.UNREAD_COUNT_KEY + ")" +
+        " SELECT '" + DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER + "', NEW." + DatabaseConstants.FEED_FOLDER_FOLDER_NAME +
+        " WHERE NOT EXISTS (SELECT 1 FROM " + DatabaseConstants.UNREAD_COUNT_TABLE + " WHERE " + String.format(FOLDER_COUNT_TARGET, "NEW") + ");" +
+        " UPDATE " + DatabaseConstants.UNREAD_COUNT_TABLE + " SET " + countAdjustments(String.format(MAPPED_FEED_COUNTS, "%1$s", "NEW"), null) +
+        " WHERE " + String.format(FOLDER_COUNT_TARGET, "NEW") + ";" +
+        " END";
+
+    private final String[] UNREAD_COUNT_TRIGGERS_SQL = {
+        STORY_UNREAD_COUNT_TRIGGER_SQL,
+        countTrigger(DatabaseConstants.FEED_TABLE, "INSERT", FEED_COUNT_TARGETS, "NEW", null),
+        countTrigger(DatabaseConstants.FEED_TABLE, "UPDATE", FEED_COUNT_TARGETS, "NEW", "OLD"),
+        countTrigger(DatabaseConstants.FEED_TABLE, "DELETE", FEED_COUNT_TARGETS, null, "OLD"),
+        countTrigger(DatabaseConstants.SOCIALFEED_TABLE, "INSERT", SOCIAL_FEED_COUNT_TARGETS, "NEW", null),
+        countTrigger(DatabaseConstants.SOCIALFEED_TABLE, "UPDATE", SOCIAL_FEED_COUNT_TARGETS, "NEW", "OLD"),
+        countTrigger(DatabaseConstants.SOCIALFEED_TABLE, "DELETE", SOCIAL_FEED_COUNT_TARGETS, null, "OLD"),
+        FOLDER_UNREAD_COUNT_INSERT_TRIGGER_SQL,
+        "CREATE TRIGGER IF NOT EXISTS " + DatabaseConstants.FEED_FOLDER_MAP_TABLE + "_unread_counts_delete" +
+        " AFTER DELETE ON " + DatabaseConstants.FEED_FOLDER_MAP_TABLE +
+        " BEGIN" +
+        " UPDATE " + DatabaseConstants.UNREAD_COUNT_TABLE + " SET " + countAdjustments(null, String.format(MAPPED_FEED_COUNTS, "%1$s", "OLD")) +
+        " WHERE " + String.format(FOLDER_COUNT_TARGET, "OLD") + ";" +
+        " DELETE FROM " + DatabaseConstants.UNREAD_COUNT_TABLE + " WHERE " + String.format(FOLDER_COUNT_TARGET, "OLD") +
+        " AND NOT EXISTS (SELECT 1 FROM " + DatabaseConstants.FEED_FOLDER_MAP_TABLE +
+        " WHERE " + DatabaseConstants.FEED_FOLDER_FOLDER_NAME + " = OLD." + DatabaseConstants.FEED_FOLDER_FOLDER_NAME + ");" +
+        " END"
+    };
 
 	@Override
 	public void onCreate(SQLiteDatabase db) {
@@ -144,10 +310,131 @@ public class BlurDatabase extends SQLiteOpenHelper {
 		db.execSQL(FEED_FOLDER_SQL);
 		db.execSQL(SOCIALFEED_STORIES_SQL);
         db.execSQL(STARRED_STORIES_COUNT_SQL);
+        db.execSQL(ACTION_SQL);
+        db.execSQL(ACTION_HASH_INDEX_SQL);
+        db.execSQL(SYNC_CHECKPOINT_SQL);
+        db.execSQL(HTTP_VALIDATOR_SQL);
+        createIndices(db);
+        createUnreadCounts(db);
 	}
+
+    private void createIndices(SQLiteDatabase db) {
+        db.execSQL(STORY_FEED_INDEX_SQL);
+        db.execSQL(STORY_HASH_INDEX_SQL);
+        db.execSQL(STORY_READ_INDEX_SQL);
+        db.execSQL(STORY_STARRED_INDEX_SQL);
+        db.execSQL(COMMENT_STORY_INDEX_SQL);
+        db.execSQL(REPLY_COMMENT_INDEX_SQL);
+        db.execSQL(SOCIALFEED_STORY_USER_INDEX_SQL);
+        db.execSQL(CLASSIFIER_ID_INDEX_SQL);
+    }
+
+    /**
+     * Creates the unread count tables and their triggers, and fills in the counts from whatever
+     * feeds and folders are already in the DB.
+     */
+    private void createUnreadCounts(SQLiteDatabase db) {
+        db.execSQL(UNREAD_COUNT_SQL);
+        db.execSQL(UNREAD_COUNT_PAUSE_SQL);
+        db.execSQL(FEED_FOLDER_FEED_INDEX_SQL);
+        for (String trigger : UNREAD_COUNT_TRIGGERS_SQL) {
+            db.execSQL(trigger);
+        }
+        fillUnreadCounts(db);
+    }
+
+    /**
+     * Sets every unread count from the feeds and folders in the DB.
+     */
+    private void fillUnreadCounts(SQLiteDatabase db) {
+        String sums = "IFNULL(SUM(" + DatabaseConstants.FEED_POSITIVE_COUNT + "), 0), IFNULL(SUM(" + DatabaseConstants.FEED_NEUTRAL_COUNT + "), 0), IFNULL(SUM(" + DatabaseConstants.FEED_NEGATIVE_COUNT + "), 0)";
+        String insert = "INSERT OR REPLACE INTO " + DatabaseConstants.UNREAD_COUNT_TABLE + " (" +
+            DatabaseConstants.UNREAD_COUNT_TYPE + ", " + DatabaseConstants.UNREAD_COUNT_KEY + ", " +
+            DatabaseConstants.UNREAD_COUNT_POSITIVE + ", " + DatabaseConstants.UNREAD_COUNT_NEUTRAL + ", " + DatabaseConstants.UNREAD_COUNT_NEGATIVE + ") ";
+        db.execSQL(insert + "SELECT '" + DatabaseConstants.UNREAD_COUNT_TYPE_ALL_FEEDS + "', '', " + sums + " FROM " + DatabaseConstants.FEED_TABLE);
+        db.execSQL(insert + "SELECT '" + DatabaseConstants.UNREAD_COUNT_TYPE_ALL_SOCIAL + "', '', " + sums + " FROM " + DatabaseConstants.SOCIALFEED_TABLE);
+        db.execSQL(insert + "SELECT '" + DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER + "', " + DatabaseConstants.FEED_FOLDER_FOLDER_NAME + ", " + sums +
+            " FROM " + DatabaseConstants.FEED_FOLDER_MAP_TABLE +
+            " LEFT JOIN " + DatabaseConstants.FEED_TABLE + " ON " + DatabaseConstants.FEED_TABLE + "." + DatabaseConstants.FEED_ID + " = " + DatabaseConstants.FEED_FOLDER_FEED_ID +
+            " GROUP BY " + DatabaseConstants.FEED_FOLDER_FOLDER_NAME);
+    }
+
+    /**
+     * The SET clause for a feed or social feed row that moves the story in an update trigger
+     * out of the count for its old read state and score and into the one for its new ones.
+     */
+    private static String storyCountAdjustments() {
+        String[] columns = {DatabaseConstants.FEED_POSITIVE_COUNT, DatabaseConstants.FEED_NEUTRAL_COUNT, DatabaseConstants.FEED_NEGATIVE_COUNT};
+        String[] tests = {" > 0", " = 0", " < 0"};
+        StringBuilder set = new StringBuilder();
+        for (int i=0; i<columns.length; i++) {
+            if (i > 0) set.append(", ");
+            set.append(columns[i]).append(" = MAX(0, IFNULL(").append(columns[i]).append(", 0)");
+            set.append(" + ").append(storyCounted("NEW", tests[i])).append(" - ").append(storyCounted("OLD", tests[i])).append(")");
+        }
+        return set.toString();
+    }
+
+    /**
+     * 1 if the given version of a story is unread and its score passes the given test, else 0.
+     */
+    private static String storyCounted(String row, String scoreTest) {
+        String classifiers = row + "." + DatabaseConstants.STORY_INTELLIGENCE_AUTHORS + ", " + row + "." + DatabaseConstants.STORY_INTELLIGENCE_TAGS + ", " + row + "." + DatabaseConstants.STORY_INTELLIGENCE_TITLE;
+        String score = "CASE WHEN MAX(" + classifiers + ") > 0 THEN MAX(" + classifiers + ")" +
+            " WHEN MIN(" + classifiers + ") < 0 THEN MIN(" + classifiers + ")" +
+            " ELSE " + row + "." + DatabaseConstants.STORY_INTELLIGENCE_FEED + " END";
+        return "(CASE WHEN " + row + "." + DatabaseConstants.STORY_READ + " = 0 AND (" + score + ")" + scoreTest + " THEN 1 ELSE 0 END)";
+    }
+
+    /**
+     * A trigger that carries changes to the counts on rows of the given table into the rolled up
+     * counts chosen by the given WHERE clause, in which %s stands for the row that changed.
+     */
+    private static String countTrigger(String table, String event, String targets, String newRow, String oldRow) {
+        String row = (newRow != null) ? newRow : oldRow;
+        return "CREATE TRIGGER IF NOT EXISTS " + table + "_unread_counts_" + event.toLowerCase() +
+            " AFTER " + event + ((event.equals("UPDATE")) ? " OF " + DatabaseConstants.FEED_POSITIVE_COUNT + ", " + DatabaseConstants.FEED_NEUTRAL_COUNT + ", " + DatabaseConstants.FEED_NEGATIVE_COUNT : "") +
+            " ON " + table +
+            " BEGIN" +
+            " UPDATE " + DatabaseConstants.UNREAD_COUNT_TABLE + " SET " +
+            countAdjustments((newRow == null) ? null : newRow + ".%s", (oldRow == null) ? null : oldRow + ".%s") +
+            " WHERE " + String.format(targets, row) + ";" +
+            " END";
+    }
+
+    /**
+     * The SET clause for a row of the unread count table that adds one set of counts and takes
+     * away another, either of which may be null.  Each is a format in which %s stands for the
+     * name of the count column.
+     */
+    private static String countAdjustments(String add, String subtract) {
+        String[] columns = {DatabaseConstants.UNREAD_COUNT_POSITIVE, DatabaseConstants.UNREAD_COUNT_NEUTRAL, DatabaseConstants.UNREAD_COUNT_NEGATIVE};
+        StringBuilder set = new StringBuilder();
+        for (int i=0; i<columns.length; i++) {
+            if (i > 0) set.append(", ");
+            set.append(columns[i]).append(" = ").append(columns[i]);
+            if (add != null) set.append(" + IFNULL(").append(String.format(add, columns[i])).append(", 0)");
+            if (subtract != null) set.append(" - IFNULL(").append(String.format(subtract, columns[i])).append(", 0)");
+        }
+        return set.toString();
+    }
 	
-	public void dropAndRecreateTables() {
-		SQLiteDatabase db = getWritableDatabase();
+	/**
+	 * Wipes the app's DB.  Like any other write, this goes through the DB writer, so that it
+	 * waits for writes already queued rather than competing with them, and nobody sees the DB
+	 * half-empty.
+	 */
+	public static void dropAndRecreateTables(Context context) {
+		final BlurDatabase dbHelper = getInstance(context);
+		DatabaseWriter.getInstance(context).execute(new DatabaseWriter.Write<Void>() {
+			public Void write(SQLiteDatabase db) {
+				dbHelper.dropAndRecreateTables(db);
+				return null;
+			}
+		});
+	}
+
+	private void dropAndRecreateTables(SQLiteDatabase db) {
 		String drop = "DROP TABLE IF EXISTS ";
 		db.execSQL(drop + DatabaseConstants.FEED_TABLE);
 		db.execSQL(drop + DatabaseConstants.SOCIALFEED_TABLE);
@@ -160,17 +447,75 @@ public class BlurDatabase extends SQLiteOpenHelper {
 		db.execSQL(drop + DatabaseConstants.FEED_FOLDER_MAP_TABLE);
 		db.execSQL(drop + DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE);
 		db.execSQL(drop + DatabaseConstants.STARRED_STORY_COUNT_TABLE);
+		db.execSQL(drop + DatabaseConstants.ACTION_TABLE);
+		db.execSQL(drop + DatabaseConstants.SYNC_CHECKPOINT_TABLE);
+		db.execSQL(drop + DatabaseConstants.HTTP_VALIDATOR_TABLE);
+		db.execSQL(drop + DatabaseConstants.UNREAD_COUNT_TABLE);
+		db.execSQL(drop + DatabaseConstants.UNREAD_COUNT_PAUSE_TABLE);
 		
 		onCreate(db);
-		
-		db.close();
 	}
 
+    /**
+     * Brings a DB from an older version of the schema up to date, one version at a time, so
+     * that a DB from any past version ends up the same as a freshly created one.  The framework
+     * runs this whole method in one transaction, so a failed upgrade leaves the old DB intact.
+     *
+     * Steps may only add to the schema or transform data in place.  They must never drop tables
+     * or rows, since the DB holds things like queued actions that exist nowhere else.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int previousVersion, int nextVersion) {
-        // TODO: Handle DB version updates using switch
+        if (previousVersion < 2) {
+            // there is no record of the v1 schema, so the only way forward is to start over
+            Log.w(this.getClass().getName(), "DB schema version " + previousVersion + " is too old to upgrade, recreating");
+            dropAndRecreateTables(db);
+            return;
+        }
+        for (int version = previousVersion + 1; version <= nextVersion; version++) {
+            Log.i(this.getClass().getName(), "upgrading DB schema to version " + version);
+            upgradeTo(db, version);
+        }
+    }
+
+    private void upgradeTo(SQLiteDatabase db, int version) {
+        switch (version) {
+        case 3:
+            db.execSQL(ACTION_SQL);
+            db.execSQL(ACTION_HASH_INDEX_SQL);
+            break;
+        case 4:
+            db.execSQL(SYNC_CHECKPOINT_SQL);
+            break;
+        case 5:
+            db.execSQL(HTTP_VALIDATOR_SQL);
+            break;
+        case 6:
+            createIndices(db);
+            break;
+        case 7:
+            createUnreadCounts(db);
+            break;
+        default:
+            throw new IllegalStateException("no upgrade step for DB schema version " + version);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // with a write-ahead log, reads see the last commit and carry on while the writer works,
+        // rather than waiting on the writer's lock.  This is a no-op for in-memory DBs.
+        if (!db.isReadOnly()) db.enableWriteAheadLogging();
+        // without this, rows replaced by an INSERT OR REPLACE don't fire delete triggers and
+        // their counts would be added a second time
+        db.execSQL("PRAGMA recursive_triggers = ON");
     }
 
+    /**
+     * Gets the DB for reading.  Outside of a transaction, queries are run on one of the pool's
+     * read connections and so are never held up by a write in progress.
+     */
     public SQLiteDatabase getRO() {
         return getReadableDatabase();
     }
@@ -4,7 +4,9 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Loader;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -16,135 +18,379 @@ import com.newsblur.domain.Reply;
 import com.newsblur.domain.SocialFeed;
 import com.newsblur.domain.Story;
 import com.newsblur.domain.UserProfile;
+import com.newsblur.network.APIResponse;
+import com.newsblur.network.ResponseValidators;
 import com.newsblur.network.domain.StoriesResponse;
+import com.newsblur.service.SyncMetrics;
 import com.newsblur.util.AppConstants;
 import com.newsblur.util.FeedUtils;
+import com.newsblur.util.ReadingAction;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * Utility class for executing DB operations on the local, private NB database.
  *
  * It is the intent of this class to be the single location of SQL executed on
  * our DB, replacing the deprecated ContentProvider access pattern.
+ *
+ * All changes are made through the shared DatabaseWriter, so the writing methods
+ * here may be called from any thread and return once their changes are committed.
  */
 public class BlurDatabaseHelper {
 
+
+    public static final String CHECKPOINT_STORY_HASH = "story_hash";
+    public static final String CHECKPOINT_IMAGE = "image";
+    public static final String CHECKPOINT_FEED_SET = "feed_set";
+
     private Context context;
     private BlurDatabase dbWrapper;
     private SQLiteDatabase dbRO;
-    private SQLiteDatabase dbRW;
+    private DatabaseWriter writer;
 
     public BlurDatabaseHelper(Context context) {
         this.context = context;
-        dbWrapper = new BlurDatabase(context);
+        dbWrapper = BlurDatabase.getInstance(context);
         dbRO = dbWrapper.getRO();
-        dbRW = dbWrapper.getRW();
+        writer = DatabaseWriter.getInstance(context);
     }
 
-    public void close() {
-        dbWrapper.close();
+    /**
+     * Deletes old read stories, in small writes so as not to hold up the UI for long.
+     *
+     * @param keepOldStories if true, keep the newest few read stories in each feed.
+     * @param vacuum if true, also give the freed space back to the filesystem.
+     */
+    public CleanupResult cleanupStories(boolean keepOldStories, boolean vacuum) {
+        StoryCleaner cleaner = new StoryCleaner(dbRO, writer);
+        CleanupResult result = cleaner.deleteReadStories(keepOldStories ? AppConstants.MAX_READ_STORIES_STORED : 0);
+        SyncMetrics.noteRowsWritten(result.storiesDeleted);
+        if (vacuum) cleaner.vacuum(result);
+        // conditional requests for pages of stories would now skip stories we no longer have
+        if (result.storiesDeleted > 0) clearStoryHttpValidators();
+        return result;
     }
 
-    public void cleanupStories(boolean keepOldStories) {
-        String q1 = "SELECT " + DatabaseConstants.FEED_ID +
-                    " FROM " + DatabaseConstants.FEED_TABLE;
-        Cursor c = dbRO.rawQuery(q1, null);
-        List<String> feedIds = new ArrayList<String>(c.getCount());
-        while (c.moveToNext()) {
-           feedIds.add(c.getString(c.getColumnIndexOrThrow(DatabaseConstants.FEED_ID)));
-        }
-        c.close();
-        for (String feedId : feedIds) {
-            String q = "DELETE FROM " + DatabaseConstants.STORY_TABLE + 
-                       " WHERE " + DatabaseConstants.STORY_ID + " IN " +
-                       "( SELECT " + DatabaseConstants.STORY_ID + " FROM " + DatabaseConstants.STORY_TABLE +
-                       " WHERE " + DatabaseConstants.STORY_READ + " = 1" +
-                       " AND " + DatabaseConstants.STORY_FEED_ID + " = " + feedId +
-                       " ORDER BY " + DatabaseConstants.STORY_TIMESTAMP + " DESC" +
-                       " LIMIT -1 OFFSET " + (keepOldStories ? AppConstants.MAX_READ_STORIES_STORED : 0) +
-                       ")";
-            dbRW.execSQL(q);
+    /**
+     * Should be called from a write.
+     */
+    private static void bulkInsertValues(SQLiteDatabase dbRW, String table, List<ContentValues> valuesList) {
+        if (valuesList.size() < 1) return;
+        SyncMetrics.noteRowsWritten(valuesList.size());
+        for(ContentValues values: valuesList) {
+            dbRW.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
         }
     }
 
-    public void cleanupFeedsFolders() {
-        dbRW.delete(DatabaseConstants.FEED_TABLE, null, null);
-        dbRW.delete(DatabaseConstants.FOLDER_TABLE, null, null);
-        dbRW.delete(DatabaseConstants.FEED_FOLDER_MAP_TABLE, null, null);
+    /**
+     * Brings the feed, folder, feed-folder map, and social feed tables in line with the given
+     * values, touching only rows that are new, changed, or gone.  All changes are made in a
+     * single write so readers never see a half-updated list.
+     */
+    public FeedFolderChanges updateFeedsFolders(final List<ContentValues> feedValues,
+                                                final List<ContentValues> folderValues,
+                                                final List<ContentValues> ffmValues,
+                                                final List<ContentValues> socialFeedValues) {
+        return writer.execute(new DatabaseWriter.Write<FeedFolderChanges>() {
+            public FeedFolderChanges write(SQLiteDatabase dbRW) {
+                FeedFolderChanges changes = new FeedFolderChanges();
+                int[] counts;
+                counts = syncTableRows(dbRW, DatabaseConstants.FEED_TABLE, new String[]{DatabaseConstants.FEED_ID}, feedValues);
+                changes.feedsInserted = counts[0];
+                changes.feedsUpdated = counts[1];
+                changes.feedsDeleted = counts[2];
+                counts = syncTableRows(dbRW, DatabaseConstants.FOLDER_TABLE, new String[]{DatabaseConstants.FOLDER_NAME}, folderValues);
+                changes.foldersInserted = counts[0];
+                changes.foldersDeleted = counts[2];
+                counts = syncTableRows(dbRW, DatabaseConstants.FEED_FOLDER_MAP_TABLE, new String[]{DatabaseConstants.FEED_FOLDER_FOLDER_NAME, DatabaseConstants.FEED_FOLDER_FEED_ID}, ffmValues);
+                changes.mappingsInserted = counts[0];
+                changes.mappingsDeleted = counts[2];
+                counts = syncTableRows(dbRW, DatabaseConstants.SOCIALFEED_TABLE, new String[]{DatabaseConstants.SOCIAL_FEED_ID}, socialFeedValues);
+                changes.socialFeedsInserted = counts[0];
+                changes.socialFeedsUpdated = counts[1];
+                changes.socialFeedsDeleted = counts[2];
+                return changes;
+            }
+        });
     }
 
-    private void bulkInsertValues(String table, List<ContentValues> valuesList) {
-        if (valuesList.size() < 1) return;
-        dbRW.beginTransaction();
+    /**
+     * Diffs the rows of a table against the desired set of rows, as identified by the given
+     * key columns, and applies only the needed inserts, updates, and deletes. Columns present
+     * in the table but not in the new values are neither compared nor modified.  Should be
+     * called from a write.
+     *
+     * @return the number of rows inserted, updated, and deleted, in that order.
+     */
+    private static int[] syncTableRows(SQLiteDatabase dbRW, String table, String[] keyColumns, List<ContentValues> newValuesList) {
+        int inserted = 0;
+        int updated = 0;
+        int deleted = 0;
+
+        Map<String,ContentValues> newRows = new HashMap<String,ContentValues>(newValuesList.size());
+        for (ContentValues values : newValuesList) {
+            newRows.put(getRowKey(values, keyColumns), values);
+        }
+
+        String whereClause = TextUtils.join(" = ? AND ", keyColumns) + " = ?";
+        Map<String,ContentValues> oldRows = new HashMap<String,ContentValues>();
+        Cursor c = dbRW.query(table, null, null, null, null, null, null);
         try {
-            for(ContentValues values: valuesList) {
-                dbRW.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            while (c.moveToNext()) {
+                ContentValues oldValues = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(c, oldValues);
+                oldRows.put(getRowKey(oldValues, keyColumns), oldValues);
             }
-            dbRW.setTransactionSuccessful();
         } finally {
-            dbRW.endTransaction();
+            c.close();
+        }
+
+        for (Map.Entry<String,ContentValues> entry : oldRows.entrySet()) {
+            if (!newRows.containsKey(entry.getKey())) {
+                deleted += dbRW.delete(table, whereClause, getKeyArgs(entry.getValue(), keyColumns));
+            }
         }
+
+        for (Map.Entry<String,ContentValues> entry : newRows.entrySet()) {
+            ContentValues newValues = entry.getValue();
+            ContentValues oldValues = oldRows.get(entry.getKey());
+            if (oldValues == null) {
+                dbRW.insertWithOnConflict(table, null, newValues, SQLiteDatabase.CONFLICT_REPLACE);
+                inserted++;
+            } else if (rowDiffers(newValues, oldValues)) {
+                updated += dbRW.update(table, newValues, whereClause, getKeyArgs(oldValues, keyColumns));
+            }
+        }
+
+        SyncMetrics.noteRowsWritten(inserted + updated + deleted);
+        return new int[] {inserted, updated, deleted};
     }
 
-    public void insertFeedsFolders(List<ContentValues> feedValues,
-                                   List<ContentValues> folderValues,
-                                   List<ContentValues> ffmValues,
-                                   List<ContentValues> socialFeedValues) {
-        bulkInsertValues(DatabaseConstants.FEED_TABLE, feedValues);
-        bulkInsertValues(DatabaseConstants.FOLDER_TABLE, folderValues);
-        bulkInsertValues(DatabaseConstants.FEED_FOLDER_MAP_TABLE, ffmValues);
-        bulkInsertValues(DatabaseConstants.SOCIALFEED_TABLE, socialFeedValues);
+    private static String getRowKey(ContentValues values, String[] keyColumns) {
+        if (keyColumns.length == 1) return values.getAsString(keyColumns[0]);
+        return TextUtils.join("\u0000", getKeyArgs(values, keyColumns));
+    }
+
+    private static String[] getKeyArgs(ContentValues values, String[] keyColumns) {
+        String[] args = new String[keyColumns.length];
+        for (int i=0; i<keyColumns.length; i++) {
+            args[i] = values.getAsString(keyColumns[i]);
+        }
+        return args;
+    }
+
+    /**
+     * Compares new values against a row read back from the DB, where everything will have
+     * come back as a string and booleans will have been stored as integers.
+     */
+    private static boolean rowDiffers(ContentValues newValues, ContentValues oldValues) {
+        for (Map.Entry<String,Object> entry : newValues.valueSet()) {
+            Object value = entry.getValue();
+            String newValue;
+            if (value == null) {
+                newValue = null;
+            } else if (value instanceof Boolean) {
+                newValue = ((Boolean) value) ? "1" : "0";
+            } else {
+                newValue = value.toString();
+            }
+            if (!TextUtils.equals(newValue, oldValues.getAsString(entry.getKey()))) return true;
+        }
+        return false;
     }
 
     public void updateStarredStoriesCount(int count) {
-        ContentValues values = new ContentValues();
+        final ContentValues values = new ContentValues();
         values.put(DatabaseConstants.STARRED_STORY_COUNT_COUNT, count);
-        // this DB just has one row and one column.  blow it away and replace it.
-        dbRW.delete(DatabaseConstants.STARRED_STORY_COUNT_TABLE, null, null);
-        dbRW.insert(DatabaseConstants.STARRED_STORY_COUNT_TABLE, null, values);
+        writer.execute(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                // this DB just has one row and one column.  blow it away and replace it.
+                dbRW.delete(DatabaseConstants.STARRED_STORY_COUNT_TABLE, null, null);
+                dbRW.insert(DatabaseConstants.STARRED_STORY_COUNT_TABLE, null, values);
+                return null;
+            }
+        });
     }
 
-    public List<String> getStoryHashesForFeed(String feedId) {
-        String q = "SELECT " + DatabaseConstants.STORY_HASH + 
-                   " FROM " + DatabaseConstants.STORY_TABLE +
-                   " WHERE " + DatabaseConstants.STORY_FEED_ID + " = ?";
-        Cursor c = dbRO.rawQuery(q, new String[]{feedId});
-        List<String> hashes = new ArrayList<String>(c.getCount());
-        while (c.moveToNext()) {
-           hashes.add(c.getString(c.getColumnIndexOrThrow(DatabaseConstants.STORY_HASH)));
-        }
-        c.close();
-        return hashes;
+    /**
+     * Reconciles the local story table against the complete set of unread story hashes
+     * reported by the API. The hashes are bulk-loaded into a temp table so that both
+     * the set of stories we are missing and the set of stories that are no longer unread
+     * can be computed with set-based queries, all in a single transaction.
+     *
+     * @param unreadHashes the API's mapping of feed IDs to unread story hashes.
+     * @param feedIds only hashes for these feeds will be considered.
+     * @param markMissingRead whether to mark read any local unread stories not reported by the API.
+     * @return the hashes of unread stories that are not yet in the local DB.
+     */
+    public List<String> reconcileUnreadHashes(final Map<String,String[]> unreadHashes, final Set<String> feedIds, final boolean markMissingRead) {
+        // temp tables are private to a connection, so everything must happen within one write
+        return writer.execute(new DatabaseWriter.Write<List<String>>() {
+            public List<String> write(SQLiteDatabase dbRW) {
+                List<String> missingHashes = new ArrayList<String>();
+                dbRW.execSQL(DatabaseConstants.UNREAD_HASH_TEMP_TABLE_SQL);
+                dbRW.execSQL("DELETE FROM " + DatabaseConstants.UNREAD_HASH_TEMP_TABLE);
+
+                SQLiteStatement insert = dbRW.compileStatement("INSERT OR IGNORE INTO " + DatabaseConstants.UNREAD_HASH_TEMP_TABLE + " (" + DatabaseConstants.STORY_HASH + ") VALUES (?)");
+                try {
+                    for (Map.Entry<String,String[]> entry : unreadHashes.entrySet()) {
+                        if (!feedIds.contains(entry.getKey())) continue;
+                        for (String hash : entry.getValue()) {
+                            insert.bindString(1, hash);
+                            insert.executeInsert();
+                        }
+                    }
+                } finally {
+                    insert.close();
+                }
+
+                Cursor c = dbRW.rawQuery(DatabaseConstants.MISSING_UNREAD_HASHES_QUERY, null);
+                try {
+                    while (c.moveToNext()) {
+                        missingHashes.add(c.getString(0));
+                    }
+                } finally {
+                    c.close();
+                }
+
+                if (markMissingRead) {
+                    // the feed counts from the API already leave out these stories, so the unread count
+                    // triggers mustn't take them out a second time
+                    dbRW.execSQL("INSERT OR IGNORE INTO " + DatabaseConstants.UNREAD_COUNT_PAUSE_TABLE + " VALUES ('reconcile')");
+                    ContentValues values = new ContentValues();
+                    values.put(DatabaseConstants.STORY_READ, true);
+                    int markedCount = dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.NO_LONGER_UNREAD_SELECTION, null);
+                    SyncMetrics.noteRowsWritten(markedCount);
+                    Log.d(BlurDatabaseHelper.class.getName(), "marked " + markedCount + " stories read that are no longer unread");
+                    dbRW.execSQL("DELETE FROM " + DatabaseConstants.UNREAD_COUNT_PAUSE_TABLE);
+                }
+
+                dbRW.execSQL("DELETE FROM " + DatabaseConstants.UNREAD_HASH_TEMP_TABLE);
+                return missingHashes;
+            }
+        });
     }
 
-    public List<String> getUnreadStoryHashes() {
-        String q = "SELECT " + DatabaseConstants.STORY_HASH + 
-                   " FROM " + DatabaseConstants.STORY_TABLE +
-                   " WHERE " + DatabaseConstants.STORY_READ + " = 0" ;
-        Cursor c = dbRO.rawQuery(q, null);
-        List<String> hashes = new ArrayList<String>(c.getCount());
-        while (c.moveToNext()) {
-           hashes.add(c.getString(c.getColumnIndexOrThrow(DatabaseConstants.STORY_HASH)));
-        }
-        c.close();
-        return hashes;
+    /**
+     * Inserts a whole parsed response, along with its users, feeds, and classifiers, in a single
+     * write, so that nothing ever sees the stories without them.  Responses streamed through a
+     * StoryInserter make no such promise.
+     */
+    public void insertStories(final StoriesResponse apiResponse) {
+        writer.execute(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                String impliedFeedId = null;
+                if (apiResponse.stories.length > 0) impliedFeedId = apiResponse.stories[apiResponse.stories.length - 1].feedId;
+                insertStorySupplements(dbRW, apiResponse, impliedFeedId);
+                insertStoryContent(dbRW, apiResponse.stories);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gets a handler that writes out stories as they are streamed from the API, a few at a time,
+     * so that neither the response nor a DB transaction ever has to grow with the page size.
+     * Each few are queued to be written while the rest are still being read.
+     *
+     * The users, feeds, and classifiers that come with the stories follow them in the response,
+     * so they are written last, by finish().  Until then, a query may find stories without them,
+     * so callers should hold off telling the UI about the stories until finish() returns.
+     */
+    public StoryInserter getStoryInserter() {
+        return new StoryInserter();
     }
 
-    public void insertStories(StoriesResponse apiResponse) {
-        // to insert classifiers, we need to determine the feed ID of the stories in this
-        // response, so sniff one out.
-        String impliedFeedId = null;
+    public class StoryInserter implements APIResponse.StoryHandler {
+        private final List<Story> pending = new ArrayList<Story>(AppConstants.STORY_INSERT_CHUNK_SIZE);
+        private final Set<String> feedIds = new HashSet<String>();
+        private final List<String> imageUrls = new ArrayList<String>();
+        private final List<Future<Void>> writes = new ArrayList<Future<Void>>();
+        private String impliedFeedId = null;
+        private int storyCount = 0;
+
+        private StoryInserter() {
+        }
+
+        public void handleStory(Story story) {
+            storyCount++;
+            feedIds.add(story.feedId);
+            if (story.imageUrls != null) {
+                for (String url : story.imageUrls) {
+                    imageUrls.add(url);
+                }
+            }
+            impliedFeedId = story.feedId;
+            pending.add(story);
+            if (pending.size() >= AppConstants.STORY_INSERT_CHUNK_SIZE) flush();
+        }
+
+        /**
+         * Writes out any stories still pending and then the users, feeds, and classifiers that
+         * came with them, and waits for all of it to be committed. Must be called once the whole
+         * response has been read.
+         */
+        public void finish(final StoriesResponse apiResponse) {
+            flush();
+            writer.execute(new DatabaseWriter.Write<Void>() {
+                public Void write(SQLiteDatabase dbRW) {
+                    insertStorySupplements(dbRW, apiResponse, impliedFeedId);
+                    return null;
+                }
+            });
+            // writes are made in order, so the earlier ones are done, but may have failed
+            for (Future<Void> write : writes) {
+                DatabaseWriter.await(write);
+            }
+            writes.clear();
+        }
+
+        private void flush() {
+            if (pending.size() < 1) return;
+            final Story[] stories = pending.toArray(new Story[pending.size()]);
+            writes.add(writer.submit(new DatabaseWriter.Write<Void>() {
+                public Void write(SQLiteDatabase dbRW) {
+                    insertStoryContent(dbRW, stories);
+                    return null;
+                }
+            }));
+            pending.clear();
+        }
 
+        public int getStoryCount() {
+            return storyCount;
+        }
+
+        public Set<String> getFeedIds() {
+            return feedIds;
+        }
+
+        public List<String> getImageUrls() {
+            return imageUrls;
+        }
+    }
+
+    /**
+     * Inserts the users, feeds, and classifiers that accompany stories in a response.
+     *
+     * @param impliedFeedId the feed ID to use for classifiers that the API did not assign one.
+     */
+    private static void insertStorySupplements(SQLiteDatabase dbRW, StoriesResponse apiResponse, String impliedFeedId) {
         // handle users
         if (apiResponse.users != null) {
             List<ContentValues> userValues = new ArrayList<ContentValues>(apiResponse.users.length);
             for (UserProfile user : apiResponse.users) {
                 userValues.add(user.getValues());
             }
-            bulkInsertValues(DatabaseConstants.USER_TABLE, userValues);
+            bulkInsertValues(dbRW, DatabaseConstants.USER_TABLE, userValues);
         }
 
         // handle supplemental feed data that may have been included (usually in social requests)
@@ -153,27 +399,8 @@ public class BlurDatabaseHelper {
             for (Feed feed : apiResponse.feeds) {
                 feedValues.add(feed.getValues());
             }
-            bulkInsertValues(DatabaseConstants.FEED_TABLE, feedValues);
-        }
-
-        // handle story content
-        List<ContentValues> storyValues = new ArrayList<ContentValues>(apiResponse.stories.length);
-        List<ContentValues> socialStoryValues = new ArrayList<ContentValues>();
-        for (Story story : apiResponse.stories) {
-            ContentValues values = story.getValues();
-            // the basic columns are fine for the stories table
-            storyValues.add(values);
-            // if a story was shared by a user, also insert it into the social table under their userid, too
-            for (String sharedUserId : story.sharedUserIds) {
-                ContentValues socialValues = new ContentValues();
-                socialValues.put(DatabaseConstants.SOCIALFEED_STORY_USER_ID, sharedUserId);
-                socialValues.put(DatabaseConstants.SOCIALFEED_STORY_STORYID, values.getAsString(DatabaseConstants.STORY_ID));
-                socialStoryValues.add(socialValues);
-            }
-            impliedFeedId = story.feedId;
+            bulkInsertValues(dbRW, DatabaseConstants.FEED_TABLE, feedValues);
         }
-        bulkInsertValues(DatabaseConstants.STORY_TABLE, storyValues);
-        bulkInsertValues(DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE, socialStoryValues);
 
         // handle classifiers
         if (apiResponse.classifiers != null) {
@@ -183,19 +410,43 @@ public class BlurDatabaseHelper {
                 if (classifierFeedId.equals("-1")) {
                     classifierFeedId = impliedFeedId;
                 }
+                if (classifierFeedId == null) continue;
                 List<ContentValues> classifierValues = entry.getValue().getContentValues();
                 for (ContentValues values : classifierValues) {
                     values.put(DatabaseConstants.CLASSIFIER_ID, classifierFeedId);
                 }
                 dbRW.delete(DatabaseConstants.CLASSIFIER_TABLE, DatabaseConstants.CLASSIFIER_ID + " = ?", new String[] { classifierFeedId });
-                bulkInsertValues(DatabaseConstants.CLASSIFIER_TABLE, classifierValues);
+                bulkInsertValues(dbRW, DatabaseConstants.CLASSIFIER_TABLE, classifierValues);
+            }
+        }
+    }
+
+    /**
+     * Inserts stories along with their social mappings, comments, and replies.
+     */
+    private static void insertStoryContent(SQLiteDatabase dbRW, Story[] stories) {
+        // handle story content
+        List<ContentValues> storyValues = new ArrayList<ContentValues>(stories.length);
+        List<ContentValues> socialStoryValues = new ArrayList<ContentValues>();
+        for (Story story : stories) {
+            ContentValues values = story.getValues();
+            // the basic columns are fine for the stories table
+            storyValues.add(values);
+            // if a story was shared by a user, also insert it into the social table under their userid, too
+            for (String sharedUserId : story.sharedUserIds) {
+                ContentValues socialValues = new ContentValues();
+                socialValues.put(DatabaseConstants.SOCIALFEED_STORY_USER_ID, sharedUserId);
+                socialValues.put(DatabaseConstants.SOCIALFEED_STORY_STORYID, values.getAsString(DatabaseConstants.STORY_ID));
+                socialStoryValues.add(socialValues);
             }
         }
+        bulkInsertValues(dbRW, DatabaseConstants.STORY_TABLE, storyValues);
+        bulkInsertValues(dbRW, DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE, socialStoryValues);
 
         // handle comments
         List<ContentValues> commentValues = new ArrayList<ContentValues>();
         List<ContentValues> replyValues = new ArrayList<ContentValues>();
-        for (Story story : apiResponse.stories) {
+        for (Story story : stories) {
             for (Comment comment : story.publicComments) {
                 comment.storyId = story.id;
                 comment.id = TextUtils.concat(story.id, story.feedId, comment.userId).toString();
@@ -215,46 +466,275 @@ public class BlurDatabaseHelper {
                 }
             }
         }
-        bulkInsertValues(DatabaseConstants.COMMENT_TABLE, commentValues);
-        bulkInsertValues(DatabaseConstants.REPLY_TABLE, replyValues);
+        bulkInsertValues(dbRW, DatabaseConstants.COMMENT_TABLE, commentValues);
+        bulkInsertValues(dbRW, DatabaseConstants.REPLY_TABLE, replyValues);
     }
 
-    public void markStoryHashesRead(List<String> hashes) {
-        // NOTE: attempting to wrap these updates in a transaction for speed makes them silently fail
-        for (String hash : hashes) {
-            ContentValues values = new ContentValues();
-            values.put(DatabaseConstants.STORY_READ, true);
-            dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});
+    /**
+     * Adds actions to the queue of those waiting to be sent to the API.  An action that is the
+     * opposite of one still waiting to be sent cancels it out and neither is sent.  An action that
+     * duplicates one already waiting is dropped.  Actions that have been claimed for sending are
+     * never cancelled, since the API may have already seen them.
+     *
+     * Returns without waiting for the actions to be written, since this is called from the UI.
+     * They will be written before anything queued on the DB writer after them.
+     */
+    public void enqueueActions(final List<ReadingAction> actions) {
+        final String selection = DatabaseConstants.UNCLAIMED_ACTION_SELECTION;
+        writer.submit(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                for (ReadingAction ra : actions) {
+                    int cancelled = dbRW.delete(DatabaseConstants.ACTION_TABLE, selection, new String[]{ra.getStoryHash(), ra.getType().getOpposite().name()});
+                    if (cancelled > 0) continue;
+                    long duplicates = DatabaseUtils.queryNumEntries(dbRW, DatabaseConstants.ACTION_TABLE, selection, new String[]{ra.getStoryHash(), ra.getType().name()});
+                    if (duplicates > 0) continue;
+                    dbRW.insert(DatabaseConstants.ACTION_TABLE, null, ra.getValues());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gets all queued actions in the order they were made, counting this as an attempt to send
+     * each of them.  Once claimed, an action can no longer be cancelled out by an opposing one.
+     * Only call this when about to send them, since the API may see any action once claimed.
+     */
+    public List<ReadingAction> claimActions() {
+        return writer.execute(new DatabaseWriter.Write<List<ReadingAction>>() {
+            public List<ReadingAction> write(SQLiteDatabase dbRW) {
+                List<ReadingAction> actions = new ArrayList<ReadingAction>();
+                dbRW.execSQL("UPDATE " + DatabaseConstants.ACTION_TABLE + " SET " + DatabaseConstants.ACTION_TRIES + " = " + DatabaseConstants.ACTION_TRIES + " + 1");
+                Cursor c = dbRW.query(DatabaseConstants.ACTION_TABLE, null, null, null, null, null, DatabaseConstants.ACTION_ID + " ASC");
+                try {
+                    while (c.moveToNext()) {
+                        actions.add(ReadingAction.fromCursor(c));
+                    }
+                } finally {
+                    c.close();
+                }
+                return actions;
+            }
+        });
+    }
+
+    /**
+     * Removes actions from the queue once the API has accepted them.
+     */
+    public void clearActions(Collection<ReadingAction> actions) {
+        if (actions.size() < 1) return;
+        final StringBuilder ids = new StringBuilder();
+        for (ReadingAction ra : actions) {
+            if (ids.length() > 0) ids.append(",");
+            ids.append(ra.getId());
         }
+        writer.execute(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                dbRW.delete(DatabaseConstants.ACTION_TABLE, DatabaseConstants.ACTION_ID + " IN (" + ids + ")", null);
+                return null;
+            }
+        });
     }
 
-    public int getFeedUnreadCount(String feedId, int readingState) {
-        // calculate the unread count both from the feeds table and the stories table. If
-        // they disagree, use the maximum value seen.
-        int countFromFeedsTable = 0;
-        int countFromStoriesTable = 0;
-
-        // note we have to select the whole story object so we can get all they flavours of unread count and do math on them
-        String q1 = "SELECT " + TextUtils.join(",", DatabaseConstants.FEED_COLUMNS) + 
-                    " FROM " + DatabaseConstants.FEED_TABLE +
-                    " WHERE " +  DatabaseConstants.FEED_ID + "= ?";
-        Cursor c1 = dbRO.rawQuery(q1, new String[]{feedId});
-        if (c1.getCount() > 0) {
-            Feed feed = Feed.fromCursor(c1);
-            countFromFeedsTable = FeedUtils.getFeedUnreadCount(feed, readingState);
+    /**
+     * Counts a failure against actions that the API received and rejected.  Failures to reach
+     * the API at all don't count, since they say nothing about whether an action can succeed.
+     */
+    public void failActions(Collection<ReadingAction> actions) {
+        if (actions.size() < 1) return;
+        final StringBuilder ids = new StringBuilder();
+        for (ReadingAction ra : actions) {
+            if (ids.length() > 0) ids.append(",");
+            ids.append(ra.getId());
+        }
+        writer.execute(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                dbRW.execSQL("UPDATE " + DatabaseConstants.ACTION_TABLE + " SET " + DatabaseConstants.ACTION_FAILURES + " = " + DatabaseConstants.ACTION_FAILURES + " + 1" +
+                             " WHERE " + DatabaseConstants.ACTION_ID + " IN (" + ids + ")");
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gives up on any queued actions that the API has rejected too many times.
+     *
+     * @return the number of actions dropped.
+     */
+    public int dropFailedActions(final int maxFailures) {
+        return writer.execute(new DatabaseWriter.Write<Integer>() {
+            public Integer write(SQLiteDatabase dbRW) {
+                return dbRW.delete(DatabaseConstants.ACTION_TABLE, DatabaseConstants.ACTION_FAILURES + " >= ?", new String[]{Integer.toString(maxFailures)});
+            }
+        });
+    }
+
+    /**
+     * Whether any queued actions have yet to be tried maxTries times.
+     */
+    public boolean hasQueuedActions(int maxTries) {
+        return (DatabaseUtils.queryNumEntries(dbRO, DatabaseConstants.ACTION_TABLE, DatabaseConstants.ACTION_TRIES + " < ?", new String[]{Integer.toString(maxTries)}) > 0);
+    }
+
+    /**
+     * Gets the keys of all sync checkpoints of the given type.
+     */
+    public Set<String> getCheckpointKeys(String type) {
+        Set<String> keys = new HashSet<String>();
+        Cursor c = dbRO.query(DatabaseConstants.SYNC_CHECKPOINT_TABLE, new String[]{DatabaseConstants.SYNC_CHECKPOINT_KEY},
+                              DatabaseConstants.SYNC_CHECKPOINT_TYPE + " = ?", new String[]{type}, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                keys.add(c.getString(0));
+            }
+        } finally {
+            c.close();
         }
-        c1.close();
+        return keys;
+    }
+
+    public void addCheckpoints(final String type, final Collection<String> keys) {
+        if (keys.size() < 1) return;
+        writer.execute(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                SQLiteStatement insert = dbRW.compileStatement("INSERT OR IGNORE INTO " + DatabaseConstants.SYNC_CHECKPOINT_TABLE +
+                                                               " (" + DatabaseConstants.SYNC_CHECKPOINT_TYPE + ", " + DatabaseConstants.SYNC_CHECKPOINT_KEY + ") VALUES (?, ?)");
+                try {
+                    for (String key : keys) {
+                        insert.bindString(1, type);
+                        insert.bindString(2, key);
+                        insert.executeInsert();
+                    }
+                } finally {
+                    insert.close();
+                }
+                return null;
+            }
+        });
+    }
+
+    public void removeCheckpoints(final String type, final Collection<String> keys) {
+        if (keys.size() < 1) return;
+        writer.execute(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                for (String key : keys) {
+                    dbRW.delete(DatabaseConstants.SYNC_CHECKPOINT_TABLE,
+                                DatabaseConstants.SYNC_CHECKPOINT_TYPE + " = ? AND " + DatabaseConstants.SYNC_CHECKPOINT_KEY + " = ?",
+                                new String[]{type, key});
+                }
+                return null;
+            }
+        });
+    }
 
-        // note we can't select count(*) because the actual story state columns are virtual
-        String q2 = "SELECT " + TextUtils.join(",", DatabaseConstants.STORY_COLUMNS) + " FROM " + DatabaseConstants.STORY_TABLE +
-                    " WHERE " +  DatabaseConstants.STORY_FEED_ID + "= ?" +
-                    " AND " + DatabaseConstants.getStorySelectionFromState(readingState) +
-                    " AND " + DatabaseConstants.STORY_READ + " = 0";
-        Cursor c2 = dbRO.rawQuery(q2, new String[]{feedId});
-        countFromStoriesTable = c2.getCount();
-        c2.close();
+    public void clearCheckpoints(final String type) {
+        writer.execute(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                dbRW.delete(DatabaseConstants.SYNC_CHECKPOINT_TABLE, DatabaseConstants.SYNC_CHECKPOINT_TYPE + " = ?", new String[]{type});
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Records how far through the pages of a feed set the sync service has got.
+     */
+    public void setFeedSetCheckpoint(String feedSetKey, int pagesSeen, int storiesSeen, boolean exhausted) {
+        final ContentValues values = new ContentValues();
+        values.put(DatabaseConstants.SYNC_CHECKPOINT_TYPE, CHECKPOINT_FEED_SET);
+        values.put(DatabaseConstants.SYNC_CHECKPOINT_KEY, feedSetKey);
+        values.put(DatabaseConstants.SYNC_CHECKPOINT_PAGES, pagesSeen);
+        values.put(DatabaseConstants.SYNC_CHECKPOINT_STORIES, storiesSeen);
+        values.put(DatabaseConstants.SYNC_CHECKPOINT_EXHAUSTED, exhausted);
+        insertOrReplace(DatabaseConstants.SYNC_CHECKPOINT_TABLE, values);
+    }
+
+    /**
+     * Gets the pagination checkpoints for all feed sets as rows of key, pages, stories, and exhausted.
+     * The caller must close the cursor.
+     */
+    public Cursor getFeedSetCheckpoints() {
+        return dbRO.query(DatabaseConstants.SYNC_CHECKPOINT_TABLE,
+                          new String[]{DatabaseConstants.SYNC_CHECKPOINT_KEY, DatabaseConstants.SYNC_CHECKPOINT_PAGES, DatabaseConstants.SYNC_CHECKPOINT_STORIES, DatabaseConstants.SYNC_CHECKPOINT_EXHAUSTED},
+                          DatabaseConstants.SYNC_CHECKPOINT_TYPE + " = ?", new String[]{CHECKPOINT_FEED_SET}, null, null, null);
+    }
 
-        return Math.max(countFromFeedsTable, countFromStoriesTable);
+    /**
+     * Gets the saved validators for an API URL, or null if there are none.
+     */
+    public ResponseValidators getHttpValidators(String url) {
+        Cursor c = dbRO.query(DatabaseConstants.HTTP_VALIDATOR_TABLE, null,
+                              DatabaseConstants.HTTP_VALIDATOR_URL + " = ?", new String[]{url}, null, null, null);
+        try {
+            if (!c.moveToFirst()) return null;
+            ResponseValidators validators = new ResponseValidators(url,
+                                                                   c.getString(c.getColumnIndexOrThrow(DatabaseConstants.HTTP_VALIDATOR_ETAG)),
+                                                                   c.getString(c.getColumnIndexOrThrow(DatabaseConstants.HTTP_VALIDATOR_LAST_MODIFIED)),
+                                                                   (c.getInt(c.getColumnIndexOrThrow(DatabaseConstants.HTTP_VALIDATOR_IS_STORIES)) == 1));
+            validators.setSummary(c.getString(c.getColumnIndexOrThrow(DatabaseConstants.HTTP_VALIDATOR_SUMMARY)));
+            return validators;
+        } finally {
+            c.close();
+        }
+    }
+
+    public void putHttpValidators(ResponseValidators validators) {
+        final ContentValues values = new ContentValues();
+        values.put(DatabaseConstants.HTTP_VALIDATOR_URL, validators.getUrl());
+        values.put(DatabaseConstants.HTTP_VALIDATOR_ETAG, validators.getETag());
+        values.put(DatabaseConstants.HTTP_VALIDATOR_LAST_MODIFIED, validators.getLastModified());
+        values.put(DatabaseConstants.HTTP_VALIDATOR_SUMMARY, validators.getSummary());
+        values.put(DatabaseConstants.HTTP_VALIDATOR_IS_STORIES, validators.isStories());
+        insertOrReplace(DatabaseConstants.HTTP_VALIDATOR_TABLE, values);
+    }
+
+    /**
+     * Forgets the validators for any API results made of stories, so that they will be fetched
+     * in full next time.  Must be called whenever stories are removed from the DB.
+     */
+    public void clearStoryHttpValidators() {
+        writer.execute(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                dbRW.delete(DatabaseConstants.HTTP_VALIDATOR_TABLE, DatabaseConstants.HTTP_VALIDATOR_IS_STORIES + " = 1", null);
+                return null;
+            }
+        });
+    }
+
+    private void insertOrReplace(final String table, final ContentValues values) {
+        writer.execute(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase dbRW) {
+                dbRW.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gets the IDs of all feeds that are in some folder.
+     */
+    public Set<String> getFolderedFeedIds() {
+        Cursor c = dbRO.query(true, DatabaseConstants.FEED_FOLDER_MAP_TABLE, new String[]{DatabaseConstants.FEED_FOLDER_FEED_ID}, null, null, null, null, null, null);
+        Set<String> feedIds = new HashSet<String>(c.getCount());
+        while (c.moveToNext()) {
+            feedIds.add(c.getString(c.getColumnIndexOrThrow(DatabaseConstants.FEED_FOLDER_FEED_ID)));
+        }
+        c.close();
+        return feedIds;
+    }
+
+    public int getFeedUnreadCount(String feedId, int readingState) {
+        // the counts on the feed row are seeded by the API and kept current by triggers as stories
+        // are read, so there is no need to count stories
+        Cursor c = dbRO.query(DatabaseConstants.FEED_TABLE, 
+                              new String[]{DatabaseConstants.FEED_POSITIVE_COUNT, DatabaseConstants.FEED_NEUTRAL_COUNT, DatabaseConstants.FEED_NEGATIVE_COUNT},
+                              DatabaseConstants.FEED_ID + " = ?", new String[]{feedId}, null, null, null);
+        try {
+            if (!c.moveToFirst()) return 0;
+            return FeedUtils.getUnreadCount(c.getInt(0), c.getInt(1), c.getInt(2), readingState);
+        } finally {
+            c.close();
+        }
     }
 
     public Loader<Cursor> getSavedStoriesLoader() {
@@ -264,10 +744,7 @@ public class BlurDatabaseHelper {
     }
 
     public Cursor getSavedStoriesCursor() {
-        String q = DatabaseConstants.MULTIFEED_STORIES_QUERY_BASE + 
-                   " WHERE " + DatabaseConstants.STORY_STARRED + " = 1" +
-                   " ORDER BY " + DatabaseConstants.STARRED_STORY_ORDER;
-        return dbRO.rawQuery(q, null);
+        return dbRO.rawQuery(DatabaseConstants.SAVED_STORIES_QUERY, null);
     }
 
 }
@@ -0,0 +1,23 @@
+package com.newsblur.database;
+
+/**
+ * A summary of what a story cleanup deleted and how much space it freed.
+ */
+public class CleanupResult {
+
+    public int storiesDeleted;
+    public int chunks;
+    // space freed within the DB file, which SQLite will reuse before growing the file
+    public long bytesFreed;
+    // space given back to the filesystem by vacuuming
+    public long bytesReclaimed;
+    public long deleteMillis;
+    public long vacuumMillis;
+
+    @Override
+    public String toString() {
+        return storiesDeleted + " stories deleted in " + chunks + " chunks (" + deleteMillis + "ms), " +
+               (bytesFreed / 1024L) + "KB freed, " + (bytesReclaimed / 1024L) + "KB reclaimed (" + vacuumMillis + "ms)";
+    }
+
+}
@@ -50,6 +50,43 @@ public class DatabaseConstants {
     public static final String STARRED_STORY_COUNT_TABLE = "starred_story_count";
     public static final String STARRED_STORY_COUNT_COUNT = "count";
 
+    public static final String ACTION_TABLE = "action_queue";
+    public static final String ACTION_ID = BaseColumns._ID;
+    public static final String ACTION_TIME = "time";
+    public static final String ACTION_TRIES = "tries";
+    public static final String ACTION_FAILURES = "failures";
+    public static final String ACTION_TYPE = "action_type";
+    public static final String ACTION_STORY_HASH = "story_hash";
+    public static final String ACTION_FEED_ID = "feed_id";
+
+    public static final String SYNC_CHECKPOINT_TABLE = "sync_checkpoints";
+    public static final String SYNC_CHECKPOINT_TYPE = "checkpoint_type";
+    public static final String SYNC_CHECKPOINT_KEY = "checkpoint_key";
+    public static final String SYNC_CHECKPOINT_PAGES = "pages";
+    public static final String SYNC_CHECKPOINT_STORIES = "stories";
+    public static final String SYNC_CHECKPOINT_EXHAUSTED = "exhausted";
+
+    public static final String HTTP_VALIDATOR_TABLE = "http_validators";
+    public static final String HTTP_VALIDATOR_URL = "url";
+    public static final String HTTP_VALIDATOR_ETAG = "etag";
+    public static final String HTTP_VALIDATOR_LAST_MODIFIED = "last_modified";
+    public static final String HTTP_VALIDATOR_SUMMARY = "result_summary";
+    public static final String HTTP_VALIDATOR_IS_STORIES = "is_stories";
+
+    // the count columns share names with those of the feed tables, so the same HAVING clauses work on both
+    public static final String UNREAD_COUNT_TABLE = "unread_counts";
+    public static final String UNREAD_COUNT_TYPE = "count_type";
+    public static final String UNREAD_COUNT_KEY = "count_key";
+    public static final String UNREAD_COUNT_POSITIVE = "ps";
+    public static final String UNREAD_COUNT_NEUTRAL = "nt";
+    public static final String UNREAD_COUNT_NEGATIVE = "ng";
+    public static final String UNREAD_COUNT_TYPE_FOLDER = "folder";
+    public static final String UNREAD_COUNT_TYPE_ALL_FEEDS = "all_feeds";
+    public static final String UNREAD_COUNT_TYPE_ALL_SOCIAL = "all_social";
+
+    public static final String UNREAD_COUNT_PAUSE_TABLE = "unread_count_pauses";
+    public static final String UNREAD_COUNT_PAUSE_REASON = "reason";
+
 	public static final String COMMENT_TABLE = "comments";
 
 	public static final String CLASSIFIER_TABLE = "classifiers";
@@ -176,6 +213,86 @@ public class DatabaseConstants {
 
     public static final String STARRED_STORY_ORDER = STORY_STARRED_DATE + " ASC";
 
+    // the queries below run on hot paths and are shared with QueryPlanTest, which checks that
+    // each is served by an index, so they must only be run as written here
+
+    public static final String SAVED_STORIES_QUERY = MULTIFEED_STORIES_QUERY_BASE +
+        " WHERE " + STORY_STARRED + " = 1" +
+        " ORDER BY " + STARRED_STORY_ORDER;
+
+    public static final String FEED_STORIES_SELECTION = STORY_FEED_ID + " = ?";
+
+    public static final String SOCIAL_STORIES_QUERY_BASE =
+        "SELECT " + TextUtils.join(",", STORY_COLUMNS) + ", " +
+        FEED_TITLE + ", " + FEED_FAVICON_URL + ", " + FEED_FAVICON_COLOR + ", " + FEED_FAVICON_BORDER + ", " + FEED_FAVICON_FADE + ", " + FEED_FAVICON_TEXT +
+        " FROM " + SOCIALFEED_STORY_MAP_TABLE +
+        " INNER JOIN " + STORY_TABLE + " ON " + STORY_TABLE + "." + STORY_ID + " = " + SOCIALFEED_STORY_MAP_TABLE + "." + SOCIALFEED_STORY_STORYID +
+        " INNER JOIN " + FEED_TABLE + " ON " + STORY_TABLE + "." + STORY_FEED_ID + " = " + FEED_TABLE + "." + FEED_ID;
+
+    public static final String SOCIALFEED_STORIES_SELECTION = SOCIALFEED_STORY_MAP_TABLE + "." + SOCIALFEED_STORY_USER_ID + " = ? ";
+
+    public static final String STORY_COMMENTS_SELECTION = COMMENT_STORYID + " = ?";
+
+    public static final String COMMENT_REPLIES_SELECTION = REPLY_COMMENTID + " = ?";
+
+    // folder counts are kept rolled up by triggers (see BlurDatabase), one row per folder
+    public static final String FOLDER_COUNT_JOIN = UNREAD_COUNT_TABLE + "." + UNREAD_COUNT_TYPE + " = '" + UNREAD_COUNT_TYPE_FOLDER + "'" +
+        " AND " + UNREAD_COUNT_TABLE + "." + UNREAD_COUNT_KEY + " = " + FOLDER_TABLE + "." + FOLDER_NAME;
+
+    // Of note about the following query:
+    //  1) the union clause lets ALL_FOLDER queries also select the "root" folder that appears in the UI whether
+    //     or not it has unread stories in it.
+    //  2) the root folder is excluded from the final join so as not to create a duplicate root folder
+    //  3) values of the pos/neut/neg columns for the root folder are ignored by the UI
+    //  4) we use a union rather than a full outer join because sqlite doesn't support the latter
+    //  5) the order of the left and right sides of the union are important: due to an undocumented feature/bug in sqlite,
+    //     if the two sides of the union are reversed, the result columns are incorrectly prefixed.
+    //  6) the counts come from the rolled up folder counts, one row per folder, so the GROUP BY is only there
+    //     to allow the HAVING clauses used to filter by intelligence state
+    public static final String ALL_FOLDERS_QUERY = "SELECT " + FOLDER_ID + ", " + FOLDER_NAME + ", 0 AS " + SUM_POS + ", 0 AS " + SUM_NEUT + ", 0 AS " + SUM_NEG +
+        " FROM " + FOLDER_TABLE +
+        " WHERE " + FOLDER_NAME + "='" + AppConstants.ROOT_FOLDER + "' UNION" +
+        " SELECT " + TextUtils.join(",", FOLDER_COLUMNS) +
+        " FROM " + FOLDER_TABLE +
+        " INNER JOIN " + UNREAD_COUNT_TABLE +
+        " ON " + FOLDER_COUNT_JOIN +
+        " WHERE NOT " + FOLDER_NAME + "='" + AppConstants.ROOT_FOLDER + "'" +
+        " GROUP BY " + FOLDER_TABLE + "." + FOLDER_NAME;
+
+    public static final String ALL_FOLDERS_ORDER = FOLDER_TABLE + "." + FOLDER_NAME + " COLLATE NOCASE";
+
+    public static final String READ_STORY_FEEDS_QUERY = "SELECT DISTINCT " + STORY_FEED_ID + " FROM " + STORY_TABLE +
+        " WHERE " + STORY_READ + " = 1";
+
+    // takes the feed ID and the number of newest read stories to skip
+    public static final String OLD_READ_STORIES_QUERY = "SELECT rowid FROM " + STORY_TABLE +
+        " WHERE " + STORY_READ + " = 1" +
+        " AND " + STORY_FEED_ID + " = ?" +
+        " ORDER BY " + STORY_TIMESTAMP + " DESC" +
+        " LIMIT -1 OFFSET ?";
+
+    public static final String READ_STORY_DELETE_SQL = "DELETE FROM " + STORY_TABLE +
+        " WHERE rowid = ? AND " + STORY_READ + " = 1";
+
+    // the API's unread hashes are loaded here to be compared with the story table
+    public static final String UNREAD_HASH_TEMP_TABLE = "temp_unread_hashes";
+
+    public static final String UNREAD_HASH_TEMP_TABLE_SQL = "CREATE TEMP TABLE IF NOT EXISTS " + UNREAD_HASH_TEMP_TABLE +
+        " (" + STORY_HASH + " TEXT PRIMARY KEY)";
+
+    public static final String MISSING_UNREAD_HASHES_QUERY = "SELECT " + STORY_HASH + " FROM " + UNREAD_HASH_TEMP_TABLE +
+        " WHERE " + STORY_HASH + " NOT IN" +
+        " (SELECT " + STORY_HASH + " FROM " + STORY_TABLE +
+        " WHERE " + STORY_HASH + " IS NOT NULL)";
+
+    public static final String NO_LONGER_UNREAD_SELECTION = STORY_READ + " = 0 AND " + STORY_HASH + " NOT IN" +
+        " (SELECT " + STORY_HASH + " FROM " + UNREAD_HASH_TEMP_TABLE + ")";
+
+    // queued actions that have not yet been claimed for sending, by story hash and type
+    public static final String UNCLAIMED_ACTION_SELECTION = ACTION_STORY_HASH + " = ? AND " +
+        ACTION_TYPE + " = ? AND " +
+        ACTION_TRIES + " = 0";
+
     /**
      * Selection args to filter stories.
      */
@@ -0,0 +1,266 @@
+package com.newsblur.database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.newsblur.util.AppConstants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The one place from which the local DB is written.  Writes from any thread are queued and
+ * carried out in order by a single writer thread, so that writers never compete for the DB
+ * lock, and whatever has piled up while one transaction was running is committed together in
+ * the next, so that a burst of small writes costs only one commit.
+ *
+ * A write that fails rolls back the others it was grouped with, which are then each run again
+ * in a transaction of their own, so a write must be safe to run more than once and must let
+ * any failure propagate rather than swallow it.  A write only completes, and its future only
+ * returns, once it has been committed.
+ */
+public class DatabaseWriter {
+
+    /**
+     * A unit of work to be run on the writer thread against the writable DB.
+     */
+    public interface Write<T> {
+        T write(SQLiteDatabase db);
+    }
+
+    private static DatabaseWriter Instance;
+
+    private final SQLiteOpenHelper dbWrapper;
+    private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<PendingWrite<?>>();
+    private final Thread writerThread;
+    private volatile boolean shutdown = false;
+
+    public static synchronized DatabaseWriter getInstance(Context context) {
+        if (Instance == null) {
+            Instance = new DatabaseWriter(BlurDatabase.getInstance(context));
+        }
+        return Instance;
+    }
+
+    /**
+     * Makes a writer for some DB other than the app's own.  Everything else should share the
+     * instance from getInstance(), since two writers on one DB would compete just the same.
+     */
+    public DatabaseWriter(SQLiteOpenHelper dbWrapper) {
+        this.dbWrapper = dbWrapper;
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                runWrites();
+            }
+        }, this.getClass().getSimpleName());
+        writerThread.start();
+    }
+
+    /**
+     * Queues a write to be run, likely grouped with others, inside a transaction.
+     */
+    public <T> Future<T> submit(Write<T> write) {
+        return enqueue(write, true, null);
+    }
+
+    /**
+     * Queues a write as with submit(), and runs afterCommit on the writer thread once the write
+     * is finished, so that callers who don't wait on it, like the UI, can learn when to requery.
+     */
+    public <T> Future<T> submit(Write<T> write, Runnable afterCommit) {
+        return enqueue(write, true, afterCommit);
+    }
+
+    /**
+     * Runs a write inside a transaction and waits for it to be committed.
+     */
+    public <T> T execute(Write<T> write) {
+        // a write that itself writes through a path that uses the writer is already where it needs to be
+        if (Thread.currentThread() == writerThread) return write.write(dbWrapper.getWritableDatabase());
+        return await(submit(write));
+    }
+
+    /**
+     * Runs a write by itself and outside of any transaction, for the likes of VACUUM that
+     * can't be run inside one, and waits for it to finish.
+     */
+    public <T> T executeUntransacted(Write<T> write) {
+        if (Thread.currentThread() == writerThread) return write.write(dbWrapper.getWritableDatabase());
+        return await(enqueue(write, false, null));
+    }
+
+    private <T> Future<T> enqueue(Write<T> write, boolean transacted, Runnable afterCommit) {
+        if (shutdown) throw new IllegalStateException("writer has been shut down");
+        PendingWrite<T> pw = new PendingWrite<T>(write, transacted, afterCommit);
+        queue.add(pw);
+        return pw.future;
+    }
+
+    /**
+     * Stops the writer thread once it has finished the writes already queued.  No more writes
+     * may be queued afterwards.  Only for writers made with the public constructor, since the
+     * app's own writer lives as long as the process.
+     */
+    public void shutdown() {
+        shutdown = true;
+        writerThread.interrupt();
+    }
+
+    /**
+     * Waits for a submitted write to complete, even if interrupted, since the write will happen
+     * either way and the caller likely expects to see it.  Failures are re-thrown as they were
+     * thrown by the write.
+     */
+    public static <T> T await(Future<T> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWrites() {
+        List<PendingWrite<?>> group = new ArrayList<PendingWrite<?>>(AppConstants.DB_WRITE_GROUP_MAX);
+        while (true) {
+            PendingWrite<?> first = queue.poll();
+            if (first == null) {
+                if (shutdown) return;
+                try {
+                    first = queue.take();
+                } catch (InterruptedException ie) {
+                    continue; // only shutdown() interrupts, so go back and check for it
+                }
+            }
+            group.add(first);
+            boolean transacted = group.get(0).transacted;
+            if (transacted) {
+                // the writer is the queue's only consumer, so whatever it peeks is still there to poll
+                while (group.size() < AppConstants.DB_WRITE_GROUP_MAX) {
+                    PendingWrite<?> next = queue.peek();
+                    if ((next == null) || (!next.transacted)) break;
+                    group.add(queue.poll());
+                }
+            }
+
+            try {
+                SQLiteDatabase db = dbWrapper.getWritableDatabase();
+                if (!transacted) {
+                    group.get(0).run(db);
+                } else if ((!runTransaction(db, group)) && (group.size() > 1)) {
+                    Log.w(this.getClass().getName(), "group of " + group.size() + " writes failed, running each alone");
+                    for (PendingWrite<?> pw : group) {
+                        runTransaction(db, Collections.<PendingWrite<?>>singletonList(pw));
+                    }
+                }
+            } catch (RuntimeException e) {
+                // the DB couldn't even be opened
+                for (PendingWrite<?> pw : group) {
+                    pw.failure = e;
+                }
+            }
+
+            for (PendingWrite<?> pw : group) {
+                pw.future.run();
+                if (pw.afterCommit != null) {
+                    try {
+                        pw.afterCommit.run();
+                    } catch (RuntimeException e) {
+                        Log.e(this.getClass().getName(), "error after committing a write", e);
+                    }
+                }
+            }
+            group.clear();
+        }
+    }
+
+    /**
+     * Runs writes in a single transaction.  Returns false, having rolled back, if any of them
+     * failed or the commit itself did.
+     */
+    private static boolean runTransaction(SQLiteDatabase db, List<PendingWrite<?>> writes) {
+        boolean success = true;
+        try {
+            db.beginTransaction();
+            try {
+                for (PendingWrite<?> pw : writes) {
+                    if (!pw.run(db)) {
+                        success = false;
+                        break;
+                    }
+                }
+                if (success) db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            for (PendingWrite<?> pw : writes) {
+                pw.failure = e;
+            }
+            return false;
+        }
+        return success;
+    }
+
+    private static class PendingWrite<T> implements Callable<T> {
+        final Write<T> write;
+        final boolean transacted;
+        final Runnable afterCommit;
+        final FutureTask<T> future;
+        T result;
+        Throwable failure;
+
+        PendingWrite(Write<T> write, boolean transacted, Runnable afterCommit) {
+            this.write = write;
+            this.transacted = transacted;
+            this.afterCommit = afterCommit;
+            this.future = new FutureTask<T>(this);
+        }
+
+        /**
+         * Runs the write, noting the result or failure for the future.  Returns true if it succeeded.
+         */
+        boolean run(SQLiteDatabase db) {
+            failure = null;
+            try {
+                result = write.write(db);
+                return true;
+            } catch (RuntimeException e) {
+                failure = e;
+            } catch (Error e) {
+                failure = e;
+            }
+            return false;
+        }
+
+        /**
+         * Reports the outcome to the future, once the outcome is final.
+         */
+        public T call() throws Exception {
+            if (failure instanceof Error) throw (Error) failure;
+            if (failure != null) throw (Exception) failure;
+            return result;
+        }
+    }
+
+}
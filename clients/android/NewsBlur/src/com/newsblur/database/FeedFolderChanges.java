@@ -0,0 +1,39 @@
+package com.newsblur.database;
+
+/**
+ * A summary of the rows touched when the local feed and folder tables were brought in
+ * line with a fresh feed/folder list from the API.
+ */
+public class FeedFolderChanges {
+
+    public int feedsInserted;
+    public int feedsUpdated;
+    public int feedsDeleted;
+    public int foldersInserted;
+    public int foldersDeleted;
+    public int mappingsInserted;
+    public int mappingsDeleted;
+    public int socialFeedsInserted;
+    public int socialFeedsUpdated;
+    public int socialFeedsDeleted;
+
+    public boolean hasChanges() {
+        return (getTotalChanges() > 0);
+    }
+
+    public int getTotalChanges() {
+        return feedsInserted + feedsUpdated + feedsDeleted +
+               foldersInserted + foldersDeleted +
+               mappingsInserted + mappingsDeleted +
+               socialFeedsInserted + socialFeedsUpdated + socialFeedsDeleted;
+    }
+
+    @Override
+    public String toString() {
+        return "feeds +" + feedsInserted + " ~" + feedsUpdated + " -" + feedsDeleted +
+               ", folders +" + foldersInserted + " -" + foldersDeleted +
+               ", mappings +" + mappingsInserted + " -" + mappingsDeleted +
+               ", social feeds +" + socialFeedsInserted + " ~" + socialFeedsUpdated + " -" + socialFeedsDeleted;
+    }
+
+}
@@ -1,10 +1,14 @@
 package com.newsblur.database;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import android.R.string;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -12,6 +16,7 @@ import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.newsblur.service.SyncMetrics;
 import com.newsblur.util.AppConstants;
 
 /**
@@ -69,8 +74,16 @@ public class FeedProvider extends ContentProvider {
 	private static final int CLASSIFIERS_FOR_FEED = 19;
 	private static final int USERS = 21;
 	private static final int STARRED_STORIES_COUNT = 23;
-	
+
+    // unread counts are kept rolled up by triggers (see BlurDatabase), so these are single row lookups
+    private static final String TOTAL_COUNT_QUERY = "SELECT " + DatabaseConstants.UNREAD_COUNT_POSITIVE + " AS " + DatabaseConstants.SUM_POS + ", " +
+        DatabaseConstants.UNREAD_COUNT_NEUTRAL + " AS " + DatabaseConstants.SUM_NEUT + ", " +
+        DatabaseConstants.UNREAD_COUNT_NEGATIVE + " AS " + DatabaseConstants.SUM_NEG +
+        " FROM " + DatabaseConstants.UNREAD_COUNT_TABLE +
+        " WHERE " + DatabaseConstants.UNREAD_COUNT_TYPE + " = ? AND " + DatabaseConstants.UNREAD_COUNT_KEY + " = ''";
+
 	private BlurDatabase databaseHelper;
+	private DatabaseWriter writer;
 
 	private static UriMatcher uriMatcher;
 	static {
@@ -103,8 +116,15 @@ public class FeedProvider extends ContentProvider {
 	}
 
 	@Override
-	public int delete(Uri uri, String selection, String[] selectionArgs) {
-		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
+	public int delete(final Uri uri, final String selection, final String[] selectionArgs) {
+		return writer.execute(new DatabaseWriter.Write<Integer>() {
+			public Integer write(SQLiteDatabase db) {
+				return delete(db, uri, selection, selectionArgs);
+			}
+		});
+	}
+
+	private int delete(SQLiteDatabase db, Uri uri, String selection, String[] selectionArgs) {
 		switch (uriMatcher.match(uri)) {
 			case ALL_SOCIAL_FEEDS:	
 				db.delete(DatabaseConstants.SOCIALFEED_TABLE, null, null);
@@ -154,9 +174,16 @@ public class FeedProvider extends ContentProvider {
 	}
 
 	@Override
-	public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+	public int bulkInsert(final Uri uri, final ContentValues[] valuesArray) {
+		return writer.execute(new DatabaseWriter.Write<Integer>() {
+			public Integer write(SQLiteDatabase db) {
+				return bulkInsert(db, uri, valuesArray);
+			}
+		});
+	}
+
+	private int bulkInsert(SQLiteDatabase db, Uri uri, ContentValues[] valuesArray) {
 		int count = 0;
-		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
 		switch (uriMatcher.match(uri)) {
 			case ALL_FOLDERS:
 				db.beginTransaction();
@@ -213,8 +240,15 @@ public class FeedProvider extends ContentProvider {
 	}
 
 	@Override
-	public Uri insert(Uri uri, ContentValues values) {
-		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
+	public Uri insert(final Uri uri, final ContentValues values) {
+		return writer.execute(new DatabaseWriter.Write<Uri>() {
+			public Uri write(SQLiteDatabase db) {
+				return insert(db, uri, values);
+			}
+		});
+	}
+
+	private Uri insert(SQLiteDatabase db, Uri uri, ContentValues values) {
 		Uri resultUri = null;
 		switch (uriMatcher.match(uri)) {
 
@@ -294,9 +328,33 @@ public class FeedProvider extends ContentProvider {
 		return resultUri;
 	}
 
+	/**
+	 * Applies a whole batch as a single write, so that it is committed at once and all or
+	 * nothing, rather than as one write per operation.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+		try {
+			return writer.execute(new DatabaseWriter.Write<ContentProviderResult[]>() {
+				public ContentProviderResult[] write(SQLiteDatabase db) {
+					try {
+						// the operations call back into insert(), update(), etc., which run in place on the writer thread
+						return FeedProvider.super.applyBatch(operations);
+					} catch (OperationApplicationException oae) {
+						throw new IllegalStateException(oae);
+					}
+				}
+			});
+		} catch (IllegalStateException ise) {
+			if (ise.getCause() instanceof OperationApplicationException) throw (OperationApplicationException) ise.getCause();
+			throw ise;
+		}
+	}
+
 	@Override
 	public boolean onCreate() {
-		databaseHelper = new BlurDatabase(getContext().getApplicationContext());
+		databaseHelper = BlurDatabase.getInstance(getContext());
+		writer = DatabaseWriter.getInstance(getContext());
 		return true;
 	}
 
@@ -338,6 +396,17 @@ public class FeedProvider extends ContentProvider {
 
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		long startTime = System.currentTimeMillis();
+		Cursor c = runQuery(uri, projection, selection, selectionArgs, sortOrder);
+		if (c != null) {
+			// the query isn't actually run until the cursor is first used
+			c.getCount();
+			SyncMetrics.noteLoad(System.currentTimeMillis() - startTime);
+		}
+		return c;
+	}
+
+	private Cursor runQuery(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 
 		final SQLiteDatabase rdb = databaseHelper.getReadableDatabase();
         final LoggingDatabase db = new LoggingDatabase(rdb);
@@ -369,11 +438,9 @@ public class FeedProvider extends ContentProvider {
 			
 			// Query for a specific folder	
 		case INDIVIDUAL_FOLDER:
-			String individualFolderQuery = "SELECT " + TextUtils.join(",", DatabaseConstants.FOLDER_COLUMNS) + " FROM " + DatabaseConstants.FEED_FOLDER_MAP_TABLE  +
-			" LEFT JOIN " + DatabaseConstants.FOLDER_TABLE + 
-			" ON " + DatabaseConstants.FEED_FOLDER_MAP_TABLE + "." + DatabaseConstants.FEED_FOLDER_FOLDER_NAME + " = " + DatabaseConstants.FOLDER_TABLE + "." + DatabaseConstants.FOLDER_NAME +
-			" LEFT JOIN " + DatabaseConstants.FEED_TABLE + 
-			" ON " + DatabaseConstants.FEED_TABLE + "." + DatabaseConstants.FEED_ID + " = " + DatabaseConstants.FEED_FOLDER_MAP_TABLE + "."  + DatabaseConstants.FEED_FOLDER_FEED_ID + 
+			String individualFolderQuery = "SELECT " + TextUtils.join(",", DatabaseConstants.FOLDER_COLUMNS) + " FROM " + DatabaseConstants.FOLDER_TABLE +
+			" INNER JOIN " + DatabaseConstants.UNREAD_COUNT_TABLE +
+			" ON " + DatabaseConstants.FOLDER_COUNT_JOIN +
 			" WHERE " + DatabaseConstants.FOLDER_NAME + " = ?";
 
 			StringBuilder individualFolderbuilder = new StringBuilder();
@@ -384,22 +451,17 @@ public class FeedProvider extends ContentProvider {
 			
 			// Query for total feed counts
 		case FEED_COUNT:
-			String sumQuery = "SELECT SUM(" + DatabaseConstants.FEED_POSITIVE_COUNT + ") AS " + DatabaseConstants.SUM_POS + ", " +
-			"SUM(" + DatabaseConstants.FEED_NEUTRAL_COUNT + ") AS " + DatabaseConstants.SUM_NEUT + " FROM " + DatabaseConstants.FEED_TABLE;
-			return db.rawQuery(sumQuery, selectionArgs);	
+			return db.rawQuery(TOTAL_COUNT_QUERY, new String[] { DatabaseConstants.UNREAD_COUNT_TYPE_ALL_FEEDS });
 			
 		case SOCIALFEED_COUNT:
-			String socialSumQuery = "SELECT SUM(" + DatabaseConstants.SOCIAL_FEED_POSITIVE_COUNT + ") AS " + DatabaseConstants.SUM_POS + ", " +
-			"SUM(" + DatabaseConstants.SOCIAL_FEED_NEUTRAL_COUNT + ") AS " + DatabaseConstants.SUM_NEUT + ", " + 
-			"SUM(" + DatabaseConstants.SOCIAL_FEED_NEGATIVE_COUNT + ") AS " + DatabaseConstants.SUM_NEG + " FROM " + DatabaseConstants.SOCIALFEED_TABLE;
-			return db.rawQuery(socialSumQuery, selectionArgs);		
+			return db.rawQuery(TOTAL_COUNT_QUERY, new String[] { DatabaseConstants.UNREAD_COUNT_TYPE_ALL_SOCIAL });
 			
 			// Querying for a stories from a feed
 		case FEED_STORIES:
 			if (!TextUtils.isEmpty(selection)) {
-				selection = selection + " AND " + DatabaseConstants.STORY_FEED_ID + " = ?";
+				selection = selection + " AND " + DatabaseConstants.FEED_STORIES_SELECTION;
 			} else {
-				selection = DatabaseConstants.STORY_FEED_ID + " = ?";
+				selection = DatabaseConstants.FEED_STORIES_SELECTION;
 			}
 			selectionArgs = new String[] { uri.getLastPathSegment() };
 			return db.query(DatabaseConstants.STORY_TABLE, DatabaseConstants.STORY_COLUMNS, selection, selectionArgs, null, null, sortOrder);
@@ -411,12 +473,7 @@ public class FeedProvider extends ContentProvider {
 
 			// Querying for all stories
 		case ALL_STORIES:
-			String allStoriesQuery = "SELECT " + TextUtils.join(",", DatabaseConstants.STORY_COLUMNS) + ", " + DatabaseConstants.FEED_TITLE + ", " +
-			DatabaseConstants.FEED_FAVICON_URL + ", " + DatabaseConstants.FEED_FAVICON_COLOR + ", " + DatabaseConstants.FEED_FAVICON_BORDER + ", " +
-			DatabaseConstants.FEED_FAVICON_FADE + ", " + DatabaseConstants.FEED_FAVICON_TEXT +
-                    " FROM " + DatabaseConstants.STORY_TABLE +
-			" INNER JOIN " + DatabaseConstants.FEED_TABLE + 
-			" ON " + DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_FEED_ID + " = " + DatabaseConstants.FEED_TABLE + "." + DatabaseConstants.FEED_ID + 
+			String allStoriesQuery = DatabaseConstants.MULTIFEED_STORIES_QUERY_BASE +
 			" WHERE " + selection + " ORDER BY " + sortOrder;
 			return db.rawQuery(allStoriesQuery, null);
 			
@@ -427,12 +484,7 @@ public class FeedProvider extends ContentProvider {
 			} else {
 				selection = DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_FEED_ID + " IN ( " + TextUtils.join(",", selectionArgs) + ")";
 			}
-			String userQuery = "SELECT " + TextUtils.join(",", DatabaseConstants.STORY_COLUMNS) + ", " + DatabaseConstants.FEED_TITLE + ", " +
-			DatabaseConstants.FEED_FAVICON_URL + ", " + DatabaseConstants.FEED_FAVICON_COLOR + ", " + DatabaseConstants.FEED_FAVICON_BORDER + ", " +
-			DatabaseConstants.FEED_FAVICON_FADE + ", " + DatabaseConstants.FEED_FAVICON_TEXT +
-                    " FROM " + DatabaseConstants.STORY_TABLE +
-			" INNER JOIN " + DatabaseConstants.FEED_TABLE + 
-			" ON " + DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_FEED_ID + " = " + DatabaseConstants.FEED_TABLE + "." + DatabaseConstants.FEED_ID + 
+			String userQuery = DatabaseConstants.MULTIFEED_STORIES_QUERY_BASE +
 			" WHERE " + selection + " ORDER BY " + sortOrder;
 			
 			return db.rawQuery(userQuery, null);
@@ -440,15 +492,15 @@ public class FeedProvider extends ContentProvider {
 			// Querying for a stories from a feed
 		case STORY_COMMENTS:
 			if (selectionArgs.length == 1) {
-				selection = DatabaseConstants.COMMENT_STORYID + " = ?";
+				selection = DatabaseConstants.STORY_COMMENTS_SELECTION;
 			} else {
-				selection = DatabaseConstants.COMMENT_STORYID + " = ? AND " + DatabaseConstants.COMMENT_USERID + " = ?";
+				selection = DatabaseConstants.STORY_COMMENTS_SELECTION + " AND " + DatabaseConstants.COMMENT_USERID + " = ?";
 			}
 			return db.query(DatabaseConstants.COMMENT_TABLE, DatabaseConstants.COMMENT_COLUMNS, selection, selectionArgs, null, null, null);
 
 			// Querying for replies to a comment
 		case REPLIES:
-			selection = DatabaseConstants.REPLY_COMMENTID+ " = ?";
+			selection = DatabaseConstants.COMMENT_REPLIES_SELECTION;
 			return db.query(DatabaseConstants.REPLY_TABLE, DatabaseConstants.REPLY_COLUMNS, selection, selectionArgs, null, null, null);
 			
 			// Query for feeds with no folder mapping	
@@ -488,52 +540,23 @@ public class FeedProvider extends ContentProvider {
 
 			// Querying for all folders with unread items
 		case ALL_FOLDERS:
-            // Of note about the following query:
-            //  1) the union clause lets ALL_FOLDER queries also select the "root" folder that appears in the UI whether
-            //     or not it has unread stories in it.
-            //  2) the root folder is excluded from the final join so as not to create a duplicate root folder
-            //  3) values of the pos/neut/neg columns for the root folder are ignored by the UI
-            //  4) we use a union rather than a full outer join because sqlite doesn't support the latter
-            //  5) the order of the left and right sides of the union are important: due to an undocumented feature/bug in sqlite,
-            //     if the two sides of the union are reversed, the result columns are incorrectly prefixed.
-            String folderQuery = "SELECT " + DatabaseConstants.FOLDER_ID + ", " + DatabaseConstants.FOLDER_NAME + ", 0 AS " + DatabaseConstants.SUM_POS + ", 0 AS " + DatabaseConstants.SUM_NEUT + ", 0 AS " + DatabaseConstants.SUM_NEG +
-            " FROM " + DatabaseConstants.FOLDER_TABLE +
-            " WHERE " + DatabaseConstants.FOLDER_NAME + "='" + AppConstants.ROOT_FOLDER + "' UNION" +
-            " SELECT " + TextUtils.join(",", DatabaseConstants.FOLDER_COLUMNS) + 
-            " FROM " + DatabaseConstants.FEED_FOLDER_MAP_TABLE  +
-            " INNER JOIN " + DatabaseConstants.FOLDER_TABLE + 
-            " ON " + DatabaseConstants.FEED_FOLDER_MAP_TABLE + "." + DatabaseConstants.FEED_FOLDER_FOLDER_NAME + " = " + DatabaseConstants.FOLDER_TABLE + "." + DatabaseConstants.FOLDER_NAME +
-            " INNER JOIN " + DatabaseConstants.FEED_TABLE + 
-            " ON " + DatabaseConstants.FEED_TABLE + "." + DatabaseConstants.FEED_ID + " = " + DatabaseConstants.FEED_FOLDER_MAP_TABLE + "."  + DatabaseConstants.FEED_FOLDER_FEED_ID + 
-            " WHERE NOT " + DatabaseConstants.FOLDER_NAME + "='" + AppConstants.ROOT_FOLDER + "'" +
-            " GROUP BY " + DatabaseConstants.FOLDER_TABLE + "." + DatabaseConstants.FOLDER_NAME;
-
             StringBuilder folderBuilder = new StringBuilder();
-            folderBuilder.append(folderQuery);
+            folderBuilder.append(DatabaseConstants.ALL_FOLDERS_QUERY);
             if (selectionArgs != null && selectionArgs.length > 0) {
                 // TODO: by not iterating over the selectionArgs array, this method wildly breaks the contract of the query() method and
                 //  will almost certainly confuse callers eventually
                 folderBuilder.append(selectionArgs[0]);
             }
             folderBuilder.append(" ORDER BY ");
-            folderBuilder.append(DatabaseConstants.FOLDER_TABLE + "." + DatabaseConstants.FOLDER_NAME + " COLLATE NOCASE");
+            folderBuilder.append(DatabaseConstants.ALL_FOLDERS_ORDER);
             return db.rawQuery(folderBuilder.toString(), null);
 		case ALL_SOCIAL_FEEDS:
 			return db.query(DatabaseConstants.SOCIALFEED_TABLE, null, selection, null, null, null, "UPPER(" + DatabaseConstants.SOCIAL_FEED_TITLE + ") ASC");
 		case INDIVIDUAL_SOCIAL_FEED:
 			return db.query(DatabaseConstants.SOCIALFEED_TABLE, null, DatabaseConstants.SOCIAL_FEED_ID + " = ?", new String[] { uri.getLastPathSegment() }, null, null, null);
 		case ALL_SHARED_STORIES: 
-			String allSharedQuery = "SELECT " + TextUtils.join(",", DatabaseConstants.STORY_COLUMNS) + ", " + DatabaseConstants.FEED_TITLE + ", " +
-			DatabaseConstants.FEED_FAVICON_URL + ", " + DatabaseConstants.FEED_FAVICON_COLOR + ", " + DatabaseConstants.FEED_FAVICON_BORDER + ", " +
-			DatabaseConstants.FEED_FAVICON_FADE + ", " + DatabaseConstants.FEED_FAVICON_TEXT +
-                    " FROM " + DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE +
-			" INNER JOIN " + DatabaseConstants.STORY_TABLE + 
-			" ON " + DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_ID + " = " + DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE + "." + DatabaseConstants.SOCIALFEED_STORY_STORYID +
-			" INNER JOIN " + DatabaseConstants.FEED_TABLE + 
-			" ON " + DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_FEED_ID + " = " + DatabaseConstants.FEED_TABLE + "." + DatabaseConstants.FEED_ID;
-			
 			StringBuilder allSharedBuilder = new StringBuilder();
-			allSharedBuilder.append(allSharedQuery);
+			allSharedBuilder.append(DatabaseConstants.SOCIAL_STORIES_QUERY_BASE);
 			if (!TextUtils.isEmpty(selection)) {
 				allSharedBuilder.append(" WHERE ");
 				allSharedBuilder.append(selection);
@@ -547,18 +570,9 @@ public class FeedProvider extends ContentProvider {
 		case SOCIALFEED_STORIES:
 			String[] userArgument = new String[] { uri.getLastPathSegment() };
 
-			String socialQuery = "SELECT " + TextUtils.join(",", DatabaseConstants.STORY_COLUMNS) + ", " + DatabaseConstants.FEED_TITLE + ", " +
-			DatabaseConstants.FEED_FAVICON_URL + ", " + DatabaseConstants.FEED_FAVICON_COLOR + ", " + DatabaseConstants.FEED_FAVICON_BORDER + ", " +
-			DatabaseConstants.FEED_FAVICON_FADE + ", " + DatabaseConstants.FEED_FAVICON_TEXT +
-                    " FROM " + DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE +
-			" INNER JOIN " + DatabaseConstants.STORY_TABLE + 
-			" ON " + DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_ID + " = " + DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE + "." + DatabaseConstants.SOCIALFEED_STORY_STORYID +
-			" INNER JOIN " + DatabaseConstants.FEED_TABLE + 
-			" ON " + DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_FEED_ID + " = " + DatabaseConstants.FEED_TABLE + "." + DatabaseConstants.FEED_ID +
-			" WHERE " + DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE + "." + DatabaseConstants.SOCIALFEED_STORY_USER_ID + " = ? ";
-			
 			StringBuilder storyBuilder = new StringBuilder();
-			storyBuilder.append(socialQuery);
+			storyBuilder.append(DatabaseConstants.SOCIAL_STORIES_QUERY_BASE);
+			storyBuilder.append(" WHERE " + DatabaseConstants.SOCIALFEED_STORIES_SELECTION);
 			if (!TextUtils.isEmpty(selection)) {
 				storyBuilder.append("AND ");
 				storyBuilder.append(selection);
@@ -573,8 +587,15 @@ public class FeedProvider extends ContentProvider {
 	}
 
 	@Override
-	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-		final SQLiteDatabase rwdb = databaseHelper.getWritableDatabase();
+	public int update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs) {
+		return writer.execute(new DatabaseWriter.Write<Integer>() {
+			public Integer write(SQLiteDatabase db) {
+				return update(db, uri, values, selection, selectionArgs);
+			}
+		});
+	}
+
+	private int update(SQLiteDatabase rwdb, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final LoggingDatabase db = new LoggingDatabase(rwdb);
 		
 		switch (uriMatcher.match(uri)) {
@@ -590,13 +611,6 @@ public class FeedProvider extends ContentProvider {
             int count = 0;
             count += db.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_ID + " = ?", new String[] { uri.getLastPathSegment() });
             return count;            
-        // In order to run a raw SQL query whereby we make decrement the column we need to a dynamic reference - something the usual content provider can't easily handle. Hence this circuitous hack. 
-		case FEED_COUNT: 
-			db.execSQL("UPDATE " + DatabaseConstants.FEED_TABLE + " SET " + selectionArgs[0] + " = " + selectionArgs[0] + " " + selectionArgs[2] + " WHERE " + DatabaseConstants.FEED_ID + " = " + selectionArgs[1]);
-			return 1;
-		case SOCIALFEED_COUNT: 
-			db.execSQL("UPDATE " + DatabaseConstants.SOCIALFEED_TABLE + " SET " + selectionArgs[0] + " = " + selectionArgs[0] + " " + selectionArgs[2] + " WHERE " + DatabaseConstants.SOCIAL_FEED_ID + " = " + selectionArgs[1]);
-			return 1;	
         case STARRED_STORIES_COUNT:
             int rows = db.update(DatabaseConstants.STARRED_STORY_COUNT_TABLE, values, null, null);
             if (rows == 0 ) {
@@ -6,6 +6,8 @@ import android.database.Cursor;
 import android.os.CancellationSignal;
 import android.os.OperationCanceledException;
 
+import com.newsblur.service.SyncMetrics;
+
 /**
  * A partial copy of android.content.CursorLoader with the bits related to ContentProviders
  * gutted out so plain old SQLiteDatabase queries can be used where a ContentProvider is
@@ -31,9 +33,11 @@ public abstract class QueryCursorLoader extends AsyncTaskLoader<Cursor> {
             cancellationSignal = new CancellationSignal();
         }
         try {
+            long startTime = System.currentTimeMillis();
             Cursor c = createCursor();
             if (c != null) {
                 c.getCount();
+                SyncMetrics.noteLoad(System.currentTimeMillis() - startTime);
             }
             return c;
         } finally {
@@ -0,0 +1,201 @@
+package com.newsblur.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.newsblur.util.AppConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deletes old read stories a bounded chunk at a time, so that cleanup never holds the DB
+ * long enough to stall the UI, and can then hand the freed space back to the filesystem.
+ *
+ * The stories to delete are found up front, then deleted by rowid in short writes with a
+ * pause after each so that readers and other writers get a turn.  A story that was marked
+ * unread again in the meantime is left alone.
+ */
+class StoryCleaner {
+
+    private static final long AUTO_VACUUM_INCREMENTAL = 2L;
+
+    private final SQLiteDatabase db;
+    private final DatabaseWriter writer;
+
+    /**
+     * @param db the DB to look things up in.  All changes go through the writer.
+     */
+    StoryCleaner(SQLiteDatabase db, DatabaseWriter writer) {
+        this.db = db;
+        this.writer = writer;
+    }
+
+    /**
+     * Deletes all but the newest keepPerFeed read stories in each feed.
+     */
+    CleanupResult deleteReadStories(int keepPerFeed) {
+        CleanupResult result = new CleanupResult();
+        long startTime = System.currentTimeMillis();
+        long freeBytesBefore = getFreeBytes();
+
+        List<Long> rowIds = findReadStories(keepPerFeed);
+        for (int i=0; i<rowIds.size(); i+=AppConstants.CLEANUP_CHUNK_SIZE) {
+            if ((i > 0) && (!pause())) break;
+            result.storiesDeleted += deleteChunk(rowIds.subList(i, Math.min(i + AppConstants.CLEANUP_CHUNK_SIZE, rowIds.size())));
+            result.chunks++;
+        }
+
+        result.bytesFreed = Math.max(0L, getFreeBytes() - freeBytesBefore);
+        result.deleteMillis = System.currentTimeMillis() - startTime;
+        return result;
+    }
+
+    /**
+     * Gives free pages back to the filesystem, a chunk at a time.
+     */
+    void vacuum(CleanupResult result) {
+        long startTime = System.currentTimeMillis();
+        long pagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            // the vacuum mode can only be changed by a full VACUUM, which rewrites the whole file
+            // and holds the DB until done, so only do it once there is a lot to gain.  Android makes
+            // tables of its own before onCreate runs, so this applies even to new DBs.
+            if (getFreeBytes() < AppConstants.CLEANUP_VACUUM_CONVERT_MIN_BYTES) return;
+            Log.i(this.getClass().getName(), "switching DB to incremental vacuum");
+            writer.executeUntransacted(new DatabaseWriter.Write<Void>() {
+                public Void write(SQLiteDatabase dbRW) {
+                    dbRW.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                    dbRW.execSQL("VACUUM");
+                    return null;
+                }
+            });
+        } else {
+            long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            while (freePages > 0) {
+                writer.executeUntransacted(new DatabaseWriter.Write<Void>() {
+                    public Void write(SQLiteDatabase dbRW) {
+                        Cursor c = dbRW.rawQuery("PRAGMA incremental_vacuum(" + AppConstants.CLEANUP_VACUUM_CHUNK_PAGES + ")", null);
+                        try {
+                            // the pragma frees a page per step, so it has to be read to the end
+                            c.getCount();
+                        } finally {
+                            c.close();
+                        }
+                        return null;
+                    }
+                });
+                long stillFree = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+                if (stillFree >= freePages) break;
+                freePages = stillFree;
+                if ((freePages > 0) && (!pause())) break;
+            }
+        }
+
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pagesAfter = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        result.bytesReclaimed = Math.max(0L, (pagesBefore - pagesAfter) * pageSize);
+        result.vacuumMillis = System.currentTimeMillis() - startTime;
+    }
+
+    private List<Long> findReadStories(int keepPerFeed) {
+        if (keepPerFeed < 1) {
+            return queryRowIds("SELECT rowid FROM " + DatabaseConstants.STORY_TABLE +
+                               " WHERE " + DatabaseConstants.STORY_READ + " = 1", null);
+        }
+
+        if (hasWindowFunctions()) {
+            return queryRowIds("SELECT story_rowid FROM" +
+                               " (SELECT rowid AS story_rowid, ROW_NUMBER() OVER" +
+                               " (PARTITION BY " + DatabaseConstants.STORY_FEED_ID + " ORDER BY " + DatabaseConstants.STORY_TIMESTAMP + " DESC) AS story_rank" +
+                               " FROM " + DatabaseConstants.STORY_TABLE +
+                               " WHERE " + DatabaseConstants.STORY_READ + " = 1)" +
+                               " WHERE story_rank > " + keepPerFeed, null);
+        }
+
+        // without window functions, the stories have to be ranked one feed at a time
+        List<String> feedIds = new ArrayList<String>();
+        Cursor c = db.rawQuery(DatabaseConstants.READ_STORY_FEEDS_QUERY, null);
+        try {
+            while (c.moveToNext()) {
+                feedIds.add(c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+        List<Long> rowIds = new ArrayList<Long>();
+        for (String feedId : feedIds) {
+            rowIds.addAll(queryRowIds(DatabaseConstants.OLD_READ_STORIES_QUERY, new String[]{feedId, Integer.toString(keepPerFeed)}));
+        }
+        return rowIds;
+    }
+
+    private List<Long> queryRowIds(String q, String[] args) {
+        Cursor c = db.rawQuery(q, args);
+        try {
+            List<Long> rowIds = new ArrayList<Long>(c.getCount());
+            while (c.moveToNext()) {
+                rowIds.add(c.getLong(0));
+            }
+            return rowIds;
+        } finally {
+            c.close();
+        }
+    }
+
+    private int deleteChunk(final List<Long> rowIds) {
+        return writer.execute(new DatabaseWriter.Write<Integer>() {
+            public Integer write(SQLiteDatabase dbRW) {
+                int deleted = 0;
+                SQLiteStatement delete = dbRW.compileStatement(DatabaseConstants.READ_STORY_DELETE_SQL);
+                try {
+                    for (Long rowId : rowIds) {
+                        delete.bindLong(1, rowId);
+                        deleted += delete.executeUpdateDelete();
+                    }
+                } finally {
+                    delete.close();
+                }
+                return deleted;
+            }
+        });
+    }
+
+    private long getFreeBytes() {
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /**
+     * Window functions arrived in SQLite 3.25, which only newer versions of Android ship.
+     */
+    private boolean hasWindowFunctions() {
+        String version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null);
+        String[] parts = version.split("\\.");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            int minor = (parts.length > 1) ? Integer.parseInt(parts[1]) : 0;
+            return (major > 3) || ((major == 3) && (minor >= 25));
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    /**
+     * Lets other users of the DB have a turn.  Returns false if the thread was interrupted
+     * and cleanup should stop.
+     */
+    private static boolean pause() {
+        try {
+            Thread.sleep(AppConstants.CLEANUP_CHUNK_PAUSE_MILLIS);
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
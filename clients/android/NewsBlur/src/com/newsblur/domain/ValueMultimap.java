@@ -17,6 +17,8 @@ import com.google.gson.GsonBuilder;
  */
 @SuppressWarnings("serial")
 public class ValueMultimap implements Serializable {
+
+	private static final Gson JsonGson = new GsonBuilder().disableHtmlEscaping().create();
 	
 	private Map<String, List<String>> multimap;
 	private String TAG = "ValueMultimap";
@@ -61,12 +63,11 @@ public class ValueMultimap implements Serializable {
 	
 	public String getJsonString() {
 		ArrayList<String> parameters = new ArrayList<String>();
-		Gson gson = new GsonBuilder().disableHtmlEscaping().create();
 		for (String key : multimap.keySet()) {
 			StringBuilder builder = new StringBuilder();
 			builder.append("\"" + key + "\"");
 			builder.append(": ");
-			builder.append(gson.toJson(multimap.get(key)));
+			builder.append(JsonGson.toJson(multimap.get(key)));
 			parameters.add(builder.toString());
 		}
 		final StringBuilder builder = new StringBuilder();
@@ -32,7 +32,7 @@ public class AddFeedFragment extends DialogFragment {
     public Dialog onCreateDialog(Bundle savedInstanceState) {
         final String addFeedString = getResources().getString(R.string.add_feed_message);
         final Activity activity = getActivity();
-        apiManager = new APIManager(activity);
+        apiManager = APIManager.getInstance(activity);
 
         AlertDialog.Builder builder = new AlertDialog.Builder(activity);
         builder.setMessage(String.format(addFeedString, getArguments().getString(FEED_NAME)));
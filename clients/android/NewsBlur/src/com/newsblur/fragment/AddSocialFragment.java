@@ -38,7 +38,7 @@ public class AddSocialFragment extends Fragment {
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setRetainInstance(true);
-		apiManager = new APIManager(getActivity());
+		apiManager = APIManager.getInstance(getActivity());
 	}
 	
 	public void setTwitterAuthed() {
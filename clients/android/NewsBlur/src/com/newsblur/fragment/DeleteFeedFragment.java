@@ -3,6 +3,7 @@ package com.newsblur.fragment;
 import com.newsblur.R;
 import com.newsblur.activity.Main;
 import com.newsblur.network.APIManager;
+import com.newsblur.util.ChangeSet;
 import com.newsblur.util.FeedUtils;
 
 import android.app.Activity;
@@ -41,12 +42,12 @@ public class DeleteFeedFragment extends DialogFragment {
         builder.setPositiveButton(R.string.alert_dialog_ok, new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialogInterface, int i) {
-                FeedUtils.deleteFeed(getArguments().getLong(FEED_ID), getArguments().getString(FOLDER_NAME), getActivity(), new APIManager(getActivity()));
+                FeedUtils.deleteFeed(getArguments().getLong(FEED_ID), getArguments().getString(FOLDER_NAME), getActivity(), APIManager.getInstance(getActivity()));
                 // if called from main view then refresh otherwise it was
                 // called from the feed view so finish
                 Activity activity = DeleteFeedFragment.this.getActivity();
                 if (activity instanceof Main) {
-                    ((Main)activity).handleUpdate();
+                    ((Main)activity).handleUpdate(ChangeSet.feedsFolders());
                 } else {
                     activity.finish();
                 }
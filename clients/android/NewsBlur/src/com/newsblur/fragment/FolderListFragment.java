@@ -85,7 +85,7 @@ public class FolderListFragment extends Fragment implements OnGroupClickListener
 	public void onAttach(Activity activity) {
 		sharedPreferences = activity.getSharedPreferences(PrefConstants.PREFERENCES, 0);
 		resolver = activity.getContentResolver();
-		apiManager = new APIManager(activity);
+		apiManager = APIManager.getInstance(activity);
 
 		super.onAttach(activity);
 	}
@@ -46,7 +46,7 @@ public class LoginProgressFragment extends Fragment {
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setRetainInstance(true);
-		apiManager = new APIManager(getActivity());
+		apiManager = APIManager.getInstance(getActivity());
 
 		username = getArguments().getString("username");
 		password = getArguments().getString("password");
@@ -41,7 +41,7 @@ public class ProfileDetailsFragment extends Fragment implements OnClickListener
 		noBio = getString(R.string.profile_no_bio);
 		noLocation = getActivity().getResources().getString(R.string.profile_no_location);
 		imageLoader = ((NewsBlurApplication) getActivity().getApplicationContext()).getImageLoader();
-		apiManager = new APIManager(getActivity());
+		apiManager = APIManager.getInstance(getActivity());
 	}
 	
 	public void setUser(Context context, final UserDetails user, final boolean viewingSelf) {
@@ -59,6 +59,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 public class ReadingItemFragment extends Fragment implements ClassifierDialogFragment.TagUpdateCallback, ShareDialogFragment.SharedCallbackDialog {
 
@@ -67,6 +68,7 @@ public class ReadingItemFragment extends Fragment implements ClassifierDialogFra
 	public Story story;
 	private LayoutInflater inflater;
 	private APIManager apiManager;
+    private Future<StoryTextResponse> storyTextRequest;
 	private ImageLoader imageLoader;
 	private String feedColor, feedTitle, feedFade, feedBorder, feedIconUrl, faviconText;
 	private Classifier classifier;
@@ -122,7 +124,7 @@ public class ReadingItemFragment extends Fragment implements ClassifierDialogFra
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		imageLoader = ((NewsBlurApplication) getActivity().getApplicationContext()).getImageLoader();
-		apiManager = new APIManager(getActivity());
+		apiManager = APIManager.getInstance(getActivity());
 		story = getArguments() != null ? (Story) getArguments().getSerializable("story") : null;
 
 		resolver = getActivity().getContentResolver();
@@ -151,6 +153,9 @@ public class ReadingItemFragment extends Fragment implements ClassifierDialogFra
 
     private void loadOriginalText() {
         if (story != null) {
+            // started here rather than in the background, so that onDestroy() can always cancel it
+            final Future<StoryTextResponse> request = apiManager.startStoryText(story.feedId, story.id);
+            storyTextRequest = request;
             new AsyncTask<Void, Void, StoryTextResponse>() {
                 @Override
                 protected void onPreExecute() {
@@ -158,11 +163,11 @@ public class ReadingItemFragment extends Fragment implements ClassifierDialogFra
                 }
                 @Override
                 protected StoryTextResponse doInBackground(Void... arg) {
-                    return apiManager.getStoryText(story.feedId, story.id);
+                    return apiManager.getStoryText(request);
                 }
                 @Override
                 protected void onPostExecute(StoryTextResponse result) {
-                    if ((result != null) && (result.originalText != null)) {
+                    if ((!request.isCancelled()) && (result != null) && (result.originalText != null)) {
                         ReadingItemFragment.this.originalText = result.originalText;
                         showTextContentInWebview();
                     }
@@ -181,6 +186,8 @@ public class ReadingItemFragment extends Fragment implements ClassifierDialogFra
 
 	@Override
 	public void onDestroy() {
+        // other views of the same story may still want the text, so this only drops our interest
+        if (storyTextRequest != null) storyTextRequest.cancel(false);
 		getActivity().unregisterReceiver(receiver);
         web.setOnTouchListener(null);
         view.setOnTouchListener(null);
@@ -294,9 +301,9 @@ public class ReadingItemFragment extends Fragment implements ClassifierDialogFra
 			@Override
 			public void onClick(View v) {
                 if (story.starred) {
-                    FeedUtils.unsaveStory(story, activity, apiManager);
+                    FeedUtils.unsaveStory(story, activity);
                 } else {
-				    FeedUtils.saveStory(story, activity, apiManager);
+				    FeedUtils.saveStory(story, activity);
                 }
 			}
 		});
@@ -47,7 +47,7 @@ public class ReplyDialogFragment extends DialogFragment {
         commentUsername = getArguments().getString(COMMENT_USERNAME);
 
         final Activity activity = getActivity();
-        apiManager = new APIManager(activity);
+        apiManager = APIManager.getInstance(activity);
 
         AlertDialog.Builder builder = new AlertDialog.Builder(activity);
         final String shareString = getResources().getString(R.string.reply_to);
@@ -67,7 +67,7 @@ public class ShareDialogFragment extends DialogFragment {
         previouslySavedShareText = getArguments().getString(PREVIOUSLY_SAVED_SHARE_TEXT);
         sourceUserId = getArguments().getString(SOURCE_USER_ID);
 
-        apiManager = new APIManager(getActivity());
+        apiManager = APIManager.getInstance(getActivity());
         resolver = getActivity().getContentResolver();
 
         for (String sharedUserId : story.sharedUserIds) {
@@ -1,16 +1,21 @@
 package com.newsblur.network;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -26,6 +31,7 @@ import android.webkit.CookieSyncManager;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.newsblur.R;
 import com.newsblur.database.DatabaseConstants;
 import com.newsblur.database.FeedProvider;
 import com.newsblur.domain.Classifier;
@@ -48,25 +54,70 @@ import com.newsblur.network.domain.StoryTextResponse;
 import com.newsblur.network.domain.UnreadStoryHashesResponse;
 import com.newsblur.serialization.BooleanTypeAdapter;
 import com.newsblur.serialization.ClassifierMapTypeAdapter;
+import com.newsblur.serialization.CommentTypeAdapter;
 import com.newsblur.serialization.DateStringTypeAdapter;
 import com.newsblur.serialization.FeedListTypeAdapter;
+import com.newsblur.serialization.FeedTypeAdapter;
 import com.newsblur.serialization.StoryTypeAdapter;
+import com.newsblur.serialization.UserProfileTypeAdapter;
 import com.newsblur.util.AppConstants;
+import com.newsblur.service.SyncMetrics;
 import com.newsblur.util.FeedSet;
+import com.newsblur.util.FeedUtils;
 import com.newsblur.util.NetworkUtils;
 import com.newsblur.util.PrefConstants;
 import com.newsblur.util.PrefsUtils;
 import com.newsblur.util.ReadFilter;
 import com.newsblur.util.StoryOrder;
 
+/**
+ * The client for the NewsBlur API.  There is a single, process-wide instance, so that the
+ * fairly expensive Gson setup, the user agent, and the login cookie are only worked out once
+ * and connections to the API servers can be kept alive and reused between calls.
+ */
 public class APIManager {
 
-	private Context context;
-	private Gson gson;
-	private ContentResolver contentResolver;
-    private String customUserAgent;
+    // we decode these ourselves in APIResponse, so that we can see how big the bodies were on the wire
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
 
-	public APIManager(final Context context) {
+    private static APIManager Instance;
+
+    // the login cookie, read from prefs on first use and cached until the login changes
+    private static String Cookie;
+    private static boolean CookieLoaded = false;
+
+    // if set, API calls go to this server rather than NEWSBLUR_URL
+    private static volatile String BaseUrlOverride = null;
+
+	private final Context context;
+	private final Gson gson;
+	private final ContentResolver contentResolver;
+    private final String customUserAgent;
+
+    // identical requests made while one is already in flight share it, see RequestCoalescer
+    private final RequestCoalescer<StoryTextResponse> storyTextRequests = new RequestCoalescer<StoryTextResponse>("story text");
+    private final RequestCoalescer<FeedResult[]> feedSearchRequests = new RequestCoalescer<FeedResult[]>("feed search");
+
+    // rivers being paged through for feed sets too big for one request, most recently used last
+    private final Map<FeedSet,ShardedRiver> rivers = new LinkedHashMap<FeedSet,ShardedRiver>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<FeedSet,ShardedRiver> eldest) {
+            return size() > AppConstants.RIVER_MAX_TRACKED;
+        }
+    };
+
+    /**
+     * Gets the shared API client, creating it if needed.  The client only ever holds on to the
+     * application context, so any context may be passed.
+     */
+    public static synchronized APIManager getInstance(Context context) {
+        if (Instance == null) {
+            Instance = new APIManager(context.getApplicationContext());
+        }
+        return Instance;
+    }
+
+	private APIManager(final Context context) {
 		this.context = context;
 		this.contentResolver = context.getContentResolver();
 
@@ -75,6 +126,9 @@ public class APIManager {
                 .registerTypeAdapter(Boolean.class, new BooleanTypeAdapter())
                 .registerTypeAdapter(boolean.class, new BooleanTypeAdapter())
                 .registerTypeAdapter(Story.class, new StoryTypeAdapter())
+                .registerTypeAdapter(Feed.class, new FeedTypeAdapter())
+                .registerTypeAdapter(Comment.class, new CommentTypeAdapter())
+                .registerTypeAdapter(UserProfile.class, new UserProfileTypeAdapter())
                 .registerTypeAdapter(new TypeToken<List<Feed>>(){}.getType(), new FeedListTypeAdapter())
                 .registerTypeAdapter(new TypeToken<Map<String,Classifier>>(){}.getType(), new ClassifierMapTypeAdapter())
                 .create();
@@ -88,6 +142,24 @@ public class APIManager {
 
 	}
 
+    /**
+     * Forgets the cached login cookie, so that the next call picks up the current one.  Must be
+     * called whenever the stored login changes.
+     */
+    public static synchronized void invalidateCookie() {
+        Cookie = null;
+        CookieLoaded = false;
+    }
+
+    private static synchronized String getCookie(Context context) {
+        if (!CookieLoaded) {
+            SharedPreferences preferences = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
+            Cookie = preferences.getString(PrefConstants.PREF_COOKIE, null);
+            CookieLoaded = true;
+        }
+        return Cookie;
+    }
+
 	public NewsBlurResponse login(final String username, final String password) {
 		final ContentValues values = new ContentValues();
 		values.put(APIConstants.PARAMETER_USERNAME, username);
@@ -221,24 +293,41 @@ public class APIManager {
 	}
 
     public UnreadStoryHashesResponse getUnreadStoryHashes() {
-        APIResponse response = get(APIConstants.URL_UNREAD_HASHES);
+        APIResponse response = getConditional(APIConstants.URL_UNREAD_HASHES, false, false);
         return (UnreadStoryHashesResponse) response.getResponse(gson, UnreadStoryHashesResponse.class);
     }
 
     public StoriesResponse getStoriesByHash(List<String> storyHashes) {
+        return parseStoriesResponse(fetchStoriesByHash(storyHashes));
+    }
+
+    /**
+     * Performs just the network portion of getStoriesByHash(), so that the parse may be
+     * done separately via parseStoriesResponse(), possibly on another thread.  The hashes
+     * are POSTed, since a batch of them makes for a very long URL.
+     */
+    public APIResponse fetchStoriesByHash(List<String> storyHashes) {
 		ValueMultimap values = new ValueMultimap();
         for (String hash : storyHashes) {
             values.put(APIConstants.PARAMETER_H, hash);
         }
-        APIResponse response = get(APIConstants.URL_RIVER_STORIES, values);
+        return post(APIConstants.URL_RIVER_STORIES, values, false);
+    }
+
+    public StoriesResponse parseStoriesResponse(APIResponse response) {
         return (StoriesResponse) response.getResponse(gson, StoriesResponse.class);
     }
 
     /**
      * Fetches stories for the given FeedSet, choosing the correct API and the right
-     * request parameters as needed.
+     * request parameters as needed.  The response is streamed, with each story being handed
+     * to the handler as it is parsed, rather than being collected into the returned response.
      */
-    public StoriesResponse getStories(FeedSet fs, int pageNumber, StoryOrder order, ReadFilter filter) {
+    public StoriesResponse getStories(FeedSet fs, int pageNumber, StoryOrder order, ReadFilter filter, APIResponse.StoryHandler handler) {
+        if ((fs.getMultipleFeeds() != null) && (fs.getMultipleFeeds().size() > AppConstants.RIVER_SHARD_SIZE)) {
+            return getShardedStories(fs, pageNumber, order, filter, handler);
+        }
+
         Uri uri;
         ValueMultimap values = new ValueMultimap();
     
@@ -271,8 +360,11 @@ public class APIManager {
 		values.put(APIConstants.PARAMETER_ORDER, order.getParameterValue());
 		values.put(APIConstants.PARAMETER_READ_FILTER, filter.getParameterValue());
 
-		APIResponse response = get(uri.toString(), values);
-        return (StoriesResponse) response.getResponse(gson, StoriesResponse.class);
+        // the first page is what gets re-fetched every time a feed is opened, so only it is worth
+        // fetching conditionally
+        String urlString = uri.toString() + "?" + values.getParameterString();
+		APIResponse response = (pageNumber == 1) ? getConditional(urlString, true, true) : get(urlString, true);
+        return response.readStories(gson, handler);
     }
 
 	public boolean followUser(final String userId) {
@@ -325,19 +417,84 @@ public class APIManager {
      *        additional call to refreshFeedCounts().
      */
     public FeedFolderResponse getFolderFeedMapping(boolean doUpdateCounts) {
-		ContentValues params = new ContentValues();
+		ValueMultimap params = new ValueMultimap();
 		params.put( APIConstants.PARAMETER_UPDATE_COUNTS, (doUpdateCounts ? "true" : "false") );
-		APIResponse response = get(APIConstants.URL_FEEDS, params);
+		APIResponse response = getConditional(APIConstants.URL_FEEDS + "?" + params.getParameterString(), true, false);
 
 		if (response.isError()) {
             Log.e(this.getClass().getName(), "Error fetching feeds: " + response.getErrorMessage());
             return null;
         }
 
-		// note: this response is complex enough, we have to do a custom parse in the FFR
-        return new FeedFolderResponse(response.getResponseBody(), gson);
+        if (response.isNotModified()) {
+            return FeedFolderResponse.notModified(response.getValidators());
+        }
+
+		// note: this response is complex enough, we have to do a custom parse in the FFR. it
+        // is parsed straight off the wire, since for some users it is very large.
+        FeedFolderResponse feedFolderResponse = new FeedFolderResponse(gson);
+        if (!response.readBody(feedFolderResponse)) {
+            Log.e(this.getClass().getName(), "Error reading feeds: " + response.getErrorMessage());
+            return null;
+        }
+        feedFolderResponse.validators = response.getValidators();
+        return feedFolderResponse;
 	}
 
+    /**
+     * Fetches stories for a feed set with too many feeds for one request, via a ShardedRiver.
+     * The page numbers are those of the merged river, not of the API.  Rivers are remembered
+     * between pages, and if asked for a page partway through a river we no longer have, such
+     * as after a restart, the pages before it are re-read and thrown away to get back in step.
+     */
+    private StoriesResponse getShardedStories(FeedSet fs, int pageNumber, StoryOrder order, ReadFilter filter, APIResponse.StoryHandler handler) {
+        ShardedRiver river;
+        synchronized (rivers) {
+            river = rivers.get(fs);
+            if ((river == null) || (!river.isFor(order, filter)) || (river.getPagesRead() >= pageNumber)) {
+                river = new ShardedRiver(fs.getMultipleFeeds(), order, filter);
+                rivers.put(fs, river);
+            }
+        }
+        APIResponse.StoryHandler discard = new APIResponse.StoryHandler() {
+            public void handleStory(Story story) {
+                ; // already seen
+            }
+        };
+        while (river.getPagesRead() < (pageNumber - 1)) {
+            StoriesResponse skipped = river.nextPage(this, discard);
+            if (skipped.stories == null) return skipped;
+        }
+        return river.nextPage(this, handler);
+    }
+
+    /**
+     * Fetches one page of the river of stories for a list of feeds, as one shard of a
+     * ShardedRiver.  The feeds are POSTed, so the list may be longer than would fit in a URL.
+     */
+    StoriesResponse getRiverStoriesPage(List<String> feedIds, int pageNumber, StoryOrder order, ReadFilter filter) {
+        ValueMultimap values = new ValueMultimap();
+        for (String feedId : feedIds) values.put(APIConstants.PARAMETER_FEEDS, feedId);
+        values.put(APIConstants.PARAMETER_PAGE_NUMBER, Integer.toString(pageNumber));
+        values.put(APIConstants.PARAMETER_ORDER, order.getParameterValue());
+        values.put(APIConstants.PARAMETER_READ_FILTER, filter.getParameterValue());
+        APIResponse response = post(APIConstants.URL_RIVER_STORIES, values, false);
+        return (StoriesResponse) response.getResponse(gson, StoriesResponse.class);
+    }
+
+    /**
+     * Saves the validators from a conditional request once the result they came with has been
+     * persisted, so that the next request for it can be conditional.
+     *
+     * @param summary anything the caller will need to carry on if later told the result has
+     *        not changed.  Returned via ResponseValidators.getSummary().
+     */
+    public void saveValidators(ResponseValidators validators, String summary) {
+        if (validators == null) return;
+        validators.setSummary(summary);
+        FeedUtils.getDbHelper(context).putHttpValidators(validators);
+    }
+
 	public NewsBlurResponse trainClassifier(String feedId, String key, int type, int action) {
 		String typeText = null;
 		String actionText = null;
@@ -401,18 +558,35 @@ public class APIManager {
 	}
 
 	public StoryTextResponse getStoryText(String feedId, String storyId) {
-		final ContentValues values = new ContentValues();
-		values.put(APIConstants.PARAMETER_FEEDID, feedId);
-		values.put(APIConstants.PARAMETER_STORYID, storyId);
-		final APIResponse response = get(APIConstants.URL_STORY_TEXT, values);
-		if (!response.isError()) {
-			StoryTextResponse storyTextResponse = (StoryTextResponse) response.getResponse(gson, StoryTextResponse.class);
-			return storyTextResponse;
-		} else {
-			return null;
-		}
+        return storyTextRequests.getQuietly(startStoryText(feedId, storyId));
 	}
 
+    /**
+     * Waits for a fetch started by startStoryText().  Returns null on error or if cancelled.
+     */
+    public StoryTextResponse getStoryText(Future<StoryTextResponse> request) {
+        return storyTextRequests.getQuietly(request);
+    }
+
+    /**
+     * Starts fetching the original text of a story, or joins the fetch already in flight for
+     * it.  Cancelling the returned future won't disturb anyone else waiting on the same story.
+     * The result will be null on error.
+     */
+    public Future<StoryTextResponse> startStoryText(String feedId, String storyId) {
+		ValueMultimap values = new ValueMultimap();
+		values.put(APIConstants.PARAMETER_FEEDID, URLEncoder.encode(feedId));
+		values.put(APIConstants.PARAMETER_STORYID, URLEncoder.encode(storyId));
+        final String urlString = APIConstants.URL_STORY_TEXT + "?" + values.getParameterString();
+        return storyTextRequests.submit(urlString, new Callable<StoryTextResponse>() {
+            public StoryTextResponse call() {
+                APIResponse response = get(urlString);
+                if (response.isError()) return null;
+                return (StoryTextResponse) response.getResponse(gson, StoryTextResponse.class);
+            }
+        });
+    }
+
 	public boolean favouriteComment(String storyId, String commentId, String feedId) {
 		ContentValues values = new ContentValues();
 		values.put(APIConstants.PARAMETER_STORYID, storyId);
@@ -452,15 +626,17 @@ public class APIManager {
 	}
 
 	public FeedResult[] searchForFeed(String searchTerm) throws ServerErrorException {
-		ContentValues values = new ContentValues();
-		values.put(APIConstants.PARAMETER_FEED_SEARCH_TERM, searchTerm);
-		final APIResponse response = get(APIConstants.URL_FEED_AUTOCOMPLETE, values);
-
-		if (!response.isError()) {
-            return gson.fromJson(response.getResponseBody(), FeedResult[].class);
-		} else {
-			return null;
-		}
+		ValueMultimap values = new ValueMultimap();
+		values.put(APIConstants.PARAMETER_FEED_SEARCH_TERM, URLEncoder.encode(searchTerm));
+        final String urlString = APIConstants.URL_FEED_AUTOCOMPLETE + "?" + values.getParameterString();
+        // the same term is often searched for again while the first search is still running
+        return feedSearchRequests.get(urlString, new Callable<FeedResult[]>() {
+            public FeedResult[] call() {
+                APIResponse response = get(urlString);
+                if (response.isError()) return null;
+                return gson.fromJson(response.getResponseBody(), FeedResult[].class);
+            }
+        });
 	}
 
 	public NewsBlurResponse deleteFeed(long feedId, String folderName) {
@@ -476,34 +652,73 @@ public class APIManager {
     /* HTTP METHODS */
    
 	private APIResponse get(final String urlString) {
-        APIResponse response;
-        int tryCount = 0;
-        do {
-            backoffSleep(tryCount++);
-            response = get_single(urlString);
-        } while ((response.isError()) && (tryCount < AppConstants.MAX_API_TRIES));
+        return get(urlString, false);
+    }
+
+    /**
+     * Makes a GET call, retrying as needed.  If the body is to be streamed, only failures to
+     * connect are retried, since a failure partway through the body is seen by the reader.
+     */
+	private APIResponse get(final String urlString, boolean streamBody) {
+        return get(urlString, streamBody, null);
+    }
+
+	private APIResponse get(final String urlString, final boolean streamBody, final ResponseValidators validators) {
+        return withRetries(urlString, new ApiCall() {
+            public APIResponse call() {
+                return get_single(urlString, streamBody, validators);
+            }
+        });
+    }
+
+    /**
+     * Makes a conditional GET, sending the validators saved from the last time the URL was
+     * fetched, if any.  On a 304 the response carries those saved validators, and on a 200 it
+     * carries the new ones, which the caller should pass to saveValidators() once the result
+     * has been persisted.
+     *
+     * @param isStories whether the result is a set of stories, see ResponseValidators.
+     */
+    private APIResponse getConditional(final String urlString, boolean streamBody, boolean isStories) {
+        ResponseValidators saved = FeedUtils.getDbHelper(context).getHttpValidators(urlString);
+        APIResponse response = get(urlString, streamBody, saved);
+        String endpoint = Uri.parse(urlString).getPath();
+        if (response.isNotModified()) {
+            SyncMetrics.noteConditionalResult(endpoint, true);
+            response.setValidators(saved);
+        } else if (!response.isError()) {
+            SyncMetrics.noteConditionalResult(endpoint, false);
+            if ((response.getETag() != null) || (response.getLastModified() != null)) {
+                response.setValidators(new ResponseValidators(urlString, response.getETag(), response.getLastModified(), isStories));
+            }
+        }
         return response;
     }
-	private APIResponse get_single(final String urlString) {
+
+	private APIResponse get_single(final String urlString, boolean streamBody, ResponseValidators validators) {
 		if (!NetworkUtils.isOnline(context)) {
 			return new APIResponse(context);
 		}
 		try {
-			URL url = new URL(urlString);
+			URL url = new URL(resolveUrl(urlString));
             if (AppConstants.VERBOSE_LOG) {
                 Log.d(this.getClass().getName(), "API GET " + url );
             }
 			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-			SharedPreferences preferences = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
-			String cookie = preferences.getString(PrefConstants.PREF_COOKIE, null);
+			String cookie = getCookie(context);
 			if (cookie != null) {
 				connection.setRequestProperty("Cookie", cookie);
 			}
             connection.setRequestProperty("User-Agent", this.customUserAgent);
-			return new APIResponse(context, url, connection);
+            connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+            if (validators != null) {
+                if (validators.getETag() != null) connection.setRequestProperty("If-None-Match", validators.getETag());
+                if (validators.getLastModified() != null) connection.setRequestProperty("If-Modified-Since", validators.getLastModified());
+            }
+			return new APIResponse(context, url, connection, streamBody);
 		} catch (IOException e) {
 			Log.e(this.getClass().getName(), "Error opening GET connection to " + urlString, e.getCause());
-			return new APIResponse(context);
+			return new APIResponse(context, R.string.error_http_connection, true);
 		} 
 	}
 	
@@ -523,14 +738,12 @@ public class APIManager {
         return this.get(urlString + "?" + valueMap.getParameterString());
 	}
 
-	private APIResponse post(String urlString, String postBodyString) {
-        APIResponse response;
-        int tryCount = 0;
-        do {
-            backoffSleep(tryCount++);
-            response = post_single(urlString, postBodyString);
-        } while ((response.isError()) && (tryCount < AppConstants.MAX_API_TRIES));
-        return response;
+	private APIResponse post(final String urlString, final String postBodyString) {
+        return withRetries(urlString, new ApiCall() {
+            public APIResponse call() {
+                return post_single(urlString, postBodyString);
+            }
+        });
     }
 
 	private APIResponse post_single(String urlString, String postBodyString) {
@@ -538,28 +751,33 @@ public class APIManager {
 			return new APIResponse(context);
 		}
 		try {
-			URL url = new URL(urlString);
+			URL url = new URL(resolveUrl(urlString));
             if (AppConstants.VERBOSE_LOG) {
                 Log.d(this.getClass().getName(), "API POST " + url );
                 Log.d(this.getClass().getName(), "post body: " + postBodyString);
             }
+            byte[] rawBody = postBodyString.getBytes("UTF-8");
+            byte[] body = rawBody;
+            boolean gzipBody = (AppConstants.GZIP_POST_BODIES && (rawBody.length >= AppConstants.GZIP_POST_MIN_BYTES));
+            if (gzipBody) body = gzip(rawBody);
 			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 			connection.setDoOutput(true);
 			connection.setRequestMethod("POST");
-			connection.setFixedLengthStreamingMode(postBodyString.getBytes().length);
+			connection.setFixedLengthStreamingMode(body.length);
 			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-			SharedPreferences preferences = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
-			String cookie = preferences.getString(PrefConstants.PREF_COOKIE, null);
+            if (gzipBody) connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+			String cookie = getCookie(context);
 			if (cookie != null) {
 				connection.setRequestProperty("Cookie", cookie);
 			}
-			PrintWriter printWriter = new PrintWriter(connection.getOutputStream());
-			printWriter.print(postBodyString);
-			printWriter.close();
-			return new APIResponse(context, url, connection);
+			OutputStream out = connection.getOutputStream();
+			out.write(body);
+			out.close();
+			return new APIResponse(context, url, connection, false, body.length, rawBody.length);
 		} catch (IOException e) {
 			Log.e(this.getClass().getName(), "Error opening POST connection to " + urlString + ": " + e.getCause(), e.getCause());
-			return new APIResponse(context);
+			return new APIResponse(context, R.string.error_http_connection, true);
 		} 
 	}
 
@@ -588,19 +806,73 @@ public class APIManager {
         return this.post(urlString, parameterString);
 	}
 
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Sends all API calls to the given server instead of the real one, for testing and
+     * benchmarking against a stand-in.  Pass null to go back to the real server.
+     *
+     * @param baseUrl the scheme, host and port to use in place of NEWSBLUR_URL.
+     */
+    public static void setBaseUrlOverride(String baseUrl) {
+        BaseUrlOverride = baseUrl;
+    }
+
+    private static String resolveUrl(String urlString) {
+        String baseUrl = BaseUrlOverride;
+        if ((baseUrl == null) || (!urlString.startsWith(APIConstants.NEWSBLUR_URL))) return urlString;
+        return baseUrl + urlString.substring(APIConstants.NEWSBLUR_URL.length());
+    }
+
+    /**
+     * A single attempt at an API call, so that it can be retried.
+     */
+    private interface ApiCall {
+        APIResponse call();
+    }
+
     /**
-     * Pause for the sake of exponential retry-backoff as apropriate before the Nth call as counted
-     * by the zero-indexed tryCount.
+     * Make an API call, retrying as the RetryPolicy sees fit.  Every attempt is reported to the
+     * CircuitBreaker for the host, and if the host has been failing, the call fails fast without
+     * touching the network.
      */
-    private void backoffSleep(int tryCount) {
-        if (tryCount == 0) return;
-        Log.i(this.getClass().getName(), "API call failed, pausing before retry number " + tryCount);
-        try {
-            // simply double the base sleep time for each subsequent try
-            long factor = Math.round(Math.pow(2.0d, tryCount));
-            Thread.sleep(AppConstants.API_BACKOFF_BASE_MILLIS * factor);
-        } catch (InterruptedException ie) {
-            Log.w(this.getClass().getName(), "Abandoning API backoff due to interrupt.");
+    private APIResponse withRetries(String urlString, ApiCall call) {
+        if (!NetworkUtils.isOnline(context)) {
+            return new APIResponse(context);
+        }
+        // servers are told apart by port as well as host, since a stand-in may be local
+        CircuitBreaker breaker = CircuitBreaker.forHost(Uri.parse(resolveUrl(urlString)).getAuthority());
+        RetryPolicy policy = new RetryPolicy();
+        while (true) {
+            if (!breaker.allowRequest()) {
+                Log.w(this.getClass().getName(), "API host unavailable, not calling " + urlString);
+                return new APIResponse(context, R.string.error_server_unavailable, false);
+            }
+            APIResponse response = call.call();
+            if (!response.isError()) {
+                breaker.recordSuccess();
+                return response;
+            }
+            if (response.isRetryable()) {
+                breaker.recordFailure();
+            } else if (response.getResponseCode() != APIResponse.NO_RESPONSE) {
+                // the host answered, even if the answer was no
+                breaker.recordSuccess();
+            } else {
+                breaker.recordAbandoned();
+            }
+            if (response.getRetryAfterMillis() > AppConstants.API_RETRY_AFTER_MAX_MILLIS) {
+                // longer than is worth holding up this call, so have everyone stay away instead
+                breaker.openFor(response.getRetryAfterMillis());
+                return response;
+            }
+            if (!policy.waitToRetry(response)) return response;
         }
     }
 
@@ -1,49 +1,148 @@
 package com.newsblur.network;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Scanner;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import android.content.Context;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.http.HttpStatus;
 
 import com.newsblur.R;
+import com.newsblur.domain.Story;
 import com.newsblur.network.domain.NewsBlurResponse;
+import com.newsblur.network.domain.StoriesResponse;
+import com.newsblur.service.SyncMetrics;
 import com.newsblur.util.AppConstants;
 
 /**
  * A JSON-encoded response from the API servers.  This class encodes the possible outcomes of
  * an attempted API call, including total failure, online failures, and successful responses.
- * In the latter case, the GSON reader used to look for errors is left open so that the expected
- * response can be read.  Instances of this class should be closed after use.
+ *
+ * By default the body is read into memory as raw bytes, which are only decoded when the
+ * expected response is parsed.  A streaming response instead leaves the connection open so
+ * that a large body can be parsed straight off the wire by readStories() or readBody().
+ *
+ * Bodies may arrive gzip- or deflate-encoded, and are decoded here.  Both the encoded and
+ * decoded sizes are reported to SyncMetrics under the endpoint that was called.
+ *
+ * Connections are only disconnected after errors.  Bodies that are read to the end are just
+ * closed, so that the underlying connection can be kept alive and reused.
+ *
+ * Errors are classified as retryable or not, for the sake of RetryPolicy: network failures,
+ * server errors, timeouts and rate limiting may pass, but other client errors will not.
  */
 public class APIResponse {
+
+    /**
+     * Receives stories one at a time as they are parsed from a streaming response.
+     */
+    public interface StoryHandler {
+        void handleStory(Story story);
+    }
+
+    /**
+     * Parses a whole streaming response body, see readBody().
+     */
+    public interface BodyReader {
+        void read(JsonReader in) throws IOException;
+    }
+
+    private static final String CHARSET = "UTF-8";
+
+    /** The response code of a call that never got a response from the server. */
+    public static final int NO_RESPONSE = -1;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
 	
     private Context context;
     private boolean isError;
+    private boolean isRetryable;
+    private int responseCode = NO_RESPONSE;
+    private long retryAfterMillis = -1L;
+    private boolean isNotModified;
     private String errorMessage;
 	private String cookie;
-    private String responseBody;
+    private String etag;
+    private String lastModified;
+    private ResponseValidators validators;
+    private byte[] responseBody;
+    private URL url;
+    private HttpURLConnection connection;
+    private CountingInputStream wireStream;
+    private CountingInputStream bodyStream;
+    private long wireBytesSent;
+    private long rawBytesSent;
 
     /**
      * Construct an online response.  Will test the response for errors and extract all the
      * info we might need.
      */
     public APIResponse(Context context, URL originalUrl, HttpURLConnection connection) {
+        this(context, originalUrl, connection, false);
+    }
+
+    /**
+     * Construct an online response, optionally leaving the body unread so it may be streamed.
+     * A streaming response must be consumed with readStories() or readBody(), which will close it.
+     */
+    public APIResponse(Context context, URL originalUrl, HttpURLConnection connection, boolean streamBody) {
+        this(context, originalUrl, connection, streamBody, 0L, 0L);
+    }
 
+    /**
+     * Construct an online response to a call that sent a request body.
+     *
+     * @param wireBytesSent the size of the request body as sent, after any content encoding.
+     * @param rawBytesSent the size of the request body before any content encoding.
+     */
+    public APIResponse(Context context, URL originalUrl, HttpURLConnection connection, boolean streamBody, long wireBytesSent, long rawBytesSent) {
+
+        this.context = context;
+        this.url = originalUrl;
+        this.wireBytesSent = wireBytesSent;
+        this.rawBytesSent = rawBytesSent;
         this.errorMessage = context.getResources().getString(R.string.error_unset_message);
 
+        SyncMetrics.noteHttpRequest();
+
         try {
-            if (connection.getResponseCode() != HttpStatus.SC_OK) {
-                Log.e(this.getClass().getName(), "API returned error code " + connection.getResponseCode() + " calling " + originalUrl);
+            this.responseCode = connection.getResponseCode();
+
+            if (this.responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // the answer to a conditional request: there is no body, and nothing to do
+                this.isNotModified = true;
+                SyncMetrics.noteEndpointTraffic(originalUrl.getPath(), wireBytesSent, rawBytesSent, 0L, 0L);
+                return;
+            }
+
+            if (this.responseCode != HttpStatus.SC_OK) {
+                Log.e(this.getClass().getName(), "API returned error code " + this.responseCode + " calling " + originalUrl);
                 this.isError = true;
+                this.isRetryable = isRetryableCode(this.responseCode);
+                this.retryAfterMillis = parseRetryAfter(connection.getHeaderField("Retry-After"));
                 this.errorMessage = context.getResources().getString(R.string.error_http_connection);
+                abandonConnection(connection);
                 return;
             }
             
@@ -52,53 +151,92 @@ public class APIResponse {
                 Log.e(this.getClass().getName(), "API redirected calling " + originalUrl);
                 this.isError = true;
                 this.errorMessage = context.getResources().getString(R.string.error_http_connection);
+                abandonConnection(connection);
                 return;
             }
         } catch (IOException ioe) {
             Log.e(this.getClass().getName(), "Error (" + ioe.getMessage() + ") calling " + originalUrl, ioe);
             this.isError = true;
+            this.isRetryable = true;
             this.errorMessage = context.getResources().getString(R.string.error_read_connection);
+            abandonConnection(connection);
             return;
         }
 
         this.cookie = connection.getHeaderField("Set-Cookie");
+        this.etag = connection.getHeaderField("ETag");
+        this.lastModified = connection.getHeaderField("Last-Modified");
 
         try {
-            StringBuilder builder = new StringBuilder();
-            Scanner scanner = new Scanner(connection.getInputStream(), "UTF-8");
-            while (scanner.hasNextLine()) { builder.append(scanner.nextLine()); }
-            this.responseBody = builder.toString();
+            this.wireStream = new CountingInputStream(connection.getInputStream());
+            this.bodyStream = new CountingInputStream(decodeBody(this.wireStream, connection.getContentEncoding()));
+            if (streamBody) {
+                this.connection = connection;
+                return;
+            }
+            this.responseBody = readFully(this.bodyStream);
+            noteTraffic();
         } catch (Exception e) {
             Log.e(this.getClass().getName(), e.getClass().getName() + " (" + e.getMessage() + ") reading " + originalUrl, e);
             this.isError = true;
+            this.isRetryable = true;
             this.errorMessage = context.getResources().getString(R.string.error_read_connection);
+            abandonConnection(connection);
             return;
         }
 
         if (AppConstants.VERBOSE_LOG) {
-            Log.d(this.getClass().getName(), "received API response: \n" + this.responseBody);
+            Log.d(this.getClass().getName(), "received API response: \n" + getResponseBody());
         }
 
-        try {
-            connection.disconnect();
-        } catch (Exception e) {
-            Log.e(this.getClass().getName(), e.getClass().getName() + " caught closing connection: " + e.getMessage(), e);
-        }
-        
+        // the body was read in full and closed, so the connection is now free to be reused
     }
 
     /**
      * Construct and empty/offline response.  Signals that the call was not made.
      */
     public APIResponse(Context context) {
+        this(context, R.string.error_offline, false);
+    }
+
+    /**
+     * Construct a response to a call that failed without getting a response from the server.
+     *
+     * @param errorMessageId the string resource describing the failure to the user.
+     * @param isRetryable whether trying the call again might work.
+     */
+    public APIResponse(Context context, int errorMessageId, boolean isRetryable) {
+        this.context = context;
         this.isError = true;
-        this.errorMessage = context.getResources().getString(R.string.error_offline);
+        this.isRetryable = isRetryable;
+        this.errorMessage = context.getResources().getString(errorMessageId);
     }
 
     public boolean isError() {
         return this.isError;
     }
 
+    /**
+     * Whether this response is an error that might not happen if the call were made again.
+     */
+    public boolean isRetryable() {
+        return this.isRetryable;
+    }
+
+    /**
+     * The HTTP status code of the response, or NO_RESPONSE if none was received.
+     */
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    /**
+     * How long the server asked us to wait before calling again, or -1 if it did not say.
+     */
+    public long getRetryAfterMillis() {
+        return this.retryAfterMillis;
+    }
+
     public String getErrorMessage() {
         return this.errorMessage;
     }
@@ -116,29 +254,262 @@ public class APIResponse {
             try {
                 T response = classOfT.newInstance();
                 response.message = this.errorMessage;
+                response.isTransientError = ((this.responseCode == NO_RESPONSE) || this.isRetryable);
                 return ((T) response);
             } catch (Exception e) {
                 // this should never fail unless the constructor of the base response bean fails
                 Log.wtf(this.getClass().getName(), "Failed to load class: " + classOfT);
                 return null;
             }
+        } else if (this.isNotModified) {
+            // the caller already has the result, so just tell them so
+            try {
+                T response = classOfT.newInstance();
+                response.isNotModified = true;
+                response.validators = this.validators;
+                return response;
+            } catch (Exception e) {
+                Log.wtf(this.getClass().getName(), "Failed to load class: " + classOfT);
+                return null;
+            }
         } else {
             // otherwise, parse the response as the expected class and defer error detection
             // to the NewsBlurResponse parent class
-            return gson.fromJson(this.responseBody, classOfT);
+            try {
+                T response = gson.fromJson(new InputStreamReader(new ByteArrayInputStream(this.responseBody), CHARSET), classOfT);
+                if (response != null) response.validators = this.validators;
+                return response;
+            } catch (UnsupportedEncodingException uee) {
+                throw new IllegalStateException(uee);
+            }
         }
     }
 
+    /**
+     * Read a streaming stories response.  Each story is handed to the handler as soon as it has
+     * been parsed and is not kept, so the whole page never has to be in memory at once.  The
+     * returned response holds everything else that came with the stories, and an empty stories
+     * array if the stories were present.  The connection is always closed before returning.
+     */
+    public StoriesResponse readStories(Gson gson, StoryHandler handler) {
+        if (this.isError || this.isNotModified) return getResponse(gson, StoriesResponse.class);
+
+        StoriesReader storiesReader = new StoriesReader(gson, handler);
+        if (!readBody(storiesReader)) return getResponse(gson, StoriesResponse.class);
+
+        StoriesResponse response = gson.fromJson(storiesReader.others, StoriesResponse.class);
+        if (storiesReader.sawStories) response.stories = new Story[0];
+        response.validators = this.validators;
+        return response;
+    }
+
+    /**
+     * Read a streaming response with the given reader, straight off the wire.  The connection
+     * is always closed before returning.
+     *
+     * @return true if the body was read in full, or false if this response is now an error.
+     */
+    public boolean readBody(BodyReader bodyReader) {
+        if (this.isError) return false;
+        if (this.bodyStream == null) throw new IllegalStateException("response was not opened for streaming");
+
+        boolean complete = false;
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(this.bodyStream, CHARSET));
+            bodyReader.read(reader);
+            // consume anything after the JSON, so the connection can be reused
+            while (this.bodyStream.read() != -1) {}
+            complete = true;
+        } catch (Exception e) {
+            Log.e(this.getClass().getName(), e.getClass().getName() + " (" + e.getMessage() + ") streaming " + this.url, e);
+            this.isError = true;
+            this.errorMessage = context.getResources().getString(R.string.error_read_connection);
+        } finally {
+            try {
+                this.bodyStream.close();
+            } catch (IOException ioe) {
+                ; // the connection is being torn down anyway
+            }
+            noteTraffic();
+            if (!complete) abandonConnection(this.connection);
+            this.bodyStream = null;
+        }
+        return complete;
+    }
+
     public NewsBlurResponse getResponse(Gson gson) {
         return getResponse(gson, NewsBlurResponse.class);
     }
 
     public String getResponseBody() {
-        return this.responseBody;
+        if (this.responseBody == null) return null;
+        try {
+            return new String(this.responseBody, CHARSET);
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
     }
 
     public String getCookie() {
         return this.cookie;
     }
 
+    /**
+     * Whether this was a conditional request to which the API replied that the result has not
+     * changed.  Such a response has no body, but is not an error.
+     */
+    public boolean isNotModified() {
+        return this.isNotModified;
+    }
+
+    public String getETag() {
+        return this.etag;
+    }
+
+    public String getLastModified() {
+        return this.lastModified;
+    }
+
+    public ResponseValidators getValidators() {
+        return this.validators;
+    }
+
+    public void setValidators(ResponseValidators validators) {
+        this.validators = validators;
+    }
+
+    /**
+     * Server errors may clear up, as may timeouts and rate limiting.  Any other response, such
+     * as a bad request or an auth failure, will come back the same way if we try again.
+     */
+    static boolean isRetryableCode(int responseCode) {
+        if (responseCode >= 500) return true;
+        if (responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT) return true;
+        if (responseCode == HTTP_TOO_MANY_REQUESTS) return true;
+        return false;
+    }
+
+    /**
+     * Parse a Retry-After header, which may hold either a number of seconds or an HTTP date.
+     *
+     * @return the number of millis to wait, or -1 if the header is missing or unreadable.
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) return -1L;
+        retryAfter = retryAfter.trim();
+        try {
+            long seconds = Long.parseLong(retryAfter);
+            return (seconds < 0L) ? -1L : (seconds * 1000L);
+        } catch (NumberFormatException nfe) {
+            ; // not seconds, so try it as a date
+        }
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            Date until = format.parse(retryAfter);
+            return Math.max(until.getTime() - System.currentTimeMillis(), 0L);
+        } catch (ParseException pe) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Hands each of the stories in a stories response to a StoryHandler, and collects all
+     * the other members, which are small, to be bound in one go.
+     */
+    private static class StoriesReader implements BodyReader {
+        private final Gson gson;
+        private final StoryHandler handler;
+        private final JsonObject others = new JsonObject();
+        private boolean sawStories = false;
+
+        StoriesReader(Gson gson, StoryHandler handler) {
+            this.gson = gson;
+            this.handler = handler;
+        }
+
+        public void read(JsonReader reader) throws IOException {
+            JsonParser parser = new JsonParser();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("stories") && (reader.peek() == JsonToken.BEGIN_ARRAY)) {
+                    sawStories = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        handler.handleStory((Story) gson.fromJson(reader, Story.class));
+                    }
+                    reader.endArray();
+                } else {
+                    others.add(name, parser.parse(reader));
+                }
+            }
+            reader.endObject();
+        }
+    }
+
+    /**
+     * Read a whole body as raw bytes.  Unlike reading it line-by-line, this leaves any newlines
+     * in story content intact.
+     */
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        try {
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Wrap a body stream as needed to undo the given content encoding.  We ask for compression
+     * ourselves rather than letting HttpURLConnection do it transparently, since the latter
+     * hides the encoding and so the size of what actually came over the wire.
+     */
+    static InputStream decodeBody(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null) return in;
+        String encoding = contentEncoding.trim().toLowerCase(Locale.US);
+        if (encoding.equals("") || encoding.equals("identity")) return in;
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) return new GZIPInputStream(in, 8192);
+        if (encoding.equals("deflate")) {
+            // the spec calls for a zlib-wrapped stream, but some servers send raw deflate data,
+            // so sniff for a zlib header: a compression method of 8 and a valid header checksum
+            BufferedInputStream buffered = new BufferedInputStream(in, 8192);
+            buffered.mark(2);
+            int b0 = buffered.read();
+            int b1 = buffered.read();
+            buffered.reset();
+            boolean zlib = ((b0 & 0x0F) == 8) && (b1 != -1) && ((((b0 << 8) | b1) % 31) == 0);
+            return new InflaterInputStream(buffered, new Inflater(!zlib), 8192) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+        throw new IOException("unsupported content encoding: " + contentEncoding);
+    }
+
+    private void noteTraffic() {
+        SyncMetrics.noteBytesReceived(this.wireStream.getCount());
+        SyncMetrics.noteEndpointTraffic(this.url.getPath(), this.wireBytesSent, this.rawBytesSent, this.wireStream.getCount(), this.bodyStream.getCount());
+    }
+
+    /**
+     * Tear down a connection that was not read cleanly to the end.  Connections whose body was
+     * read in full are just closed, which lets HttpURLConnection keep them alive for reuse.
+     */
+    private void abandonConnection(HttpURLConnection connection) {
+        try {
+            connection.disconnect();
+        } catch (Exception e) {
+            Log.e(this.getClass().getName(), e.getClass().getName() + " caught closing connection: " + e.getMessage(), e);
+        }
+    }
+
 }
@@ -0,0 +1,99 @@
+package com.newsblur.network;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.newsblur.util.AppConstants;
+
+/**
+ * Tracks the health of a single API host so that calls can fail fast while it is down,
+ * rather than each one spending its retries against an outage.
+ *
+ * After enough consecutive failures the breaker opens, and calls are refused until a cooldown
+ * has passed.  The next call after that is let through as a trial: if it succeeds the breaker
+ * closes, and if it fails the breaker opens again with a longer cooldown.  The server may also
+ * open the breaker directly by asking us to back off for longer than we are willing to wait.
+ */
+public class CircuitBreaker {
+
+    private static final Map<String,CircuitBreaker> Breakers = new HashMap<String,CircuitBreaker>();
+
+    private final String host;
+    private int consecutiveFailures = 0;
+    private long cooldownMillis = AppConstants.CIRCUIT_BREAKER_BASE_COOLDOWN_MILLIS;
+    private long openUntil = 0L;
+    private boolean trialInFlight = false;
+
+    private CircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    public static CircuitBreaker forHost(String host) {
+        synchronized (Breakers) {
+            CircuitBreaker breaker = Breakers.get(host);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(host);
+                Breakers.put(host, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * Whether a call to this host may be made right now.  Once the cooldown has passed, only one
+     * trial call at a time is allowed until one of them succeeds.
+     */
+    public synchronized boolean allowRequest() {
+        if (consecutiveFailures < AppConstants.CIRCUIT_BREAKER_FAILURE_THRESHOLD) {
+            if (System.currentTimeMillis() >= openUntil) return true;
+            return false;
+        }
+        if (System.currentTimeMillis() < openUntil) return false;
+        if (trialInFlight) return false;
+        trialInFlight = true;
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        if (consecutiveFailures >= AppConstants.CIRCUIT_BREAKER_FAILURE_THRESHOLD) {
+            Log.i(this.getClass().getName(), "API host " + host + " is back, closing circuit");
+        }
+        consecutiveFailures = 0;
+        cooldownMillis = AppConstants.CIRCUIT_BREAKER_BASE_COOLDOWN_MILLIS;
+        openUntil = 0L;
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (consecutiveFailures < AppConstants.CIRCUIT_BREAKER_FAILURE_THRESHOLD) return;
+        // a failed trial means the host is still down, so wait longer before the next one
+        if (trialInFlight) {
+            cooldownMillis = Math.min(cooldownMillis * 2L, AppConstants.CIRCUIT_BREAKER_MAX_COOLDOWN_MILLIS);
+        }
+        trialInFlight = false;
+        openUntil = System.currentTimeMillis() + cooldownMillis;
+        Log.w(this.getClass().getName(), "API host " + host + " failing, opening circuit for " + (cooldownMillis / 1000L) + "s");
+    }
+
+    /**
+     * Note that a call let through by allowRequest() ended without telling us anything about
+     * the host, such as when the device went offline before it could be made.
+     */
+    public synchronized void recordAbandoned() {
+        trialInFlight = false;
+    }
+
+    /**
+     * Refuse all calls for the given time, because the server asked us to back off.
+     */
+    public synchronized void openFor(long millis) {
+        long until = System.currentTimeMillis() + Math.min(millis, AppConstants.CIRCUIT_BREAKER_MAX_COOLDOWN_MILLIS);
+        if (until > openUntil) openUntil = until;
+        trialInFlight = false;
+        Log.w(this.getClass().getName(), "API host " + host + " asked us to back off, opening circuit for " + (millis / 1000L) + "s");
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.newsblur.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream wrapper that keeps track of how many bytes have been read through it.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private long count = 0L;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) count++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = super.read(buffer, offset, length);
+        if (n > 0) count += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        // a reset would make our count meaningless
+        return false;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.newsblur.network;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Lets identical API calls that are in flight at the same time share a single request.  The
+ * first caller to ask for a given key starts the request on a background thread, and anyone
+ * else asking for the same key before it finishes is handed the same request and, in time,
+ * the same parsed result.  Nothing is cached once a request has finished.
+ *
+ * Each caller gets its own Future.  Cancelling it only drops that caller's interest; the
+ * shared request is only cancelled once nobody is waiting on it any more.  A caller already
+ * blocked waiting on the result is not woken by cancelling, and should ignore what it gets.
+ */
+public class RequestCoalescer<T> {
+
+    // shared by all coalescers. idle threads are let go, so this costs nothing when quiet.
+    private static final ExecutorService Executor = Executors.newCachedThreadPool();
+
+    private final String name;
+    private final Map<String,SharedRequest> inFlight = new HashMap<String,SharedRequest>();
+
+    /**
+     * @param name a name for the kind of request being coalesced, for logging.
+     */
+    public RequestCoalescer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Joins the request in flight for the given key, or starts one using the given callable
+     * if there is none.
+     */
+    public Future<T> submit(String key, Callable<T> request) {
+        synchronized (inFlight) {
+            SharedRequest shared = inFlight.get(key);
+            if (shared == null) {
+                shared = new SharedRequest(key, request);
+                inFlight.put(key, shared);
+                Executor.execute(shared);
+            } else {
+                Log.d(this.getClass().getName(), "joining " + name + " request already in flight");
+            }
+            shared.interest++;
+            return new Interest(shared);
+        }
+    }
+
+    /**
+     * Joins or starts a request and waits for its result.  Returns null if the request failed,
+     * the failure having been logged.
+     */
+    public T get(String key, Callable<T> request) {
+        return getQuietly(submit(key, request));
+    }
+
+    /**
+     * Waits for the result of a request returned by submit().  Returns null if the request
+     * failed or was cancelled.
+     */
+    public T getQuietly(Future<T> future) {
+        try {
+            return future.get();
+        } catch (CancellationException ce) {
+            return null;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ee) {
+            Log.e(this.getClass().getName(), name + " request failed", ee.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Drops one caller's interest in a shared request, cancelling it if nobody else is waiting.
+     */
+    private void release(SharedRequest shared) {
+        synchronized (inFlight) {
+            shared.interest--;
+            if (shared.interest > 0) return;
+            shared.cancel(true);
+            if (inFlight.get(shared.key) == shared) inFlight.remove(shared.key);
+        }
+    }
+
+    private class SharedRequest extends FutureTask<T> {
+        final String key;
+        // how many callers are waiting on this request. guarded by inFlight.
+        int interest = 0;
+
+        SharedRequest(String key, Callable<T> request) {
+            super(request);
+            this.key = key;
+        }
+
+        @Override
+        protected void done() {
+            // once finished, later callers should make a fresh request
+            synchronized (inFlight) {
+                if (inFlight.get(key) == this) inFlight.remove(key);
+            }
+        }
+    }
+
+    /**
+     * One caller's view of a shared request.
+     */
+    private class Interest implements Future<T> {
+        private final SharedRequest shared;
+        private boolean cancelled = false;
+
+        Interest(SharedRequest shared) {
+            this.shared = shared;
+        }
+
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            if (cancelled || shared.isDone()) return false;
+            cancelled = true;
+            release(shared);
+            return true;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized boolean isDone() {
+            return (cancelled || shared.isDone());
+        }
+
+        public T get() throws InterruptedException, ExecutionException {
+            if (isCancelled()) throw new CancellationException();
+            return shared.get();
+        }
+
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (isCancelled()) throw new CancellationException();
+            return shared.get(timeout, unit);
+        }
+    }
+
+}
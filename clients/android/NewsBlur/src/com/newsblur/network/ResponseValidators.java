@@ -0,0 +1,52 @@
+package com.newsblur.network;
+
+/**
+ * The cache validators (ETag and Last-Modified) that came with an API response, which let a
+ * later request for the same URL be made conditional.  Once the result has been persisted,
+ * they are saved along with a short summary of it, supplied by whoever did the persisting,
+ * so that a caller told the result has not changed can carry on without the body.
+ */
+public class ResponseValidators {
+
+    private final String url;
+    private final String etag;
+    private final String lastModified;
+    private final boolean isStories;
+    private String summary;
+
+    /**
+     * @param isStories whether the result is a set of stories.  Stories may be removed by
+     *        local cleanup, after which the validators for them are no longer any use.
+     */
+    public ResponseValidators(String url, String etag, String lastModified, boolean isStories) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.isStories = isStories;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isStories() {
+        return isStories;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.newsblur.network;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Random;
+
+import com.newsblur.util.AppConstants;
+
+/**
+ * Decides whether and when a failed API call should be tried again.  A new policy is used for
+ * each call.
+ *
+ * Only failures that might go away on their own are retried: connection problems, server
+ * errors, timeouts and rate limiting.  Other client errors will fail the same way every time.
+ * Pauses between tries use "decorrelated jitter", a randomised exponential backoff, so that
+ * the many calls that fail at once during an outage do not all come back at once.  If the
+ * server says how long to wait with a Retry-After header, we wait at least that long.
+ *
+ * The total time spent waiting on a call is capped, and calls made from the UI thread are
+ * never paused or retried at all.
+ */
+public class RetryPolicy {
+
+    // java.util.Random is threadsafe, so all policies can share one
+    private static final Random Jitter = new Random();
+
+    private int tryCount = 1;
+    private long lastDelayMillis = AppConstants.API_BACKOFF_BASE_MILLIS;
+    private long totalDelayMillis = 0L;
+
+    /**
+     * Pause as needed before retrying a call that got the given response.
+     *
+     * @return true if the call should be tried again, or false if the response should be
+     *         returned to the caller as-is.
+     */
+    public boolean waitToRetry(APIResponse response) {
+        if (!response.isError()) return false;
+        if (!response.isRetryable()) return false;
+        if (tryCount >= AppConstants.MAX_API_TRIES) return false;
+        if (Looper.myLooper() == Looper.getMainLooper()) return false;
+
+        long delayMillis = nextDelay();
+        if (response.getRetryAfterMillis() > delayMillis) delayMillis = response.getRetryAfterMillis();
+        if ((totalDelayMillis + delayMillis) > AppConstants.API_RETRY_BUDGET_MILLIS) {
+            Log.i(this.getClass().getName(), "API call failed, retry budget spent after " + tryCount + " tries");
+            return false;
+        }
+
+        Log.i(this.getClass().getName(), "API call failed, pausing " + delayMillis + "ms before retry number " + tryCount);
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException ie) {
+            Log.w(this.getClass().getName(), "Abandoning API backoff due to interrupt.");
+            // let the caller see the interrupt, too
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        totalDelayMillis += delayMillis;
+        tryCount++;
+        return true;
+    }
+
+    /**
+     * The next pause, picked at random between the base pause and three times the last one,
+     * and capped.
+     */
+    private long nextDelay() {
+        long base = AppConstants.API_BACKOFF_BASE_MILLIS;
+        long range = Math.max((lastDelayMillis * 3L) - base, 1L);
+        long delay = base + ((long) (Jitter.nextDouble() * range));
+        delay = Math.min(delay, AppConstants.API_BACKOFF_MAX_MILLIS);
+        lastDelayMillis = delay;
+        return delay;
+    }
+
+}
@@ -17,7 +17,7 @@ public class SearchAsyncTaskLoader extends AsyncTaskLoader<SearchLoaderResponse>
 	public SearchAsyncTaskLoader(Context context, String searchTerm) {
 		super(context);
 		this.searchTerm = searchTerm;
-		apiManager = new APIManager(context);
+		apiManager = APIManager.getInstance(context);
 	}
 
 	@Override
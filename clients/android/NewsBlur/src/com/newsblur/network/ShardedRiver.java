@@ -0,0 +1,183 @@
+package com.newsblur.network;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.newsblur.domain.Classifier;
+import com.newsblur.domain.Feed;
+import com.newsblur.domain.Story;
+import com.newsblur.domain.UserProfile;
+import com.newsblur.network.domain.StoriesResponse;
+import com.newsblur.util.AppConstants;
+import com.newsblur.util.ReadFilter;
+import com.newsblur.util.StoryOrder;
+
+/**
+ * Pages through the river of stories for a large set of feeds by splitting the feeds into
+ * shards, each small enough for a single request, and merging the shards' stories by
+ * StoryOrder as if they had come from one request.
+ *
+ * Each call to nextPage() first fetches, in parallel, the next page of any shard that has run
+ * out of buffered stories.  It then emits stories from the heads of the shards, best first,
+ * until some shard that still has more stories on the API runs dry.  No story is emitted until
+ * every shard that might have a better one has been heard from, so the merged pages come out in
+ * a consistent order, even though they won't be the same size as the API's own pages.
+ *
+ * A river is only ever used by one thread at a time.
+ */
+public class ShardedRiver {
+
+    private static final ExecutorService Executor = Executors.newFixedThreadPool(AppConstants.RIVER_SHARD_THREADS);
+
+    private final List<Shard> shards = new ArrayList<Shard>();
+    private final StoryOrder order;
+    private final ReadFilter filter;
+    private int pagesRead = 0;
+
+    public ShardedRiver(Collection<String> feedIds, StoryOrder order, ReadFilter filter) {
+        this.order = order;
+        this.filter = filter;
+        Shard shard = null;
+        for (String feedId : feedIds) {
+            if ((shard == null) || (shard.feedIds.size() >= AppConstants.RIVER_SHARD_SIZE)) {
+                shard = new Shard();
+                shards.add(shard);
+            }
+            shard.feedIds.add(feedId);
+        }
+    }
+
+    /**
+     * Whether this river is paging through stories in the given order and with the given filter.
+     */
+    public boolean isFor(StoryOrder order, ReadFilter filter) {
+        return ((this.order == order) && (this.filter == filter));
+    }
+
+    /**
+     * How many merged pages have been handed out so far.
+     */
+    public int getPagesRead() {
+        return pagesRead;
+    }
+
+    /**
+     * Gets the next merged page of stories.  As with a streamed response, the stories are handed
+     * to the handler rather than returned.  The returned response holds the users, feeds and
+     * classifiers that came with any shard pages fetched for it, and an empty stories array.  An
+     * empty page means every shard is exhausted.
+     *
+     * If a shard fails to fetch, its error response is returned, and the river is left as it was
+     * so the same page may be asked for again.
+     */
+    public StoriesResponse nextPage(final APIManager apiManager, APIResponse.StoryHandler handler) {
+        StoriesResponse merged = new StoriesResponse();
+        merged.stories = new Story[0];
+
+        // fetch the next page of every shard we need to hear from
+        Map<Shard,Future<StoriesResponse>> fetches = new HashMap<Shard,Future<StoriesResponse>>();
+        for (final Shard shard : shards) {
+            if (shard.exhausted || (shard.buffer.size() > 0)) continue;
+            final int pageNumber = shard.pagesFetched + 1;
+            fetches.put(shard, Executor.submit(new Callable<StoriesResponse>() {
+                public StoriesResponse call() {
+                    return apiManager.getRiverStoriesPage(shard.feedIds, pageNumber, order, filter);
+                }
+            }));
+        }
+        Map<Shard,StoriesResponse> responses = new HashMap<Shard,StoriesResponse>();
+        for (Map.Entry<Shard,Future<StoriesResponse>> fetch : fetches.entrySet()) {
+            StoriesResponse response;
+            try {
+                response = fetch.getValue().get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                response = null;
+            } catch (ExecutionException ee) {
+                Log.e(this.getClass().getName(), "error fetching river shard", ee.getCause());
+                response = null;
+            }
+            if ((response == null) || (response.stories == null)) {
+                // the other fetches are left to finish on their own, and will just be fetched again
+                return (response != null) ? response : new StoriesResponse();
+            }
+            responses.put(fetch.getKey(), response);
+        }
+
+        // only once every fetch has succeeded do the shards move on, so a failure changes nothing
+        for (Map.Entry<Shard,StoriesResponse> entry : responses.entrySet()) {
+            Shard shard = entry.getKey();
+            StoriesResponse response = entry.getValue();
+            shard.pagesFetched++;
+            if (response.stories.length == 0) shard.exhausted = true;
+            for (Story story : response.stories) {
+                shard.buffer.add(story);
+            }
+            mergeSupplements(merged, response);
+        }
+
+        // emit stories best-first until a shard we might still hear more from is empty
+        while (true) {
+            Shard best = null;
+            boolean blocked = false;
+            for (Shard shard : shards) {
+                if (shard.buffer.size() < 1) {
+                    if (!shard.exhausted) blocked = true;
+                    continue;
+                }
+                if ((best == null) || isBefore(shard.buffer.getFirst(), best.buffer.getFirst())) best = shard;
+            }
+            if (blocked || (best == null)) break;
+            handler.handleStory(best.buffer.removeFirst());
+        }
+
+        pagesRead++;
+        return merged;
+    }
+
+    private boolean isBefore(Story a, Story b) {
+        if (a.timestamp != b.timestamp) {
+            return (order == StoryOrder.OLDEST) ? (a.timestamp < b.timestamp) : (a.timestamp > b.timestamp);
+        }
+        // break ties the same way every time, so the order doesn't depend on which shard is which
+        String hashA = (a.storyHash == null) ? "" : a.storyHash;
+        String hashB = (b.storyHash == null) ? "" : b.storyHash;
+        return (hashA.compareTo(hashB) < 0);
+    }
+
+    private static void mergeSupplements(StoriesResponse merged, StoriesResponse response) {
+        if (response.users != null) {
+            List<UserProfile> users = new ArrayList<UserProfile>();
+            if (merged.users != null) for (UserProfile user : merged.users) users.add(user);
+            for (UserProfile user : response.users) users.add(user);
+            merged.users = users.toArray(new UserProfile[users.size()]);
+        }
+        if (response.feeds != null) {
+            if (merged.feeds == null) merged.feeds = new ArrayList<Feed>();
+            merged.feeds.addAll(response.feeds);
+        }
+        if (response.classifiers != null) {
+            if (merged.classifiers == null) merged.classifiers = new HashMap<String,Classifier>();
+            merged.classifiers.putAll(response.classifiers);
+        }
+    }
+
+    private static class Shard {
+        private final List<String> feedIds = new ArrayList<String>();
+        private final LinkedList<Story> buffer = new LinkedList<Story>();
+        private int pagesFetched = 0;
+        private boolean exhausted = false;
+    }
+
+}
@@ -1,159 +1,229 @@
 package com.newsblur.network.domain;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 
+import android.content.ContentValues;
+import android.text.TextUtils;
 import android.util.Log;
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.annotations.SerializedName;
+import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.newsblur.database.DatabaseConstants;
 import com.newsblur.domain.Feed;
 import com.newsblur.domain.SocialFeed;
+import com.newsblur.network.APIResponse;
+import com.newsblur.network.ResponseValidators;
 import com.newsblur.util.AppConstants;
 
-public class FeedFolderResponse {
+/**
+ * The feed/folder list, read in a single pass straight off the stream.  Since the only thing
+ * done with it is to write it to the DB, it is kept as the rows for the feed, folder, mapping,
+ * and social feed tables rather than as domain objects, and nothing else is built along the way.
+ */
+public class FeedFolderResponse implements APIResponse.BodyReader {
 	
-	@SerializedName("starred_count")
 	public int starredCount;
-	
-	@SerializedName("feeds")
-	public Map<String, Feed> feeds;
-	
-	@SerializedName("flat_folders")
-	public Map<String, List<Long>> folders;
-	
-	@SerializedName("social_feeds")
-	public SocialFeed[] socialFeeds;
+
+    // rows for the DB, see BlurDatabaseHelper.updateFeedsFolders()
+    public List<ContentValues> feedValues = new ArrayList<ContentValues>();
+    public List<ContentValues> folderValues = new ArrayList<ContentValues>();
+    public List<ContentValues> ffmValues = new ArrayList<ContentValues>();
+    public List<ContentValues> socialFeedValues = new ArrayList<ContentValues>();
+
+    // the IDs of all feeds that are in some folder, even if only the root
+    public Set<String> folderedFeedIds = new HashSet<String>();
 
 	public boolean isAuthenticated;
     public boolean isPremium;
-	
-	public FeedFolderResponse(String json, Gson gson) {
 
-        // TODO: is there really any good reason the default GSON parser doesn't work here?
-		JsonParser parser = new JsonParser();
-		JsonObject asJsonObject = parser.parse(json).getAsJsonObject();
+    // see NewsBlurResponse
+    public boolean isNotModified;
+    public ResponseValidators validators;
+
+    private Gson gson;
+
+    // feeds are held until the whole document has been read, since the folders might come after
+    private Map<String,ContentValues> feedsById = new LinkedHashMap<String,ContentValues>();
+    private boolean sawRootFolder = false;
 
-        this.isAuthenticated = asJsonObject.get("authenticated").getAsBoolean();
+    private FeedFolderResponse() {
+    }
 
-        JsonElement userProfile = asJsonObject.get("user_profile");
-        if (userProfile != null) {
-            JsonObject profile = (JsonObject) userProfile;
-            this.isPremium = profile.get("is_premium").getAsBoolean();
+    /**
+     * Makes an empty response, to be filled in by passing it to APIResponse.readBody().
+     */
+    public FeedFolderResponse(Gson gson) {
+        this.gson = gson;
+    }
+
+    /**
+     * Makes a response for when the API said the feed list has not changed, in which case
+     * only the authentication and premium status, carried over from last time, are set.
+     */
+    public static FeedFolderResponse notModified(ResponseValidators validators) {
+        FeedFolderResponse response = new FeedFolderResponse();
+        response.isNotModified = true;
+        response.validators = validators;
+        response.isAuthenticated = true;
+        response.isPremium = Boolean.parseBoolean(validators.getSummary());
+        return response;
+    }
+
+    @Override
+    public void read(JsonReader in) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (name.equals("authenticated")) {
+                this.isAuthenticated = in.nextBoolean();
+            } else if (name.equals("user_profile")) {
+                readUserProfile(in);
+            } else if (name.equals("starred_count")) {
+                this.starredCount = in.nextInt();
+            } else if (name.equals("folders") && (in.peek() == JsonToken.BEGIN_ARRAY)) {
+                readFolder(in, null, "");
+            } else if (name.equals("feeds") && (in.peek() == JsonToken.BEGIN_OBJECT)) {
+                // Inconsistent server response here. When user has no feeds we get
+                // 		"feeds": []
+                // and other times we get
+                // 		"feeds": {"309667": {
+                // So support both I guess
+                readFeeds(in);
+            } else if (name.equals("social_feeds") && (in.peek() == JsonToken.BEGIN_ARRAY)) {
+                readSocialFeeds(in);
+            } else {
+                in.skipValue();
+            }
         }
+        in.endObject();
 
-		JsonArray jsonFoldersArray = (JsonArray) asJsonObject.get("folders");
-		ArrayList<String> nestedFolderList = new ArrayList<String>();
-		folders = new HashMap<String, List<Long>>();
-		parseFeedArray(nestedFolderList, folders, null, jsonFoldersArray);
-		
-		JsonElement starredCountElement = asJsonObject.get("starred_count");
-		if(starredCountElement != null) {
-			starredCount = gson.fromJson(starredCountElement, int.class);
-		}
-		
-		// Inconsistent server response here. When user has no feeds we get
-		// 		"feeds": []
-		// and other times we get
-		// 		"feeds": {"309667": {
-		// So support both I guess
-		JsonElement feedsElement = asJsonObject.get("feeds");
-		feeds = new HashMap<String, Feed>();
-		if(feedsElement instanceof JsonObject) {
-			JsonObject feedsObject = (JsonObject) asJsonObject.get("feeds");
-			if(feedsObject != null) {
-				Set<Entry<String, JsonElement>> entrySet = feedsObject.entrySet();
-				Iterator<Entry<String, JsonElement>> iterator = entrySet.iterator();
-				while(iterator.hasNext()) {
-					Entry<String, JsonElement> feedElement = iterator.next();
-					Feed feed = gson.fromJson(feedElement.getValue(), Feed.class);
-					feeds.put(feedElement.getKey(), feed);
-				}
-			}
-		} // else server sent back '"feeds": []' 
-		
-		socialFeeds = new SocialFeed[0];
-		JsonArray socialFeedsArray = (JsonArray) asJsonObject.get("social_feeds");
-		if(socialFeedsArray != null) {
-			List<SocialFeed> socialFeedsList = new ArrayList<SocialFeed>();
-			for(int i=0;i<socialFeedsArray.size();i++) {
-				JsonElement jsonElement = socialFeedsArray.get(i);
-				SocialFeed socialFeed = gson.fromJson(jsonElement, SocialFeed.class);
-				socialFeedsList.add(socialFeed);
-			}
-			socialFeeds = socialFeedsList.toArray(new SocialFeed[socialFeedsArray.size()]);
-		}
-        
         // sometimes the API won't declare the top-level/root folder, but most of the
         // codebase expects it to exist.  Declare it as empty if missing.
-        if (!folders.containsKey(AppConstants.ROOT_FOLDER)) {
-            folders.put(AppConstants.ROOT_FOLDER, new ArrayList<Long>());
+        if (!sawRootFolder) {
+            addFolder(AppConstants.ROOT_FOLDER);
             Log.d( this.getClass().getName(), "root folder was missing.  added it.");
-        } 
-	}
-	
+        }
+
+        // sanity-check that the returned feeds actually exist in a folder or at the root
+        // if they do not, they should neither display nor count towards unread numbers
+        for (Map.Entry<String,ContentValues> entry : feedsById.entrySet()) {
+            if (folderedFeedIds.contains(entry.getKey())) {
+                feedValues.add(entry.getValue());
+            } else {
+                Log.w(this.getClass().getName(), "Found and ignoring un-foldered feed: " + entry.getKey());
+            }
+        }
+        feedsById = null;
+        gson = null;
+    }
+
+    private void readUserProfile(JsonReader in) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            if (in.nextName().equals("is_premium") && (in.peek() == JsonToken.BOOLEAN)) {
+                this.isPremium = in.nextBoolean();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
 	/**
-     * Parses a folder, which is a list of feeds and/or more folders.  Nested folders
+     * Reads a folder, which is a list of feeds and/or more folders.  Nested folders
      * are flattened into a single list, with names that are heirarchical.
      *
-     * @param nestedFolderList a list of any parent folders that surrounded this folder.
-     * @param folders the sink
-     * @param name the name of this folder.
-     * @param arrayValue the actual contents to be parsed.
+     * @param name the name of this folder, or null for the root.
+     * @param parentPrefix the names of any parent folders, each followed by " - ".
      */
-    private void parseFeedArray(List<String> nestedFolderList,
-			Map<String, List<Long>> folders, String name, JsonArray arrayValue) {
-
+    private void readFolder(JsonReader in, String name, String parentPrefix) throws IOException {
         // determine our text name, like "grandparent - parent - me"    
-		String fullFolderName = getFolderName(name, nestedFolderList);
-        // sink for any feeds found in this folder
-		ArrayList<Long> feedIds = new ArrayList<Long>();
+        String fullFolderName;
+        String childPrefix;
+        if (name == null) {
+            // a null name means we are at the root.  give these a pseudo-folder name, since the DB and many
+            // classes would be very unhappy with a null foldername.
+            fullFolderName = AppConstants.ROOT_FOLDER;
+            childPrefix = parentPrefix;
+            sawRootFolder = true;
+        } else {
+            fullFolderName = parentPrefix + name;
+            childPrefix = fullFolderName + " - ";
+        }
+        String folderName = fullFolderName.trim();
+        boolean keep = !TextUtils.isEmpty(folderName);
+        if (keep) addFolder(folderName);
 
-		for (JsonElement jsonElement : arrayValue) {
+        in.beginArray();
+        while (in.hasNext()) {
             // a folder array contains either feed IDs or nested folder objects
-			if(jsonElement.isJsonPrimitive()) {
-				feedIds.add(jsonElement.getAsLong());
-			} else {
-                // if it wasn't a feed ID, it is a nested folder object
-                Set<Entry<String, JsonElement>> entrySet = ((JsonObject) jsonElement).entrySet();
-				List<String> nestedFolderListCopy = new ArrayList<String>(nestedFolderList);
-				if(name != null) {
-					nestedFolderListCopy.add(name);
-				}
+            JsonToken type = in.peek();
+            if ((type == JsonToken.NUMBER) || (type == JsonToken.STRING)) {
+                long feedId = in.nextLong();
+                if (keep) addMapping(folderName, feedId);
+            } else if (type == JsonToken.BEGIN_OBJECT) {
                 // recurse - nested folders are just objects with (usually one) field named for the folder
                 // that is a list of contained feeds or additional folders
-                for (Entry<String, JsonElement> next : entrySet) {
-                    parseFeedArray( nestedFolderListCopy, folders, next.getKey(), (JsonArray) next.getValue() );
+                in.beginObject();
+                while (in.hasNext()) {
+                    String childName = in.nextName();
+                    if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                        readFolder(in, childName, childPrefix);
+                    } else {
+                        in.skipValue();
+                    }
                 }
-			}
-		}
-		folders.put(fullFolderName, feedIds);
-        //Log.d( this.getClass().getName(), "parsed folder '" + fullFolderName + "' with " + feedIds.size() + " feeds" );
-	}
-
-	private String getFolderName(String key, List<String> parentFeedNames) {
-		StringBuilder builder = new StringBuilder();
-		for(String parentFolder: parentFeedNames) {
-			builder.append(parentFolder);
-			builder.append(" - ");
-		}
-		if(key != null) {
-			builder.append(key);
-		} else {
-            // a null key means we are at the root.  give these a pseudo-folder name, since the DB and many
-            // classes would be very unhappy with a null foldername.
-            builder.append(AppConstants.ROOT_FOLDER);
+                in.endObject();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endArray();
+    }
+
+    private void addFolder(String folderName) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseConstants.FOLDER_NAME, folderName);
+        folderValues.add(values);
+    }
+
+    private void addMapping(String folderName, long feedId) {
+        ContentValues values = new ContentValues(); 
+        values.put(DatabaseConstants.FEED_FOLDER_FEED_ID, feedId);
+        values.put(DatabaseConstants.FEED_FOLDER_FOLDER_NAME, folderName);
+        ffmValues.add(values);
+        // note all feeds that belong to some folder
+        folderedFeedIds.add(Long.toString(feedId));
+    }
+
+    private void readFeeds(JsonReader in) throws IOException {
+        TypeAdapter<Feed> adapter = gson.getAdapter(Feed.class);
+        in.beginObject();
+        while (in.hasNext()) {
+            String feedId = in.nextName();
+            Feed feed = adapter.read(in);
+            if (feed != null) feedsById.put(feedId, feed.getValues());
+        }
+        in.endObject();
+    }
+
+    private void readSocialFeeds(JsonReader in) throws IOException {
+        TypeAdapter<SocialFeed> adapter = gson.getAdapter(SocialFeed.class);
+        in.beginArray();
+        while (in.hasNext()) {
+            SocialFeed feed = adapter.read(in);
+            if (feed != null) socialFeedValues.add(feed.getValues());
         }
-		return builder.toString();
-	}
+        in.endArray();
+    }
 	
 }
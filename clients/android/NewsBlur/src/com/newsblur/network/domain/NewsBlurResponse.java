@@ -2,6 +2,8 @@ package com.newsblur.network.domain;
 
 import android.util.Log;
 
+import com.newsblur.network.ResponseValidators;
+
 /**
  * A generic response to an API call that only encapsuates success versus failure.
  */
@@ -13,6 +15,17 @@ public class NewsBlurResponse {
 	public ResponseErrors errors;
     public String result;
 
+    // set if this was a conditional request and the API said the result has not changed since
+    // it was last fetched, in which case no other fields will be populated
+    public transient boolean isNotModified;
+
+    // validators to be saved once the result has been persisted, if this was a conditional request
+    public transient ResponseValidators validators;
+
+    // set if this is an error because the call never got an answer from the API, or got one that
+    // it might not give if asked again, rather than because the API rejected the call
+    public transient boolean isTransientError;
+
     public boolean isError() {
         if ((message != null) && (!message.equals(""))) {
             Log.d(this.getClass().getName(), "Response interpreted as error due to 'message' field: " + message);
@@ -16,6 +16,13 @@ public class BooleanTypeAdapter extends TypeAdapter<Boolean> {
 
     @Override
     public Boolean read(JsonReader in) throws IOException {
+        return readBoolean(in);
+    }
+
+    /**
+     * Reads a boolean as forgivingly as this adapter does, for use by other adapters.
+     */
+    static Boolean readBoolean(JsonReader in) throws IOException {
         JsonToken type = in.peek();
         if (type == JsonToken.NULL) {
             in.nextNull();
@@ -0,0 +1,75 @@
+package com.newsblur.serialization;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import com.newsblur.domain.Comment;
+import com.newsblur.domain.Reply;
+
+/**
+ * Binds comments, and the replies to them, straight off the stream.
+ */
+public class CommentTypeAdapter extends ReadOnlyTypeAdapter<Comment> {
+
+    private static final Map<String,Integer> Fields = fieldTable(
+        "id", "comments", "user_id", "shared_date", "source_user_id", "date", "liking_users", "replies");
+
+    private static final Map<String,Integer> ReplyFields = fieldTable(
+        "reply_id", "user_id", "publish_date", "comments", "date");
+
+    @Override
+    public Comment read(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+        Comment comment = new Comment();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (nextField(in, Fields)) {
+                case 0: comment.id = readString(in, comment.id); break;
+                case 1: comment.commentText = readString(in, comment.commentText); break;
+                case 2: comment.userId = readString(in, comment.userId); break;
+                case 3: comment.sharedDate = readString(in, comment.sharedDate); break;
+                case 4: comment.sourceUserId = readString(in, comment.sourceUserId); break;
+                case 5: comment.date = readString(in, comment.date); break;
+                case 6: comment.likingUsers = readStringArray(in, comment.likingUsers); break;
+                case 7: comment.replies = readReplies(in, comment.replies); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return comment;
+    }
+
+    private static Reply[] readReplies(JsonReader in, Reply[] defaultValue) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            in.skipValue();
+            return defaultValue;
+        }
+        List<Reply> list = new ArrayList<Reply>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (skipNull(in)) continue;
+            Reply reply = new Reply();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (nextField(in, ReplyFields)) {
+                    case 0: reply.id = readString(in, reply.id); break;
+                    case 1: reply.userId = readString(in, reply.userId); break;
+                    case 2: reply.shortDate = readString(in, reply.shortDate); break;
+                    case 3: reply.text = readString(in, reply.text); break;
+                    case 4: reply.date = readDate(in, reply.date); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            list.add(reply);
+        }
+        in.endArray();
+        return list.toArray(new Reply[list.size()]);
+    }
+
+}
@@ -1,6 +1,6 @@
 package com.newsblur.serialization;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -9,31 +9,50 @@ import java.util.Date;
 import android.text.TextUtils;
 import android.util.Log;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
-public class DateStringTypeAdapter implements JsonDeserializer<Date> {
-	// 2012-07-23 02:43:02
-	private final DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+/**
+ * Reads the dates sent by the API, which look like "2012-07-23 02:43:02".  These are parsed by
+ * FixedDateParser, with SimpleDateFormat only as a fallback for anything unexpected.  Empty or
+ * unreadable dates are taken to be now.
+ */
+public class DateStringTypeAdapter extends ReadOnlyTypeAdapter<Date> {
+
+	// SimpleDateFormat is not threadsafe, and adapters are shared by all threads using a Gson
+	private static final ThreadLocal<DateFormat> FallbackFormat = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		}
+	};
 
 	@Override
-	public Date deserialize(JsonElement element, Type type, JsonDeserializationContext arg2) throws JsonParseException {
-			try {
-				if (element == null || TextUtils.isEmpty(element.getAsString())) {
-					return new Date();	
-				} else {
-					String dateString = element.getAsString();
-					if (dateString.length() > 19) {
-						dateString = dateString.substring(0, 19);
-					}
-					return df.parse(dateString);
-				}
-			} catch (ParseException e) {
-				Log.e("DateTypeAdapter", e.getLocalizedMessage());
-				return new Date();	
+	public Date read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return parse(in.nextString());
+	}
+
+	public static Date parse(String dateString) {
+		if (TextUtils.isEmpty(dateString)) {
+			return new Date();
+		}
+		long millis = FixedDateParser.parseMillis(dateString);
+		if (millis != FixedDateParser.INVALID) {
+			return new Date(millis);
+		}
+		try {
+			if (dateString.length() > 19) {
+				dateString = dateString.substring(0, 19);
 			}
+			return FallbackFormat.get().parse(dateString);
+		} catch (ParseException e) {
+			Log.e("DateTypeAdapter", e.getLocalizedMessage());
+			return new Date();
+		}
 	}
 
 }
@@ -0,0 +1,50 @@
+package com.newsblur.serialization;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+
+import com.newsblur.domain.Feed;
+
+/**
+ * Binds feeds straight off the stream, one field at a time.
+ */
+public class FeedTypeAdapter extends ReadOnlyTypeAdapter<Feed> {
+
+    private static final Map<String,Integer> Fields = fieldTable(
+        "id", "active", "feed_address", "favicon_color", "favicon_border", "favicon", "favicon_url",
+        "nt", "ng", "ps", "favicon_fade", "favicon_text_color", "feed_link", "num_subscribers",
+        "feed_title", "updated_seconds_ago");
+
+    @Override
+    public Feed read(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+        Feed feed = new Feed();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (nextField(in, Fields)) {
+                case 0: feed.feedId = readString(in, feed.feedId); break;
+                case 1: feed.active = readBoolean(in, feed.active); break;
+                case 2: feed.address = readString(in, feed.address); break;
+                case 3: feed.faviconColor = readString(in, feed.faviconColor); break;
+                case 4: feed.faviconBorder = readString(in, feed.faviconBorder); break;
+                case 5: feed.favicon = readString(in, feed.favicon); break;
+                case 6: feed.faviconUrl = readString(in, feed.faviconUrl); break;
+                case 7: feed.neutralCount = readInt(in, feed.neutralCount); break;
+                case 8: feed.negativeCount = readInt(in, feed.negativeCount); break;
+                case 9: feed.positiveCount = readInt(in, feed.positiveCount); break;
+                case 10: feed.faviconFade = readString(in, feed.faviconFade); break;
+                case 11: feed.faviconText = readString(in, feed.faviconText); break;
+                case 12: feed.feedLink = readString(in, feed.feedLink); break;
+                case 13: feed.subscribers = readString(in, feed.subscribers); break;
+                case 14: feed.title = readString(in, feed.title); break;
+                case 15: feed.lastUpdated = readString(in, feed.lastUpdated); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return feed;
+    }
+
+}
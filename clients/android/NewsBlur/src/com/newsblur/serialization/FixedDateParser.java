@@ -0,0 +1,79 @@
+package com.newsblur.serialization;
+
+import java.util.TimeZone;
+
+/**
+ * Parses the "yyyy-MM-dd HH:mm:ss" dates sent by the API, in the local time zone, without the
+ * locking, allocation and general-purpose pattern matching of SimpleDateFormat.  Anything that
+ * isn't in exactly that form is rejected, so the caller can fall back to a slower parser.
+ */
+public class FixedDateParser {
+
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+    // SimpleDateFormat also fixes its zone when made, and the old shared one lived for the life
+    // of the process, so fetching the default just once keeps the same behaviour
+    private static final TimeZone Zone = TimeZone.getDefault();
+
+    private FixedDateParser() {} // util class - no instances
+
+    /**
+     * Parse the first 19 characters of the given string as a date, ignoring anything after, such
+     * as fractional seconds.
+     *
+     * @return the date as millis since the epoch, or INVALID if it was not in the expected form.
+     */
+    public static long parseMillis(CharSequence s) {
+        if ((s == null) || (s.length() < 19)) return INVALID;
+        if ((s.charAt(4) != '-') || (s.charAt(7) != '-') || (s.charAt(13) != ':') || (s.charAt(16) != ':')) return INVALID;
+        char sep = s.charAt(10);
+        if ((sep != ' ') && (sep != 'T')) return INVALID;
+
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if ((year < 0) || (month < 1) || (month > 12) || (day < 1) || (day > 31)) return INVALID;
+        if ((hour < 0) || (hour > 23) || (minute < 0) || (minute > 59) || (second < 0) || (second > 59)) return INVALID;
+
+        long local = (daysFromEpoch(year, month, day) * MILLIS_PER_DAY) + (((hour * 60L) + minute) * 60L + second) * 1000L;
+
+        // guess the offset from the raw one, then correct for DST at the resulting instant
+        int offset = Zone.getOffset(local - Zone.getRawOffset());
+        long utc = local - offset;
+        int actualOffset = Zone.getOffset(utc);
+        if (actualOffset != offset) utc = local - actualOffset;
+        return utc;
+    }
+
+    /**
+     * Read a run of decimal digits, or -1 if any are not digits.
+     */
+    private static int digits(CharSequence s, int start, int count) {
+        int value = 0;
+        for (int i=start; i<start+count; i++) {
+            int d = s.charAt(i) - '0';
+            if ((d < 0) || (d > 9)) return -1;
+            value = (value * 10) + d;
+        }
+        return value;
+    }
+
+    /**
+     * The number of days from 1970-01-01 to the given date in the proleptic Gregorian calendar.
+     */
+    private static long daysFromEpoch(int year, int month, int day) {
+        // count years from March, so that the leap day falls at the end of the year
+        long y = (month <= 2) ? (year - 1) : year;
+        long era = ((y >= 0) ? y : (y - 399)) / 400;
+        long yearOfEra = y - (era * 400);
+        long dayOfYear = ((153 * ((month > 2) ? (month - 3) : (month + 9))) + 2) / 5 + (day - 1);
+        long dayOfEra = (yearOfEra * 365) + (yearOfEra / 4) - (yearOfEra / 100) + dayOfYear;
+        return (era * 146097) + dayOfEra - 719468;
+    }
+
+}
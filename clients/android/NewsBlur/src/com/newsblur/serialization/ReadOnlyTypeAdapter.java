@@ -0,0 +1,113 @@
+package com.newsblur.serialization;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Base for the hand-written adapters that bind our hot domain types straight off a JsonReader,
+ * without reflection or building a JsonElement tree first.  Subclasses look up each member name
+ * in a table of field numbers made with fieldTable(), and skip any member they don't know.
+ *
+ * The helpers here are as forgiving as the reflective binding they replace: numbers may come as
+ * strings and vice versa, booleans may come as 0 or 1, and a null leaves the field as it was.
+ *
+ * These types are only ever read from the API, never written, so write() is not supported.
+ */
+public abstract class ReadOnlyTypeAdapter<T> extends TypeAdapter<T> {
+
+    @Override
+    public void write(JsonWriter out, T value) throws IOException {
+        throw new UnsupportedOperationException(this.getClass().getName() + " cannot write JSON");
+    }
+
+    /**
+     * Builds a table from JSON member names to field numbers, which are just their position in
+     * the given list.
+     */
+    protected static Map<String,Integer> fieldTable(String... names) {
+        Map<String,Integer> table = new HashMap<String,Integer>(names.length * 2);
+        for (int i=0; i<names.length; i++) {
+            table.put(names[i], i);
+        }
+        return table;
+    }
+
+    /**
+     * The field number for the next member name, or -1 if it is not in the table.
+     */
+    protected static int nextField(JsonReader in, Map<String,Integer> table) throws IOException {
+        Integer field = table.get(in.nextName());
+        return (field == null) ? -1 : field.intValue();
+    }
+
+    /**
+     * Consumes a null if one is next, which most fields treat as "leave the default".
+     */
+    protected static boolean skipNull(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.NULL) return false;
+        in.nextNull();
+        return true;
+    }
+
+    protected static String readString(JsonReader in, String defaultValue) throws IOException {
+        JsonToken type = in.peek();
+        if (type == JsonToken.NULL) {
+            in.nextNull();
+            return defaultValue;
+        } else if (type == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        } else if ((type == JsonToken.STRING) || (type == JsonToken.NUMBER)) {
+            return in.nextString();
+        } else {
+            in.skipValue();
+            return defaultValue;
+        }
+    }
+
+    protected static int readInt(JsonReader in, int defaultValue) throws IOException {
+        if (skipNull(in)) return defaultValue;
+        return in.nextInt();
+    }
+
+    protected static long readLong(JsonReader in, long defaultValue) throws IOException {
+        if (skipNull(in)) return defaultValue;
+        return in.nextLong();
+    }
+
+    protected static boolean readBoolean(JsonReader in, boolean defaultValue) throws IOException {
+        Boolean b = BooleanTypeAdapter.readBoolean(in);
+        return (b == null) ? defaultValue : b.booleanValue();
+    }
+
+    protected static Date readDate(JsonReader in, Date defaultValue) throws IOException {
+        if (skipNull(in)) return defaultValue;
+        return DateStringTypeAdapter.parse(in.nextString());
+    }
+
+    /**
+     * Reads an array of strings.  Anything other than an array is skipped, leaving the default.
+     */
+    protected static String[] readStringArray(JsonReader in, String[] defaultValue) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            in.skipValue();
+            return defaultValue;
+        }
+        List<String> list = new ArrayList<String>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(readString(in, null));
+        }
+        in.endArray();
+        return list.toArray(new String[list.size()]);
+    }
+
+}
@@ -1,56 +1,277 @@
 package com.newsblur.serialization;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-import com.newsblur.domain.Story;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-import java.lang.reflect.Type;
-import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
-import android.text.Html;
-import android.util.Log;
+import com.newsblur.domain.Comment;
+import com.newsblur.domain.Story;
 
 /**
- * Created by mark on 15/03/2014.
+ * Binds stories straight off the stream, one field at a time.  This also fills in the
+ * client-side shortContent field, which is a plain-text preview of the story content.
  */
-public class StoryTypeAdapter implements JsonDeserializer<Story> {
+public class StoryTypeAdapter extends ReadOnlyTypeAdapter<Story> {
+
+    // the length of the plain-text preview made from the story content
+    public static final int SHORT_CONTENT_LENGTH = 200;
 
-    private Gson gson;
+    private static final int ID = 0;
+    private static final int PERMALINK = 1;
+    private static final int SHARE_COUNT = 2;
+    private static final int SHARE_USER_IDS = 3;
+    private static final int SHARED_BY_FRIENDS = 4;
+    private static final int SHARED_BY_PUBLIC = 5;
+    private static final int COMMENT_COUNT = 6;
+    private static final int READ_STATUS = 7;
+    private static final int STARRED = 8;
+    private static final int STARRED_DATE = 9;
+    private static final int TAGS = 10;
+    private static final int SOCIAL_USER_ID = 11;
+    private static final int SOURCE_USER_ID = 12;
+    private static final int TITLE = 13;
+    private static final int TIMESTAMP = 14;
+    private static final int SHARED_DATE = 15;
+    private static final int CONTENT = 16;
+    private static final int AUTHORS = 17;
+    private static final int FEED_ID = 18;
+    private static final int PUBLIC_COMMENTS = 19;
+    private static final int FRIEND_COMMENTS = 20;
+    private static final int INTELLIGENCE = 21;
+    private static final int SHORT_DATE = 22;
+    private static final int LONG_DATE = 23;
+    private static final int HASH = 24;
+    private static final int IMAGE_URLS = 25;
 
-    // any characters we don't want in the short description, such as newlines or placeholders
-    private final static Pattern ShortContentExcludes = Pattern.compile("[\\uFFFC\\u000A\\u000B\\u000C\\u000D]");
+    // must be in the same order as the field numbers above
+    private static final Map<String,Integer> Fields = fieldTable(
+        "id", "story_permalink", "share_count", "share_user_ids", "shared_by_friends", "shared_by_public",
+        "comment_count", "read_status", "starred", "starred_dated", "story_tags", "social_user_id",
+        "source_user_id", "story_title", "story_timestamp", "shared_date", "story_content", "story_authors",
+        "story_feed_id", "public_comments", "friend_comments", "intelligence", "short_parsed_date",
+        "long_parsed_date", "story_hash", "image_urls");
 
-    public StoryTypeAdapter() {
-        this.gson = new GsonBuilder()
-                .registerTypeAdapter(Date.class, new DateStringTypeAdapter())
-                .registerTypeAdapter(Boolean.class, new BooleanTypeAdapter())
-                .registerTypeAdapter(boolean.class, new BooleanTypeAdapter())
-                .create();
+    private static final Map<String,Integer> IntelligenceFields = fieldTable("feed", "author", "tags", "title");
+
+    // tags that break up the text around them, and so become a space in the preview
+    private static final Map<String,Boolean> BreakingTags = new HashMap<String,Boolean>();
+    static {
+        for (String tag : new String[] {"br", "p", "div", "img", "li", "ul", "ol", "dd", "dt", "h1", "h2", "h3", "h4", "h5", "h6",
+                                        "blockquote", "pre", "hr", "table", "tr", "td", "th", "figure", "figcaption"}) {
+            BreakingTags.put(tag, Boolean.TRUE);
+        }
     }
 
+    private static final Map<String,Character> Entities = new HashMap<String,Character>();
+    static {
+        Entities.put("amp", '&');
+        Entities.put("lt", '<');
+        Entities.put("gt", '>');
+        Entities.put("quot", '"');
+        Entities.put("apos", '\'');
+        Entities.put("nbsp", ' ');
+        Entities.put("ndash", '\u2013');
+        Entities.put("mdash", '\u2014');
+        Entities.put("lsquo", '\u2018');
+        Entities.put("rsquo", '\u2019');
+        Entities.put("ldquo", '\u201C');
+        Entities.put("rdquo", '\u201D');
+        Entities.put("hellip", '\u2026');
+        Entities.put("copy", '\u00A9');
+        Entities.put("reg", '\u00AE');
+        Entities.put("trade", '\u2122');
+    }
+
+    private final CommentTypeAdapter commentAdapter = new CommentTypeAdapter();
+
     @Override
-    public Story deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-        Story story = gson.fromJson(jsonElement, Story.class);
+    public Story read(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+        Story story = new Story();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (nextField(in, Fields)) {
+                case ID: story.id = readString(in, story.id); break;
+                case PERMALINK: story.permalink = readString(in, story.permalink); break;
+                case SHARE_COUNT: story.shareCount = readString(in, story.shareCount); break;
+                case SHARE_USER_IDS: story.sharedUserIds = readStringArray(in, story.sharedUserIds); break;
+                case SHARED_BY_FRIENDS: story.friendUserIds = readStringArray(in, story.friendUserIds); break;
+                case SHARED_BY_PUBLIC: story.publicUserIds = readStringArray(in, story.publicUserIds); break;
+                case COMMENT_COUNT: story.commentCount = readInt(in, story.commentCount); break;
+                case READ_STATUS: story.read = readBoolean(in, story.read); break;
+                case STARRED: story.starred = readBoolean(in, story.starred); break;
+                case STARRED_DATE: story.starredDate = readDate(in, story.starredDate); break;
+                case TAGS: story.tags = readStringArray(in, story.tags); break;
+                case SOCIAL_USER_ID: story.socialUserId = readString(in, story.socialUserId); break;
+                case SOURCE_USER_ID: story.sourceUserId = readString(in, story.sourceUserId); break;
+                case TITLE: story.title = readString(in, story.title); break;
+                case TIMESTAMP: story.timestamp = readLong(in, story.timestamp); break;
+                case SHARED_DATE: story.sharedDate = readDate(in, story.sharedDate); break;
+                case CONTENT: story.content = readString(in, story.content); break;
+                case AUTHORS: story.authors = readString(in, story.authors); break;
+                case FEED_ID: story.feedId = readString(in, story.feedId); break;
+                case PUBLIC_COMMENTS: story.publicComments = readComments(in, story.publicComments); break;
+                case FRIEND_COMMENTS: story.friendsComments = readComments(in, story.friendsComments); break;
+                case INTELLIGENCE: readIntelligence(in, story.intelligence); break;
+                case SHORT_DATE: story.shortDate = readString(in, story.shortDate); break;
+                case LONG_DATE: story.longDate = readString(in, story.longDate); break;
+                case HASH: story.storyHash = readString(in, story.storyHash); break;
+                case IMAGE_URLS: story.imageUrls = readStringArray(in, story.imageUrls); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
 
         // Convert story_timestamp to milliseconds
         story.timestamp = story.timestamp * 1000;
-        
-        // populate the shortContent field
+
         if (story.content != null) {
-            CharSequence parsed = Html.fromHtml(story.content).toString();
-            int length = 200;
-            if (parsed.length() < 200) { length = parsed.length(); }
-            story.shortContent = parsed.subSequence(0, length).toString();
-            Matcher m = ShortContentExcludes .matcher(story.shortContent);
-            story.shortContent = m.replaceAll(" ").trim();
-        }
-        
+            story.shortContent = makeShortContent(story.content);
+        }
+
         return story;
     }
+
+    private Comment[] readComments(JsonReader in, Comment[] defaultValue) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            in.skipValue();
+            return defaultValue;
+        }
+        List<Comment> list = new ArrayList<Comment>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(commentAdapter.read(in));
+        }
+        in.endArray();
+        return list.toArray(new Comment[list.size()]);
+    }
+
+    private static void readIntelligence(JsonReader in, Story.Intelligence intelligence) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return;
+        }
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (nextField(in, IntelligenceFields)) {
+                case 0: intelligence.intelligenceFeed = readInt(in, intelligence.intelligenceFeed); break;
+                case 1: intelligence.intelligenceAuthors = readInt(in, intelligence.intelligenceAuthors); break;
+                case 2: intelligence.intelligenceTags = readInt(in, intelligence.intelligenceTags); break;
+                case 3: intelligence.intelligenceTitle = readInt(in, intelligence.intelligenceTitle); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
+    /**
+     * Makes a short plain-text preview of some HTML story content.  Rather than render all of
+     * the HTML, which may be very long, just enough of it is scanned to fill the preview: tags,
+     * comments, scripts and styles are dropped, common entities are decoded, and runs of
+     * whitespace, including any line breaks, are collapsed to a single space.
+     */
+    public static String makeShortContent(String html) {
+        StringBuilder out = new StringBuilder(SHORT_CONTENT_LENGTH);
+        boolean pendingSpace = false;
+        int len = html.length();
+        int i = 0;
+        while ((i < len) && (out.length() < SHORT_CONTENT_LENGTH)) {
+            char c = html.charAt(i);
+            int codePoint = c;
+            if (c == '<') {
+                if (html.startsWith("<!--", i)) {
+                    int end = html.indexOf("-->", i + 4);
+                    if (end < 0) break;
+                    i = end + 3;
+                    continue;
+                }
+                int end = html.indexOf('>', i);
+                if (end < 0) break;
+                String tag = tagName(html, i + 1, end);
+                if ((tag.equals("script") || tag.equals("style")) && (html.charAt(i + 1) != '/')) {
+                    end = closingTag(html, tag, end);
+                    if (end < 0) break;
+                }
+                if (BreakingTags.containsKey(tag)) pendingSpace = true;
+                i = end + 1;
+                continue;
+            } else if (c == '&') {
+                int semi = html.indexOf(';', i);
+                int decoded = ((semi > i + 1) && (semi - i < 10)) ? decodeEntity(html, i + 1, semi) : -1;
+                if (decoded < 0) {
+                    i++;
+                } else {
+                    codePoint = decoded;
+                    i = semi + 1;
+                }
+            } else {
+                i++;
+            }
+
+            // non-breaking spaces and object placeholders count as whitespace, too
+            if (Character.isWhitespace(codePoint) || (codePoint == '\uFFFC') || (codePoint == '\u00A0')) {
+                pendingSpace = true;
+            } else {
+                if (pendingSpace && (out.length() > 0)) out.append(' ');
+                pendingSpace = false;
+                out.appendCodePoint(codePoint);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * The lower-cased name of the tag whose contents run from start to end, ignoring any leading
+     * slash and any attributes.
+     */
+    private static String tagName(String html, int start, int end) {
+        if ((start < end) && (html.charAt(start) == '/')) start++;
+        int i = start;
+        while ((i < end) && Character.isLetterOrDigit(html.charAt(i))) i++;
+        return html.substring(start, i).toLowerCase();
+    }
+
+    /**
+     * The position of the '>' of the closing tag with the given name, or -1 if there is none.
+     */
+    private static int closingTag(String html, String tag, int from) {
+        int i = from;
+        while ((i = html.indexOf("</", i)) >= 0) {
+            if (html.regionMatches(true, i + 2, tag, 0, tag.length())) {
+                return html.indexOf('>', i);
+            }
+            i += 2;
+        }
+        return -1;
+    }
+
+    /**
+     * The code point for the entity whose name runs from start to end, or -1 if it isn't one
+     * we know.
+     */
+    private static int decodeEntity(String html, int start, int end) {
+        if (html.charAt(start) == '#') {
+            try {
+                int codePoint;
+                if ((html.charAt(start + 1) == 'x') || (html.charAt(start + 1) == 'X')) {
+                    codePoint = Integer.parseInt(html.substring(start + 2, end), 16);
+                } else {
+                    codePoint = Integer.parseInt(html.substring(start + 1, end));
+                }
+                return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+            } catch (NumberFormatException nfe) {
+                return -1;
+            } catch (IndexOutOfBoundsException ioobe) {
+                return -1;
+            }
+        }
+        Character c = Entities.get(html.substring(start, end));
+        return (c == null) ? -1 : c.charValue();
+    }
+
 }
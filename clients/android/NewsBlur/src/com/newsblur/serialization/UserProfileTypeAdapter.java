@@ -0,0 +1,35 @@
+package com.newsblur.serialization;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+
+import com.newsblur.domain.UserProfile;
+
+/**
+ * Binds the user profiles that come with stories straight off the stream.
+ */
+public class UserProfileTypeAdapter extends ReadOnlyTypeAdapter<UserProfile> {
+
+    private static final Map<String,Integer> Fields = fieldTable("photo_url", "user_id", "username", "location");
+
+    @Override
+    public UserProfile read(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+        UserProfile profile = new UserProfile();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (nextField(in, Fields)) {
+                case 0: profile.photoUrl = readString(in, profile.photoUrl); break;
+                case 1: profile.userId = readString(in, profile.userId); break;
+                case 2: profile.username = readString(in, profile.username); break;
+                case 3: profile.location = readString(in, profile.location); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return profile;
+    }
+
+}
@@ -1,18 +1,12 @@
 package com.newsblur.service;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import com.newsblur.util.AppConstants;
-
-import com.newsblur.R;
-
 /**
- * First receiver in the chain that starts with the device.  Simply schedules another broadcast
+ * First receiver in the chain that starts with the device.  Simply schedules the alarms
  * that will periodicaly start the sync service.
  */
 public class BootReceiver extends BroadcastReceiver {
@@ -20,20 +14,13 @@ public class BootReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         Log.d(this.getClass().getName(), "triggering sync service from device boot");
-        scheduleSyncService(context);
+        // alarms don't survive a reboot, so they all need setting again
+        SyncScheduler.scheduleAll(context, true);
     }
 
     public static void scheduleSyncService(Context context) {
         Log.d(BootReceiver.class.getName(), "scheduling sync service");
-
-        // wake up to check if a sync is needed about twice as often as one actually is, to ensure
-        // we never fall more than about half a cycle behind.
-        long interval = (AppConstants.AUTO_SYNC_TIME_MILLIS / 2L);
-
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        Intent i = new Intent(context, ServiceScheduleReceiver.class);
-        PendingIntent pi = PendingIntent.getBroadcast(context, 0, i, PendingIntent.FLAG_CANCEL_CURRENT);
-        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP, interval, interval, pi);
+        SyncScheduler.scheduleAll(context, false);
     }
         
 }
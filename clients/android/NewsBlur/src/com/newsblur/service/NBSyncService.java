@@ -1,37 +1,43 @@
 package com.newsblur.service;
 
 import android.app.Service;
-import android.content.ContentValues;
 import android.content.Intent;
+import android.database.Cursor;
 import android.os.IBinder;
 import android.os.PowerManager;
-import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.newsblur.R;
 import com.newsblur.activity.NbActivity;
 import com.newsblur.database.BlurDatabaseHelper;
+import com.newsblur.database.CleanupResult;
 import com.newsblur.database.DatabaseConstants;
-import com.newsblur.domain.SocialFeed;
+import com.newsblur.database.FeedFolderChanges;
 import com.newsblur.domain.Story;
 import com.newsblur.network.APIManager;
 import com.newsblur.network.domain.FeedFolderResponse;
+import com.newsblur.network.domain.NewsBlurResponse;
 import com.newsblur.network.domain.StoriesResponse;
 import com.newsblur.network.domain.UnreadStoryHashesResponse;
 import com.newsblur.util.AppConstants;
+import com.newsblur.util.BatchSizeController;
+import com.newsblur.util.ChangeSet;
 import com.newsblur.util.FeedSet;
 import com.newsblur.util.ImageCache;
+import com.newsblur.util.ImagePrefetcher;
+import com.newsblur.util.NetworkUtils;
 import com.newsblur.util.PrefsUtils;
 import com.newsblur.util.ReadFilter;
+import com.newsblur.util.ReadingAction;
 import com.newsblur.util.StoryOrder;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 /**
@@ -66,6 +72,8 @@ public class NBSyncService extends Service {
         would annoy a user who is on the story list or paging through stories. */
     private volatile static boolean HoldStories = false;
     private volatile static boolean DoFeedsFolders = false;
+    /** Whether any start since the last sync asked for more than an image prefetch. */
+    private volatile static boolean MetadataWanted = false;
 
     /** Feed sets that we need to sync and how many stories the UI wants for them. */
     private static Map<FeedSet,Integer> PendingFeeds;
@@ -81,17 +89,26 @@ public class NBSyncService extends Service {
     private static Set<String> ImageQueue;
     static { ImageQueue = new HashSet<String>(); }
 
+    /** Whether the above have been loaded from the checkpoints saved in the DB by a prior process. */
+    private static boolean CheckpointsRestored = false;
+    /** Feed sets that the UI has reset since we last updated their checkpoints. */
+    private static Set<FeedSet> ResetFeeds;
+    static { ResetFeeds = new HashSet<FeedSet>(); }
+
     private volatile static boolean HaltNow = false;
 
 	private APIManager apiManager;
     private BlurDatabaseHelper dbHelper;
     private ImageCache imageCache;
+    private SyncMetrics.SyncRun metrics;
+    private long wakeLockAcquiredTime;
+    private long wakeLockMillis;
 
 	@Override
 	public void onCreate() {
 		super.onCreate();
         Log.d(this.getClass().getName(), "onCreate");
-		apiManager = new APIManager(this);
+		apiManager = APIManager.getInstance(this);
         PrefsUtils.checkForUpgrade(this);
         dbHelper = new BlurDatabaseHelper(this);
         imageCache = new ImageCache(this);
@@ -104,6 +121,16 @@ public class NBSyncService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         HaltNow = false;
+
+        SyncScheduler.Job job = SyncScheduler.getJob(intent);
+        // a scheduled metadata job always refreshes, since the scheduler has already decided it is due
+        if (job == SyncScheduler.Job.METADATA) {
+            DoFeedsFolders = true;
+        }
+        // starts from the UI carry no job and get a full sync
+        if (job != SyncScheduler.Job.IMAGES) {
+            MetadataWanted = true;
+        }
         FreshRequest = true;
 
         if (ThreadActive) {
@@ -121,7 +148,9 @@ public class NBSyncService extends Service {
                             try {
                                 ThreadActive = true;
                                 FreshRequest = false;
-                                doSync();
+                                SyncScheduler.Job job = MetadataWanted ? SyncScheduler.Job.METADATA : SyncScheduler.Job.IMAGES;
+                                MetadataWanted = false;
+                                doSync(job);
                             } finally {
                                 ThreadActive = false;
                             }
@@ -140,14 +169,19 @@ public class NBSyncService extends Service {
 
     /**
      * Do the actual work of syncing.
+     *
+     * @param job the job this sync was started for.  A background image job only sends
+     *        queued actions and fetches what is already pending, leaving the metadata to
+     *        its own job and interval.
      */
-    private synchronized void doSync() {
+    private synchronized void doSync(SyncScheduler.Job job) {
         Log.d(this.getClass().getName(), "starting sync . . .");
 
-        PowerManager pm = (PowerManager) getApplicationContext().getSystemService(POWER_SERVICE);
-        PowerManager.WakeLock wl = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, this.getClass().getSimpleName());
+        metrics = SyncMetrics.startRun();
+        wakeLockMillis = 0L;
+        PowerManager.WakeLock wl = acquireWakeLock("metadata");
         try {
-            wl.acquire();
+            restoreCheckpoints();
 
             // check to see if we are on an allowable network only after ensuring we have CPU
             if (!(PrefsUtils.isBackgroundNetworkAllowed(this) || (NbActivity.getActiveActivityCount() > 0))) {
@@ -155,24 +189,182 @@ public class NBSyncService extends Service {
                 return;
             }
 
+            // the user's own reading actions go first, so nothing we fetch below contradicts them
+            syncActions();
+
             // these requests are expressly enqueued by the UI/user, do them first
             syncPendingFeeds();
 
-            syncMetadata();
+            if ((job != SyncScheduler.Job.IMAGES) || (NbActivity.getActiveActivityCount() > 0)) {
+                syncMetadata();
+            }
 
             syncUnreads();
-            
+
+            // images are a separate job with stricter conditions, so they hold their own wakelock
+            releaseWakeLock(wl);
+            wl = null;
+
             prefetchImages();
 
         } catch (Exception e) {
             Log.e(this.getClass().getName(), "Sync error.", e);
         } finally {
             if (HaltNow) stopSelf();
-            wl.release();
+            if (wl != null) releaseWakeLock(wl);
+            metrics.finish(wakeLockMillis);
             Log.d(this.getClass().getName(), " . . . sync done");
         }
     }
 
+    /**
+     * Sync progress is checkpointed to the DB as it is made, so that if the process is killed
+     * part way through a sync, the next one can pick up where it left off.  Checkpoints are
+     * cleared along with the in-memory state whenever a metadata sync invalidates it.
+     */
+    private void restoreCheckpoints() {
+        if (!CheckpointsRestored) {
+            CheckpointsRestored = true;
+            StoryHashQueue.addAll(dbHelper.getCheckpointKeys(BlurDatabaseHelper.CHECKPOINT_STORY_HASH));
+            ImageQueue.addAll(dbHelper.getCheckpointKeys(BlurDatabaseHelper.CHECKPOINT_IMAGE));
+            Cursor c = dbHelper.getFeedSetCheckpoints();
+            try {
+                while (c.moveToNext()) {
+                    FeedSet fs;
+                    try {
+                        fs = FeedSet.fromCompactSerial(c.getString(0));
+                    } catch (IllegalArgumentException iae) {
+                        Log.w(this.getClass().getName(), "ignoring bad feed set checkpoint: " + c.getString(0));
+                        continue;
+                    }
+                    // anything the UI has touched since this process started is more current
+                    if (FeedPagesSeen.containsKey(fs) || ResetFeeds.contains(fs)) continue;
+                    FeedPagesSeen.put(fs, c.getInt(1));
+                    FeedStoriesSeen.put(fs, c.getInt(2));
+                    if (c.getInt(3) != 0) ExhaustedFeeds.add(fs);
+                }
+            } finally {
+                c.close();
+            }
+            Log.d(this.getClass().getName(), "restored sync checkpoints: " + StoryHashQueue.size() + " stories, " + ImageQueue.size() + " images, " + FeedPagesSeen.size() + " feed sets");
+        }
+
+        List<FeedSet> resetFeeds;
+        synchronized (ResetFeeds) {
+            resetFeeds = new ArrayList<FeedSet>(ResetFeeds);
+            ResetFeeds.clear();
+        }
+        for (FeedSet fs : resetFeeds) {
+            dbHelper.setFeedSetCheckpoint(fs.toCompactSerial(), 0, 0, false);
+        }
+    }
+
+    private PowerManager.WakeLock acquireWakeLock(String job) {
+        PowerManager pm = (PowerManager) getApplicationContext().getSystemService(POWER_SERVICE);
+        PowerManager.WakeLock wl = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, this.getClass().getSimpleName() + ":" + job);
+        wl.acquire();
+        wakeLockAcquiredTime = System.currentTimeMillis();
+        return wl;
+    }
+
+    private void releaseWakeLock(PowerManager.WakeLock wl) {
+        wl.release();
+        wakeLockMillis += (System.currentTimeMillis() - wakeLockAcquiredTime);
+    }
+
+    /**
+     * Send any reading actions queued up by the UI to the API.  Runs of mark-read actions are
+     * coalesced into a single call, but the order of actions on any one story is preserved.  Actions
+     * that fail stay queued and will be retried on the next sync, even after a restart, unless the API
+     * has rejected them too many times.  Later actions on the same story wait along with them, but
+     * actions on other stories still go out.
+     */
+    private void syncActions() {
+        if (HaltNow) return;
+
+        // nothing can be sent, so don't claim anything
+        if (!NetworkUtils.isOnline(this)) return;
+
+        int dropped = dbHelper.dropFailedActions(AppConstants.MAX_ACTION_FAILURES);
+        if (dropped > 0) {
+            Log.w(this.getClass().getName(), "giving up on " + dropped + " actions that failed too many times");
+        }
+
+        List<ReadingAction> actions = dbHelper.claimActions();
+        if (actions.size() < 1) return;
+        metrics.startPhase(SyncMetrics.Phase.ACTIONS);
+
+        try {
+            // stories with an action that failed, whose later actions must not overtake it
+            Set<String> blockedHashes = new HashSet<String>();
+            List<ReadingAction> readBatch = new ArrayList<ReadingAction>();
+            for (ReadingAction ra : actions) {
+                if (HaltNow) return;
+                if (blockedHashes.contains(ra.getStoryHash())) continue;
+
+                if (ra.getType() == ReadingAction.Type.MARK_READ) {
+                    readBatch.add(ra);
+                    if (readBatch.size() >= AppConstants.ACTION_READ_BATCH_SIZE) {
+                        flushReadBatch(readBatch, blockedHashes);
+                    }
+                    continue;
+                }
+
+                // any other action must wait for preceding mark-reads, in case they touch the same story
+                flushReadBatch(readBatch, blockedHashes);
+                if (blockedHashes.contains(ra.getStoryHash())) continue;
+
+                NewsBlurResponse response;
+                switch (ra.getType()) {
+                    case MARK_UNREAD:
+                        response = apiManager.markStoryAsUnread(ra.getFeedId(), ra.getStoryHash());
+                        break;
+                    case SAVE:
+                        response = apiManager.markStoryAsStarred(ra.getFeedId(), ra.getStoryHash());
+                        break;
+                    case UNSAVE:
+                        response = apiManager.markStoryAsUnstarred(ra.getFeedId(), ra.getStoryHash());
+                        break;
+                    default:
+                        throw new IllegalStateException("unknown action type: " + ra.getType());
+                }
+                if ((response == null) || response.isError()) {
+                    Log.e(this.getClass().getName(), "error sending action " + ra + ", will retry later");
+                    if ((response == null) || (!response.isTransientError)) dbHelper.failActions(Collections.singletonList(ra));
+                    blockedHashes.add(ra.getStoryHash());
+                    continue;
+                }
+                dbHelper.clearActions(Collections.singletonList(ra));
+            }
+
+            flushReadBatch(readBatch, blockedHashes);
+        } finally {
+            metrics.endPhase();
+        }
+    }
+
+    /**
+     * Mark read all stories in the given batch with a single API call.  The batch is always
+     * emptied, but if the call fails, its actions stay queued and their stories are added to
+     * the blocked set.
+     */
+    private void flushReadBatch(List<ReadingAction> batch, Set<String> blockedHashes) {
+        if (batch.size() < 1) return;
+        List<String> hashes = new ArrayList<String>(batch.size());
+        for (ReadingAction ra : batch) {
+            hashes.add(ra.getStoryHash());
+        }
+        NewsBlurResponse response = apiManager.markStoriesAsRead(hashes);
+        if ((response == null) || response.isError()) {
+            Log.e(this.getClass().getName(), "error marking " + hashes.size() + " stories read, will retry later");
+            if ((response == null) || (!response.isTransientError)) dbHelper.failActions(batch);
+            blockedHashes.addAll(hashes);
+        } else {
+            dbHelper.clearActions(batch);
+        }
+        batch.clear();
+    }
+
     /**
      * The very first step of a sync - get the feed/folder list, unread counts, and
      * unread hashes. Doing this resets pagination on the server!
@@ -181,6 +373,14 @@ public class NBSyncService extends Service {
         if (HaltNow) return;
         if (HoldStories) return;
 
+        // the counts and unread status we would get from the API don't yet reflect any actions
+        // still waiting to be sent, so they would clobber the user's recent reading.  Actions
+        // that keep failing to send can't hold up the metadata forever, though.
+        if (dbHelper.hasQueuedActions(AppConstants.METADATA_DEFER_MAX_ACTION_TRIES)) {
+            Log.i(this.getClass().getName(), "deferring metadata sync until queued actions are sent");
+            return;
+        }
+
         if (DoFeedsFolders || PrefsUtils.isTimeToAutoSync(this)) {
             PrefsUtils.updateLastSyncTime(this);
             DoFeedsFolders = false;
@@ -190,30 +390,41 @@ public class NBSyncService extends Service {
 
         // cleanup is expensive, so do it as part of the metadata sync
         CleanupRunning = true;
-        NbActivity.updateAllActivities();
-        dbHelper.cleanupStories(PrefsUtils.isKeepOldStories(this));
-        imageCache.cleanup();
-        CleanupRunning = false;
-        NbActivity.updateAllActivities();
+        metrics.startPhase(SyncMetrics.Phase.CLEANUP);
+        NbActivity.updateAllActivities(ChangeSet.status());
+        try {
+            CleanupResult cleanup = dbHelper.cleanupStories(PrefsUtils.isKeepOldStories(this), true);
+            Log.d(this.getClass().getName(), "story cleanup: " + cleanup);
+            imageCache.cleanup();
+        } finally {
+            metrics.endPhase();
+            CleanupRunning = false;
+        }
+        // cleanup can remove stories from any feed
+        NbActivity.updateAllActivities(ChangeSet.everything());
 
         if (HaltNow) return;
         if (HoldStories) return;
 
         FFSyncRunning = true;
-        NbActivity.updateAllActivities();
+        metrics.startPhase(SyncMetrics.Phase.FEEDS_FOLDERS);
+        NbActivity.updateAllActivities(ChangeSet.status());
 
         // there is a rare issue with feeds that have no folder.  capture them for workarounds.
-        List<String> debugFeedIds = new ArrayList<String>();
+        Set<String> debugFeedIds = new HashSet<String>();
 
         // remember if we are premium
         boolean isPremium;
 
+        // what changed in the local feed/folder tables, if we got that far
+        FeedFolderChanges feedFolderChanges = null;
+
         try {
             // a metadata sync invalidates pagination and feed status
             ExhaustedFeeds.clear();
             FeedPagesSeen.clear();
             FeedStoriesSeen.clear();
-            StoryHashQueue.clear();
+            dbHelper.clearCheckpoints(BlurDatabaseHelper.CHECKPOINT_FEED_SET);
 
             FeedFolderResponse feedResponse = apiManager.getFolderFeedMapping(true);
 
@@ -230,135 +441,139 @@ public class NBSyncService extends Service {
 
             isPremium = feedResponse.isPremium;
 
-            // clean out the feed / folder tables
-            dbHelper.cleanupFeedsFolders();
-
-            // data for the folder and folder-feed-mapping tables
-            List<ContentValues> folderValues = new ArrayList<ContentValues>();
-            List<ContentValues> ffmValues = new ArrayList<ContentValues>();
-            for (Entry<String, List<Long>> entry : feedResponse.folders.entrySet()) {
-                if (!TextUtils.isEmpty(entry.getKey())) {
-                    String folderName = entry.getKey().trim();
-                    if (!TextUtils.isEmpty(folderName)) {
-                        ContentValues values = new ContentValues();
-                        values.put(DatabaseConstants.FOLDER_NAME, folderName);
-                        folderValues.add(values);
-                    }
-
-                    for (Long feedId : entry.getValue()) {
-                        ContentValues values = new ContentValues(); 
-                        values.put(DatabaseConstants.FEED_FOLDER_FEED_ID, feedId);
-                        values.put(DatabaseConstants.FEED_FOLDER_FOLDER_NAME, folderName);
-                        ffmValues.add(values);
-                        // note all feeds that belong to some folder
-                        debugFeedIds.add(Long.toString(feedId));
-                    }
-                }
-            }
-
-            // data for the feeds table
-            List<ContentValues> feedValues = new ArrayList<ContentValues>();
-            for (String feedId : feedResponse.feeds.keySet()) {
-                // sanity-check that the returned feeds actually exist in a folder or at the root
-                // if they do not, they should neither display nor count towards unread numbers
-                if (debugFeedIds.contains(feedId)) {
-                    feedValues.add(feedResponse.feeds.get(feedId).getValues());
-                } else {
-                    Log.w(this.getClass().getName(), "Found and ignoring un-foldered feed: " + feedId );
-                }
-            }
-            
-            // data for the the social feeds table
-            List<ContentValues> socialFeedValues = new ArrayList<ContentValues>();
-            for (SocialFeed feed : feedResponse.socialFeeds) {
-                socialFeedValues.add(feed.getValues());
+            if (feedResponse.isNotModified) {
+                // the feed list we already have is current, so there is nothing to parse or write
+                Log.d(this.getClass().getName(), "feed/folder list not modified");
+                debugFeedIds.addAll(dbHelper.getFolderedFeedIds());
+                feedFolderChanges = new FeedFolderChanges();
+            } else {
+                feedFolderChanges = updateFeedsFolders(feedResponse, debugFeedIds);
+                Log.d(this.getClass().getName(), "feed/folder sync changes: " + feedFolderChanges);
+                apiManager.saveValidators(feedResponse.validators, Boolean.toString(isPremium));
             }
-            
-            dbHelper.insertFeedsFolders(feedValues, folderValues, ffmValues, socialFeedValues);
-
-            // populate the starred stories count table
-            dbHelper.updateStarredStoriesCount(feedResponse.starredCount);
 
         } finally {
+            metrics.endPhase();
             FFSyncRunning = false;
-            NbActivity.updateAllActivities();
+            // if nothing changed there is no need to make the UI re-query the feed list
+            if ((feedFolderChanges == null) || feedFolderChanges.hasChanges()) {
+                NbActivity.updateAllActivities(ChangeSet.feedsFolders());
+            } else {
+                NbActivity.updateAllActivities(ChangeSet.status());
+            }
         }
 
         if (HaltNow) return;
         if (HoldStories) return;
 
         UnreadHashSyncRunning = true;
+        metrics.startPhase(SyncMetrics.Phase.UNREAD_HASHES);
 
         try {
 
             UnreadStoryHashesResponse unreadHashes = apiManager.getUnreadStoryHashes();
-            
-            // note all the stories we thought were unread before. if any fail to appear in
-            // the API request for unreads, we will mark them as read
-            List<String> oldUnreadHashes = dbHelper.getUnreadStoryHashes();
-
-            for (Entry<String, String[]> entry : unreadHashes.unreadHashes.entrySet()) {
-                String feedId = entry.getKey();
-                // ignore unreads from orphaned feeds
-                if( debugFeedIds.contains(feedId)) {
-                    // only fetch the reported unreads if we don't already have them
-                    List<String> existingHashes = dbHelper.getStoryHashesForFeed(feedId);
-                    for (String newHash : entry.getValue()) {
-                        if (!existingHashes.contains(newHash)) {
-                            StoryHashQueue.add(newHash);
-                        }
-                        oldUnreadHashes.remove(newHash);
-                    }
-                }
+            if (unreadHashes.isError() || (unreadHashes.unreadHashes == null)) {
+                Log.e(this.getClass().getName(), "error fetching unread hashes: " + unreadHashes.getErrorMessage());
+                return;
             }
 
-            // only trust the unread status of this API if the user is premium
-            if (isPremium) {
-                dbHelper.markStoryHashesRead(oldUnreadHashes);
+            if (unreadHashes.isNotModified) {
+                // nothing has been read or become unread since the last full fetch, so any stories
+                // that were missing then are still in the queue
+                Log.d(this.getClass().getName(), "unread hashes not modified");
+                SyncScheduler.noteMetadataChurn(this, 0);
+                return;
             }
+
+            // the queue is rebuilt from scratch, since the API now has the final word on what is unread
+            StoryHashQueue.clear();
+            dbHelper.clearCheckpoints(BlurDatabaseHelper.CHECKPOINT_STORY_HASH);
+
+            // fetch any reported unreads we don't already have, ignoring those from orphaned feeds. any
+            // stories we thought were unread but the API didn't report get marked read, but only trust
+            // the unread status of this API if the user is premium.
+            List<String> missingHashes = dbHelper.reconcileUnreadHashes(unreadHashes.unreadHashes, debugFeedIds, isPremium);
+            StoryHashQueue.addAll(missingHashes);
+            dbHelper.addCheckpoints(BlurDatabaseHelper.CHECKPOINT_STORY_HASH, missingHashes);
+            apiManager.saveValidators(unreadHashes.validators, null);
+
+            // let the scheduler know how busy things are, so it can sync more or less often
+            SyncScheduler.noteMetadataChurn(this, missingHashes.size());
         } finally {
+            metrics.endPhase();
             UnreadHashSyncRunning = false;
-            NbActivity.updateAllActivities();
+            // stale unreads in any feed may have been marked read
+            NbActivity.updateAllActivities(isPremium ? ChangeSet.everything() : ChangeSet.status());
         }
     }
 
     /**
-     * Fetch any unread stories (by hash) that we learnt about during the FFSync.
+     * Writes a freshly fetched feed/folder list to the DB.  Notes the IDs of all feeds that are
+     * in some folder in debugFeedIds.
+     */
+    private FeedFolderChanges updateFeedsFolders(FeedFolderResponse feedResponse, Set<String> debugFeedIds) {
+        debugFeedIds.addAll(feedResponse.folderedFeedIds);
+
+        // the response already holds the rows for each table, with any un-foldered feeds left out.
+        // only rows that actually changed are touched, so unchanged lists are cheap to re-sync
+        FeedFolderChanges feedFolderChanges = dbHelper.updateFeedsFolders(feedResponse.feedValues, feedResponse.folderValues, feedResponse.ffmValues, feedResponse.socialFeedValues);
+
+        // populate the starred stories count table
+        dbHelper.updateStarredStoriesCount(feedResponse.starredCount);
+
+        return feedFolderChanges;
+    }
+
+    /**
+     * Fetch any unread stories (by hash) that we learnt about during the FFSync.  Batches are
+     * fetched and parsed concurrently, but all DB writes happen here on the sync thread.
      */
     private void syncUnreads() {
         UnreadSyncRunning = true;
         try {
-            unreadsyncloop: while (StoryHashQueue.size() > 0) {
-                if (HaltNow) return;
-                if (HoldStories) return;
-
-                List<String> hashBatch = new ArrayList(AppConstants.UNREAD_FETCH_BATCH_SIZE);
-                batchloop: for (String hash : StoryHashQueue) {
-                    hashBatch.add(hash);
-                    if (hashBatch.size() >= AppConstants.UNREAD_FETCH_BATCH_SIZE) break batchloop;
-                }
-                StoriesResponse response = apiManager.getStoriesByHash(hashBatch);
-                if (! isStoryResponseGood(response)) {
-                    Log.e(this.getClass().getName(), "error fetching unreads batch, abandoning sync.");
-                    break unreadsyncloop;
+            if (HaltNow) return;
+            if (HoldStories) return;
+
+            List<String> hashes = new ArrayList<String>(StoryHashQueue);
+            if (hashes.size() < 1) return;
+            metrics.startPhase(SyncMetrics.Phase.UNREAD_STORIES);
+
+            // batches are sized as they go, based upon how quickly the network is handling them
+            BatchSizeController batchSizer = BatchSizeController.forUnreadFetch(this);
+            UnreadStoryPipeline pipeline = new UnreadStoryPipeline(apiManager, hashes, batchSizer, AppConstants.UNREAD_FETCH_THREADS, AppConstants.UNREAD_FETCH_MAX_IN_FLIGHT);
+            pipeline.run(new UnreadStoryPipeline.BatchHandler() {
+                public boolean isHalted() {
+                    return (HaltNow || HoldStories);
                 }
-                dbHelper.insertStories(response);
-                for (String hash : hashBatch) {
-                    StoryHashQueue.remove(hash);
-                } 
-                NbActivity.updateAllActivities();
-
-                for (Story story : response.stories) {
-                    if (story.imageUrls != null) {
-                        for (String url : story.imageUrls) {
-                            ImageQueue.add(url);
+                public boolean handleBatch(List<String> hashes, StoriesResponse response) {
+                    if (! isStoryResponseGood(response)) {
+                        Log.e(NBSyncService.class.getName(), "error fetching unreads batch, abandoning sync.");
+                        return false;
+                    }
+                    dbHelper.insertStories(response);
+                    NbActivity.updateAllActivities(ChangeSet.stories(getFeedIds(response)));
+
+                    List<String> imageUrls = new ArrayList<String>();
+                    for (Story story : response.stories) {
+                        if (story.imageUrls != null) {
+                            for (String url : story.imageUrls) {
+                                imageUrls.add(url);
+                            }
                         }
                     }
+                    ImageQueue.addAll(imageUrls);
+                    dbHelper.addCheckpoints(BlurDatabaseHelper.CHECKPOINT_IMAGE, imageUrls);
+
+                    // only forget about these hashes once their stories and images are safely recorded
+                    StoryHashQueue.removeAll(hashes);
+                    dbHelper.removeCheckpoints(BlurDatabaseHelper.CHECKPOINT_STORY_HASH, hashes);
+                    return true;
                 }
-            }
+            });
         } finally {
+            metrics.endPhase();
             UnreadSyncRunning = false;
-            NbActivity.updateAllActivities();
+            NbActivity.updateAllActivities(ChangeSet.status());
         }
     }
 
@@ -366,7 +581,9 @@ public class NBSyncService extends Service {
      * Fetch stories needed because the user is actively viewing a feed or folder.
      */
     private void syncPendingFeeds() {
+        if (PendingFeeds.size() < 1) return;
         StorySyncRunning = true;
+        metrics.startPhase(SyncMetrics.Phase.PENDING_FEEDS);
             
         try {
             Set<FeedSet> handledFeeds = new HashSet<FeedSet>();
@@ -393,21 +610,33 @@ public class NBSyncService extends Service {
                     if (HaltNow) return;
 
                     pageNumber++;
-                    StoriesResponse apiResponse = apiManager.getStories(fs, pageNumber, order, filter);
-                
-                    if (! isStoryResponseGood(apiResponse)) break feedloop;
+                    // stories are written to the DB as they stream in, rather than once the page is parsed
+                    BlurDatabaseHelper.StoryInserter inserter = dbHelper.getStoryInserter();
+                    StoriesResponse apiResponse = apiManager.getStories(fs, pageNumber, order, filter, inserter);
+
+                    int pageStoryCount;
+                    if (apiResponse.isNotModified) {
+                        // we already have the stories on this page, so just count them
+                        pageStoryCount = Integer.parseInt(apiResponse.validators.getSummary());
+                    } else {
+                        if (! isStoryResponseGood(apiResponse)) break feedloop;
+                        inserter.finish(apiResponse);
+                        pageStoryCount = inserter.getStoryCount();
+                        apiManager.saveValidators(apiResponse.validators, Integer.toString(pageStoryCount));
+                    }
 
                     FeedPagesSeen.put(fs, pageNumber);
-                    totalStoriesSeen += apiResponse.stories.length;
+                    totalStoriesSeen += pageStoryCount;
                     FeedStoriesSeen.put(fs, totalStoriesSeen);
 
-                    dbHelper.insertStories(apiResponse);
-                    NbActivity.updateAllActivities();
+                    // the feed set is named explicitly so that even an empty page, or a page of social
+                    // stories, refreshes the UI that asked for it
+                    NbActivity.updateAllActivities(ChangeSet.stories(inserter.getFeedIds()).addFeedSet(fs));
                 
-                    if (apiResponse.stories.length == 0) {
-                        ExhaustedFeeds.add(fs);
-                        break pageloop;
-                    }
+                    boolean exhausted = (pageStoryCount == 0);
+                    if (exhausted) ExhaustedFeeds.add(fs);
+                    dbHelper.setFeedSetCheckpoint(fs.toCompactSerial(), pageNumber, totalStoriesSeen, exhausted);
+                    if (exhausted) break pageloop;
                 }
 
                 handledFeeds.add(fs);
@@ -415,39 +644,51 @@ public class NBSyncService extends Service {
 
             PendingFeeds.keySet().removeAll(handledFeeds);
         } finally {
+            metrics.endPhase();
             StorySyncRunning = false;
+            // feed sets that are no longer pending should drop their progress indicators
+            NbActivity.updateAllActivities(ChangeSet.status());
         }
     }
 
     private void prefetchImages() {
+        if (HaltNow) return;
         if (!PrefsUtils.isImagePrefetchEnabled(this)) return;
+        if (ImageQueue.size() < 1) return;
+        // in the background, images wait for an unmetered network and a charger
+        if ((NbActivity.getActiveActivityCount() < 1) && (!SyncScheduler.isJobAllowed(this, SyncScheduler.Job.IMAGES))) {
+            Log.d(this.getClass().getName(), "deferring image prefetch until conditions allow");
+            return;
+        }
+        PowerManager.WakeLock wl = acquireWakeLock("images");
         ImagePrefetchRunning = true;
+        metrics.startPhase(SyncMetrics.Phase.IMAGE_PREFETCH);
+        NbActivity.updateAllActivities(ChangeSet.status());
+        ImagePrefetcher prefetcher = new ImagePrefetcher(imageCache, BatchSizeController.forImagePrefetch(this), AppConstants.IMAGE_PREFETCH_MAX_PER_HOST);
+        // images are checkpointed as done in batches, to save on DB writes
+        final List<String> doneImages = new ArrayList<String>();
         try {
-            while (ImageQueue.size() > 0) {
-                Set<String> fetchedImages = new HashSet<String>();
-                Set<String> batch = new HashSet<String>(AppConstants.IMAGE_PREFETCH_BATCH_SIZE);
-                batchloop: for (String url : ImageQueue) {
-                    batch.add(url);
-                    if (batch.size() >= AppConstants.IMAGE_PREFETCH_BATCH_SIZE) break batchloop;
+            prefetcher.fetch(new ArrayList<String>(ImageQueue), new ImagePrefetcher.Listener() {
+                public boolean isHalted() {
+                    return (HaltNow || HoldStories);
                 }
-                try {
-                    for (String url : batch) {
-                        if (HaltNow) return;
-                        if (HoldStories) return;
-                        
-                        imageCache.cacheImage(url);
-
-                        fetchedImages.add(url);
+                public void imageDone(String url) {
+                    ImageQueue.remove(url);
+                    doneImages.add(url);
+                    if (doneImages.size() >= AppConstants.IMAGE_PREFETCH_BATCH_SIZE) {
+                        dbHelper.removeCheckpoints(BlurDatabaseHelper.CHECKPOINT_IMAGE, doneImages);
+                        doneImages.clear();
+                        NbActivity.updateAllActivities(ChangeSet.status());
                     }
-                } finally {
-                    ImageQueue.removeAll(fetchedImages);
-                    NbActivity.updateAllActivities();
                 }
-            }
+            });
         } finally {
+            dbHelper.removeCheckpoints(BlurDatabaseHelper.CHECKPOINT_IMAGE, doneImages);
+            prefetcher.shutdown();
+            metrics.endPhase();
             ImagePrefetchRunning = false;
-            NbActivity.updateAllActivities();
-
+            releaseWakeLock(wl);
+            NbActivity.updateAllActivities(ChangeSet.status());
         }
     }
 
@@ -463,6 +704,14 @@ public class NBSyncService extends Service {
         return true;
     }
 
+    private static Set<String> getFeedIds(StoriesResponse response) {
+        Set<String> feedIds = new HashSet<String>();
+        for (Story story : response.stories) {
+            feedIds.add(story.feedId);
+        }
+        return feedIds;
+    }
+
     /**
      * Is the main feed/folder list sync running?
      */
@@ -493,7 +742,7 @@ public class NBSyncService extends Service {
      */
     public static void forceFeedsFolders() {
         DoFeedsFolders = true;
-        NbActivity.updateAllActivities();
+        NbActivity.updateAllActivities(ChangeSet.status());
     }
 
     /**
@@ -527,7 +776,7 @@ public class NBSyncService extends Service {
             
         Log.d(NBSyncService.class.getName(), "enqueued request for minimum stories: " + desiredStoryCount);
         PendingFeeds.put(fs, desiredStoryCount);
-        NbActivity.updateAllActivities();
+        NbActivity.updateAllActivities(ChangeSet.status());
         return true;
     }
 
@@ -539,6 +788,10 @@ public class NBSyncService extends Service {
         ExhaustedFeeds.remove(fs);
         FeedPagesSeen.put(fs, 0);
         FeedStoriesSeen.put(fs, 0);
+        // the saved checkpoint for this feed set is cleared at the start of the next sync
+        synchronized (ResetFeeds) {
+            ResetFeeds.add(fs);
+        }
     }
 
     public static void softInterrupt() {
@@ -551,7 +804,6 @@ public class NBSyncService extends Service {
         Log.d(this.getClass().getName(), "onDestroy");
         HaltNow = true;
         super.onDestroy();
-        dbHelper.close();
     }
 
     @Override
@@ -5,14 +5,37 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import com.newsblur.R;
-
+/**
+ * Receives the alarms set by the SyncScheduler, plus power connection events, and starts
+ * the sync service if conditions are right for the job at hand.
+ */
 public class ServiceScheduleReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        Log.d(this.getClass().getName(), "starting sync service");
+        SyncScheduler.Job job;
+        if (Intent.ACTION_POWER_CONNECTED.equals(intent.getAction())) {
+            // plugging in is the most likely time for an image prefetch to be allowed
+            job = SyncScheduler.Job.IMAGES;
+        } else {
+            job = SyncScheduler.getJob(intent);
+            if (job == null) {
+                Log.w(this.getClass().getName(), "ignoring alarm with no job");
+                return;
+            }
+            // these alarms are one-shot, so set up the next run right away
+            SyncScheduler.schedule(context, job);
+        }
+
+        // don't bother waking the service if it couldn't do this job anyway
+        if (!SyncScheduler.isJobAllowed(context, job)) {
+            Log.d(this.getClass().getName(), "skipping " + job + " job, conditions not met");
+            return;
+        }
+
+        Log.d(this.getClass().getName(), "starting sync service for " + job + " job");
         Intent i = new Intent(context, NBSyncService.class);
+        i.putExtra(SyncScheduler.EXTRA_JOB, job.name());
         context.startService(i);
     }
         
@@ -0,0 +1,422 @@
+package com.newsblur.service;
+
+import android.text.format.DateFormat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records where the time goes during each run of the sync service.  Each run is broken into
+ * phases, and for each phase we note the wall time, the number of HTTP round trips, the bytes
+ * received, and the DB rows written.  A short history of recent runs is kept in memory.
+ *
+ * The network and DB layers report their activity via the static note*() methods, which just
+ * bump process-wide counters.  Phases snapshot those counters when they start and finish, so
+ * any UI-initiated API calls made during a sync phase will be counted as part of it.
+ *
+ * The time taken by UI loads of data from the DB is also noted, so that each phase can report
+ * how long the UI had to wait on the DB while that phase was writing to it.
+ *
+ * Separately, API traffic is totalled per endpoint for the life of the process, counting
+ * both the bytes on the wire and the bytes after decompression, so the savings from
+ * compression can be seen, along with how often conditional requests were answered with
+ * "not modified".
+ */
+public class SyncMetrics {
+
+    public enum Phase {
+        ACTIONS,
+        CLEANUP,
+        FEEDS_FOLDERS,
+        UNREAD_HASHES,
+        UNREAD_STORIES,
+        PENDING_FEEDS,
+        IMAGE_PREFETCH
+    }
+
+    private static final int HISTORY_SIZE = 20;
+    private static final int LOAD_HISTORY_SIZE = 1000;
+
+    private static final LinkedList<SyncRun> History = new LinkedList<SyncRun>();
+
+    private static final AtomicLong HttpRequests = new AtomicLong();
+    private static final AtomicLong BytesReceived = new AtomicLong();
+    private static final AtomicLong RowsWritten = new AtomicLong();
+
+    // the finish time and duration of each recent UI load
+    private static final LinkedList<long[]> Loads = new LinkedList<long[]>();
+
+    private static final Map<String,EndpointTraffic> Traffic = new TreeMap<String,EndpointTraffic>();
+
+    public static void noteHttpRequest() {
+        HttpRequests.incrementAndGet();
+    }
+
+    public static void noteBytesReceived(long bytes) {
+        BytesReceived.addAndGet(bytes);
+    }
+
+    public static void noteRowsWritten(long rows) {
+        RowsWritten.addAndGet(rows);
+    }
+
+    /**
+     * Records how long a load of data for the UI took, from starting the query to having the
+     * results in hand.
+     */
+    public static void noteLoad(long millis) {
+        synchronized (Loads) {
+            Loads.add(new long[] {System.currentTimeMillis(), millis});
+            while (Loads.size() > LOAD_HISTORY_SIZE) Loads.removeFirst();
+        }
+    }
+
+    /**
+     * Records the body sizes of one API call to the given endpoint, both as sent or received
+     * on the wire and as seen by the app once any content encoding is removed.
+     */
+    public static void noteEndpointTraffic(String endpoint, long wireBytesSent, long rawBytesSent, long wireBytesReceived, long decodedBytesReceived) {
+        synchronized (Traffic) {
+            EndpointTraffic traffic = Traffic.get(endpoint);
+            if (traffic == null) {
+                traffic = new EndpointTraffic(endpoint);
+                Traffic.put(endpoint, traffic);
+            }
+            traffic.requests++;
+            traffic.wireBytesSent += wireBytesSent;
+            traffic.rawBytesSent += rawBytesSent;
+            traffic.wireBytesReceived += wireBytesReceived;
+            traffic.decodedBytesReceived += decodedBytesReceived;
+        }
+    }
+
+    /**
+     * Records the outcome of a conditional GET to the given endpoint: a hit if the API said
+     * the result had not changed, or a miss if it sent the result in full.
+     */
+    public static void noteConditionalResult(String endpoint, boolean notModified) {
+        synchronized (Traffic) {
+            EndpointTraffic traffic = Traffic.get(endpoint);
+            if (traffic == null) {
+                traffic = new EndpointTraffic(endpoint);
+                Traffic.put(endpoint, traffic);
+            }
+            if (notModified) {
+                traffic.conditionalHits++;
+            } else {
+                traffic.conditionalMisses++;
+            }
+        }
+    }
+
+    /**
+     * Gets the traffic totals for every endpoint called so far, sorted by endpoint.
+     */
+    public static List<EndpointTraffic> getTraffic() {
+        synchronized (Traffic) {
+            List<EndpointTraffic> traffic = new ArrayList<EndpointTraffic>(Traffic.size());
+            for (EndpointTraffic t : Traffic.values()) {
+                traffic.add(t.copy());
+            }
+            return traffic;
+        }
+    }
+
+    /**
+     * Starts recording a new sync run.  The run is not added to the history until it is finished.
+     */
+    public static SyncRun startRun() {
+        return new SyncRun();
+    }
+
+    /**
+     * Gets the recently completed sync runs, oldest first.
+     */
+    public static List<SyncRun> getHistory() {
+        synchronized (History) {
+            return new ArrayList<SyncRun>(History);
+        }
+    }
+
+    /**
+     * Gets a human-readable report of all recent sync runs, newest first, followed by the
+     * traffic totals for each API endpoint.
+     */
+    public static String getReport() {
+        List<SyncRun> runs = getHistory();
+        List<EndpointTraffic> traffic = getTraffic();
+        if ((runs.size() < 1) && (traffic.size() < 1)) return null;
+        Collections.reverse(runs);
+        StringBuilder builder = new StringBuilder();
+        for (SyncRun run : runs) {
+            builder.append(run.toString());
+            builder.append("\n");
+        }
+        if (traffic.size() > 0) builder.append("traffic by endpoint:\n");
+        for (EndpointTraffic t : traffic) {
+            builder.append("  ").append(t.toString());
+            builder.append("\n");
+        }
+        return builder.toString();
+    }
+
+    public static void dumpToLog() {
+        List<SyncRun> runs = getHistory();
+        Log.i(SyncMetrics.class.getName(), "sync metrics for the last " + runs.size() + " runs:");
+        for (SyncRun run : runs) {
+            for (String line : run.toString().split("\n")) {
+                Log.i(SyncMetrics.class.getName(), line);
+            }
+        }
+        for (EndpointTraffic t : getTraffic()) {
+            Log.i(SyncMetrics.class.getName(), t.toString());
+        }
+    }
+
+    /**
+     * The metrics for one complete run of the sync service.
+     */
+    public static class SyncRun {
+        private final long startTime;
+        private long wallMillis;
+        private long wakeLockMillis;
+        private final List<PhaseMetrics> phases = new ArrayList<PhaseMetrics>();
+        private PhaseMetrics currentPhase;
+
+        private SyncRun() {
+            this.startTime = System.currentTimeMillis();
+        }
+
+        public void startPhase(Phase phase) {
+            if (currentPhase != null) endPhase();
+            currentPhase = new PhaseMetrics(phase);
+        }
+
+        public void endPhase() {
+            if (currentPhase == null) return;
+            currentPhase.finish();
+            phases.add(currentPhase);
+            currentPhase = null;
+        }
+
+        /**
+         * Closes out this run and adds it to the history.
+         *
+         * @param wakeLockMillis how long the service held its wakelock for this run.
+         */
+        public void finish(long wakeLockMillis) {
+            endPhase();
+            this.wallMillis = System.currentTimeMillis() - startTime;
+            this.wakeLockMillis = wakeLockMillis;
+            synchronized (History) {
+                History.add(this);
+                while (History.size() > HISTORY_SIZE) History.removeFirst();
+            }
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        public long getWakeLockMillis() {
+            return wakeLockMillis;
+        }
+
+        public List<PhaseMetrics> getPhases() {
+            return Collections.unmodifiableList(phases);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("sync at ").append(DateFormat.format("yyyy-MM-dd kk:mm:ss", startTime));
+            builder.append(": ").append(wallMillis).append("ms, wakelock ").append(wakeLockMillis).append("ms");
+            if (phases.size() < 1) builder.append(", nothing to do");
+            for (PhaseMetrics phase : phases) {
+                builder.append("\n  ").append(phase.toString());
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * The metrics for a single phase within a sync run.
+     */
+    public static class PhaseMetrics {
+        private final Phase phase;
+        private final long startTime;
+        private final long startHttpRequests;
+        private final long startBytesReceived;
+        private final long startRowsWritten;
+        private long wallMillis;
+        private long httpRequests;
+        private long bytesReceived;
+        private long rowsWritten;
+        private int loads;
+        private long loadMillis;
+        private long maxLoadMillis;
+
+        private PhaseMetrics(Phase phase) {
+            this.phase = phase;
+            this.startTime = System.currentTimeMillis();
+            this.startHttpRequests = HttpRequests.get();
+            this.startBytesReceived = BytesReceived.get();
+            this.startRowsWritten = RowsWritten.get();
+        }
+
+        private void finish() {
+            this.wallMillis = System.currentTimeMillis() - startTime;
+            this.httpRequests = HttpRequests.get() - startHttpRequests;
+            this.bytesReceived = BytesReceived.get() - startBytesReceived;
+            this.rowsWritten = RowsWritten.get() - startRowsWritten;
+            synchronized (Loads) {
+                for (long[] load : Loads) {
+                    if (load[0] < startTime) continue;
+                    loads++;
+                    loadMillis += load[1];
+                    maxLoadMillis = Math.max(maxLoadMillis, load[1]);
+                }
+            }
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        public long getHttpRequests() {
+            return httpRequests;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        public long getRowsWritten() {
+            return rowsWritten;
+        }
+
+        /**
+         * The number of UI loads that finished during this phase.
+         */
+        public int getLoads() {
+            return loads;
+        }
+
+        public long getAverageLoadMillis() {
+            if (loads < 1) return 0L;
+            return loadMillis / loads;
+        }
+
+        public long getMaxLoadMillis() {
+            return maxLoadMillis;
+        }
+
+        @Override
+        public String toString() {
+            String s = phase + ": " + wallMillis + "ms, " + httpRequests + " requests, " + bytesReceived + " bytes, " + rowsWritten + " rows";
+            if (loads > 0) s += ", " + loads + " UI loads (avg " + getAverageLoadMillis() + "ms, max " + maxLoadMillis + "ms)";
+            return s;
+        }
+    }
+
+    /**
+     * Running totals of the traffic to a single API endpoint.
+     */
+    public static class EndpointTraffic {
+        private final String endpoint;
+        private long requests;
+        private long wireBytesSent;
+        private long rawBytesSent;
+        private long wireBytesReceived;
+        private long decodedBytesReceived;
+        private long conditionalHits;
+        private long conditionalMisses;
+
+        private EndpointTraffic(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        private EndpointTraffic copy() {
+            EndpointTraffic t = new EndpointTraffic(endpoint);
+            t.requests = requests;
+            t.wireBytesSent = wireBytesSent;
+            t.rawBytesSent = rawBytesSent;
+            t.wireBytesReceived = wireBytesReceived;
+            t.decodedBytesReceived = decodedBytesReceived;
+            t.conditionalHits = conditionalHits;
+            t.conditionalMisses = conditionalMisses;
+            return t;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getWireBytesSent() {
+            return wireBytesSent;
+        }
+
+        public long getRawBytesSent() {
+            return rawBytesSent;
+        }
+
+        public long getWireBytesReceived() {
+            return wireBytesReceived;
+        }
+
+        public long getDecodedBytesReceived() {
+            return decodedBytesReceived;
+        }
+
+        public long getConditionalHits() {
+            return conditionalHits;
+        }
+
+        public long getConditionalMisses() {
+            return conditionalMisses;
+        }
+
+        /**
+         * The fraction of conditional requests that were answered with "not modified".
+         */
+        public double getConditionalHitRate() {
+            long total = conditionalHits + conditionalMisses;
+            if (total < 1) return 0.0d;
+            return ((double) conditionalHits) / total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(endpoint).append(": ").append(requests).append(" requests, received ");
+            builder.append(wireBytesReceived).append("/").append(decodedBytesReceived).append(" bytes");
+            if (rawBytesSent > 0) {
+                builder.append(", sent ").append(wireBytesSent).append("/").append(rawBytesSent).append(" bytes");
+            }
+            builder.append(" (wire/decoded)");
+            if ((conditionalHits + conditionalMisses) > 0) {
+                builder.append(String.format(", %d/%d not modified (%.0f%%)", conditionalHits, (conditionalHits + conditionalMisses), (getConditionalHitRate() * 100.0d)));
+            }
+            return builder.toString();
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.newsblur.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.newsblur.util.AppConstants;
+import com.newsblur.util.PrefConstants;
+import com.newsblur.util.PrefsUtils;
+
+/**
+ * Schedules background syncs as independent jobs, each with its own interval and its own
+ * conditions under which it is worth waking the sync service.
+ *
+ * The metadata job (feeds, unread hashes, and unread stories) runs whenever the user's network
+ * settings allow. Its interval adapts to how much is actually changing: syncs that find nothing
+ * new back it off, and syncs that find lots of new stories tighten it up again.
+ *
+ * The image job only runs on an unmetered network while the device is charging. It is also
+ * kicked off when power is connected, since that is when it is most likely to be allowed.
+ *
+ * Jobs are one-shot alarms that are re-armed each time they fire, so that interval changes take
+ * effect promptly. The alarms are inexact, so the system may batch them with other wakeups.
+ */
+public class SyncScheduler {
+
+    public enum Job {
+        METADATA,
+        IMAGES
+    }
+
+    public static final String EXTRA_JOB = "sync_job";
+
+    private SyncScheduler() {} // util class - no instances
+
+    /**
+     * Makes sure all jobs are scheduled.
+     *
+     * @param force re-arm every job even if it seems to be scheduled already. Required after a
+     *        reboot, when all alarms are lost.
+     */
+    public static void scheduleAll(Context context, boolean force) {
+        // clear the fixed-interval alarm used by older versions of the app
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(PendingIntent.getBroadcast(context, 0, new Intent(context, ServiceScheduleReceiver.class), 0));
+
+        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
+        for (Job job : Job.values()) {
+            long nextRun = prefs.getLong(PrefConstants.SYNC_NEXT_RUN_PREFIX + job.name(), 0L);
+            if (force || (nextRun < System.currentTimeMillis())) {
+                schedule(context, job);
+            }
+        }
+    }
+
+    /**
+     * (Re-)arms the alarm for a job, one full interval from now.
+     */
+    public static void schedule(Context context, Job job) {
+        long interval = getInterval(context, job);
+        Log.d(SyncScheduler.class.getName(), "scheduling " + job + " job in " + (interval / 1000L) + "s");
+
+        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
+        prefs.edit().putLong(PrefConstants.SYNC_NEXT_RUN_PREFIX + job.name(), System.currentTimeMillis() + interval).commit();
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + interval, getPendingIntent(context, job));
+    }
+
+    private static PendingIntent getPendingIntent(Context context, Job job) {
+        Intent i = new Intent(context, ServiceScheduleReceiver.class);
+        i.putExtra(EXTRA_JOB, job.name());
+        // each job needs its own request code, since intents differing only by extras are considered equal
+        return PendingIntent.getBroadcast(context, job.ordinal() + 1, i, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    public static long getInterval(Context context, Job job) {
+        switch (job) {
+            case METADATA:
+                SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
+                return prefs.getLong(PrefConstants.SYNC_INTERVAL_METADATA, AppConstants.AUTO_SYNC_TIME_MILLIS);
+            case IMAGES:
+                return AppConstants.IMAGE_SYNC_INTERVAL_MILLIS;
+            default:
+                throw new IllegalArgumentException("unknown job: " + job);
+        }
+    }
+
+    /**
+     * Adjusts the metadata job interval based on how many new unread stories the last metadata
+     * sync found.  A sync that finds nothing doubles the interval, and one that finds a lot halves
+     * it, within fixed bounds.
+     */
+    public static void noteMetadataChurn(Context context, int newUnreadCount) {
+        long oldInterval = getInterval(context, Job.METADATA);
+        long newInterval = oldInterval;
+        if (newUnreadCount < 1) {
+            newInterval = Math.min(oldInterval * 2L, AppConstants.SYNC_INTERVAL_MAX_MILLIS);
+        } else if (newUnreadCount >= AppConstants.SYNC_HIGH_CHURN_STORIES) {
+            newInterval = Math.max(oldInterval / 2L, AppConstants.SYNC_INTERVAL_MIN_MILLIS);
+        }
+        if (newInterval == oldInterval) return;
+
+        Log.d(SyncScheduler.class.getName(), newUnreadCount + " new unreads, metadata sync interval now " + (newInterval / 1000L) + "s");
+        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
+        prefs.edit().putLong(PrefConstants.SYNC_INTERVAL_METADATA, newInterval).commit();
+        schedule(context, Job.METADATA);
+    }
+
+    /**
+     * Checks whether conditions are right to run a job in the background.
+     */
+    public static boolean isJobAllowed(Context context, Job job) {
+        if (!PrefsUtils.isOfflineEnabled(context)) return false;
+        switch (job) {
+            case METADATA:
+                return PrefsUtils.isBackgroundNetworkAllowed(context);
+            case IMAGES:
+                return (PrefsUtils.isImagePrefetchEnabled(context) && isUnmetered(context) && isCharging(context));
+            default:
+                return false;
+        }
+    }
+
+    public static boolean isUnmetered(Context context) {
+        ConnectivityManager connMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeInfo = connMgr.getActiveNetworkInfo();
+        if ((activeInfo == null) || (!activeInfo.isConnected())) return false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !connMgr.isActiveNetworkMetered();
+        }
+        int type = activeInfo.getType();
+        return ((type == ConnectivityManager.TYPE_WIFI) || (type == ConnectivityManager.TYPE_ETHERNET));
+    }
+
+    public static boolean isCharging(Context context) {
+        // the battery status broadcast is sticky, so we can just peek at the last one without a receiver
+        Intent batteryStatus = context.getApplicationContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null) return false;
+        int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        return ((status == BatteryManager.BATTERY_STATUS_CHARGING) || (status == BatteryManager.BATTERY_STATUS_FULL));
+    }
+
+    /**
+     * Gets the job named in an intent sent by this scheduler, or null if there isn't one.
+     */
+    public static Job getJob(Intent intent) {
+        if (intent == null) return null;
+        String jobName = intent.getStringExtra(EXTRA_JOB);
+        if (jobName == null) return null;
+        try {
+            return Job.valueOf(jobName);
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+}
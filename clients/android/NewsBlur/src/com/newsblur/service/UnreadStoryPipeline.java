@@ -0,0 +1,231 @@
+package com.newsblur.service;
+
+import android.util.Log;
+
+import com.newsblur.network.APIManager;
+import com.newsblur.network.APIResponse;
+import com.newsblur.network.domain.StoriesResponse;
+import com.newsblur.util.BatchSizeController;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A three-stage pipeline for fetching unread stories by hash.  Several batches of hashes are
+ * fetched from the API concurrently, the responses are parsed on a single parse thread, and
+ * the parsed batches are handed back to the thread that called run(), which is expected to
+ * be the only one writing them to the DB.
+ *
+ * At most maxInFlight batches may be fetching, parsing, or waiting to be written at any one
+ * time, so a slow writer throttles the network rather than letting parsed stories pile up
+ * in memory.
+ *
+ * Hashes are cut into batches only as each batch is started, at whatever size the supplied
+ * BatchSizeController currently suggests, and the controller is told how each fetch went.
+ */
+public class UnreadStoryPipeline {
+
+    /**
+     * The writer stage of the pipeline, supplied by the caller.
+     */
+    public interface BatchHandler {
+        /** Checked before each batch is handed over. If true, the pipeline is abandoned. */
+        boolean isHalted();
+        /** Consume one parsed batch. Return false to abandon the rest of the pipeline. */
+        boolean handleBatch(List<String> hashes, StoriesResponse response);
+    }
+
+    private final APIManager apiManager;
+    private final List<String> pendingHashes;
+    private final BatchSizeController batchSizer;
+    private int nextHash = 0;
+    private final int maxInFlight;
+    private final ExecutorService fetchExecutor;
+    private final ExecutorService parseExecutor;
+    private final BlockingQueue<ParsedBatch> parsedBatches;
+    private int inFlight = 0;
+
+    private final StageStats fetchStats = new StageStats("fetch");
+    private final StageStats parseStats = new StageStats("parse");
+    private final StageStats writeStats = new StageStats("write");
+
+    public UnreadStoryPipeline(APIManager apiManager, List<String> hashes, BatchSizeController batchSizer, int fetchThreads, int maxInFlight) {
+        this.apiManager = apiManager;
+        this.pendingHashes = hashes;
+        this.batchSizer = batchSizer;
+        this.maxInFlight = maxInFlight;
+        this.fetchExecutor = Executors.newFixedThreadPool(fetchThreads);
+        this.parseExecutor = Executors.newSingleThreadExecutor();
+        this.parsedBatches = new LinkedBlockingQueue<ParsedBatch>();
+    }
+
+    /**
+     * Runs the pipeline to completion on the calling thread, which becomes the writer stage.
+     * Always shuts down the fetch and parse stages before returning.
+     */
+    public void run(BatchHandler handler) {
+        long startTime = System.currentTimeMillis();
+        try {
+            fillPipeline();
+            while (inFlight > 0) {
+                if (handler.isHalted()) return;
+
+                ParsedBatch batch = parsedBatches.take();
+                inFlight--;
+
+                long writeStart = System.nanoTime();
+                boolean keepGoing = handler.handleBatch(batch.hashes, batch.response);
+                writeStats.record(writeStart, batch.getStoryCount());
+                if (!keepGoing) return;
+
+                fillPipeline();
+            }
+        } catch (InterruptedException ie) {
+            Log.w(this.getClass().getName(), "unread story pipeline interrupted");
+        } finally {
+            fetchExecutor.shutdownNow();
+            parseExecutor.shutdownNow();
+            batchSizer.save();
+            Log.d(this.getClass().getName(), "pipeline finished in " + (System.currentTimeMillis() - startTime) + "ms");
+            Log.d(this.getClass().getName(), fetchStats.toString());
+            Log.d(this.getClass().getName(), parseStats.toString());
+            Log.d(this.getClass().getName(), writeStats.toString());
+        }
+    }
+
+    public StageStats getFetchStats() {
+        return fetchStats;
+    }
+
+    public StageStats getParseStats() {
+        return parseStats;
+    }
+
+    public StageStats getWriteStats() {
+        return writeStats;
+    }
+
+    /**
+     * Start fetching as many batches as we are allowed to have in flight.  Only ever called
+     * from the writer thread, so inFlight needs no further guarding.
+     */
+    private void fillPipeline() {
+        while ((inFlight < maxInFlight) && (nextHash < pendingHashes.size())) {
+            int end = Math.min(nextHash + batchSizer.getSize(), pendingHashes.size());
+            final List<String> hashes = new ArrayList<String>(pendingHashes.subList(nextHash, end));
+            nextHash = end;
+            try {
+                fetchExecutor.execute(new Runnable() {
+                    public void run() {
+                        long fetchStartTime = System.currentTimeMillis();
+                        long fetchStart = System.nanoTime();
+                        APIResponse fetched = null;
+                        try {
+                            fetched = apiManager.fetchStoriesByHash(hashes);
+                        } catch (Throwable t) {
+                            // even an Error must still pass a failed batch on to the parse stage
+                            Log.e(UnreadStoryPipeline.class.getName(), "error fetching unreads batch", t);
+                        }
+                        fetchStats.record(fetchStart, hashes.size());
+                        batchSizer.noteResult(fetchStartTime, (System.nanoTime() - fetchStart) / 1000000L, hashes.size(), ((fetched != null) && (!fetched.isError())));
+                        final APIResponse apiResponse = fetched;
+                        try {
+                            parseExecutor.execute(new Runnable() {
+                                public void run() {
+                                    // every batch handed to this stage must come out the other side, even if
+                                    // it fails with an Error, or the writer would wait on it forever.
+                                    long parseStart = System.nanoTime();
+                                    StoriesResponse response = null;
+                                    try {
+                                        if (apiResponse != null) response = apiManager.parseStoriesResponse(apiResponse);
+                                    } catch (Throwable t) {
+                                        Log.e(UnreadStoryPipeline.class.getName(), "error parsing unreads batch", t);
+                                    }
+                                    ParsedBatch batch = new ParsedBatch(hashes, response);
+                                    parseStats.record(parseStart, batch.getStoryCount());
+                                    parsedBatches.add(batch);
+                                }
+                            });
+                        } catch (RejectedExecutionException ree) {
+                            // the pipeline was shut down while we were fetching. just drop the batch.
+                        }
+                    }
+                });
+                inFlight++;
+            } catch (RejectedExecutionException ree) {
+                return;
+            }
+        }
+    }
+
+    private static class ParsedBatch {
+        final List<String> hashes;
+        final StoriesResponse response;
+
+        ParsedBatch(List<String> hashes, StoriesResponse response) {
+            this.hashes = hashes;
+            this.response = response;
+        }
+
+        int getStoryCount() {
+            if ((response == null) || (response.stories == null)) return 0;
+            return response.stories.length;
+        }
+    }
+
+    /**
+     * Throughput counters for one stage of the pipeline.  Busy time is summed across all
+     * threads working the stage, so it can exceed the wall time of the whole run.
+     */
+    public static class StageStats {
+        private final String name;
+        private final AtomicInteger batches = new AtomicInteger();
+        private final AtomicInteger items = new AtomicInteger();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        void record(long startNanos, int itemCount) {
+            busyNanos.addAndGet(System.nanoTime() - startNanos);
+            batches.incrementAndGet();
+            items.addAndGet(itemCount);
+        }
+
+        public int getBatchCount() {
+            return batches.get();
+        }
+
+        public int getItemCount() {
+            return items.get();
+        }
+
+        public long getBusyMillis() {
+            return busyNanos.get() / 1000000L;
+        }
+
+        /**
+         * Items processed per second of time spent busy in this stage.
+         */
+        public double getItemsPerSecond() {
+            long nanos = busyNanos.get();
+            if (nanos <= 0L) return 0.0d;
+            return items.get() / (nanos / 1000000000.0d);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s stage: %d batches, %d items, %dms busy, %.1f items/s",
+                                 name, getBatchCount(), getItemCount(), getBusyMillis(), getItemsPerSecond());
+        }
+    }
+
+}
@@ -32,15 +32,55 @@ public class AppConstants {
     // how long to wait before auto-syncing the feed/folder list
     public static final long AUTO_SYNC_TIME_MILLIS = 10L * 60L * 1000L;
 
+    // the shortest and longest the adaptive scheduler will wait between background metadata syncs
+    public static final long SYNC_INTERVAL_MIN_MILLIS = AUTO_SYNC_TIME_MILLIS / 2L;
+    public static final long SYNC_INTERVAL_MAX_MILLIS = 4L * 60L * 60L * 1000L;
+
+    // a background metadata sync that finds at least this many new unreads tightens the schedule
+    public static final int SYNC_HIGH_CHURN_STORIES = 25;
+
+    // how often to check whether conditions are right for a background image prefetch
+    public static final long IMAGE_SYNC_INTERVAL_MILLIS = 60L * 60L * 1000L;
+
     // how many total attemtps to make at a single API call
     public static final int MAX_API_TRIES = 3;
 
     // the base amount for how long to sleep during exponential API failure backoff
     public static final long API_BACKOFF_BASE_MILLIS = 500L;
 
-    // when generating a request for multiple feeds, limit the total number requested to prevent
-    // unworkably long URLs
-    public static final int MAX_FEED_LIST_SIZE = 250;
+    // the longest to sleep between any two tries at an API call
+    public static final long API_BACKOFF_MAX_MILLIS = 8L * 1000L;
+
+    // the most total time to spend sleeping between tries at a single API call
+    public static final long API_RETRY_BUDGET_MILLIS = 15L * 1000L;
+
+    // the longest we will wait when the API asks us to back off via Retry-After. if it asks for
+    // longer, the call fails and no calls are made to that host until the time is up.
+    public static final long API_RETRY_AFTER_MAX_MILLIS = 10L * 1000L;
+
+    // how many retryable API failures in a row before we stop calling the host for a while
+    public static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+
+    // how long to stop calling a failing API host, doubling each time it is still down
+    public static final long CIRCUIT_BREAKER_BASE_COOLDOWN_MILLIS = 30L * 1000L;
+    public static final long CIRCUIT_BREAKER_MAX_COOLDOWN_MILLIS = 10L * 60L * 1000L;
+
+    // whether to gzip large API request bodies, such as long lists of stories to mark read. the
+    // server must accept Content-Encoding on requests for this to work, so it is off by default.
+    public static final boolean GZIP_POST_BODIES = false;
+
+    // the smallest API request body worth gzipping
+    public static final int GZIP_POST_MIN_BYTES = 1024;
+
+    // the most feeds to request stories for at once. rivers of more feeds than this are split into
+    // shards that are fetched in parallel and merged, see ShardedRiver
+    public static final int RIVER_SHARD_SIZE = 100;
+
+    // how many river shards to fetch at once, across all rivers
+    public static final int RIVER_SHARD_THREADS = 4;
+
+    // how many sharded rivers to remember the place in at once
+    public static final int RIVER_MAX_TRACKED = 4;
 
     // when reading stories, how many stories worth of buffer to keep loaded ahead of the user
     public static final int READING_STORY_PRELOAD = 5;
@@ -48,10 +88,67 @@ public class AppConstants {
     // max old stories to keep in the DB per feed before fetching new unreads
     public static final int MAX_READ_STORIES_STORED = 500;
 
-    // how many unread stories to fetch via hash at a time
+    // the most queued DB writes that the writer thread will commit together in one transaction
+    public static final int DB_WRITE_GROUP_MAX = 64;
+
+    // story cleanup deletes this many stories per transaction, pausing in between so that readers aren't held up
+    public static final int CLEANUP_CHUNK_SIZE = 200;
+    public static final long CLEANUP_CHUNK_PAUSE_MILLIS = 20L;
+
+    // how many pages of free space each step of an incremental vacuum gives back
+    public static final int CLEANUP_VACUUM_CHUNK_PAGES = 256;
+
+    // a DB not yet set up for incremental vacuum needs a full VACUUM to switch, which is only done once it has this much free space
+    public static final long CLEANUP_VACUUM_CONVERT_MIN_BYTES = 4L * 1024L * 1024L;
+
+    // how many unread stories to fetch via hash at a time, until a better size has been learned
     public static final int UNREAD_FETCH_BATCH_SIZE = 50;
 
+    // the bounds and growth step for the learned unread fetch batch size
+    public static final int UNREAD_FETCH_BATCH_MIN = 10;
+    public static final int UNREAD_FETCH_BATCH_MAX = 100;
+    public static final int UNREAD_FETCH_BATCH_STEP = 10;
+
+    // an unread fetch batch that takes longer than this is taken as a sign batches are too big
+    public static final long UNREAD_FETCH_TARGET_MILLIS = 6L * 1000L;
+
+    // how many stories streamed from the API to collect before writing them to the DB
+    public static final int STORY_INSERT_CHUNK_SIZE = 10;
+
+    // how many batches of unread stories to fetch from the API concurrently
+    public static final int UNREAD_FETCH_THREADS = 3;
+
+    // how many batches of unread stories may be fetching, parsing, or waiting to be written at once
+    public static final int UNREAD_FETCH_MAX_IN_FLIGHT = 6;
+
     // how many images to prefetch before updating the countdown UI
     public static final int IMAGE_PREFETCH_BATCH_SIZE = 10;
 
+    // the most images to prefetch concurrently
+    public static final int IMAGE_PREFETCH_THREADS = 8;
+
+    // how many images to prefetch concurrently, until a better number has been learned
+    public static final int IMAGE_PREFETCH_INITIAL_THREADS = 4;
+
+    // an image that takes longer than this to fetch is taken as a sign of too much concurrency
+    public static final long IMAGE_PREFETCH_TARGET_MILLIS = 10L * 1000L;
+
+    // how many images to prefetch concurrently from any one host
+    public static final int IMAGE_PREFETCH_MAX_PER_HOST = 2;
+
+    // how long to wait for more changes before telling the UI about a DB or status update
+    public static final long UI_UPDATE_DEBOUNCE_MILLIS = 100L;
+
+    // the shortest interval at which the UI will be asked to refresh
+    public static final long UI_UPDATE_MIN_INTERVAL_MILLIS = 1000L;
+
+    // the most stories to mark read in a single API call when flushing the action queue
+    public static final int ACTION_READ_BATCH_SIZE = 100;
+
+    // how many times the API may reject a queued action before we give up on it
+    public static final int MAX_ACTION_FAILURES = 10;
+
+    // how many times queued actions may be tried before a metadata sync stops waiting for them
+    public static final int METADATA_DEFER_MAX_ACTION_TRIES = 3;
+
 }
@@ -0,0 +1,131 @@
+package com.newsblur.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Tunes a batch size or concurrency limit at runtime, AIMD-style, in the manner of TCP
+ * congestion control.  While operations complete quickly and throughput holds up, the size
+ * grows additively.  On a failure, an operation slower than the target time, or a marked
+ * drop in throughput, the size is cut multiplicatively.
+ *
+ * Only one cut is made per round of operations: results from operations that started before
+ * the last cut describe the old size, so they can't justify cutting again.  An increase is
+ * made after every round, which is a single result for batch sizes, or as many results as
+ * the current size for concurrency limits.
+ *
+ * What has been learned is persisted per network type, so a phone that moves between Wi-Fi
+ * and cellular starts each sync from a size suited to whatever it is on now.
+ */
+public class BatchSizeController {
+
+    // how far below the running average a throughput sample must fall to count as congestion
+    private static final double THROUGHPUT_DROP_FACTOR = 0.5d;
+    // the weight given to each new sample in the running throughput average
+    private static final double THROUGHPUT_SMOOTHING = 0.25d;
+
+    private final Context context;
+    private final String prefKey;
+    private final int minSize;
+    private final int maxSize;
+    private final int increaseStep;
+    private final long targetMillis;
+    private final boolean windowed;
+
+    private int size;
+    private double throughput;
+    private long lastDecreaseTime = 0L;
+    private int successesThisRound = 0;
+    private boolean dirty = false;
+
+    /**
+     * How many stories to fetch per getStoriesByHash call.
+     */
+    public static BatchSizeController forUnreadFetch(Context context) {
+        return new BatchSizeController(context, "unread_fetch", AppConstants.UNREAD_FETCH_BATCH_MIN, AppConstants.UNREAD_FETCH_BATCH_MAX,
+                                       AppConstants.UNREAD_FETCH_BATCH_SIZE, AppConstants.UNREAD_FETCH_BATCH_STEP, AppConstants.UNREAD_FETCH_TARGET_MILLIS, false);
+    }
+
+    /**
+     * How many images to prefetch at once.
+     */
+    public static BatchSizeController forImagePrefetch(Context context) {
+        return new BatchSizeController(context, "image_prefetch", 1, AppConstants.IMAGE_PREFETCH_THREADS,
+                                       AppConstants.IMAGE_PREFETCH_INITIAL_THREADS, 1, AppConstants.IMAGE_PREFETCH_TARGET_MILLIS, true);
+    }
+
+    /**
+     * @param name a unique name for what is being sized, under which learned values are kept.
+     * @param windowed true if the size is a concurrency limit, so that a round is one result
+     *        per concurrent operation, rather than each result being a round by itself.
+     */
+    public BatchSizeController(Context context, String name, int minSize, int maxSize, int defaultSize, int increaseStep, long targetMillis, boolean windowed) {
+        this.context = context;
+        this.prefKey = PrefConstants.LEARNED_BATCH_SIZE_PREFIX + name + "_" + NetworkUtils.getNetworkType(context);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.increaseStep = increaseStep;
+        this.targetMillis = targetMillis;
+        this.windowed = windowed;
+
+        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
+        this.size = clamp(prefs.getInt(prefKey, defaultSize));
+        this.throughput = prefs.getFloat(prefKey + PrefConstants.LEARNED_THROUGHPUT_POSTFIX, 0.0f);
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Records the outcome of one operation made at some earlier size.
+     *
+     * @param startTime when the operation started, per System.currentTimeMillis().
+     * @param elapsedMillis how long it took, round trip.
+     * @param units how much work it got done, in whatever units the size counts.
+     * @param success false if it failed in a way that suggests congestion.
+     */
+    public synchronized void noteResult(long startTime, long elapsedMillis, int units, boolean success) {
+        double sample = units / (Math.max(elapsedMillis, 1L) / 1000.0d);
+        boolean congested = (!success) || (elapsedMillis > targetMillis);
+        if (success && (throughput > 0.0d) && (sample < (throughput * THROUGHPUT_DROP_FACTOR))) congested = true;
+
+        if (congested) {
+            if (startTime < lastDecreaseTime) return;
+            int newSize = clamp(size / 2);
+            Log.d(this.getClass().getName(), prefKey + ": congestion seen after " + elapsedMillis + "ms, size " + size + " -> " + newSize);
+            size = newSize;
+            lastDecreaseTime = System.currentTimeMillis();
+            successesThisRound = 0;
+            dirty = true;
+            return;
+        }
+
+        throughput = (throughput <= 0.0d) ? sample : ((THROUGHPUT_SMOOTHING * sample) + ((1.0d - THROUGHPUT_SMOOTHING) * throughput));
+        dirty = true;
+        successesThisRound++;
+        if (successesThisRound < (windowed ? size : 1)) return;
+        successesThisRound = 0;
+        size = clamp(size + increaseStep);
+    }
+
+    /**
+     * Saves what has been learned for the next run on this type of network.
+     */
+    public synchronized void save() {
+        if (!dirty) return;
+        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
+        prefs.edit()
+            .putInt(prefKey, size)
+            .putFloat(prefKey + PrefConstants.LEARNED_THROUGHPUT_POSTFIX, (float) throughput)
+            .commit();
+        dirty = false;
+        Log.d(this.getClass().getName(), prefKey + ": saved size " + size + String.format(" at %.1f/s", throughput));
+    }
+
+    private int clamp(int s) {
+        return Math.max(minSize, Math.min(maxSize, s));
+    }
+
+}
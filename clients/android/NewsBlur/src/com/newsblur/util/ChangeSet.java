@@ -0,0 +1,137 @@
+package com.newsblur.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A description of what was touched by a change to the local DB or to sync status, so that
+ * activities can skip re-running queries whose results cannot have changed.  Change sets are
+ * merged together when UI updates are coalesced.
+ *
+ * A change set with no data changes at all is a pure status change: progress indicators may
+ * need refreshing, but no query results will differ.
+ */
+public class ChangeSet {
+
+    /** The feed and folder tables (including unread counts) changed. */
+    private boolean feedsFolders;
+    /** Stories in an unknown set of feeds changed. */
+    private boolean allStories;
+    /** IDs of feeds in which stories were added or modified. */
+    private final Set<String> storyFeedIds = new HashSet<String>();
+    /** Feed sets that were specifically targeted by the change, such as by pagination. */
+    private final Set<FeedSet> feedSets = new HashSet<FeedSet>();
+
+    private ChangeSet() {
+    }
+
+    /**
+     * A change to sync status only.
+     */
+    public static ChangeSet status() {
+        return new ChangeSet();
+    }
+
+    /**
+     * A change that could have touched anything, for callers that don't know any better.
+     */
+    public static ChangeSet everything() {
+        ChangeSet changes = new ChangeSet();
+        changes.feedsFolders = true;
+        changes.allStories = true;
+        return changes;
+    }
+
+    /**
+     * A change to the feed and folder tables and the counts therein.
+     */
+    public static ChangeSet feedsFolders() {
+        ChangeSet changes = new ChangeSet();
+        changes.feedsFolders = true;
+        return changes;
+    }
+
+    /**
+     * A change to the stories in the given feeds.  Since story changes also move unread counts,
+     * this implies a change to the feed list.
+     */
+    public static ChangeSet stories(Collection<String> feedIds) {
+        ChangeSet changes = new ChangeSet();
+        changes.feedsFolders = true;
+        changes.storyFeedIds.addAll(feedIds);
+        return changes;
+    }
+
+    /**
+     * A change to the stories in a single feed.
+     */
+    public static ChangeSet stories(String feedId) {
+        return stories(Collections.singleton(feedId));
+    }
+
+    /**
+     * Notes that the given feed set was specifically targeted by this change, even if the affected
+     * feeds can't be determined from the data itself (as is the case with social feeds).
+     */
+    public ChangeSet addFeedSet(FeedSet fs) {
+        feedSets.add(fs);
+        return this;
+    }
+
+    /**
+     * Folds another change set into this one.
+     */
+    public void merge(ChangeSet other) {
+        feedsFolders |= other.feedsFolders;
+        allStories |= other.allStories;
+        storyFeedIds.addAll(other.storyFeedIds);
+        feedSets.addAll(other.feedSets);
+    }
+
+    public boolean isStatusOnly() {
+        return !(feedsFolders || allStories || (storyFeedIds.size() > 0) || (feedSets.size() > 0));
+    }
+
+    /**
+     * Could this change have affected the feed/folder list or its counts?
+     */
+    public boolean affectsFeedsFolders() {
+        return feedsFolders;
+    }
+
+    /**
+     * Could this change have affected the stories shown for the given feed set?
+     */
+    public boolean affectsStories(FeedSet fs) {
+        if (fs == null) return false;
+        if (feedSets.contains(fs)) return true;
+        if (allStories) return true;
+        if (storyFeedIds.size() < 1) return false;
+
+        if (fs.isAllNormal()) return true;
+        String singleFeed = fs.getSingleFeed();
+        if (singleFeed != null) return storyFeedIds.contains(singleFeed);
+        Set<String> multipleFeeds = fs.getMultipleFeeds();
+        if (multipleFeeds != null) return !Collections.disjoint(multipleFeeds, storyFeedIds);
+
+        // social and saved story lists can contain stories from any feed
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (isStatusOnly()) return "status";
+        StringBuilder builder = new StringBuilder();
+        if (feedsFolders) builder.append("feedsfolders ");
+        if (allStories) {
+            builder.append("allstories ");
+        } else if (storyFeedIds.size() > 0) {
+            builder.append("stories:").append(storyFeedIds.size()).append(" ");
+        }
+        if (feedSets.size() > 0) builder.append("feedsets:").append(feedSets.size());
+        return builder.toString().trim();
+    }
+
+}
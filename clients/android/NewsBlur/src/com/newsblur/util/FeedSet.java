@@ -1,12 +1,15 @@
 package com.newsblur.util;
 
+import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Pair;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -157,6 +160,60 @@ public class FeedSet implements Serializable {
         return this.folderName;
     }
 
+    /**
+     * Gets a compact string form of this feed set that is the same for any two equal feed sets,
+     * so that it can be used as a key when persisting per-feed-set state.
+     */
+    public String toCompactSerial() {
+        if (isAllNormal) return "all";
+        if (isAllSocial) return "allsocial";
+        if (isAllSaved) return "saved";
+
+        StringBuilder serial = new StringBuilder();
+        if (feeds != null) {
+            List<String> feedIds = new ArrayList<String>(feeds);
+            Collections.sort(feedIds);
+            serial.append("feeds:").append(TextUtils.join(",", feedIds));
+            if (folderName != null) serial.append(":").append(Uri.encode(folderName));
+        } else {
+            List<String> socialEntries = new ArrayList<String>(socialFeeds.size());
+            for (Entry<String,String> entry : socialFeeds.entrySet()) {
+                String username = (entry.getValue() == null) ? "" : entry.getValue();
+                socialEntries.add(Uri.encode(entry.getKey()) + "=" + Uri.encode(username));
+            }
+            Collections.sort(socialEntries);
+            serial.append("social:").append(TextUtils.join(",", socialEntries));
+        }
+        return serial.toString();
+    }
+
+    /**
+     * Re-creates a feed set from the output of toCompactSerial().
+     */
+    public static FeedSet fromCompactSerial(String serial) {
+        if (serial.equals("all")) return allFeeds();
+        if (serial.equals("allsocial")) return allSocialFeeds();
+        if (serial.equals("saved")) return new FeedSet(null, null, true);
+
+        String[] parts = serial.split(":", 3);
+        if ((parts.length >= 2) && parts[0].equals("feeds")) {
+            Set<String> feedIds = new HashSet<String>();
+            Collections.addAll(feedIds, TextUtils.split(parts[1], ","));
+            FeedSet fs = new FeedSet(feedIds, null, false);
+            if (parts.length > 2) fs.setFolderName(Uri.decode(parts[2]));
+            return fs;
+        }
+        if ((parts.length == 2) && parts[0].equals("social")) {
+            Map<String,String> socialFeedIds = new HashMap<String,String>();
+            for (String socialEntry : TextUtils.split(parts[1], ",")) {
+                String[] idAndName = socialEntry.split("=", 2);
+                socialFeedIds.put(Uri.decode(idAndName[0]), (idAndName.length > 1) ? Uri.decode(idAndName[1]) : null);
+            }
+            return new FeedSet(null, socialFeedIds, false);
+        }
+        throw new IllegalArgumentException("not a serialised feed set: " + serial);
+    }
+
     private int booleanCardinality(boolean... args) {
         int card = 0;
         for (boolean b : args) {
@@ -2,6 +2,7 @@ package com.newsblur.util;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -13,16 +14,18 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.text.Html;
-import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.newsblur.R;
 import com.newsblur.activity.NbActivity;
+import com.newsblur.database.BlurDatabaseHelper;
 import com.newsblur.database.DatabaseConstants;
+import com.newsblur.database.DatabaseWriter;
 import com.newsblur.database.FeedProvider;
 import com.newsblur.domain.Classifier;
 import com.newsblur.domain.Feed;
@@ -31,44 +34,65 @@ import com.newsblur.domain.Story;
 import com.newsblur.domain.ValueMultimap;
 import com.newsblur.network.APIManager;
 import com.newsblur.network.domain.NewsBlurResponse;
+import com.newsblur.service.NBSyncService;
 import com.newsblur.util.AppConstants;
 
 public class FeedUtils {
 
-	private static void setStorySaved(final Story story, final boolean saved, final Context context, final APIManager apiManager) {
-        new AsyncTask<Void, Void, NewsBlurResponse>() {
-            @Override
-            protected NewsBlurResponse doInBackground(Void... arg) {
-                if (saved) {
-                    return apiManager.markStoryAsStarred(story.feedId, story.storyHash);
-                } else {
-                    return apiManager.markStoryAsUnstarred(story.feedId, story.storyHash);
-                }
-            }
-            @Override
-            protected void onPostExecute(NewsBlurResponse result) {
-                if (!result.isError()) {
-                    Toast.makeText(context, (saved ? R.string.toast_story_saved : R.string.toast_story_unsaved), Toast.LENGTH_SHORT).show();
-                    story.starred = saved;
-                    Uri storyUri = FeedProvider.STORY_URI.buildUpon().appendPath(story.id).build();
-                    ContentValues values = new ContentValues();
-                    values.put(DatabaseConstants.STORY_STARRED, saved);
-                    context.getContentResolver().update(storyUri, values, null, null);
-                } else {
-                    Toast.makeText(context, result.getErrorMessage(context.getString(saved ? R.string.toast_story_save_error : R.string.toast_story_unsave_error)), Toast.LENGTH_LONG).show();
-                }
+    private static BlurDatabaseHelper dbHelper;
 
-                NbActivity.updateAllActivities();
-            }
-        }.execute();
+    /**
+     * Gets a DB helper for use outside of the sync service, such as for queueing actions.  It
+     * lives as long as the process, so it is never closed.
+     */
+    public static synchronized BlurDatabaseHelper getDbHelper(Context context) {
+        if (dbHelper == null) {
+            dbHelper = new BlurDatabaseHelper(context.getApplicationContext());
+        }
+        return dbHelper;
+    }
+
+    /**
+     * Queue actions to be sent to the API by the sync service and poke the service so they go
+     * out promptly.  Actions made in quick succession will be batched by the service.
+     */
+    private static void queueActions(List<ReadingAction> actions, Context context) {
+        getDbHelper(context).enqueueActions(actions);
+        context.startService(new Intent(context, NBSyncService.class));
+    }
+
+    private static void queueAction(ReadingAction ra, Context context) {
+        List<ReadingAction> actions = new ArrayList<ReadingAction>(1);
+        actions.add(ra);
+        queueActions(actions, context);
+    }
+
+	private static void setStorySaved(final Story story, final boolean saved, final Context context) {
+        // update the local DB and object first, so the change shows even while offline
+        story.starred = saved;
+        Uri storyUri = FeedProvider.STORY_URI.buildUpon().appendPath(story.id).build();
+        ContentValues values = new ContentValues();
+        values.put(DatabaseConstants.STORY_STARRED, saved);
+        ArrayList<ContentProviderOperation> updateOps = new ArrayList<ContentProviderOperation>();
+        updateOps.add(ContentProviderOperation.newUpdate(storyUri).withValues(values).build());
+        applyInBackground(updateOps, Collections.singleton(story.feedId), context);
+
+        // the sync service will tell the server
+        if (saved) {
+            queueAction(ReadingAction.saveStory(story.storyHash, story.feedId), context);
+        } else {
+            queueAction(ReadingAction.unsaveStory(story.storyHash, story.feedId), context);
+        }
+
+        Toast.makeText(context, (saved ? R.string.toast_story_saved : R.string.toast_story_unsaved), Toast.LENGTH_SHORT).show();
 	}
 
-	public static void saveStory(final Story story, final Context context, final APIManager apiManager) {
-        setStorySaved(story, true, context, apiManager);
+	public static void saveStory(final Story story, final Context context) {
+        setStorySaved(story, true, context);
     }
 
-	public static void unsaveStory(final Story story, final Context context, final APIManager apiManager) {
-        setStorySaved(story, false, context, apiManager);
+	public static void unsaveStory(final Story story, final Context context) {
+        setStorySaved(story, false, context);
     }
 
     public static void deleteFeed( final long feedId, final String folderName, final Context context, final APIManager apiManager) {
@@ -119,40 +143,18 @@ public class FeedUtils {
         // update the local object to show as read even before requeried
         story.read = true;
 
-        // first, update unread counts in the local DB
+        // first, update the local DB, which also updates unread counts
         ArrayList<ContentProviderOperation> updateOps = new ArrayList<ContentProviderOperation>();
         appendStoryReadOperations(story, updateOps, read);
-        try {
-            context.getContentResolver().applyBatch(FeedProvider.AUTHORITY, updateOps);
-        } catch (Exception e) {
-            Log.w(FeedUtils.class.getName(), "Could not update unread counts in local storage.", e);
+        applyInBackground(updateOps, Collections.singleton(story.feedId), context);
+
+        // next, let the sync service update the server
+        if (read) {
+            queueAction(ReadingAction.markStoryRead(story.storyHash, story.feedId), context);
+        } else {
+            queueAction(ReadingAction.markStoryUnread(story.storyHash, story.feedId), context);
+            Toast.makeText(context, R.string.toast_story_unread, Toast.LENGTH_SHORT).show();
         }
-
-        // next, update the server
-        new AsyncTask<Void, Void, NewsBlurResponse>() {
-            @Override
-            protected NewsBlurResponse doInBackground(Void... arg) {
-                APIManager apiManager = new APIManager(context);
-                if (read) {
-                    return apiManager.markStoryAsRead(story.storyHash);
-                } else {
-                    return apiManager.markStoryAsUnread(story.feedId, story.storyHash);
-                }
-            }
-            @Override
-            protected void onPostExecute(NewsBlurResponse result) {
-                if (result.isError()) {
-                    Log.e(FeedUtils.class.getName(), "Could not update unread counts via API: " + result.getErrorMessage());
-                    Toast.makeText(context, result.getErrorMessage(context.getString(read ? R.string.toast_story_read_error : R.string.toast_story_unread_error)), Toast.LENGTH_LONG).show();
-                } else {
-                    if (read) {
-                        ; // no toast on successful mark-read
-                    } else {
-                        Toast.makeText(context, R.string.toast_story_unread, Toast.LENGTH_SHORT).show();
-                    }
-                }
-            }
-        }.execute();
     }
 
     /**
@@ -160,38 +162,26 @@ public class FeedUtils {
      * the local DB and on the server.
      */
     public static void markStoriesAsRead( Collection<Story> stories, final Context context ) {
-        // the list of story hashes to mark read
-        final ArrayList<String> storyHashes = new ArrayList<String>();
+        // the actions to queue for the server
+        List<ReadingAction> actions = new ArrayList<ReadingAction>();
         // a list of local DB ops to perform
         ArrayList<ContentProviderOperation> updateOps = new ArrayList<ContentProviderOperation>();
+        Set<String> feedIds = new HashSet<String>();
 
         for (Story story : stories) {
             appendStoryReadOperations(story, updateOps, true);
-            storyHashes.add(story.storyHash);
+            actions.add(ReadingAction.markStoryRead(story.storyHash, story.feedId));
+            feedIds.add(story.feedId);
         }
 
-        // first, update unread counts in the local DB
-        try {
-            context.getContentResolver().applyBatch(FeedProvider.AUTHORITY, updateOps);
-        } catch (Exception e) {
-            Log.w(FeedUtils.class.getName(), "Could not update unread counts in local storage.", e);
+        // first, update the local DB, which also updates unread counts
+        if (updateOps.size() > 0) {
+            applyInBackground(updateOps, feedIds, context);
         }
 
-        // next, update the server
-        if (storyHashes.size() > 0) {
-            new AsyncTask<Void, Void, NewsBlurResponse>() {
-                @Override
-                protected NewsBlurResponse doInBackground(Void... arg) {
-                    APIManager apiManager = new APIManager(context);
-                    return apiManager.markStoriesAsRead(storyHashes);
-                }
-                @Override
-                protected void onPostExecute(NewsBlurResponse result) {
-                    if (result.isError()) {
-                        Log.e(FeedUtils.class.getName(), "Could not update unread counts via API: " + result.getErrorMessage());
-                    }
-                }
-            }.execute();
+        // next, let the sync service update the server
+        if (actions.size() > 0) {
+            queueActions(actions, context);
         }
 
         // update the local object to show as read even before requeried
@@ -200,44 +190,34 @@ public class FeedUtils {
         }
     }
 
-	private static void appendStoryReadOperations(Story story, List<ContentProviderOperation> operations, boolean read) {
-		String[] selectionArgs; 
-		ContentValues emptyValues = new ContentValues();
-		emptyValues.put(DatabaseConstants.FEED_ID, story.feedId);
-
-        // our magic ContentProvider uses a select arg to get the increment/decrement operator for these URIs
-        String incDec = read ? "- 1" : "+ 1";
-
-		if (story.getIntelligenceTotal() > 0) {
-			selectionArgs = new String[] { DatabaseConstants.FEED_POSITIVE_COUNT, story.feedId, incDec } ; 
-		} else if (story.getIntelligenceTotal() == 0) {
-			selectionArgs = new String[] { DatabaseConstants.FEED_NEUTRAL_COUNT, story.feedId, incDec } ;
-		} else {
-			selectionArgs = new String[] { DatabaseConstants.FEED_NEGATIVE_COUNT, story.feedId, incDec } ;
-		}
-		operations.add(ContentProviderOperation.newUpdate(FeedProvider.FEED_COUNT_URI).withValues(emptyValues).withSelection("", selectionArgs).build());
-
-        HashSet<String> socialIds = new HashSet<String>();
-        if (!TextUtils.isEmpty(story.socialUserId)) {
-            socialIds.add(story.socialUserId);
-        }
-        if (story.friendUserIds != null) {
-            for (String id : story.friendUserIds) {
-                socialIds.add(id);
+    /**
+     * Applies local DB operations on the DB writer's thread rather than waiting for them, so that
+     * the UI isn't held up, and refreshes activities once they are committed.  They are committed
+     * ahead of any actions queued after them.
+     */
+    private static void applyInBackground(final ArrayList<ContentProviderOperation> operations, Collection<String> feedIds, final Context context) {
+        final ChangeSet changes = ChangeSet.stories(feedIds);
+        DatabaseWriter.getInstance(context).submit(new DatabaseWriter.Write<Void>() {
+            public Void write(SQLiteDatabase db) {
+                try {
+                    // runs in place, since this is already on the writer thread
+                    context.getContentResolver().applyBatch(FeedProvider.AUTHORITY, operations);
+                } catch (Exception e) {
+                    Log.w(FeedUtils.class.getName(), "Could not update local storage.", e);
+                    // let the writer roll back anything applied so far
+                    throw new IllegalStateException(e);
+                }
+                return null;
             }
-        }
-        for (String id : socialIds) {
-            String[] socialSelectionArgs; 
-            if (story.getIntelligenceTotal() > 0) {
-                socialSelectionArgs = new String[] { DatabaseConstants.SOCIAL_FEED_POSITIVE_COUNT, id, incDec } ; 
-            } else if (story.getIntelligenceTotal() == 0) {
-                socialSelectionArgs = new String[] { DatabaseConstants.SOCIAL_FEED_NEUTRAL_COUNT, id, incDec } ;
-            } else {
-                socialSelectionArgs = new String[] { DatabaseConstants.SOCIAL_FEED_NEGATIVE_COUNT, id, incDec } ;
+        }, new Runnable() {
+            public void run() {
+                NbActivity.updateAllActivities(changes);
             }
-            operations.add(ContentProviderOperation.newUpdate(FeedProvider.SOCIALCOUNT_URI).withValues(emptyValues).withSelection("", socialSelectionArgs).build());
-        }
+        });
+    }
 
+	private static void appendStoryReadOperations(Story story, List<ContentProviderOperation> operations, boolean read) {
+        // no need to touch the feed counts, the DB's triggers move the story between them
 		Uri storyUri = FeedProvider.STORY_URI.buildUpon().appendPath(story.id).build();
 		ContentValues values = new ContentValues();
 		values.put(DatabaseConstants.STORY_READ, read);
@@ -251,7 +231,7 @@ public class FeedUtils {
         new AsyncTask<Void, Void, NewsBlurResponse>() {
             @Override
             protected NewsBlurResponse doInBackground(Void... arg) {
-                APIManager apiManager = new APIManager(context);
+                APIManager apiManager = APIManager.getInstance(context);
                 return apiManager.trainClassifier(feedId, key, classifierType, classifierAction);
             }
             @Override
@@ -282,26 +262,25 @@ public class FeedUtils {
      */
     public static int getFeedUnreadCount(Feed feed, int currentState) {
         if (feed == null ) return 0;
-        int count = 0;
-        count += feed.positiveCount;
-        if ((currentState == AppConstants.STATE_ALL) || (currentState ==  AppConstants.STATE_SOME)) {
-            count += feed.neutralCount;
-        }
-        if (currentState ==  AppConstants.STATE_ALL ) {
-            count += feed.negativeCount;
-        }
-        return count;
+        return getUnreadCount(feed.positiveCount, feed.neutralCount, feed.negativeCount, currentState);
     }
 
     public static int getFeedUnreadCount(SocialFeed feed, int currentState) {
         if (feed == null ) return 0;
+        return getUnreadCount(feed.positiveCount, feed.neutralCount, feed.negativeCount, currentState);
+    }
+
+    /** 
+     * Gets the unread story count from the positive, neutral, and negative counts, filtered by view state.
+     */
+    public static int getUnreadCount(int positiveCount, int neutralCount, int negativeCount, int currentState) {
         int count = 0;
-        count += feed.positiveCount;
+        count += positiveCount;
         if ((currentState == AppConstants.STATE_ALL) || (currentState ==  AppConstants.STATE_SOME)) {
-            count += feed.neutralCount;
+            count += neutralCount;
         }
         if (currentState ==  AppConstants.STATE_ALL ) {
-            count += feed.negativeCount;
+            count += negativeCount;
         }
         return count;
     }
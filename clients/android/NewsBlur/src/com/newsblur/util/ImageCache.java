@@ -3,6 +3,8 @@ package com.newsblur.util;
 import android.content.Context;
 import android.util.Log;
 
+import com.newsblur.service.SyncMetrics;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
@@ -22,6 +24,10 @@ public class ImageCache {
     private static final String CACHE_SUBDIR = "olimages";
     private static final long MAX_FILE_AGE_MILLIS = 30L * 24L * 60L * 60L * 1000L;
     private static final long MIN_FREE_SPACE_BYTES = 100L * 1024L * 1024L;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+    private static final String TEMP_POSTFIX = ".tmp";
 
     private File cacheDir;
     private Pattern postfixPattern;
@@ -35,39 +41,82 @@ public class ImageCache {
         postfixPattern = Pattern.compile("(\\.[a-zA-Z0-9]+)[^\\.]*$");
     }
 
-    public void cacheImage(String url) {
+    /**
+     * Fetches the specified image into the cache.  Returns the number of bytes written, or
+     * zero if the image was already cached, or -1 if it could not be cached for any reason.
+     */
+    public long cacheImage(String url) {
+        HttpURLConnection conn = null;
+        File tempFile = null;
         try {
             // don't be evil and download images if the user is low on storage
-            if (cacheDir.getFreeSpace() < MIN_FREE_SPACE_BYTES) {
+            if (isLowOnStorage()) {
                 Log.w(this.getClass().getName(), "device low on storage, not caching images");
-                return;
+                return -1L;
             }
             
             String fileName = getFileName(url);
             if (fileName == null) {
                 Log.w(this.getClass().getName(), "failed to cache image: no file extension");
-                return;
+                return -1L;
             }
 
             File f = new File(cacheDir, fileName);
+            if (f.exists()) return 0L;
 
             URL u = new URL(url);
-            HttpURLConnection conn = (HttpURLConnection) u.openConnection();
+            conn = (HttpURLConnection) u.openConnection();
             conn.setInstanceFollowRedirects(true);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+            SyncMetrics.noteHttpRequest();
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) return -1L;
+
+            // write to a temp file and move it into place when complete so that a partial
+            // download is never mistaken for a cached image
+            tempFile = new File(cacheDir, fileName + TEMP_POSTFIX);
+            long total = 0L;
             InputStream inputStream = conn.getInputStream();
-			OutputStream outputStream = new FileOutputStream(f);
-			byte[] b = new byte[1024];  
-			int read;  
-			while ((read = inputStream.read(b)) != -1) {  
-				outputStream.write(b, 0, read);  
-			}
-			outputStream.close();
-            conn.disconnect();
+			OutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                byte[] b = new byte[COPY_BUFFER_SIZE];
+                int read;  
+                while ((read = inputStream.read(b)) != -1) {  
+                    outputStream.write(b, 0, read);  
+                    total += read;
+                }
+            } finally {
+                outputStream.close();
+                inputStream.close();
+            }
+            SyncMetrics.noteBytesReceived(total);
+            if (!tempFile.renameTo(f)) return -1L;
+            return total;
         } catch (Throwable t) {
             // a huge number of things could go wrong fetching and storing an image. don't spam logs with them
+            return -1L;
+        } finally {
+            if (conn != null) conn.disconnect();
+            if ((tempFile != null) && tempFile.exists()) tempFile.delete();
         }
     }
 
+    /**
+     * Checks if the device is too low on free space for us to cache any more images.
+     */
+    public boolean isLowOnStorage() {
+        return (cacheDir.getFreeSpace() < MIN_FREE_SPACE_BYTES);
+    }
+
+    /**
+     * Fast, local check to see if the specified image is already in the cache.
+     */
+    public boolean isCached(String url) {
+        String fileName = getFileName(url);
+        if (fileName == null) return false;
+        return (new File(cacheDir, fileName)).exists();
+    }
+
     /**
      * Gets the cached location of the specified network image, if it has 
      * been cached.  Fails fast and returns null if for any reason the image
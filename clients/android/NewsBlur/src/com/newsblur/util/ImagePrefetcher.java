@@ -0,0 +1,206 @@
+package com.newsblur.util;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A concurrent front-end to ImageCache for offline image prefetch.  Images are fetched on a
+ * small pool of threads, but no more than a few at a time from any one host, so that a story
+ * full of images from the same server doesn't hog every connection.
+ *
+ * The pool is sized for the most images the given BatchSizeController will ever allow, but
+ * only as many as it currently suggests are fetched at once.  It is told how long each
+ * image took, and tunes the concurrency to suit the network.
+ *
+ * All dispatching and progress callbacks happen on the thread that calls fetch(), so callers
+ * needn't worry about synchronising their own bookkeeping.
+ */
+public class ImagePrefetcher {
+
+    /**
+     * Progress and cancellation hooks for a call to fetch().
+     */
+    public interface Listener {
+        /** Checked before each image is dispatched. If true, no more fetches are started. */
+        boolean isHalted();
+        /** Called once an image has been handled, successfully or not. */
+        void imageDone(String url);
+    }
+
+    private final ImageCache imageCache;
+    private final ExecutorService executor;
+    private final BatchSizeController concurrency;
+    private final int maxPerHost;
+
+    /** URLs currently being fetched, so duplicates are never fetched concurrently. */
+    private final Set<String> inFlightUrls = new HashSet<String>();
+    /** How many fetches are running against each host. */
+    private final Map<String,Integer> hostCounts = new HashMap<String,Integer>();
+
+    private long startTime;
+    private int imagesFetched = 0;
+    private long bytesFetched = 0L;
+
+    public ImagePrefetcher(ImageCache imageCache, BatchSizeController concurrency, int maxPerHost) {
+        this.imageCache = imageCache;
+        this.concurrency = concurrency;
+        this.maxPerHost = maxPerHost;
+        this.executor = Executors.newFixedThreadPool(AppConstants.IMAGE_PREFETCH_THREADS);
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Fetches the given images, blocking until all of them are done, the listener signals
+     * a halt, or the device runs low on storage.
+     */
+    public void fetch(Collection<String> urls, Listener listener) {
+        LinkedList<String> waiting = new LinkedList<String>(urls);
+        CompletionService<FetchResult> completionService = new ExecutorCompletionService<FetchResult>(executor);
+        int running = 0;
+        boolean stopDispatching = false;
+
+        while (true) {
+            if (!stopDispatching) {
+                if (listener.isHalted()) {
+                    stopDispatching = true;
+                } else if (imageCache.isLowOnStorage()) {
+                    Log.w(this.getClass().getName(), "device low on storage, abandoning image prefetch");
+                    stopDispatching = true;
+                }
+            }
+
+            if (!stopDispatching) {
+                Iterator<String> i = waiting.iterator();
+                int limit = concurrency.getSize();
+                while (i.hasNext() && (running < limit)) {
+                    final String url = i.next();
+                    // duplicates of a running fetch, and images from a host already at its limit,
+                    // are left waiting until something completes
+                    if (inFlightUrls.contains(url)) continue;
+                    final String host = getHost(url);
+                    Integer hostCount = hostCounts.get(host);
+                    if ((hostCount != null) && (hostCount >= maxPerHost)) continue;
+                    i.remove();
+                    if (imageCache.isCached(url)) {
+                        listener.imageDone(url);
+                        continue;
+                    }
+                    hostCounts.put(host, (hostCount == null) ? 1 : hostCount + 1);
+                    inFlightUrls.add(url);
+                    completionService.submit(new Callable<FetchResult>() {
+                        public FetchResult call() {
+                            long startTime = System.currentTimeMillis();
+                            long bytes = imageCache.cacheImage(url);
+                            return new FetchResult(url, host, bytes, startTime, System.currentTimeMillis() - startTime);
+                        }
+                    });
+                    running++;
+                }
+            }
+
+            // with nothing running, no host is at its limit and nothing is a duplicate, so the
+            // only way to get here is to have run out of work or to have stopped dispatching
+            if (running < 1) break;
+
+            try {
+                FetchResult result = completionService.take().get();
+                running--;
+                finish(result);
+                listener.imageDone(result.url);
+            } catch (InterruptedException ie) {
+                Log.w(this.getClass().getName(), "image prefetch interrupted");
+                executor.shutdownNow();
+                return;
+            } catch (ExecutionException ee) {
+                // cacheImage never throws, so this should never happen. if it does, we have lost track
+                // of which host slot to free up, so the safest thing is to give up on this run.
+                Log.e(this.getClass().getName(), "unexpected image prefetch failure", ee);
+                executor.shutdownNow();
+                return;
+            }
+        }
+    }
+
+    private void finish(FetchResult result) {
+        inFlightUrls.remove(result.url);
+        Integer hostCount = hostCounts.get(result.host);
+        if ((hostCount == null) || (hostCount <= 1)) {
+            hostCounts.remove(result.host);
+        } else {
+            hostCounts.put(result.host, hostCount - 1);
+        }
+        if (result.bytes > 0L) {
+            imagesFetched++;
+            bytesFetched += result.bytes;
+            concurrency.noteResult(result.startTime, result.elapsedMillis, 1, true);
+        } else if ((result.bytes < 0L) && (result.elapsedMillis > AppConstants.IMAGE_PREFETCH_TARGET_MILLIS)) {
+            // plenty of images fail for reasons that have nothing to do with the network, but
+            // a slow failure is most likely a timeout
+            concurrency.noteResult(result.startTime, result.elapsedMillis, 1, false);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        concurrency.save();
+        Log.d(this.getClass().getName(), String.format("prefetched %d images, %d bytes (%.1f images/s, %.0f bytes/s)",
+                                                       imagesFetched, bytesFetched, getImagesPerSecond(), getBytesPerSecond()));
+    }
+
+    public int getImagesFetched() {
+        return imagesFetched;
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    public double getImagesPerSecond() {
+        return imagesFetched / getElapsedSeconds();
+    }
+
+    public double getBytesPerSecond() {
+        return bytesFetched / getElapsedSeconds();
+    }
+
+    private double getElapsedSeconds() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return Math.max(elapsed, 1L) / 1000.0d;
+    }
+
+    private static String getHost(String url) {
+        String host = Uri.parse(url).getHost();
+        return (host == null) ? "" : host;
+    }
+
+    private static class FetchResult {
+        final String url;
+        final String host;
+        final long bytes;
+        final long startTime;
+        final long elapsedMillis;
+
+        FetchResult(String url, String host, long bytes, long startTime, long elapsedMillis) {
+            this.url = url;
+            this.host = host;
+            this.bytes = bytes;
+            this.startTime = startTime;
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
+
+}
@@ -15,4 +15,19 @@ public class NetworkUtils {
 		return false;
 	}
 
+	/**
+	 * Names the type of network currently in use, such as "WIFI" or "MOBILE_LTE", or "NONE" if
+	 * offline.  Cellular networks are told apart by subtype, since they differ so much in speed.
+	 */
+	public static String getNetworkType(Context context) {
+		ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo netInfo = cm.getActiveNetworkInfo();
+		if (netInfo == null) return "NONE";
+		String type = netInfo.getTypeName();
+		if ((netInfo.getType() == ConnectivityManager.TYPE_MOBILE) && (netInfo.getSubtypeName() != null) && (netInfo.getSubtypeName().length() > 0)) {
+			type = type + "_" + netInfo.getSubtypeName();
+		}
+		return type.toUpperCase().replaceAll("[^A-Z0-9_]", "_");
+	}
+
 }
@@ -57,4 +57,12 @@ public class PrefConstants {
 
     public static final String THEME = "theme";
 
+    public static final String SYNC_METRICS = "sync_metrics";
+
+    public static final String SYNC_INTERVAL_METADATA = "sync_interval_metadata";
+    public static final String SYNC_NEXT_RUN_PREFIX = "sync_next_run_";
+
+    public static final String LEARNED_BATCH_SIZE_PREFIX = "learned_batch_size_";
+    public static final String LEARNED_THROUGHPUT_POSTFIX = "_throughput";
+
 }
@@ -25,7 +25,9 @@ import com.newsblur.R;
 import com.newsblur.activity.Login;
 import com.newsblur.database.BlurDatabase;
 import com.newsblur.domain.UserDetails;
+import com.newsblur.network.APIManager;
 import com.newsblur.service.NBSyncService;
+import com.newsblur.service.SyncScheduler;
 
 public class PrefsUtils {
 
@@ -35,11 +37,13 @@ public class PrefsUtils {
 		edit.putString(PrefConstants.PREF_COOKIE, cookie);
 		edit.putString(PrefConstants.PREF_UNIQUE_LOGIN, userName + "_" + System.currentTimeMillis());
 		edit.commit();
+        APIManager.invalidateCookie();
 	}
 
     /**
      * Check to see if this is the first launch of the app after an upgrade, in which case
-     * we clear the DB to prevent bugs associated with non-forward-compatibility.
+     * we make sure a full sync is done.  The DB is left alone, since BlurDatabase migrates its
+     * schema in place, and it holds queued actions that must not be lost.
      */
     public static void checkForUpgrade(Context context) {
 
@@ -56,17 +60,14 @@ public class PrefsUtils {
 
         String oldVersion = prefs.getString(AppConstants.LAST_APP_VERSION, null);
         if ( (oldVersion == null) || (!oldVersion.equals(version)) ) {
-            Log.i(PrefsUtils.class.getName(), "detected new version of app, clearing local data");
-            // wipe the local DB
-            BlurDatabase databaseHelper = new BlurDatabase(context.getApplicationContext());
-            databaseHelper.dropAndRecreateTables();
+            Log.i(PrefsUtils.class.getName(), "detected new version of app");
             // in case this is the first time we have run since moving the cache to the new location,
             // blow away the old version entirely. This line can be removed some time well after
             // v61+ is widely deployed
             FileCache.cleanUpOldCache(context);
             // store the current version
             prefs.edit().putString(AppConstants.LAST_APP_VERSION, version).commit();
-            // also make sure we auto-trigger an update, since all data are now gone
+            // also make sure we auto-trigger an update, since the new version may sync more than the old
             prefs.edit().putLong(AppConstants.LAST_SYNC_TIME, 0L).commit();
         }
 
@@ -80,10 +81,10 @@ public class PrefsUtils {
 
         // wipe the prefs store
         context.getSharedPreferences(PrefConstants.PREFERENCES, 0).edit().clear().commit();
+        APIManager.invalidateCookie();
         
         // wipe the local DB
-        BlurDatabase databaseHelper = new BlurDatabase(context.getApplicationContext());
-        databaseHelper.dropAndRecreateTables();
+        BlurDatabase.dropAndRecreateTables(context);
         
         // prompt for a new login
         Intent i = new Intent(context, Login.class);
@@ -175,12 +176,13 @@ public class PrefsUtils {
 
     /**
      * Check to see if it has been sufficiently long since the last sync of the feed/folder
-     * data to justify automatically syncing again.
+     * data to justify automatically syncing again, going by the same adaptive interval as
+     * the scheduled metadata job.
      */
     public static boolean isTimeToAutoSync(Context context) {
         SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
         long lastTime = prefs.getLong(AppConstants.LAST_SYNC_TIME, 1L);
-        return ( (lastTime + AppConstants.AUTO_SYNC_TIME_MILLIS) < (new Date()).getTime() );
+        return ( (lastTime + SyncScheduler.getInterval(context, SyncScheduler.Job.METADATA)) < (new Date()).getTime() );
     }
 
     /**
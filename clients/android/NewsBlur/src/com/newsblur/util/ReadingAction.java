@@ -0,0 +1,122 @@
+package com.newsblur.util;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.newsblur.database.DatabaseConstants;
+
+/**
+ * A change to a story made by the user that has been applied locally and is waiting in the
+ * action queue to be sent to the API by the sync service.
+ */
+public class ReadingAction {
+
+    public enum Type {
+        MARK_READ,
+        MARK_UNREAD,
+        SAVE,
+        UNSAVE;
+
+        /**
+         * Gets the action that undoes this one, such that a queued pair of them may be cancelled
+         * out without ever being sent.
+         */
+        public Type getOpposite() {
+            switch (this) {
+                case MARK_READ: return MARK_UNREAD;
+                case MARK_UNREAD: return MARK_READ;
+                case SAVE: return UNSAVE;
+                case UNSAVE: return SAVE;
+                default: throw new IllegalStateException();
+            }
+        }
+    }
+
+    private long id;
+    private long time;
+    private int tries;
+    private int failures;
+    private Type type;
+    private String storyHash;
+    private String feedId;
+
+    private ReadingAction() {
+    }
+
+    public static ReadingAction markStoryRead(String storyHash, String feedId) {
+        return newAction(Type.MARK_READ, storyHash, feedId);
+    }
+
+    public static ReadingAction markStoryUnread(String storyHash, String feedId) {
+        return newAction(Type.MARK_UNREAD, storyHash, feedId);
+    }
+
+    public static ReadingAction saveStory(String storyHash, String feedId) {
+        return newAction(Type.SAVE, storyHash, feedId);
+    }
+
+    public static ReadingAction unsaveStory(String storyHash, String feedId) {
+        return newAction(Type.UNSAVE, storyHash, feedId);
+    }
+
+    private static ReadingAction newAction(Type type, String storyHash, String feedId) {
+        ReadingAction ra = new ReadingAction();
+        ra.time = System.currentTimeMillis();
+        ra.type = type;
+        ra.storyHash = storyHash;
+        ra.feedId = feedId;
+        return ra;
+    }
+
+    public static ReadingAction fromCursor(Cursor c) {
+        ReadingAction ra = new ReadingAction();
+        ra.id = c.getLong(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_ID));
+        ra.time = c.getLong(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_TIME));
+        ra.tries = c.getInt(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_TRIES));
+        ra.failures = c.getInt(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_FAILURES));
+        ra.type = Type.valueOf(c.getString(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_TYPE)));
+        ra.storyHash = c.getString(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_STORY_HASH));
+        ra.feedId = c.getString(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_FEED_ID));
+        return ra;
+    }
+
+    public ContentValues getValues() {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseConstants.ACTION_TIME, time);
+        values.put(DatabaseConstants.ACTION_TRIES, tries);
+        values.put(DatabaseConstants.ACTION_TYPE, type.name());
+        values.put(DatabaseConstants.ACTION_STORY_HASH, storyHash);
+        values.put(DatabaseConstants.ACTION_FEED_ID, feedId);
+        return values;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getTries() {
+        return tries;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getStoryHash() {
+        return storyHash;
+    }
+
+    public String getFeedId() {
+        return feedId;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + storyHash + " (tries: " + tries + ", failures: " + failures + ")";
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.newsblur.test.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.test.AndroidTestCase;
+
+import com.newsblur.database.DatabaseWriter;
+
+/**
+ * Checks that writes queued on the DatabaseWriter are committed together, and that one failed
+ * write doesn't take down the others it happened to be grouped with.  Uses its own in-memory
+ * DB, so the app's real data is left alone.
+ */
+public class DatabaseWriterTest extends AndroidTestCase {
+
+	private static final String TABLE = "items";
+
+	private SQLiteOpenHelper dbHelper;
+	private DatabaseWriter writer;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dbHelper = new SQLiteOpenHelper(getContext(), null, null, 1) {
+			public void onCreate(SQLiteDatabase db) {
+				db.execSQL("CREATE TABLE " + TABLE + " (id INTEGER PRIMARY KEY, name TEXT NOT NULL)");
+			}
+			public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+				;
+			}
+		};
+		writer = new DatabaseWriter(dbHelper);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		writer.shutdown();
+		dbHelper.close();
+		super.tearDown();
+	}
+
+	public void testWritesCommitted() {
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		for (int i=0; i<200; i++) {
+			futures.add(writer.submit(insert(i, "item " + i)));
+		}
+		for (int i=0; i<futures.size(); i++) {
+			assertEquals(Long.valueOf(i), DatabaseWriter.await(futures.get(i)));
+		}
+		assertEquals(200, countRows());
+	}
+
+	public void testFailedWriteIsolated() throws Exception {
+		// hold up the writer so that the following writes pile up and get grouped
+		final CountDownLatch latch = new CountDownLatch(1);
+		writer.submit(new DatabaseWriter.Write<Void>() {
+			public Void write(SQLiteDatabase db) {
+				try {
+					latch.await();
+				} catch (InterruptedException ie) {
+					; // let the test go on
+				}
+				return null;
+			}
+		});
+		Future<Long> before = writer.submit(insert(1, "before"));
+		Future<Long> failing = writer.submit(insert(2, null));
+		Future<Long> after = writer.submit(insert(3, "after"));
+		latch.countDown();
+
+		assertEquals(Long.valueOf(1), DatabaseWriter.await(before));
+		assertEquals(Long.valueOf(3), DatabaseWriter.await(after));
+		try {
+			DatabaseWriter.await(failing);
+			fail("insert of a null name should have failed");
+		} catch (RuntimeException re) {
+			; // expected
+		}
+		assertEquals(2, countRows());
+	}
+
+	public void testAfterCommit() throws Exception {
+		final CountDownLatch committed = new CountDownLatch(1);
+		writer.submit(insert(1, "item"), new Runnable() {
+			public void run() {
+				committed.countDown();
+			}
+		});
+		assertTrue(committed.await(10, TimeUnit.SECONDS));
+		assertEquals(1, countRows());
+	}
+
+	public void testUntransacted() {
+		boolean inTransaction = writer.executeUntransacted(new DatabaseWriter.Write<Boolean>() {
+			public Boolean write(SQLiteDatabase db) {
+				return db.inTransaction();
+			}
+		});
+		assertFalse(inTransaction);
+	}
+
+	public void testNestedExecute() {
+		long id = writer.execute(new DatabaseWriter.Write<Long>() {
+			public Long write(SQLiteDatabase db) {
+				// would deadlock if not run in place
+				return writer.execute(insert(7, "nested"));
+			}
+		});
+		assertEquals(7L, id);
+		assertEquals(1, countRows());
+	}
+
+	private DatabaseWriter.Write<Long> insert(final int id, final String name) {
+		return new DatabaseWriter.Write<Long>() {
+			public Long write(SQLiteDatabase db) {
+				ContentValues values = new ContentValues();
+				values.put("id", id);
+				values.put("name", name);
+				return db.insertOrThrow(TABLE, null, values);
+			}
+		};
+	}
+
+	private long countRows() {
+		return writer.execute(new DatabaseWriter.Write<Long>() {
+			public Long write(SQLiteDatabase db) {
+				return DatabaseUtils.queryNumEntries(db, TABLE);
+			}
+		});
+	}
+
+}
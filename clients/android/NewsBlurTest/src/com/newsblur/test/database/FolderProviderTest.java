@@ -39,8 +39,8 @@ public class FolderProviderTest extends ProviderTestCase2<FeedProvider> {
 		super.setUp();
 		Log.d(TAG , "Setup");
 		
-		dbHelper = new BlurDatabase(getContext());
-		dbHelper.dropAndRecreateTables();
+		dbHelper = BlurDatabase.getInstance(getContext());
+		BlurDatabase.dropAndRecreateTables(getContext());
 		contentResolver = getContext().getContentResolver();
 	}
 	
@@ -0,0 +1,220 @@
+package com.newsblur.test.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+import com.newsblur.database.BlurDatabase;
+import com.newsblur.database.DatabaseConstants;
+import com.newsblur.util.AppConstants;
+import com.newsblur.util.StoryOrder;
+
+/**
+ * Checks that the hot queries against the story table and its neighbours are served by an
+ * index, via EXPLAIN QUERY PLAN, so that a schema or query change that quietly turns one of
+ * them back into a full table scan fails here.  Also checks that upgrading an old schema
+ * keeps its data and ends up with the same indices and triggers as a fresh one.
+ *
+ * The queries are the shared ones from DatabaseConstants that BlurDatabaseHelper, FeedProvider,
+ * and StoryCleaner run, so a plan checked here is the plan the app gets.  Each test works on
+ * its own in-memory DB, so the app's real data is left alone.
+ */
+public class QueryPlanTest extends AndroidTestCase {
+
+	// tables big enough that a full scan on a hot path is a bug
+	private static final Set<String> WATCHED_TABLES = new HashSet<String>(Arrays.asList(
+		DatabaseConstants.STORY_TABLE,
+		DatabaseConstants.COMMENT_TABLE,
+		DatabaseConstants.REPLY_TABLE,
+		DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE,
+		DatabaseConstants.ACTION_TABLE,
+		DatabaseConstants.UNREAD_COUNT_TABLE
+	));
+
+	// matches both "SCAN TABLE stories" from older SQLite and "SCAN stories" from newer
+	private static final Pattern SCAN = Pattern.compile("^SCAN (?:TABLE )?(\\w+)");
+
+	private BlurDatabase dbHelper;
+	private SQLiteDatabase db;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dbHelper = new BlurDatabase(getContext());
+		db = SQLiteDatabase.create(null);
+		dbHelper.onCreate(db);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		db.close();
+		super.tearDown();
+	}
+
+	public void testCleanupStories() {
+		assertIndexed(DatabaseConstants.READ_STORY_FEEDS_QUERY);
+		assertIndexed(DatabaseConstants.OLD_READ_STORIES_QUERY, "1", Integer.toString(AppConstants.MAX_READ_STORIES_STORED));
+		assertIndexed(DatabaseConstants.READ_STORY_DELETE_SQL, "1");
+	}
+
+	public void testFolderUnreadCounts() {
+		assertIndexed(DatabaseConstants.ALL_FOLDERS_QUERY +
+		              DatabaseConstants.getFolderSelectionFromState(AppConstants.STATE_SOME) +
+		              " ORDER BY " + DatabaseConstants.ALL_FOLDERS_ORDER);
+	}
+
+	public void testFeedStories() {
+		assertIndexed(SQLiteQueryBuilder.buildQueryString(false, DatabaseConstants.STORY_TABLE, DatabaseConstants.STORY_COLUMNS,
+		                                                  DatabaseConstants.getStorySelectionFromState(AppConstants.STATE_SOME) + " AND " + DatabaseConstants.FEED_STORIES_SELECTION,
+		                                                  null, null, DatabaseConstants.getStorySortOrder(StoryOrder.NEWEST), null), "1");
+	}
+
+	public void testMultiFeedStories() {
+		assertIndexed(DatabaseConstants.MULTIFEED_STORIES_QUERY_BASE +
+		              " WHERE " + DatabaseConstants.getStorySelectionFromState(AppConstants.STATE_SOME) +
+		              " AND " + DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_FEED_ID + " IN ( 1,2,3)" +
+		              " ORDER BY " + DatabaseConstants.getStorySortOrder(StoryOrder.NEWEST));
+	}
+
+	public void testSavedStories() {
+		assertIndexed(DatabaseConstants.SAVED_STORIES_QUERY);
+	}
+
+	public void testReconcileUnreadHashes() {
+		db.execSQL(DatabaseConstants.UNREAD_HASH_TEMP_TABLE_SQL);
+		assertIndexed(DatabaseConstants.MISSING_UNREAD_HASHES_QUERY);
+		assertIndexed("UPDATE " + DatabaseConstants.STORY_TABLE + " SET " + DatabaseConstants.STORY_READ + " = 1" +
+		              " WHERE " + DatabaseConstants.NO_LONGER_UNREAD_SELECTION);
+	}
+
+	public void testStoryComments() {
+		assertIndexed(SQLiteQueryBuilder.buildQueryString(false, DatabaseConstants.COMMENT_TABLE, DatabaseConstants.COMMENT_COLUMNS,
+		                                                  DatabaseConstants.STORY_COMMENTS_SELECTION, null, null, null, null), "1");
+		assertIndexed(SQLiteQueryBuilder.buildQueryString(false, DatabaseConstants.REPLY_TABLE, DatabaseConstants.REPLY_COLUMNS,
+		                                                  DatabaseConstants.COMMENT_REPLIES_SELECTION, null, null, null, null), "1");
+	}
+
+	public void testSocialFeedStories() {
+		assertIndexed(DatabaseConstants.SOCIAL_STORIES_QUERY_BASE +
+		              " WHERE " + DatabaseConstants.SOCIALFEED_STORIES_SELECTION, "1");
+	}
+
+	public void testActionDuplicates() {
+		assertIndexed("SELECT COUNT(*) FROM " + DatabaseConstants.ACTION_TABLE +
+		              " WHERE " + DatabaseConstants.UNCLAIMED_ACTION_SELECTION, "1:abc", "MARK_READ");
+	}
+
+	/**
+	 * Upgrades a DB shaped like v2 (no indices or triggers, none of the tables added after it)
+	 * and checks that nothing is lost and nothing is missing.
+	 */
+	public void testUpgradeFromV2() {
+		List<String> freshIndices = getIndexSql(db);
+
+		SQLiteDatabase old = SQLiteDatabase.create(null);
+		try {
+			dbHelper.onCreate(old);
+			for (String index : getIndexNames(old)) {
+				old.execSQL("DROP INDEX " + index);
+			}
+			for (String trigger : getTriggerNames(old)) {
+				old.execSQL("DROP TRIGGER " + trigger);
+			}
+			old.execSQL("DROP TABLE " + DatabaseConstants.ACTION_TABLE);
+			old.execSQL("DROP TABLE " + DatabaseConstants.SYNC_CHECKPOINT_TABLE);
+			old.execSQL("DROP TABLE " + DatabaseConstants.HTTP_VALIDATOR_TABLE);
+			old.execSQL("DROP TABLE " + DatabaseConstants.UNREAD_COUNT_TABLE);
+			old.execSQL("DROP TABLE " + DatabaseConstants.UNREAD_COUNT_PAUSE_TABLE);
+
+			ContentValues story = new ContentValues();
+			story.put(DatabaseConstants.STORY_ID, "story1");
+			story.put(DatabaseConstants.STORY_HASH, "1:abc");
+			story.put(DatabaseConstants.STORY_FEED_ID, 1);
+			old.insert(DatabaseConstants.STORY_TABLE, null, story);
+			ContentValues feed = new ContentValues();
+			feed.put(DatabaseConstants.FEED_ID, 1);
+			feed.put(DatabaseConstants.FEED_POSITIVE_COUNT, 2);
+			feed.put(DatabaseConstants.FEED_NEUTRAL_COUNT, 3);
+			feed.put(DatabaseConstants.FEED_NEGATIVE_COUNT, 4);
+			old.insert(DatabaseConstants.FEED_TABLE, null, feed);
+			ContentValues mapping = new ContentValues();
+			mapping.put(DatabaseConstants.FEED_FOLDER_FOLDER_NAME, "folder");
+			mapping.put(DatabaseConstants.FEED_FOLDER_FEED_ID, 1);
+			old.insert(DatabaseConstants.FEED_FOLDER_MAP_TABLE, null, mapping);
+
+			dbHelper.onUpgrade(old, 2, 7);
+
+			assertEquals(1L, DatabaseUtils.queryNumEntries(old, DatabaseConstants.STORY_TABLE));
+			assertEquals(0L, DatabaseUtils.queryNumEntries(old, DatabaseConstants.ACTION_TABLE, DatabaseConstants.ACTION_FAILURES + " = 0"));
+			assertEquals(0L, DatabaseUtils.queryNumEntries(old, DatabaseConstants.SYNC_CHECKPOINT_TABLE));
+			assertEquals(0L, DatabaseUtils.queryNumEntries(old, DatabaseConstants.HTTP_VALIDATOR_TABLE));
+			assertEquals(freshIndices, getIndexSql(old));
+			assertEquals(getTriggerSql(db), getTriggerSql(old));
+			// counts for data from before the upgrade are filled in
+			assertEquals(9L, DatabaseUtils.longForQuery(old, "SELECT " + DatabaseConstants.UNREAD_COUNT_POSITIVE + " + " + DatabaseConstants.UNREAD_COUNT_NEUTRAL + " + " + DatabaseConstants.UNREAD_COUNT_NEGATIVE +
+			                                                 " FROM " + DatabaseConstants.UNREAD_COUNT_TABLE + " WHERE " + DatabaseConstants.UNREAD_COUNT_KEY + " = ?", new String[]{"folder"}));
+		} finally {
+			old.close();
+		}
+	}
+
+	private void assertIndexed(String query, String... args) {
+		Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+		try {
+			int detailColumn = c.getColumnIndexOrThrow("detail");
+			while (c.moveToNext()) {
+				String detail = c.getString(detailColumn);
+				Matcher m = SCAN.matcher(detail);
+				// a scan of an index, such as for ordering, is fine. a scan of the table itself is not.
+				if (m.find() && WATCHED_TABLES.contains(m.group(1)) && !detail.contains("USING")) {
+					fail("full scan of " + m.group(1) + " (" + detail + ") in plan for: " + query);
+				}
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	private static List<String> getIndexNames(SQLiteDatabase db) {
+		return getSchemaColumn(db, "name", "index");
+	}
+
+	private static List<String> getIndexSql(SQLiteDatabase db) {
+		return getSchemaColumn(db, "sql", "index");
+	}
+
+	private static List<String> getTriggerNames(SQLiteDatabase db) {
+		return getSchemaColumn(db, "name", "trigger");
+	}
+
+	private static List<String> getTriggerSql(SQLiteDatabase db) {
+		return getSchemaColumn(db, "sql", "trigger");
+	}
+
+	private static List<String> getSchemaColumn(SQLiteDatabase db, String column, String type) {
+		List<String> values = new ArrayList<String>();
+		Cursor c = db.rawQuery("SELECT " + column + " FROM sqlite_master WHERE type = ? AND sql IS NOT NULL", new String[]{type});
+		try {
+			while (c.moveToNext()) {
+				values.add(c.getString(0));
+			}
+		} finally {
+			c.close();
+		}
+		Collections.sort(values);
+		return values;
+	}
+
+}
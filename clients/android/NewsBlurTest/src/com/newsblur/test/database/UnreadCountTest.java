@@ -0,0 +1,193 @@
+package com.newsblur.test.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.newsblur.database.BlurDatabase;
+import com.newsblur.database.DatabaseConstants;
+
+/**
+ * Checks that the triggers behind the materialized unread counts keep the per-feed, per-folder,
+ * and total counts in step as stories are read, unread, and re-scored, and as feeds move
+ * between folders.  Like QueryPlanTest, each test works on its own in-memory DB.
+ */
+public class UnreadCountTest extends AndroidTestCase {
+
+	private BlurDatabase dbHelper;
+	private SQLiteDatabase db;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dbHelper = new BlurDatabase(getContext());
+		db = SQLiteDatabase.create(null);
+		dbHelper.onCreate(db);
+		dbHelper.onOpen(db);
+
+		insertFeed(1, 2, 3, 0);
+		insertFeed(2, 1, 1, 1);
+		insertMapping("A", 1);
+		insertMapping("A", 2);
+		insertMapping("B", 2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		db.close();
+		super.tearDown();
+	}
+
+	public void testSeededFromFeeds() {
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_ALL_FEEDS, "", 3, 4, 1);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "A", 3, 4, 1);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "B", 1, 1, 1);
+	}
+
+	public void testReadAndUnread() {
+		insertStory("s1", 2, 0);
+		setRead("s1", true);
+		assertFeedCounts(2, 1, 0, 1);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "A", 3, 3, 1);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "B", 1, 0, 1);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_ALL_FEEDS, "", 3, 3, 1);
+
+		setRead("s1", false);
+		assertFeedCounts(2, 1, 1, 1);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_ALL_FEEDS, "", 3, 4, 1);
+	}
+
+	public void testRescored() {
+		insertStory("s1", 1, 0);
+		ContentValues values = new ContentValues();
+		values.put(DatabaseConstants.STORY_INTELLIGENCE_TITLE, 1);
+		db.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_ID + " = ?", new String[]{"s1"});
+		assertFeedCounts(1, 3, 2, 0);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "A", 4, 3, 1);
+	}
+
+	public void testSocialFeeds() {
+		ContentValues socialFeed = new ContentValues();
+		socialFeed.put(DatabaseConstants.SOCIAL_FEED_ID, 9);
+		socialFeed.put(DatabaseConstants.SOCIAL_FEED_POSITIVE_COUNT, 0);
+		socialFeed.put(DatabaseConstants.SOCIAL_FEED_NEUTRAL_COUNT, 5);
+		socialFeed.put(DatabaseConstants.SOCIAL_FEED_NEGATIVE_COUNT, 0);
+		db.insert(DatabaseConstants.SOCIALFEED_TABLE, null, socialFeed);
+		insertStory("s1", 1, 0);
+		ContentValues share = new ContentValues();
+		share.put(DatabaseConstants.SOCIALFEED_STORY_STORYID, "s1");
+		share.put(DatabaseConstants.SOCIALFEED_STORY_USER_ID, 9);
+		db.insert(DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE, null, share);
+
+		setRead("s1", true);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_ALL_SOCIAL, "", 0, 4, 0);
+	}
+
+	public void testReplacedFeedNotCountedTwice() {
+		ContentValues feed = new ContentValues();
+		feed.put(DatabaseConstants.FEED_ID, 2);
+		feed.put(DatabaseConstants.FEED_POSITIVE_COUNT, 10);
+		feed.put(DatabaseConstants.FEED_NEUTRAL_COUNT, 0);
+		feed.put(DatabaseConstants.FEED_NEGATIVE_COUNT, 0);
+		db.insertWithOnConflict(DatabaseConstants.FEED_TABLE, null, feed, SQLiteDatabase.CONFLICT_REPLACE);
+		insertMapping("B", 2);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "A", 12, 3, 0);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "B", 10, 0, 0);
+	}
+
+	public void testFeedMappedIntoFolder() {
+		// mappings are written with REPLACE, which must not reset the folder's existing counts
+		insertFeed(3, 4, 0, 0);
+		insertMapping("A", 3);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "A", 7, 4, 1);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "B", 1, 1, 1);
+		insertMapping("A", 3);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "A", 7, 4, 1);
+	}
+
+	public void testFolderEmptied() {
+		db.delete(DatabaseConstants.FEED_FOLDER_MAP_TABLE, DatabaseConstants.FEED_FOLDER_FOLDER_NAME + " = ?", new String[]{"B"});
+		assertNull(getCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "B"));
+		db.delete(DatabaseConstants.FEED_TABLE, DatabaseConstants.FEED_ID + " = ?", new String[]{"1"});
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_FOLDER, "A", 1, 1, 1);
+		assertCounts(DatabaseConstants.UNREAD_COUNT_TYPE_ALL_FEEDS, "", 1, 1, 1);
+	}
+
+	public void testPaused() {
+		insertStory("s1", 2, 0);
+		db.execSQL("INSERT INTO " + DatabaseConstants.UNREAD_COUNT_PAUSE_TABLE + " VALUES ('test')");
+		setRead("s1", true);
+		assertFeedCounts(2, 1, 1, 1);
+		db.execSQL("DELETE FROM " + DatabaseConstants.UNREAD_COUNT_PAUSE_TABLE);
+		setRead("s1", false);
+		assertFeedCounts(2, 1, 2, 1);
+	}
+
+	private void insertFeed(int id, int positive, int neutral, int negative) {
+		ContentValues feed = new ContentValues();
+		feed.put(DatabaseConstants.FEED_ID, id);
+		feed.put(DatabaseConstants.FEED_POSITIVE_COUNT, positive);
+		feed.put(DatabaseConstants.FEED_NEUTRAL_COUNT, neutral);
+		feed.put(DatabaseConstants.FEED_NEGATIVE_COUNT, negative);
+		db.insert(DatabaseConstants.FEED_TABLE, null, feed);
+	}
+
+	private void insertMapping(String folder, int feedId) {
+		ContentValues mapping = new ContentValues();
+		mapping.put(DatabaseConstants.FEED_FOLDER_FOLDER_NAME, folder);
+		mapping.put(DatabaseConstants.FEED_FOLDER_FEED_ID, feedId);
+		db.insertWithOnConflict(DatabaseConstants.FEED_FOLDER_MAP_TABLE, null, mapping, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+
+	private void insertStory(String id, int feedId, int score) {
+		ContentValues story = new ContentValues();
+		story.put(DatabaseConstants.STORY_ID, id);
+		story.put(DatabaseConstants.STORY_FEED_ID, feedId);
+		story.put(DatabaseConstants.STORY_READ, false);
+		story.put(DatabaseConstants.STORY_INTELLIGENCE_AUTHORS, 0);
+		story.put(DatabaseConstants.STORY_INTELLIGENCE_TAGS, 0);
+		story.put(DatabaseConstants.STORY_INTELLIGENCE_TITLE, 0);
+		story.put(DatabaseConstants.STORY_INTELLIGENCE_FEED, score);
+		db.insert(DatabaseConstants.STORY_TABLE, null, story);
+	}
+
+	private void setRead(String storyId, boolean read) {
+		ContentValues values = new ContentValues();
+		values.put(DatabaseConstants.STORY_READ, read);
+		db.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_ID + " = ?", new String[]{storyId});
+	}
+
+	private void assertFeedCounts(int feedId, int positive, int neutral, int negative) {
+		Cursor c = db.query(DatabaseConstants.FEED_TABLE, new String[]{DatabaseConstants.FEED_POSITIVE_COUNT, DatabaseConstants.FEED_NEUTRAL_COUNT, DatabaseConstants.FEED_NEGATIVE_COUNT},
+		                    DatabaseConstants.FEED_ID + " = ?", new String[]{Integer.toString(feedId)}, null, null, null);
+		try {
+			assertTrue(c.moveToFirst());
+			assertEquals("positive count of feed " + feedId, positive, c.getInt(0));
+			assertEquals("neutral count of feed " + feedId, neutral, c.getInt(1));
+			assertEquals("negative count of feed " + feedId, negative, c.getInt(2));
+		} finally {
+			c.close();
+		}
+	}
+
+	private void assertCounts(String type, String key, int positive, int neutral, int negative) {
+		int[] counts = getCounts(type, key);
+		assertNotNull("no counts for " + type + " " + key, counts);
+		assertEquals("positive count of " + type + " " + key, positive, counts[0]);
+		assertEquals("neutral count of " + type + " " + key, neutral, counts[1]);
+		assertEquals("negative count of " + type + " " + key, negative, counts[2]);
+	}
+
+	private int[] getCounts(String type, String key) {
+		Cursor c = db.query(DatabaseConstants.UNREAD_COUNT_TABLE, new String[]{DatabaseConstants.UNREAD_COUNT_POSITIVE, DatabaseConstants.UNREAD_COUNT_NEUTRAL, DatabaseConstants.UNREAD_COUNT_NEGATIVE},
+		                    DatabaseConstants.UNREAD_COUNT_TYPE + " = ? AND " + DatabaseConstants.UNREAD_COUNT_KEY + " = ?", new String[]{type, key}, null, null, null);
+		try {
+			if (!c.moveToFirst()) return null;
+			return new int[] {c.getInt(0), c.getInt(1), c.getInt(2)};
+		} finally {
+			c.close();
+		}
+	}
+
+}
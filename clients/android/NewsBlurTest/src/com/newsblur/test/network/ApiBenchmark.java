@@ -0,0 +1,218 @@
+package com.newsblur.test.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.newsblur.domain.Story;
+import com.newsblur.network.APIManager;
+import com.newsblur.network.APIResponse;
+import com.newsblur.network.domain.FeedFolderResponse;
+import com.newsblur.network.domain.StoriesResponse;
+import com.newsblur.network.domain.StoryTextResponse;
+import com.newsblur.network.domain.UnreadStoryHashesResponse;
+import com.newsblur.util.AppConstants;
+import com.newsblur.util.FeedSet;
+import com.newsblur.util.ReadFilter;
+import com.newsblur.util.StoryOrder;
+
+/**
+ * Drives the API client against a FakeNewsBlurServer under a series of network conditions,
+ * logging throughput and latency percentiles for each kind of call.  Each scenario gets a
+ * fresh server on a new port, so that circuit breaker state does not carry over.
+ *
+ * Only the network and parse layers are exercised; nothing is written to the DB.  The
+ * device must have some active network, since the client won't try to connect otherwise.
+ */
+public class ApiBenchmark extends AndroidTestCase {
+
+	private static final String TAG = "ApiBenchmark";
+
+	private static final int FEED_LIST_FETCHES = 5;
+	private static final int HASH_FETCHES = 5;
+	private static final int RIVER_PAGES = 5;
+	private static final int STORY_TEXT_FETCHES = 20;
+
+	private FakeNewsBlurServer server;
+	private APIManager apiManager;
+
+	@Override
+	protected void tearDown() throws Exception {
+		APIManager.setBaseUrlOverride(null);
+		if (server != null) server.stop();
+		super.tearDown();
+	}
+
+	public void testClean() throws Exception {
+		Report report = runScenario("clean", new FakeNewsBlurServer.Faults());
+		assertEquals(0, report.failures);
+	}
+
+	public void testLatency() throws Exception {
+		FakeNewsBlurServer.Faults faults = new FakeNewsBlurServer.Faults();
+		faults.latencyMillis = 150L;
+		faults.latencyJitterMillis = 100L;
+		Report report = runScenario("150ms+jitter latency", faults);
+		assertEquals(0, report.failures);
+	}
+
+	public void testBandwidthCap() throws Exception {
+		FakeNewsBlurServer.Faults faults = new FakeNewsBlurServer.Faults();
+		faults.latencyMillis = 50L;
+		faults.bytesPerSecond = 256L * 1024L;
+		Report report = runScenario("256KB/s", faults);
+		assertEquals(0, report.failures);
+	}
+
+	public void testServerErrors() throws Exception {
+		FakeNewsBlurServer.Faults faults = new FakeNewsBlurServer.Faults();
+		faults.serverErrorRate = 0.1d;
+		runScenario("10% 500s", faults);
+	}
+
+	public void testUnavailable() throws Exception {
+		FakeNewsBlurServer.Faults faults = new FakeNewsBlurServer.Faults();
+		faults.unavailableRate = 0.05d;
+		faults.retryAfterSeconds = 1;
+		runScenario("5% 503s", faults);
+	}
+
+	public void testResets() throws Exception {
+		FakeNewsBlurServer.Faults faults = new FakeNewsBlurServer.Faults();
+		faults.resetRate = 0.05d;
+		runScenario("5% resets", faults);
+	}
+
+	private Report runScenario(String name, FakeNewsBlurServer.Faults faults) throws Exception {
+		server = new FakeNewsBlurServer(new FakeNewsBlurServer.Fixtures(), faults);
+		server.start();
+		APIManager.setBaseUrlOverride(server.getBaseUrl());
+		apiManager = APIManager.getInstance(getContext());
+
+		Report report = new Report(name);
+		long start = System.currentTimeMillis();
+
+		LatencyRecorder feeds = report.recorder("feeds/folders");
+		for (int i=0; i<FEED_LIST_FETCHES; i++) {
+			long t = System.nanoTime();
+			FeedFolderResponse response = apiManager.getFolderFeedMapping(true);
+			report.note(feeds, t, (response != null));
+		}
+
+		LatencyRecorder hashes = report.recorder("unread hashes");
+		for (int i=0; i<HASH_FETCHES; i++) {
+			long t = System.nanoTime();
+			UnreadStoryHashesResponse response = apiManager.getUnreadStoryHashes();
+			report.note(hashes, t, !response.isError());
+		}
+
+		LatencyRecorder byHash = report.recorder("stories by hash");
+		List<String> unread = server.getUnreadHashes();
+		for (int i=0; i<unread.size(); i+=AppConstants.UNREAD_FETCH_BATCH_SIZE) {
+			List<String> batch = unread.subList(i, Math.min(i + AppConstants.UNREAD_FETCH_BATCH_SIZE, unread.size()));
+			long t = System.nanoTime();
+			StoriesResponse response = apiManager.getStoriesByHash(batch);
+			report.note(byHash, t, !response.isError() && (response.stories.length == batch.size()));
+		}
+
+		// the fixture has more feeds than fit in one shard, so this exercises the sharded river
+		LatencyRecorder river = report.recorder("river pages");
+		FeedSet fs = FeedSet.folder("everything", new HashSet<String>(server.getFeedIds()));
+		final AtomicInteger storyCount = new AtomicInteger();
+		APIResponse.StoryHandler counter = new APIResponse.StoryHandler() {
+			public void handleStory(Story story) {
+				storyCount.incrementAndGet();
+			}
+		};
+		for (int page=1; page<=RIVER_PAGES; page++) {
+			long t = System.nanoTime();
+			StoriesResponse response = apiManager.getStories(fs, page, StoryOrder.NEWEST, ReadFilter.ALL, counter);
+			report.note(river, t, (response != null) && !response.isError());
+		}
+
+		LatencyRecorder text = report.recorder("story text");
+		for (int i=0; i<STORY_TEXT_FETCHES; i++) {
+			String hash = unread.get(i % unread.size());
+			long t = System.nanoTime();
+			StoryTextResponse response = apiManager.getStoryText(hash.substring(0, hash.indexOf(':')), hash);
+			report.note(text, t, (response != null) && (response.originalText != null));
+		}
+
+		report.wallMillis = System.currentTimeMillis() - start;
+		Log.i(TAG, report.toString());
+		Log.i(TAG, "  river stories seen: " + storyCount.get());
+		Log.i(TAG, "  server: " + server.getStats());
+		return report;
+	}
+
+	private static class Report {
+		final String name;
+		final List<LatencyRecorder> recorders = new ArrayList<LatencyRecorder>();
+		int calls;
+		int failures;
+		long wallMillis;
+
+		Report(String name) {
+			this.name = name;
+		}
+
+		LatencyRecorder recorder(String call) {
+			LatencyRecorder recorder = new LatencyRecorder(call);
+			recorders.add(recorder);
+			return recorder;
+		}
+
+		void note(LatencyRecorder recorder, long startNanos, boolean success) {
+			recorder.add((System.nanoTime() - startNanos) / 1000000L);
+			calls++;
+			if (!success) failures++;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(name).append(": ").append(calls).append(" calls, ").append(failures).append(" failed, ");
+			builder.append(wallMillis).append("ms, ").append(String.format("%.1f", (calls * 1000.0d) / Math.max(1L, wallMillis))).append(" calls/s");
+			for (LatencyRecorder recorder : recorders) {
+				builder.append("\n  ").append(recorder.toString());
+			}
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * Collects the latencies of one kind of call and reports their percentiles.
+	 */
+	private static class LatencyRecorder {
+		final String call;
+		final List<Long> samples = new ArrayList<Long>();
+
+		LatencyRecorder(String call) {
+			this.call = call;
+		}
+
+		void add(long millis) {
+			samples.add(millis);
+		}
+
+		long percentile(List<Long> sorted, double p) {
+			if (sorted.size() < 1) return 0L;
+			int index = (int) Math.ceil(p * sorted.size()) - 1;
+			return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+		}
+
+		@Override
+		public String toString() {
+			List<Long> sorted = new ArrayList<Long>(samples);
+			Collections.sort(sorted);
+			return call + ": n=" + sorted.size() + " p50=" + percentile(sorted, 0.5d) + "ms p90=" + percentile(sorted, 0.9d) +
+				"ms p99=" + percentile(sorted, 0.99d) + "ms max=" + percentile(sorted, 1.0d) + "ms";
+		}
+	}
+
+}
@@ -0,0 +1,547 @@
+package com.newsblur.test.network;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A stand-in for the NewsBlur API, serving synthetic data over plain HTTP on the loopback
+ * interface, so that the network and sync code can be measured reproducibly.  Point the app
+ * at it with APIManager.setBaseUrlOverride(getBaseUrl()).
+ *
+ * The feed list, unread hashes, river and feed stories, and story text endpoints are served
+ * from fixtures generated from a Fixtures spec.  Anything else gets a bare success response.
+ * The feed list and unread hashes carry ETags and honour If-None-Match.
+ *
+ * A Faults spec adds latency, a bandwidth cap, 500s, 503s with Retry-After, and connection
+ * resets.  It may be changed while the server runs.
+ */
+public class FakeNewsBlurServer {
+
+	/**
+	 * The shape of the synthetic account being served.
+	 */
+	public static class Fixtures {
+		public int feedCount = 300;
+		public int folderCount = 12;
+		public int storiesPerFeed = 20;
+		public int unreadPerFeed = 4;
+		public int storyContentBytes = 4000;
+		public int storyTextBytes = 12000;
+		public int storiesPerPage = 6;
+	}
+
+	/**
+	 * The misbehaviour to inject.  Rates are the chance per request, from 0 to 1.
+	 */
+	public static class Faults {
+		public long latencyMillis = 0L;
+		public long latencyJitterMillis = 0L;
+		public long bytesPerSecond = 0L;
+		public double serverErrorRate = 0.0d;
+		public double unavailableRate = 0.0d;
+		public int retryAfterSeconds = 1;
+		public double resetRate = 0.0d;
+	}
+
+	private static final String FEEDS_ETAG = "\"feeds-1\"";
+	private static final String HASHES_ETAG = "\"hashes-1\"";
+	private static final long BASE_TIMESTAMP = 1400000000L;
+	private static final int WRITE_CHUNK = 1024;
+
+	private final Fixtures fixtures;
+	private volatile Faults faults;
+	private final Random random = new Random(42);
+	private final ExecutorService connectionExecutor = Executors.newCachedThreadPool();
+	private ServerSocket serverSocket;
+	private volatile boolean running;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong serverErrors = new AtomicLong();
+	private final AtomicLong unavailables = new AtomicLong();
+	private final AtomicLong resets = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	// stories for each feed, newest first
+	private final Map<String,List<FakeStory>> storiesByFeed = new HashMap<String,List<FakeStory>>();
+	private final Map<String,FakeStory> storiesByHash = new HashMap<String,FakeStory>();
+	private final String storyContent;
+	private final String storyText;
+
+	public FakeNewsBlurServer(Fixtures fixtures, Faults faults) {
+		this.fixtures = fixtures;
+		this.faults = faults;
+		this.storyContent = makeHtml(fixtures.storyContentBytes);
+		this.storyText = makeHtml(fixtures.storyTextBytes);
+		for (int f=1; f<=fixtures.feedCount; f++) {
+			String feedId = Integer.toString(f);
+			List<FakeStory> stories = new ArrayList<FakeStory>(fixtures.storiesPerFeed);
+			for (int i=0; i<fixtures.storiesPerFeed; i++) {
+				FakeStory story = new FakeStory();
+				story.feedId = feedId;
+				story.hash = feedId + ":" + Integer.toHexString(i);
+				// interleave the feeds, so that rivers have to be merged properly
+				story.timestamp = BASE_TIMESTAMP - (i * 3600L) - (f * 7L);
+				story.unread = (i < fixtures.unreadPerFeed);
+				stories.add(story);
+				storiesByHash.put(story.hash, story);
+			}
+			storiesByFeed.put(feedId, stories);
+		}
+	}
+
+	public void start() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		running = true;
+		Thread acceptThread = new Thread(new Runnable() {
+			public void run() {
+				while (running) {
+					try {
+						final Socket socket = serverSocket.accept();
+						connectionExecutor.execute(new Runnable() {
+							public void run() {
+								handleConnection(socket);
+							}
+						});
+					} catch (IOException ioe) {
+						; // the server socket was closed by stop()
+					}
+				}
+			}
+		}, "FakeNewsBlurServer");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException ioe) {
+			; // nothing more to do
+		}
+		connectionExecutor.shutdownNow();
+	}
+
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + serverSocket.getLocalPort();
+	}
+
+	public void setFaults(Faults faults) {
+		this.faults = faults;
+	}
+
+	public List<String> getUnreadHashes() {
+		List<String> hashes = new ArrayList<String>();
+		for (int f=1; f<=fixtures.feedCount; f++) {
+			for (FakeStory story : storiesByFeed.get(Integer.toString(f))) {
+				if (story.unread) hashes.add(story.hash);
+			}
+		}
+		return hashes;
+	}
+
+	public List<String> getFeedIds() {
+		List<String> feedIds = new ArrayList<String>();
+		for (int f=1; f<=fixtures.feedCount; f++) {
+			feedIds.add(Integer.toString(f));
+		}
+		return feedIds;
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public String getStats() {
+		return requests.get() + " requests, " + notModified.get() + " not modified, " + serverErrors.get() + " 500s, " +
+			unavailables.get() + " 503s, " + resets.get() + " resets, " + bytesSent.get() + " bytes sent";
+	}
+
+	private void handleConnection(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			while (running) {
+				Request request = readRequest(in);
+				if (request == null) break;
+				requests.incrementAndGet();
+				if (!respond(socket, out, request)) break;
+				if ("close".equalsIgnoreCase(request.headers.get("connection"))) break;
+			}
+		} catch (IOException ioe) {
+			; // the client went away
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ioe) {
+				; // already closed
+			}
+		}
+	}
+
+	/**
+	 * Answers one request, injecting any faults.
+	 *
+	 * @return false if the connection should not be used again.
+	 */
+	private boolean respond(Socket socket, OutputStream out, Request request) throws IOException {
+		Faults f = this.faults;
+		long delay = f.latencyMillis;
+		if (f.latencyJitterMillis > 0) delay += (long) (nextRandom() * f.latencyJitterMillis);
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException ie) {
+				return false;
+			}
+		}
+
+		double roll = nextRandom();
+		if (roll < f.resetRate) {
+			resets.incrementAndGet();
+			// a zero linger time makes close() send a RST rather than a FIN
+			socket.setSoLinger(true, 0);
+			socket.close();
+			return false;
+		}
+		roll -= f.resetRate;
+		if (roll < f.serverErrorRate) {
+			serverErrors.incrementAndGet();
+			writeResponse(out, request, 500, "Internal Server Error", null, "<h1>Server Error (500)</h1>", f);
+			return true;
+		}
+		roll -= f.serverErrorRate;
+		if (roll < f.unavailableRate) {
+			unavailables.incrementAndGet();
+			Map<String,String> headers = new HashMap<String,String>();
+			headers.put("Retry-After", Integer.toString(f.retryAfterSeconds));
+			writeResponse(out, request, 503, "Service Unavailable", headers, "<h1>Service Unavailable</h1>", f);
+			return true;
+		}
+
+		String path = request.path;
+		String etag = null;
+		String body;
+		if (path.startsWith("/reader/feeds")) {
+			etag = FEEDS_ETAG;
+			body = feedsJson();
+		} else if (path.startsWith("/reader/unread_story_hashes")) {
+			etag = HASHES_ETAG;
+			body = unreadHashesJson();
+		} else if (path.startsWith("/reader/river_stories")) {
+			List<String> hashes = request.params("h");
+			if (hashes.size() > 0) {
+				body = storiesByHashJson(hashes);
+			} else {
+				body = riverJson(request.params("f"), request.intParam("page", 1), request.param("order"));
+			}
+		} else if (path.startsWith("/reader/feed/")) {
+			String feedId = path.substring("/reader/feed/".length()).replace("/", "");
+			body = riverJson(Collections.singletonList(feedId), request.intParam("page", 1), request.param("order"));
+		} else if (path.startsWith("/rss_feeds/original_text")) {
+			body = "{\"authenticated\": true, \"original_text\": \"" + storyText + "\"}";
+		} else if (path.startsWith("/reader/starred_stories") || path.startsWith("/social/stories") || path.startsWith("/social/river_stories")) {
+			body = "{\"authenticated\": true, \"stories\": [], \"user_profiles\": []}";
+		} else {
+			body = "{\"authenticated\": true, \"result\": \"ok\"}";
+		}
+
+		if ((etag != null) && etag.equals(request.headers.get("if-none-match"))) {
+			notModified.incrementAndGet();
+			Map<String,String> headers = new HashMap<String,String>();
+			headers.put("ETag", etag);
+			writeResponse(out, request, 304, "Not Modified", headers, null, f);
+			return true;
+		}
+		Map<String,String> headers = new HashMap<String,String>();
+		if (etag != null) headers.put("ETag", etag);
+		writeResponse(out, request, 200, "OK", headers, body, f);
+		return true;
+	}
+
+	private synchronized double nextRandom() {
+		return random.nextDouble();
+	}
+
+	private void writeResponse(OutputStream out, Request request, int code, String reason, Map<String,String> headers, String body, Faults f) throws IOException {
+		byte[] bytes = (body == null) ? new byte[0] : body.getBytes("UTF-8");
+		boolean gzip = (bytes.length > 0) && (request.headers.get("accept-encoding") != null) && request.headers.get("accept-encoding").contains("gzip");
+		if (gzip) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+			GZIPOutputStream gz = new GZIPOutputStream(compressed);
+			gz.write(bytes);
+			gz.close();
+			bytes = compressed.toByteArray();
+		}
+
+		StringBuilder head = new StringBuilder();
+		head.append("HTTP/1.1 ").append(code).append(" ").append(reason).append("\r\n");
+		head.append("Content-Type: ").append((code == 200) ? "application/json" : "text/html").append("; charset=utf-8\r\n");
+		head.append("Content-Length: ").append(bytes.length).append("\r\n");
+		if (gzip) head.append("Content-Encoding: gzip\r\n");
+		if (headers != null) {
+			for (Map.Entry<String,String> header : headers.entrySet()) {
+				head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+			}
+		}
+		head.append("\r\n");
+		out.write(head.toString().getBytes("US-ASCII"));
+
+		// trickle the body out in chunks if the bandwidth is capped
+		for (int offset=0; offset<bytes.length; offset+=WRITE_CHUNK) {
+			int length = Math.min(WRITE_CHUNK, bytes.length - offset);
+			out.write(bytes, offset, length);
+			if (f.bytesPerSecond > 0) {
+				try {
+					Thread.sleep((length * 1000L) / f.bytesPerSecond);
+				} catch (InterruptedException ie) {
+					throw new SocketException("interrupted");
+				}
+			}
+		}
+		out.flush();
+		bytesSent.addAndGet(head.length() + bytes.length);
+	}
+
+	private String feedsJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"authenticated\": true, \"user_profile\": {\"is_premium\": true}, \"starred_count\": 0, \"folders\": [");
+		// feeds are dealt out to the root and each folder in turn
+		List<List<String>> folders = new ArrayList<List<String>>();
+		for (int i=0; i<=fixtures.folderCount; i++) {
+			folders.add(new ArrayList<String>());
+		}
+		for (int f=1; f<=fixtures.feedCount; f++) {
+			folders.get(f % folders.size()).add(Integer.toString(f));
+		}
+		boolean first = true;
+		for (String feedId : folders.get(0)) {
+			if (!first) json.append(", ");
+			json.append(feedId);
+			first = false;
+		}
+		for (int i=1; i<folders.size(); i++) {
+			if (!first) json.append(", ");
+			json.append("{\"Folder ").append(i).append("\": [");
+			appendList(json, folders.get(i), false);
+			json.append("]}");
+			first = false;
+		}
+		json.append("], \"feeds\": {");
+		for (int f=1; f<=fixtures.feedCount; f++) {
+			if (f > 1) json.append(", ");
+			json.append("\"").append(f).append("\": {\"id\": ").append(f);
+			json.append(", \"feed_title\": \"Feed ").append(f).append("\"");
+			json.append(", \"feed_address\": \"http://example.com/").append(f).append("/rss\"");
+			json.append(", \"feed_link\": \"http://example.com/").append(f).append("\"");
+			json.append(", \"active\": true, \"num_subscribers\": 10, \"updated_seconds_ago\": 60");
+			json.append(", \"favicon_color\": \"336699\", \"favicon_fade\": \"6699cc\", \"favicon_border\": \"224466\", \"favicon_text_color\": \"white\"");
+			json.append(", \"favicon_url\": \"http://example.com/").append(f).append("/favicon.ico\"");
+			json.append(", \"ps\": 0, \"nt\": ").append(fixtures.unreadPerFeed).append(", \"ng\": 0}");
+		}
+		json.append("}, \"social_feeds\": []}");
+		return json.toString();
+	}
+
+	private String unreadHashesJson() {
+		StringBuilder json = new StringBuilder("{\"authenticated\": true, \"unread_feed_story_hashes\": {");
+		for (int f=1; f<=fixtures.feedCount; f++) {
+			if (f > 1) json.append(", ");
+			json.append("\"").append(f).append("\": [");
+			List<String> hashes = new ArrayList<String>();
+			for (FakeStory story : storiesByFeed.get(Integer.toString(f))) {
+				if (story.unread) hashes.add(story.hash);
+			}
+			appendList(json, hashes, true);
+			json.append("]");
+		}
+		json.append("}}");
+		return json.toString();
+	}
+
+	private String storiesByHashJson(List<String> hashes) {
+		List<FakeStory> stories = new ArrayList<FakeStory>(hashes.size());
+		for (String hash : hashes) {
+			FakeStory story = storiesByHash.get(hash);
+			if (story != null) stories.add(story);
+		}
+		return storiesJson(stories);
+	}
+
+	private String riverJson(List<String> feedIds, int page, String order) {
+		List<FakeStory> stories = new ArrayList<FakeStory>();
+		for (String feedId : feedIds) {
+			List<FakeStory> feedStories = storiesByFeed.get(feedId);
+			if (feedStories != null) stories.addAll(feedStories);
+		}
+		final boolean oldest = "oldest".equals(order);
+		Collections.sort(stories, new Comparator<FakeStory>() {
+			public int compare(FakeStory a, FakeStory b) {
+				int c = (a.timestamp < b.timestamp) ? -1 : ((a.timestamp == b.timestamp) ? 0 : 1);
+				return oldest ? c : -c;
+			}
+		});
+		int start = Math.min((page - 1) * fixtures.storiesPerPage, stories.size());
+		int end = Math.min(start + fixtures.storiesPerPage, stories.size());
+		return storiesJson(stories.subList(start, end));
+	}
+
+	private String storiesJson(List<FakeStory> stories) {
+		StringBuilder json = new StringBuilder("{\"authenticated\": true, \"stories\": [");
+		boolean first = true;
+		for (FakeStory story : stories) {
+			if (!first) json.append(", ");
+			first = false;
+			json.append("{\"id\": \"http://example.com/").append(story.feedId).append("/").append(story.hash).append("\"");
+			json.append(", \"story_hash\": \"").append(story.hash).append("\"");
+			json.append(", \"story_feed_id\": ").append(story.feedId);
+			json.append(", \"story_title\": \"Story ").append(story.hash).append("\"");
+			json.append(", \"story_permalink\": \"http://example.com/").append(story.feedId).append("/").append(story.hash).append("\"");
+			json.append(", \"story_authors\": \"Someone\"");
+			json.append(", \"story_content\": \"").append(storyContent).append("\"");
+			json.append(", \"story_timestamp\": \"").append(story.timestamp).append("\"");
+			json.append(", \"short_parsed_date\": \"13 May 2014\", \"long_parsed_date\": \"Tuesday, May 13th\"");
+			json.append(", \"read_status\": ").append(story.unread ? 0 : 1);
+			json.append(", \"story_tags\": [\"fixture\"], \"image_urls\": []");
+			json.append(", \"share_count\": 0, \"comment_count\": 0, \"share_user_ids\": [], \"shared_by_friends\": [], \"shared_by_public\": []");
+			json.append(", \"public_comments\": [], \"friend_comments\": []");
+			json.append(", \"intelligence\": {\"feed\": 0, \"author\": 0, \"tags\": 0, \"title\": 0}}");
+		}
+		json.append("], \"user_profiles\": [], \"classifiers\": {}}");
+		return json.toString();
+	}
+
+	private static void appendList(StringBuilder json, List<String> values, boolean quoted) {
+		for (int i=0; i<values.size(); i++) {
+			if (i > 0) json.append(", ");
+			if (quoted) json.append("\"");
+			json.append(values.get(i));
+			if (quoted) json.append("\"");
+		}
+	}
+
+	private static String makeHtml(int size) {
+		StringBuilder html = new StringBuilder(size + 100);
+		int i = 0;
+		while (html.length() < size) {
+			html.append("<p>Paragraph ").append(i++).append(" of some synthetic story text, with <a href='http://example.com/'>a link</a> &amp; <b>markup</b>.</p>");
+		}
+		return html.toString();
+	}
+
+	private static Request readRequest(InputStream in) throws IOException {
+		String requestLine = readLine(in);
+		if ((requestLine == null) || (requestLine.length() < 1)) return null;
+		String[] parts = requestLine.split(" ");
+		if (parts.length < 2) return null;
+		Request request = new Request();
+		request.method = parts[0];
+		String target = parts[1];
+		int q = target.indexOf('?');
+		request.path = (q < 0) ? target : target.substring(0, q);
+		if (q >= 0) parseParams(target.substring(q + 1), request.params);
+
+		String line;
+		while (((line = readLine(in)) != null) && (line.length() > 0)) {
+			int colon = line.indexOf(':');
+			if (colon > 0) request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+		}
+
+		String length = request.headers.get("content-length");
+		if (length != null) {
+			byte[] body = new byte[Integer.parseInt(length)];
+			int read = 0;
+			while (read < body.length) {
+				int n = in.read(body, read, body.length - read);
+				if (n < 0) return null;
+				read += n;
+			}
+			String contentType = request.headers.get("content-type");
+			if ((contentType != null) && contentType.startsWith("application/x-www-form-urlencoded")) {
+				parseParams(new String(body, "UTF-8"), request.params);
+			}
+		}
+		return request;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') break;
+			if (c != '\r') line.append((char) c);
+		}
+		if ((c == -1) && (line.length() == 0)) return null;
+		return line.toString();
+	}
+
+	private static void parseParams(String encoded, Map<String,List<String>> params) throws UnsupportedEncodingException {
+		for (String pair : encoded.split("&")) {
+			if (pair.length() < 1) continue;
+			int eq = pair.indexOf('=');
+			String name = URLDecoder.decode((eq < 0) ? pair : pair.substring(0, eq), "UTF-8");
+			String value = (eq < 0) ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+			List<String> values = params.get(name);
+			if (values == null) {
+				values = new ArrayList<String>();
+				params.put(name, values);
+			}
+			values.add(value);
+		}
+	}
+
+	private static class Request {
+		String method;
+		String path;
+		final Map<String,String> headers = new HashMap<String,String>();
+		final Map<String,List<String>> params = new HashMap<String,List<String>>();
+
+		List<String> params(String name) {
+			List<String> values = params.get(name);
+			return (values == null) ? new ArrayList<String>() : values;
+		}
+
+		String param(String name) {
+			List<String> values = params.get(name);
+			return ((values == null) || (values.size() < 1)) ? null : values.get(0);
+		}
+
+		int intParam(String name, int defaultValue) {
+			try {
+				return Integer.parseInt(param(name));
+			} catch (NumberFormatException nfe) {
+				return defaultValue;
+			}
+		}
+	}
+
+	private static class FakeStory {
+		String feedId;
+		String hash;
+		long timestamp;
+		boolean unread;
+	}
+
+}
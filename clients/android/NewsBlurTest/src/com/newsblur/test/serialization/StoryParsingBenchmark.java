@@ -0,0 +1,235 @@
+package com.newsblur.test.serialization;
+
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import android.text.Html;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import com.newsblur.domain.Comment;
+import com.newsblur.domain.Story;
+import com.newsblur.domain.UserProfile;
+import com.newsblur.serialization.BooleanTypeAdapter;
+import com.newsblur.serialization.CommentTypeAdapter;
+import com.newsblur.serialization.DateStringTypeAdapter;
+import com.newsblur.serialization.FixedDateParser;
+import com.newsblur.serialization.StoryTypeAdapter;
+import com.newsblur.serialization.UserProfileTypeAdapter;
+
+/**
+ * Compares the speed of binding a page of stories with the streaming adapters against the
+ * reflective, tree-based binding they replaced, which is reproduced here.  Results are logged
+ * as stories per second, and both bindings are checked to agree.
+ */
+public class StoryParsingBenchmark extends TestCase {
+
+	private static final String TAG = "StoryParsingBenchmark";
+
+	private static final int STORIES_PER_PAGE = 50;
+	private static final int WARMUP_PAGES = 5;
+	private static final int TIMED_PAGES = 40;
+	private static final int DATES = 50000;
+
+	private String page;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		page = makePage(STORIES_PER_PAGE);
+	}
+
+	public void testStreamingAgreesWithReflective() throws Exception {
+		Story[] legacy = parsePage(legacyGson(), page);
+		Story[] streamed = parsePage(streamingGson(), page);
+		assertEquals(legacy.length, streamed.length);
+		for (int i=0; i<legacy.length; i++) {
+			assertEquals(legacy[i].id, streamed[i].id);
+			assertEquals(legacy[i].storyHash, streamed[i].storyHash);
+			assertEquals(legacy[i].feedId, streamed[i].feedId);
+			assertEquals(legacy[i].title, streamed[i].title);
+			assertEquals(legacy[i].content, streamed[i].content);
+			assertEquals(legacy[i].timestamp, streamed[i].timestamp);
+			assertEquals(legacy[i].read, streamed[i].read);
+			assertEquals(legacy[i].sharedDate, streamed[i].sharedDate);
+			assertEquals(legacy[i].intelligence.intelligenceFeed, streamed[i].intelligence.intelligenceFeed);
+			assertEquals(legacy[i].tags.length, streamed[i].tags.length);
+			assertEquals(legacy[i].friendsComments.length, streamed[i].friendsComments.length);
+			// the old preview kept runs of whitespace, so compare them with those collapsed
+			String legacyPreview = legacy[i].shortContent.replaceAll("\\s+", " ");
+			assertTrue(streamed[i].shortContent.startsWith(legacyPreview) || legacyPreview.startsWith(streamed[i].shortContent));
+			assertTrue(streamed[i].shortContent.length() <= StoryTypeAdapter.SHORT_CONTENT_LENGTH);
+		}
+	}
+
+	public void testStoriesPerSecond() throws Exception {
+		Gson legacy = legacyGson();
+		Gson streaming = streamingGson();
+		double before = storiesPerSecond(legacy);
+		double after = storiesPerSecond(streaming);
+		Log.i(TAG, String.format("reflective: %.0f stories/s, streaming: %.0f stories/s (%.1fx)", before, after, (after / before)));
+	}
+
+	public void testDatesPerSecond() throws Exception {
+		String[] dates = new String[1000];
+		for (int i=0; i<dates.length; i++) {
+			dates[i] = String.format("2014-%02d-%02d %02d:%02d:%02d", (i % 12) + 1, (i % 28) + 1, i % 24, i % 60, (i * 7) % 60);
+		}
+		DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+		long start = System.nanoTime();
+		for (int i=0; i<DATES; i++) {
+			df.parse(dates[i % dates.length]);
+		}
+		double before = DATES / ((System.nanoTime() - start) / 1e9d);
+
+		start = System.nanoTime();
+		for (int i=0; i<DATES; i++) {
+			FixedDateParser.parseMillis(dates[i % dates.length]);
+		}
+		double after = DATES / ((System.nanoTime() - start) / 1e9d);
+
+		for (String date : dates) {
+			assertEquals(df.parse(date).getTime(), FixedDateParser.parseMillis(date));
+		}
+		Log.i(TAG, String.format("SimpleDateFormat: %.0f dates/s, FixedDateParser: %.0f dates/s (%.1fx)", before, after, (after / before)));
+	}
+
+	private double storiesPerSecond(Gson gson) throws Exception {
+		for (int i=0; i<WARMUP_PAGES; i++) {
+			parsePage(gson, page);
+		}
+		long start = System.nanoTime();
+		for (int i=0; i<TIMED_PAGES; i++) {
+			parsePage(gson, page);
+		}
+		long elapsed = System.nanoTime() - start;
+		return (TIMED_PAGES * STORIES_PER_PAGE) / (elapsed / 1e9d);
+	}
+
+	private static Story[] parsePage(Gson gson, String json) throws Exception {
+		JsonReader reader = new JsonReader(new StringReader(json));
+		return gson.fromJson(reader, Story[].class);
+	}
+
+	private static Gson streamingGson() {
+		return new GsonBuilder()
+				.registerTypeAdapter(Date.class, new DateStringTypeAdapter())
+				.registerTypeAdapter(Boolean.class, new BooleanTypeAdapter())
+				.registerTypeAdapter(boolean.class, new BooleanTypeAdapter())
+				.registerTypeAdapter(Story.class, new StoryTypeAdapter())
+				.registerTypeAdapter(Comment.class, new CommentTypeAdapter())
+				.registerTypeAdapter(UserProfile.class, new UserProfileTypeAdapter())
+				.create();
+	}
+
+	private static Gson legacyGson() {
+		return new GsonBuilder()
+				.registerTypeAdapter(Date.class, new LegacyDateDeserializer())
+				.registerTypeAdapter(Boolean.class, new BooleanTypeAdapter())
+				.registerTypeAdapter(boolean.class, new BooleanTypeAdapter())
+				.registerTypeAdapter(Story.class, new LegacyStoryDeserializer())
+				.create();
+	}
+
+	private static String makePage(int count) {
+		StringBuilder content = new StringBuilder();
+		for (int i=0; i<40; i++) {
+			content.append("<p>Paragraph ").append(i).append(" of the story, with <a href=\"http://example.com/").append(i);
+			content.append("\">a link</a> and <b>some</b> <i>markup</i> &amp; entities.</p><img src=\"http://example.com/").append(i).append(".png\">");
+		}
+		String escaped = content.toString().replace("\"", "\\\"");
+
+		StringBuilder json = new StringBuilder("[");
+		for (int i=0; i<count; i++) {
+			if (i > 0) json.append(",");
+			json.append("{\"id\":\"http://example.com/story/").append(i).append("\",");
+			json.append("\"story_hash\":\"42:").append(Integer.toHexString(i)).append("\",");
+			json.append("\"story_feed_id\":42,");
+			json.append("\"story_title\":\"Story number ").append(i).append("\",");
+			json.append("\"story_permalink\":\"http://example.com/story/").append(i).append("\",");
+			json.append("\"story_authors\":\"Someone\",");
+			json.append("\"story_content\":\"").append(escaped).append("\",");
+			json.append("\"story_timestamp\":\"").append(1390000000 + i).append("\",");
+			json.append("\"story_date\":\"2014-01-17 23:06:40\",");
+			json.append("\"shared_date\":\"2014-01-18 01:02:03.123456\",");
+			json.append("\"short_parsed_date\":\"17 Jan 2014, 11:06pm\",");
+			json.append("\"long_parsed_date\":\"Friday, January 17th 11:06pm\",");
+			json.append("\"read_status\":").append(i % 2).append(",");
+			json.append("\"starred\":false,");
+			json.append("\"story_tags\":[\"one\",\"two\",\"three\"],");
+			json.append("\"image_urls\":[\"http://example.com/1.png\"],");
+			json.append("\"share_count\":1,\"comment_count\":1,");
+			json.append("\"share_user_ids\":[1,2],\"shared_by_friends\":[1],\"shared_by_public\":[2],");
+			json.append("\"friend_comments\":[{\"user_id\":1,\"comments\":\"Nice\",\"liking_users\":[2],\"shared_date\":\"2 hours ago\",\"date\":\"2014-01-18 01:02:03\",\"replies\":[]}],");
+			json.append("\"public_comments\":[],");
+			json.append("\"intelligence\":{\"feed\":1,\"author\":0,\"tags\":0,\"title\":0}}");
+		}
+		json.append("]");
+		return json.toString();
+	}
+
+	/**
+	 * The story binding as it was before the streaming adapters.
+	 */
+	private static class LegacyStoryDeserializer implements JsonDeserializer<Story> {
+		private final static Gson gson = new GsonBuilder()
+				.registerTypeAdapter(Date.class, new LegacyDateDeserializer())
+				.registerTypeAdapter(Boolean.class, new BooleanTypeAdapter())
+				.registerTypeAdapter(boolean.class, new BooleanTypeAdapter())
+				.create();
+
+		private final static Pattern ShortContentExcludes = Pattern.compile("[\\uFFFC\\u000A\\u000B\\u000C\\u000D]");
+
+		@Override
+		public Story deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext context) throws JsonParseException {
+			Story story = gson.fromJson(jsonElement, Story.class);
+			story.timestamp = story.timestamp * 1000;
+			if (story.content != null) {
+				CharSequence parsed = Html.fromHtml(story.content).toString();
+				int length = 200;
+				if (parsed.length() < 200) { length = parsed.length(); }
+				story.shortContent = parsed.subSequence(0, length).toString();
+				Matcher m = ShortContentExcludes.matcher(story.shortContent);
+				story.shortContent = m.replaceAll(" ").trim();
+			}
+			return story;
+		}
+	}
+
+	/**
+	 * The date binding as it was before FixedDateParser.
+	 */
+	private static class LegacyDateDeserializer implements JsonDeserializer<Date> {
+		private final DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+		@Override
+		public Date deserialize(JsonElement element, Type type, JsonDeserializationContext context) throws JsonParseException {
+			try {
+				String dateString = element.getAsString();
+				if (dateString.length() > 19) {
+					dateString = dateString.substring(0, 19);
+				}
+				return df.parse(dateString);
+			} catch (ParseException e) {
+				return new Date();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package com.newsblur.test.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.ServiceTestCase;
+import android.util.Log;
+
+import com.newsblur.database.BlurDatabase;
+import com.newsblur.database.DatabaseConstants;
+import com.newsblur.database.FeedProvider;
+import com.newsblur.network.APIManager;
+import com.newsblur.service.NBSyncService;
+import com.newsblur.service.SyncMetrics;
+import com.newsblur.test.network.FakeNewsBlurServer;
+import com.newsblur.util.AppConstants;
+import com.newsblur.util.PrefConstants;
+import com.newsblur.util.StoryOrder;
+
+/**
+ * Times complete runs of the sync service against a FakeNewsBlurServer, from an empty DB,
+ * under a few network conditions.  The per-phase breakdown from SyncMetrics is logged for
+ * each run.  Optionally, the folder list and story list are loaded over and over, as the UI
+ * would while a sync is running, to see how long those loads wait on the sync's writes.
+ *
+ * Like FolderProviderTest, this works on the app's own DB and prefs, so any real data on
+ * the device will be lost.
+ */
+public class SyncBenchmark extends ServiceTestCase<NBSyncService> {
+
+	private static final String TAG = "SyncBenchmark";
+
+	private static final long SYNC_TIMEOUT_MILLIS = 5L * 60L * 1000L;
+	private static final long LOAD_INTERVAL_MILLIS = 50L;
+
+	private FakeNewsBlurServer server;
+
+	public SyncBenchmark() {
+		super(NBSyncService.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// background sync must be on, or the service won't do anything without an activity
+		SharedPreferences prefs = getContext().getSharedPreferences(PrefConstants.PREFERENCES, 0);
+		prefs.edit()
+			.putBoolean(PrefConstants.ENABLE_OFFLINE, true)
+			.putString(PrefConstants.NETWORK_SELECT, PrefConstants.NETWORK_SELECT_ANY)
+			.commit();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		APIManager.setBaseUrlOverride(null);
+		if (server != null) server.stop();
+		super.tearDown();
+	}
+
+	public void testCleanSync() throws Exception {
+		runSync("clean", new FakeNewsBlurServer.Faults(), false);
+	}
+
+	public void testCleanSyncWithLoads() throws Exception {
+		runSync("clean, with UI loads", new FakeNewsBlurServer.Faults(), true);
+	}
+
+	public void testSlowSync() throws Exception {
+		FakeNewsBlurServer.Faults faults = new FakeNewsBlurServer.Faults();
+		faults.latencyMillis = 200L;
+		faults.latencyJitterMillis = 100L;
+		faults.bytesPerSecond = 512L * 1024L;
+		runSync("200ms+jitter latency, 512KB/s", faults, false);
+	}
+
+	public void testFlakySync() throws Exception {
+		FakeNewsBlurServer.Faults faults = new FakeNewsBlurServer.Faults();
+		faults.serverErrorRate = 0.05d;
+		faults.unavailableRate = 0.02d;
+		faults.resetRate = 0.02d;
+		runSync("5% 500s, 2% 503s, 2% resets", faults, false);
+	}
+
+	private void runSync(String name, FakeNewsBlurServer.Faults faults, boolean withLoads) throws Exception {
+		BlurDatabase.dropAndRecreateTables(getContext());
+		server = new FakeNewsBlurServer(new FakeNewsBlurServer.Fixtures(), faults);
+		server.start();
+		APIManager.setBaseUrlOverride(server.getBaseUrl());
+
+		UiLoader loader = null;
+		if (withLoads) {
+			loader = new UiLoader();
+			loader.start();
+		}
+
+		long requested = System.currentTimeMillis();
+		NBSyncService.forceFeedsFolders();
+		startService(new Intent(getContext(), NBSyncService.class));
+
+		SyncMetrics.SyncRun run = null;
+		long deadline = requested + SYNC_TIMEOUT_MILLIS;
+		while ((run == null) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(100L);
+			run = findRunSince(requested);
+		}
+		if (loader != null) {
+			loader.interrupt();
+			loader.join();
+		}
+		assertNotNull("sync did not finish in time", run);
+
+		Log.i(TAG, name + ": " + (System.currentTimeMillis() - requested) + "ms until finished");
+		for (String line : run.toString().split("\n")) {
+			Log.i(TAG, "  " + line);
+		}
+		Log.i(TAG, "  server: " + server.getStats());
+		for (SyncMetrics.EndpointTraffic t : SyncMetrics.getTraffic()) {
+			Log.i(TAG, "  " + t.toString());
+		}
+		if (loader != null) {
+			Log.i(TAG, "  UI loads: " + loader.getSummary());
+		}
+	}
+
+	/**
+	 * Loads what the main screens show, through the provider just as their loaders do, until
+	 * interrupted, noting how long each load took.
+	 */
+	private class UiLoader extends Thread {
+		private final List<Long> loadMillis = new ArrayList<Long>();
+
+		public void run() {
+			while (!isInterrupted()) {
+				load(FeedProvider.FOLDERS_URI, null, new String[] { DatabaseConstants.getFolderSelectionFromState(AppConstants.STATE_SOME) }, null);
+				load(FeedProvider.ALL_STORIES_URI, DatabaseConstants.getStorySelectionFromState(AppConstants.STATE_SOME), null, DatabaseConstants.getStorySortOrder(StoryOrder.NEWEST));
+				try {
+					Thread.sleep(LOAD_INTERVAL_MILLIS);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		}
+
+		private void load(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+			long startTime = System.currentTimeMillis();
+			Cursor c = getContext().getContentResolver().query(uri, null, selection, selectionArgs, sortOrder);
+			if (c != null) c.close();
+			synchronized (loadMillis) {
+				loadMillis.add(System.currentTimeMillis() - startTime);
+			}
+		}
+
+		String getSummary() {
+			List<Long> sorted;
+			synchronized (loadMillis) {
+				sorted = new ArrayList<Long>(loadMillis);
+			}
+			if (sorted.size() < 1) return "none";
+			Collections.sort(sorted);
+			return sorted.size() + " loads, median " + sorted.get(sorted.size() / 2) + "ms, " +
+			       "95th percentile " + sorted.get((sorted.size() * 95) / 100) + "ms, " +
+			       "max " + sorted.get(sorted.size() - 1) + "ms";
+		}
+	}
+
+	private static SyncMetrics.SyncRun findRunSince(long time) {
+		List<SyncMetrics.SyncRun> runs = SyncMetrics.getHistory();
+		for (int i=runs.size()-1; i>=0; i--) {
+			if (runs.get(i).getStartTime() >= time) return runs.get(i);
+		}
+		return null;
+	}
+
+}